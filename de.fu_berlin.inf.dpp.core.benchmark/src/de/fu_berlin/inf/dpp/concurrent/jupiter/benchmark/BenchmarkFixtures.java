@@ -0,0 +1,71 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.filesystem.IPath;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.session.User;
+
+/**
+ * Creates the session objects the Jupiter classes need to operate but which are
+ * irrelevant for the measurements. No mocking library is used so the benchmarks
+ * do not depend on the test libraries of the core.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+        // NOP
+    }
+
+    static User createUser(int id, boolean isHost) {
+        return new User(new JID("user" + id + "@saros-bench/Saros"), isHost,
+            false, id, id);
+    }
+
+    static SPath createPath(String name) {
+        return new SPath(createStub(IProject.class, name), createStub(
+            IPath.class, name));
+    }
+
+    /**
+     * Returns an object that implements the given interface with methods that
+     * only return the default value of their return type. The methods of
+     * {@link Object} behave as for any other object.
+     */
+    private static <T> T createStub(Class<T> clazz, final String name) {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(),
+            new Class<?>[] { clazz }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String methodName = method.getName();
+
+                    if (methodName.equals("equals"))
+                        return proxy == args[0];
+
+                    if (methodName.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+
+                    if (methodName.equals("toString"))
+                        return name;
+
+                    Class<?> returnType = method.getReturnType();
+
+                    if (returnType == boolean.class)
+                        return Boolean.FALSE;
+
+                    if (returnType == int.class)
+                        return Integer.valueOf(0);
+
+                    if (returnType == long.class)
+                        return Long.valueOf(0);
+
+                    return null;
+                }
+            }));
+    }
+}
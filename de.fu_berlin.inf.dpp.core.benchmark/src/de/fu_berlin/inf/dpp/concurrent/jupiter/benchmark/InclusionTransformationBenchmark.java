@@ -0,0 +1,92 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu_berlin.inf.dpp.concurrent.jupiter.InclusionTransformation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
+
+/**
+ * Measures a single call of
+ * {@link GOTOInclusionTransformation#transform(Operation, Operation, Object)}
+ * for the different combinations of operation types that occur while editing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class InclusionTransformationBenchmark {
+
+    /**
+     * The kind of the transformed operation and the operation it is
+     * transformed against, e.g <code>insert-delete</code> transforms an insert
+     * operation against a delete operation.
+     */
+    @Param({ "insert-insert", "insert-delete", "delete-insert",
+        "delete-delete", "insert-split", "split-insert" })
+    public String kind;
+
+    /**
+     * Whether both operations touch the same region of the document which
+     * forces the transformation to split or shorten the operations.
+     */
+    @Param({ "false", "true" })
+    public boolean overlapping;
+
+    private InclusionTransformation inclusion;
+
+    private Operation op1;
+
+    private Operation op2;
+
+    @Setup
+    public void setUp() {
+        inclusion = new GOTOInclusionTransformation();
+
+        String[] kinds = kind.split("-");
+
+        op1 = createOperation(kinds[0], 100);
+        op2 = createOperation(kinds[1], overlapping ? 104 : 200);
+    }
+
+    @Benchmark
+    public Operation transform() {
+        return inclusion.transform(op1, op2, Boolean.TRUE);
+    }
+
+    @Benchmark
+    public int transformIndex() {
+        return inclusion.transformIndex(108, op2, Boolean.TRUE);
+    }
+
+    private static Operation createOperation(String kind, int position) {
+        if (kind.equals("insert"))
+            return new InsertOperation(position, "benchmark");
+
+        if (kind.equals("delete"))
+            return new DeleteOperation(position, "benchmark");
+
+        if (kind.equals("split"))
+            return new SplitOperation(new DeleteOperation(position,
+                "benchmark"), new InsertOperation(position, "replacement"));
+
+        throw new IllegalArgumentException("unknown operation kind: " + kind);
+    }
+}
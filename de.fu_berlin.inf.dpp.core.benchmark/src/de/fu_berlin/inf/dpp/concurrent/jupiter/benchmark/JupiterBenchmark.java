@@ -0,0 +1,109 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.business.JupiterActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.Jupiter;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.session.User;
+
+/**
+ * Measures {@link Jupiter#receiveJupiterActivity(JupiterActivity)} on the client
+ * side while the local user has typed a number of characters the server has not
+ * acknowledged yet.
+ * 
+ * Receiving an operation changes the state of the Jupiter instance, so every
+ * iteration starts with a fresh backlog and measures a batch of
+ * {@value #BATCH_SIZE} received operations. The remote user alternately inserts
+ * and deletes a character at the start of the document so the backlog is
+ * always transformed but never acknowledged.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = JupiterBenchmark.BATCH_SIZE)
+@Measurement(iterations = 50, batchSize = JupiterBenchmark.BATCH_SIZE)
+@Fork(1)
+public class JupiterBenchmark {
+
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * Offset of the locally typed text, far behind the edits of the remote
+     * user.
+     */
+    private static final int LOCAL_OFFSET = 1000;
+
+    /**
+     * Number of local operations that are not acknowledged by the server.
+     */
+    @Param({ "1", "16", "256", "4096" })
+    public int ackDepth;
+
+    /**
+     * Whether consecutive local operations are composed into one operation.
+     * 
+     * @see Jupiter#Jupiter(boolean, boolean)
+     */
+    @Param({ "false", "true" })
+    public boolean compose;
+
+    private Jupiter client;
+
+    private User remoteUser;
+
+    private SPath path;
+
+    private int remoteOperationCount;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        User localUser = BenchmarkFixtures.createUser(1, false);
+        remoteUser = BenchmarkFixtures.createUser(0, true);
+        path = BenchmarkFixtures.createPath("Benchmark.java");
+
+        client = new Jupiter(true, compose);
+
+        for (int i = 0; i < ackDepth; i++)
+            client.generateJupiterActivity(new InsertOperation(LOCAL_OFFSET
+                + i, "a"), localUser, path);
+
+        remoteOperationCount = 0;
+    }
+
+    @Benchmark
+    public Operation receive() throws TransformationException {
+        Operation op;
+
+        if (remoteOperationCount % 2 == 0)
+            op = new InsertOperation(0, "x");
+        else
+            op = new DeleteOperation(0, "x");
+
+        // none of the local operations has been seen by the server
+        JupiterActivity activity = new JupiterActivity(new JupiterVectorTime(
+            remoteOperationCount, 0), op, remoteUser, path);
+
+        remoteOperationCount++;
+
+        return client.receiveJupiterActivity(activity);
+    }
+}
@@ -0,0 +1,101 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.business.JupiterActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterDocumentServer;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.session.User;
+
+/**
+ * Measures {@link JupiterDocumentServer#transformJupiterActivity(JupiterActivity)}
+ * for a growing number of proxies, i.e users that have the document open.
+ * 
+ * The users type in turns. Every user is simulated as if it received all
+ * operations of the server before typing, so only its vector time has to be
+ * tracked and the backlog of each proxy never exceeds the number of users.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JupiterDocumentServerBenchmark {
+
+    @Param({ "2", "4", "8", "16", "32" })
+    public int proxies;
+
+    private JupiterDocumentServer server;
+
+    private SPath path;
+
+    private User[] users;
+
+    /** operations generated by each user */
+    private int[] localCounts;
+
+    /** operations each user received from the server */
+    private int[] remoteCounts;
+
+    private int nextUser;
+
+    @Setup
+    public void setUp() {
+        path = BenchmarkFixtures.createPath("Benchmark.java");
+        server = new JupiterDocumentServer(path);
+
+        users = new User[proxies];
+        localCounts = new int[proxies];
+        remoteCounts = new int[proxies];
+
+        for (int i = 0; i < proxies; i++) {
+            users[i] = BenchmarkFixtures.createUser(i, i == 0);
+            server.addProxyClient(users[i].getJID());
+        }
+
+        nextUser = 0;
+    }
+
+    @Benchmark
+    public Map<JID, JupiterActivity> transformJupiterActivity()
+        throws TransformationException {
+
+        int source = nextUser;
+
+        nextUser = (nextUser + 1) % proxies;
+
+        JupiterActivity activity = new JupiterActivity(new JupiterVectorTime(
+            localCounts[source], remoteCounts[source]), new InsertOperation(0,
+            "x"), users[source], path);
+
+        localCounts[source]++;
+
+        Map<JID, JupiterActivity> result = server
+            .transformJupiterActivity(activity);
+
+        for (int i = 0; i < proxies; i++) {
+            if (i != source)
+                remoteCounts[i]++;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Timestamp;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.Jupiter;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.session.User;
+
+/**
+ * Measures {@link Jupiter#transformIndices(Timestamp, int[])} which is used to
+ * transform the selections and viewports of remote users against the local
+ * operations the server has not acknowledged yet.
+ * 
+ * The timestamp acknowledges none of the local operations, so the state of the
+ * Jupiter instance does not change between the invocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TransformIndicesBenchmark {
+
+    /**
+     * Number of local operations that are not acknowledged by the server.
+     */
+    @Param({ "1", "16", "256", "4096" })
+    public int ackDepth;
+
+    @Param({ "false", "true" })
+    public boolean compose;
+
+    private Jupiter client;
+
+    private Timestamp timestamp;
+
+    private int[] indices;
+
+    @Setup
+    public void setUp() {
+        User localUser = BenchmarkFixtures.createUser(1, false);
+        SPath path = BenchmarkFixtures.createPath("Benchmark.java");
+
+        client = new Jupiter(true, compose);
+
+        for (int i = 0; i < ackDepth; i++)
+            client.generateJupiterActivity(new InsertOperation(i, "a"),
+                localUser, path);
+
+        timestamp = new JupiterVectorTime(0, 0);
+
+        // offset and length of a selection, as sent by a TextSelectionActivity
+        indices = new int[] { 10, 20 };
+    }
+
+    @Benchmark
+    public int[] transformIndices() throws TransformationException {
+        return client.transformIndices(timestamp, indices);
+    }
+}
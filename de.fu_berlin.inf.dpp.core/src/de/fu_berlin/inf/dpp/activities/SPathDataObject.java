@@ -80,6 +80,24 @@ public class SPathDataObject {
         return projectID;
     }
 
+    /**
+     * Returns the project relative path in its string representation.
+     * 
+     * @return the path, may be <code>null</code>
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the editor type of the associated SPath.
+     * 
+     * @return the editor type, may be <code>null</code>
+     */
+    public String getEditorType() {
+        return editorType;
+    }
+
     @Override
     public String toString() {
         return "SPathDataObject [editorType=" + editorType + ", path="
@@ -21,6 +21,7 @@ package de.fu_berlin.inf.dpp.activities.business;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.ObjectUtils;
 
@@ -31,6 +32,8 @@ import de.fu_berlin.inf.dpp.activities.serializable.IActivityDataObject;
 import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
+import de.fu_berlin.inf.dpp.util.BlockDelta;
+import de.fu_berlin.inf.dpp.util.TextDelta;
 
 /**
  * A Checksum Error is a notification sent to the host by a user who wants
@@ -44,11 +47,31 @@ public class ChecksumErrorActivity extends AbstractActivity implements
     ITargetedActivity {
 
     protected List<SPath> paths;
+    protected Map<SPath, byte[]> signatures;
+    protected Map<SPath, byte[]> textSignatures;
     protected String recoveryID;
     private User target;
 
     public ChecksumErrorActivity(User source, User target, List<SPath> paths,
         String recoveryID) {
+        this(source, target, paths, null, null, recoveryID);
+    }
+
+    /**
+     * @param signatures
+     *            the {@linkplain BlockDelta#createSignature block signatures}
+     *            of the local copies of the given paths, allows the host to
+     *            only send the differences, may be <code>null</code> or only
+     *            contain some of the paths
+     * @param textSignatures
+     *            the {@linkplain TextDelta#createSignature text signatures} of
+     *            the local documents of the given paths, allows the host to
+     *            only replace the divergent region of the documents, may be
+     *            <code>null</code> or only contain some of the paths
+     */
+    public ChecksumErrorActivity(User source, User target, List<SPath> paths,
+        Map<SPath, byte[]> signatures, Map<SPath, byte[]> textSignatures,
+        String recoveryID) {
 
         super(source);
 
@@ -57,6 +80,8 @@ public class ChecksumErrorActivity extends AbstractActivity implements
 
         this.target = target;
         this.paths = paths;
+        this.signatures = signatures;
+        this.textSignatures = textSignatures;
         this.recoveryID = recoveryID;
     }
 
@@ -64,6 +89,26 @@ public class ChecksumErrorActivity extends AbstractActivity implements
         return paths;
     }
 
+    /**
+     * Returns the block signature of the local copy of the given path of the
+     * user that sent this Activity.
+     * 
+     * @return the signature or <code>null</code> if no signature was sent
+     */
+    public byte[] getSignature(SPath path) {
+        return signatures == null ? null : signatures.get(path);
+    }
+
+    /**
+     * Returns the text signature of the local document of the given path of
+     * the user that sent this Activity.
+     * 
+     * @return the signature or <code>null</code> if no text signature was sent
+     */
+    public byte[] getTextSignature(SPath path) {
+        return textSignatures == null ? null : textSignatures.get(path);
+    }
+
     /**
      * Each ChecksumError has a unique ID, which should be used to identify a
      * recovery session
@@ -81,15 +126,30 @@ public class ChecksumErrorActivity extends AbstractActivity implements
     public IActivityDataObject getActivityDataObject(
         ISarosSession sarosSession, IPathFactory pathFactory) {
         ArrayList<SPathDataObject> dataObjectPaths = null;
+        ArrayList<byte[]> dataObjectSignatures = null;
+        ArrayList<byte[]> dataObjectTextSignatures = null;
         if (this.paths != null) {
             dataObjectPaths = new ArrayList<SPathDataObject>();
             for (SPath path : this.paths) {
                 dataObjectPaths.add(path.toSPathDataObject(sarosSession,
                     pathFactory));
             }
+
+            if (this.signatures != null) {
+                dataObjectSignatures = new ArrayList<byte[]>();
+                for (SPath path : this.paths)
+                    dataObjectSignatures.add(this.signatures.get(path));
+            }
+
+            if (this.textSignatures != null) {
+                dataObjectTextSignatures = new ArrayList<byte[]>();
+                for (SPath path : this.paths)
+                    dataObjectTextSignatures.add(this.textSignatures.get(path));
+            }
         }
         return new ChecksumErrorActivityDataObject(getSource().getJID(),
-            target.getJID(), dataObjectPaths, recoveryID);
+            target.getJID(), dataObjectPaths, dataObjectSignatures,
+            dataObjectTextSignatures, recoveryID);
     }
 
     @Override
@@ -1,11 +1,15 @@
 package de.fu_berlin.inf.dpp.activities.business;
 
+import org.apache.commons.lang.ObjectUtils;
+
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.serializable.IActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.RecoveryFileActivityDataObject;
 import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
+import de.fu_berlin.inf.dpp.util.BlockDelta;
+import de.fu_berlin.inf.dpp.util.TextDelta;
 
 /**
  * Subclass of FileActivity that is used during the Recovery-Process and allows
@@ -19,17 +23,53 @@ import de.fu_berlin.inf.dpp.session.User;
 public class RecoveryFileActivity extends FileActivity implements
     ITargetedActivity {
 
+    /**
+     * Describes how the {@linkplain #getContents() contents} of a
+     * RecoveryFileActivity must be interpreted.
+     */
+    public static enum DataType {
+        /** the new content of the file */
+        CONTENT,
+        /** a {@link BlockDelta} against the current content of the file */
+        BLOCK_DELTA,
+        /**
+         * an encoded {@link TextDelta} against the current text of the
+         * document of the file
+         */
+        TEXT_DELTA
+    }
+
     private User target;
 
+    private final DataType dataType;
+
     public RecoveryFileActivity(User source, User target, Type type,
         SPath newPath, SPath oldPath, byte[] data) {
+        this(source, target, type, newPath, oldPath, data, DataType.CONTENT);
+    }
+
+    /**
+     * @param dataType
+     *            how the data must be interpreted, deltas are only valid for
+     *            {@link Type#CREATED}
+     */
+    public RecoveryFileActivity(User source, User target, Type type,
+        SPath newPath, SPath oldPath, byte[] data, DataType dataType) {
 
         super(source, type, newPath, oldPath, data, Purpose.RECOVERY);
 
         if (target == null)
             throw new IllegalArgumentException("target must not be null");
 
+        if (dataType == null)
+            throw new IllegalArgumentException("data type must not be null");
+
+        if (dataType != DataType.CONTENT && type != Type.CREATED)
+            throw new IllegalArgumentException(
+                "only created files can be sent as delta");
+
         this.target = target;
+        this.dataType = dataType;
     }
 
     @Override
@@ -37,13 +77,50 @@ public class RecoveryFileActivity extends FileActivity implements
         return target;
     }
 
+    /**
+     * Returns whether the {@linkplain #getContents() contents} of this
+     * Activity are the new content of the file or a delta against its current
+     * content.
+     */
+    public DataType getDataType() {
+        return dataType;
+    }
+
     @Override
     public IActivityDataObject getActivityDataObject(
         ISarosSession sarosSession, IPathFactory pathFactory) {
         return new RecoveryFileActivityDataObject(source.getJID(),
             target.getJID(), type, newPath.toSPathDataObject(sarosSession,
                 pathFactory), (oldPath != null ? oldPath.toSPathDataObject(
-                sarosSession, pathFactory) : null), data);
+                sarosSession, pathFactory) : null), data, dataType);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + ObjectUtils.hashCode(target);
+        result = prime * result + dataType.hashCode();
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (!(obj instanceof RecoveryFileActivity))
+            return false;
+
+        RecoveryFileActivity other = (RecoveryFileActivity) obj;
+
+        if (this.dataType != other.dataType)
+            return false;
+        if (!ObjectUtils.equals(this.target, other.target))
+            return false;
+
+        return true;
     }
 
     /**
@@ -71,6 +148,53 @@ public class RecoveryFileActivity extends FileActivity implements
         return createFromFileActivity(fileActivity, target);
     }
 
+    /**
+     * Utility method for creating a RecoveryFileActivity of type
+     * {@link FileActivity.Type#CREATED} that carries a {@link BlockDelta}
+     * instead of the complete content. This Method is used if the target sent
+     * the block signature of its copy of the file.
+     * 
+     * @param source
+     *            The User that has created this Activity.
+     * @param path
+     *            The SPath of the affected resource.
+     * @param delta
+     *            the delta between the content of the target and the content
+     *            of the file denoted by the path
+     * @param target
+     *            The User this Activity will be send to.
+     */
+    public static RecoveryFileActivity delta(User source, SPath path,
+        byte[] delta, User target) {
+
+        return new RecoveryFileActivity(source, target, Type.CREATED, path,
+            null, delta, DataType.BLOCK_DELTA);
+    }
+
+    /**
+     * Utility method for creating a RecoveryFileActivity of type
+     * {@link FileActivity.Type#CREATED} that carries a {@link TextDelta}
+     * instead of the complete content. This Method is used if the target sent
+     * the text signature of its document so only the divergent region has to
+     * be replaced.
+     * 
+     * @param source
+     *            The User that has created this Activity.
+     * @param path
+     *            The SPath of the affected resource.
+     * @param delta
+     *            the delta between the document of the target and the
+     *            document of the file denoted by the path
+     * @param target
+     *            The User this Activity will be send to.
+     */
+    public static RecoveryFileActivity textDelta(User source, SPath path,
+        TextDelta delta, User target) {
+
+        return new RecoveryFileActivity(source, target, Type.CREATED, path,
+            null, delta.encode(), DataType.TEXT_DELTA);
+    }
+
     /**
      * Utility method for creating a RecoveryFileActivity of type
      * {@link FileActivity.Type#REMOVED} for a given path.
@@ -160,6 +160,61 @@ public class TextEditActivity extends AbstractActivity implements
         return false;
     }
 
+    /**
+     * Combines this TextEditActivity with the given one that was performed
+     * directly afterwards into a single TextEditActivity. This is only possible
+     * if both activities were caused by the same user in the same document and
+     * the second edit continues the first one, i.e. text is typed behind the
+     * text that was inserted before, characters are removed with backspace or
+     * delete next to the previous edit.
+     * 
+     * @param next
+     *            the TextEditActivity that was performed after this one
+     * @return the combined TextEditActivity or <code>null</code> if both
+     *         activities cannot be combined
+     */
+    public TextEditActivity coalesce(TextEditActivity next) {
+        if (!ObjectUtils.equals(getSource(), next.getSource())
+            || !path.equals(next.path))
+            return null;
+
+        int end = offset + text.length();
+
+        boolean isInsert = next.replacedText.length() == 0;
+        boolean isDelete = next.text.length() == 0;
+
+        // typing behind the inserted text
+        if (isInsert && next.offset == end)
+            return new TextEditActivity(getSource(), offset, text + next.text,
+                replacedText, path);
+
+        if (!isDelete)
+            return null;
+
+        int nextEnd = next.offset + next.replacedText.length();
+
+        // removing (parts of) the inserted text from its end
+        if (nextEnd == end && next.offset >= offset
+            && text.endsWith(next.replacedText))
+            return new TextEditActivity(getSource(), offset, text.substring(0,
+                next.offset - offset), replacedText, path);
+
+        if (text.length() != 0)
+            return null;
+
+        // backspace in front of the removed text
+        if (nextEnd == offset)
+            return new TextEditActivity(getSource(), next.offset, "",
+                next.replacedText + replacedText, path);
+
+        // delete behind the removed text
+        if (next.offset == offset)
+            return new TextEditActivity(getSource(), offset, "", replacedText
+                + next.replacedText, path);
+
+        return null;
+    }
+
     /**
      * Convert this TextEditActivity to an Operation
      */
@@ -0,0 +1,799 @@
+package de.fu_berlin.inf.dpp.activities.serializable;
+
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.checkLength;
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.readUnsigned;
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.writeUnsigned;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import de.fu_berlin.inf.dpp.activities.SPathDataObject;
+import de.fu_berlin.inf.dpp.activities.business.EditorActivity;
+import de.fu_berlin.inf.dpp.activities.business.FileActivity;
+import de.fu_berlin.inf.dpp.activities.business.FolderActivity;
+import de.fu_berlin.inf.dpp.activities.business.ProgressActivity.ProgressAction;
+import de.fu_berlin.inf.dpp.activities.business.RecoveryFileActivity;
+import de.fu_berlin.inf.dpp.activities.business.StopActivity;
+import de.fu_berlin.inf.dpp.activities.business.VCSActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Timestamp;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.session.User.Permission;
+
+/**
+ * Compact binary representation of {@linkplain IActivityDataObject activity
+ * data objects} including the Jupiter operations and timestamps they carry.
+ * This codec is an alternative to the XStream based XML serialization and must
+ * only be used if the remote side announced support for the same
+ * {@link #VERSION}.
+ * <p>
+ * Every string (JIDs, project IDs, paths, ...) is written only once per
+ * encoded batch and referenced by its index afterwards. Integers are written
+ * as variable length quantities.
+ * <p>
+ * <b>Important:</b> enumeration values are encoded by their ordinal. Any change
+ * to the wire format, the type tags or one of the transported enumerations
+ * <b>must</b> increase the {@link #VERSION}.
+ */
+public final class ActivityDataObjectCodec {
+
+    /**
+     * The version of the binary format produced and understood by this codec.
+     */
+    public static final int VERSION = 3;
+
+    // activity data objects, never reuse a tag
+
+    private static final int CHANGE_COLOR = 1;
+    private static final int CHECKSUM = 2;
+    private static final int CHECKSUM_ERROR = 3;
+    private static final int EDITOR = 4;
+    private static final int FILE = 5;
+    private static final int FOLDER = 6;
+    private static final int JUPITER = 7;
+    private static final int NOP = 8;
+    private static final int PERMISSION = 9;
+    private static final int PROGRESS = 10;
+    private static final int RECOVERY_FILE = 11;
+    private static final int SHARE_CONSOLE = 12;
+    private static final int START_FOLLOWING = 13;
+    private static final int STOP = 14;
+    private static final int STOP_FOLLOWING = 15;
+    private static final int TEXT_SELECTION = 16;
+    private static final int VCS = 17;
+    private static final int VIEWPORT = 18;
+
+    // operations
+
+    private static final int NULL_OPERATION = 0;
+    private static final int INSERT_OPERATION = 1;
+    private static final int DELETE_OPERATION = 2;
+    private static final int SPLIT_OPERATION = 3;
+    private static final int NO_OPERATION = 4;
+    private static final int TIMESTAMP_OPERATION = 5;
+
+    // string table references
+
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+    private static final int STRING_REFERENCE_OFFSET = 2;
+
+    private final Map<String, Integer> writtenStrings = new HashMap<String, Integer>();
+
+    private final List<String> readStrings = new ArrayList<String>();
+
+    /**
+     * Encoded operations of the Jupiter activities, keyed by identity, may be
+     * <code>null</code>
+     */
+    private final Map<Operation, byte[]> encodedOperations;
+
+    private ActivityDataObjectCodec(Map<Operation, byte[]> encodedOperations) {
+        this.encodedOperations = encodedOperations;
+    }
+
+    /**
+     * Encodes the given activity data objects to the given output stream.
+     *
+     * @throws IOException
+     *             if an I/O error occurs or the list contains an activity data
+     *             object that is not supported by this codec
+     */
+    public static void encode(List<IActivityDataObject> activities,
+        DataOutputStream out) throws IOException {
+        encode(activities, out, null);
+    }
+
+    /**
+     * Same as {@link #encode(List, DataOutputStream)} but reuses the encoded
+     * form of the operations of Jupiter activities. The host transforms an
+     * operation once and creates a Jupiter activity with the same operation
+     * instance but its own timestamp for every remote user, so only the
+     * timestamps have to be encoded for each of them.
+     * <p>
+     * Operations are not written to the string table of a batch, so their
+     * encoded form can be shared between batches. The result is identical to
+     * the result of {@link #encode(List, DataOutputStream)}.
+     * 
+     * @param encodedOperations
+     *            an identity map that is shared between all encoded batches,
+     *            it is filled with the operations that are encoded for the
+     *            first time
+     */
+    public static void encode(List<IActivityDataObject> activities,
+        DataOutputStream out, Map<Operation, byte[]> encodedOperations)
+        throws IOException {
+
+        ActivityDataObjectCodec codec = new ActivityDataObjectCodec(
+            encodedOperations);
+
+        out.writeByte(VERSION);
+        codec.writeActivities(activities, out);
+    }
+
+    /**
+     * Decodes activity data objects that were previously encoded with
+     * {@link #encode}.
+     *
+     * @throws IOException
+     *             if an I/O error occurs, the data is malformed or was encoded
+     *             with a different {@link #VERSION}
+     */
+    public static List<IActivityDataObject> decode(DataInputStream in)
+        throws IOException {
+
+        int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported activity codec version: "
+                + version + ", expected: " + VERSION);
+
+        return new ActivityDataObjectCodec(null).readActivities(in);
+    }
+
+    private void writeActivities(List<? extends IActivityDataObject> activities,
+        DataOutputStream out) throws IOException {
+
+        writeUnsigned(activities.size(), out);
+
+        for (IActivityDataObject activity : activities)
+            writeActivity(activity, out);
+    }
+
+    private List<IActivityDataObject> readActivities(DataInputStream in)
+        throws IOException {
+
+        int size = readUnsigned(in);
+
+        List<IActivityDataObject> activities = new ArrayList<IActivityDataObject>(
+            Math.min(size, 1024));
+
+        for (int i = 0; i < size; i++)
+            activities.add(readActivity(in));
+
+        return activities;
+    }
+
+    private void writeActivity(IActivityDataObject activity,
+        DataOutputStream out) throws IOException {
+
+        Class<?> clazz = activity.getClass();
+
+        if (clazz == JupiterActivityDataObject.class) {
+            JupiterActivityDataObject jupiter = (JupiterActivityDataObject) activity;
+            out.writeByte(JUPITER);
+            writeProjectActivityHeader(jupiter, out);
+            writeTimestamp(jupiter.timestamp, out);
+            writeSharedOperation(jupiter.operation, out);
+        } else if (clazz == TextSelectionActivityDataObject.class) {
+            TextSelectionActivityDataObject selection = (TextSelectionActivityDataObject) activity;
+            out.writeByte(TEXT_SELECTION);
+            writeProjectActivityHeader(selection, out);
+            writeSigned(selection.getOffset(), out);
+            writeSigned(selection.getLength(), out);
+        } else if (clazz == ViewportActivityDataObject.class) {
+            ViewportActivityDataObject viewport = (ViewportActivityDataObject) activity;
+            out.writeByte(VIEWPORT);
+            writeProjectActivityHeader(viewport, out);
+            writeSigned(viewport.startLine, out);
+            writeSigned(viewport.numberOfLines, out);
+        } else if (clazz == ChecksumActivityDataObject.class) {
+            ChecksumActivityDataObject checksum = (ChecksumActivityDataObject) activity;
+            out.writeByte(CHECKSUM);
+            writeProjectActivityHeader(checksum, out);
+            out.writeLong(checksum.hash);
+            out.writeLong(checksum.length);
+            writeTimestamp(checksum.jupiterTimestamp, out);
+        } else if (clazz == EditorActivityDataObject.class) {
+            EditorActivityDataObject editor = (EditorActivityDataObject) activity;
+            out.writeByte(EDITOR);
+            writeProjectActivityHeader(editor, out);
+            writeEnum(editor.type, out);
+        } else if (clazz == RecoveryFileActivityDataObject.class) {
+            RecoveryFileActivityDataObject recovery = (RecoveryFileActivityDataObject) activity;
+            out.writeByte(RECOVERY_FILE);
+            writeProjectActivityHeader(recovery, out);
+            writeJID(recovery.target, out);
+            writeEnum(recovery.type, out);
+            writePath(recovery.oldPath, out);
+            writeBytes(recovery.data, out);
+            writeEnum(recovery.dataType, out);
+        } else if (clazz == FileActivityDataObject.class) {
+            FileActivityDataObject file = (FileActivityDataObject) activity;
+            out.writeByte(FILE);
+            writeProjectActivityHeader(file, out);
+            writeEnum(file.type, out);
+            writeEnum(file.purpose, out);
+            writePath(file.oldPath, out);
+            writeBytes(file.data, out);
+        } else if (clazz == FolderActivityDataObject.class) {
+            FolderActivityDataObject folder = (FolderActivityDataObject) activity;
+            out.writeByte(FOLDER);
+            writeProjectActivityHeader(folder, out);
+            writeEnum(folder.type, out);
+        } else if (clazz == VCSActivityDataObject.class) {
+            VCSActivityDataObject vcs = (VCSActivityDataObject) activity;
+            out.writeByte(VCS);
+            writeProjectActivityHeader(vcs, out);
+            writeEnum(vcs.type, out);
+            writeString(vcs.url, out);
+            writeString(vcs.directory, out);
+            writeString(vcs.param1, out);
+            out.writeBoolean(vcs.containedActivity != null);
+
+            if (vcs.containedActivity != null)
+                writeActivities(vcs.containedActivity, out);
+        } else if (clazz == ChangeColorActivityDataObject.class) {
+            ChangeColorActivityDataObject color = (ChangeColorActivityDataObject) activity;
+            out.writeByte(CHANGE_COLOR);
+            writeJID(color.getSource(), out);
+            writeJID(color.target, out);
+            writeJID(color.affected, out);
+            writeSigned(color.colorID, out);
+        } else if (clazz == ChecksumErrorActivityDataObject.class) {
+            ChecksumErrorActivityDataObject error = (ChecksumErrorActivityDataObject) activity;
+            out.writeByte(CHECKSUM_ERROR);
+            writeJID(error.getSource(), out);
+            writeJID(error.target, out);
+            writeString(error.recoveryID, out);
+            out.writeBoolean(error.paths != null);
+
+            if (error.paths != null) {
+                writeUnsigned(error.paths.size(), out);
+
+                for (SPathDataObject path : error.paths)
+                    writePath(path, out);
+
+                out.writeBoolean(error.signatures != null);
+
+                if (error.signatures != null) {
+                    for (byte[] signature : error.signatures)
+                        writeBytes(signature, out);
+                }
+
+                out.writeBoolean(error.textSignatures != null);
+
+                if (error.textSignatures != null) {
+                    for (byte[] signature : error.textSignatures)
+                        writeBytes(signature, out);
+                }
+            }
+        } else if (clazz == NOPActivityDataObject.class) {
+            NOPActivityDataObject nop = (NOPActivityDataObject) activity;
+            out.writeByte(NOP);
+            writeJID(nop.getSource(), out);
+            writeJID(nop.getTarget(), out);
+            writeSigned(nop.getID(), out);
+        } else if (clazz == PermissionActivityDataObject.class) {
+            PermissionActivityDataObject permission = (PermissionActivityDataObject) activity;
+            out.writeByte(PERMISSION);
+            writeJID(permission.getSource(), out);
+            writeJID(permission.affectedUser, out);
+            writeEnum(permission.permission, out);
+        } else if (clazz == ProgressActivityDataObject.class) {
+            ProgressActivityDataObject progress = (ProgressActivityDataObject) activity;
+            out.writeByte(PROGRESS);
+            writeJID(progress.getSource(), out);
+            writeJID(progress.target, out);
+            writeString(progress.progressID, out);
+            writeSigned(progress.workCurrent, out);
+            writeSigned(progress.workTotal, out);
+            writeString(progress.taskName, out);
+            writeEnum(progress.action, out);
+        } else if (clazz == ShareConsoleActivityDataObject.class) {
+            ShareConsoleActivityDataObject console = (ShareConsoleActivityDataObject) activity;
+            out.writeByte(SHARE_CONSOLE);
+            writeJID(console.getSource(), out);
+            writeString(console.getConsoleContent(), out);
+        } else if (clazz == StartFollowingActivityDataObject.class) {
+            StartFollowingActivityDataObject following = (StartFollowingActivityDataObject) activity;
+            out.writeByte(START_FOLLOWING);
+            writeJID(following.getSource(), out);
+            writeJID(following.target, out);
+        } else if (clazz == StopActivityDataObject.class) {
+            StopActivityDataObject stop = (StopActivityDataObject) activity;
+            out.writeByte(STOP);
+            writeJID(stop.getSource(), out);
+            writeJID(stop.initiator, out);
+            writeJID(stop.affected, out);
+            writeEnum(stop.type, out);
+            writeEnum(stop.state, out);
+            writeString(stop.stopActivityID, out);
+        } else if (clazz == StopFollowingActivityDataObject.class) {
+            out.writeByte(STOP_FOLLOWING);
+            writeJID(activity.getSource(), out);
+        } else {
+            throw new IOException("unsupported activity data object: "
+                + clazz.getName());
+        }
+    }
+
+    private IActivityDataObject readActivity(DataInputStream in)
+        throws IOException {
+
+        int type = in.readUnsignedByte();
+
+        switch (type) {
+        case JUPITER: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            Timestamp timestamp = readTimestamp(in);
+            Operation operation = readOperation(in);
+            return new JupiterActivityDataObject(timestamp, operation, source,
+                path);
+        }
+        case TEXT_SELECTION: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            int offset = readSigned(in);
+            int length = readSigned(in);
+            return new TextSelectionActivityDataObject(source, offset, length,
+                path);
+        }
+        case VIEWPORT: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            int startLine = readSigned(in);
+            int numberOfLines = readSigned(in);
+            return new ViewportActivityDataObject(source, startLine,
+                numberOfLines, path);
+        }
+        case CHECKSUM: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            long hash = in.readLong();
+            long length = in.readLong();
+            Timestamp timestamp = readTimestamp(in);
+            return new ChecksumActivityDataObject(source, path, hash, length,
+                timestamp);
+        }
+        case EDITOR: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            EditorActivity.Type editorType = readEnum(
+                EditorActivity.Type.values(), in);
+            return new EditorActivityDataObject(source, editorType, path);
+        }
+        case RECOVERY_FILE: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            JID target = readJID(in);
+            FileActivity.Type fileType = readEnum(FileActivity.Type.values(),
+                in);
+            SPathDataObject oldPath = readPath(in);
+            byte[] data = readBytes(in);
+            RecoveryFileActivity.DataType dataType = readEnum(
+                RecoveryFileActivity.DataType.values(), in);
+            return new RecoveryFileActivityDataObject(source, target,
+                fileType, path, oldPath, data, dataType);
+        }
+        case FILE: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            FileActivity.Type fileType = readEnum(FileActivity.Type.values(),
+                in);
+            FileActivity.Purpose purpose = readEnum(
+                FileActivity.Purpose.values(), in);
+            SPathDataObject oldPath = readPath(in);
+            byte[] data = readBytes(in);
+            return new FileActivityDataObject(source, fileType, path, oldPath,
+                data, purpose);
+        }
+        case FOLDER: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            FolderActivity.Type folderType = readEnum(
+                FolderActivity.Type.values(), in);
+            return new FolderActivityDataObject(source, folderType, path);
+        }
+        case VCS: {
+            JID source = readJID(in);
+            SPathDataObject path = readPath(in);
+            VCSActivity.Type vcsType = readEnum(VCSActivity.Type.values(), in);
+            String url = readString(in);
+            String directory = readString(in);
+            String param1 = readString(in);
+            Vector<IActivityDataObject> containedActivity = null;
+
+            if (in.readBoolean())
+                containedActivity = new Vector<IActivityDataObject>(
+                    readActivities(in));
+
+            return new VCSActivityDataObject(source, vcsType, url, path,
+                directory, param1, containedActivity);
+        }
+        case CHANGE_COLOR: {
+            JID source = readJID(in);
+            JID target = readJID(in);
+            JID affected = readJID(in);
+            int colorID = readSigned(in);
+            return new ChangeColorActivityDataObject(source, target, affected,
+                colorID);
+        }
+        case CHECKSUM_ERROR: {
+            JID source = readJID(in);
+            JID target = readJID(in);
+            String recoveryID = readString(in);
+            List<SPathDataObject> paths = null;
+            List<byte[]> signatures = null;
+            List<byte[]> textSignatures = null;
+
+            if (in.readBoolean()) {
+                int size = readUnsigned(in);
+                paths = new ArrayList<SPathDataObject>(Math.min(size, 1024));
+
+                for (int i = 0; i < size; i++)
+                    paths.add(readPath(in));
+
+                if (in.readBoolean()) {
+                    signatures = new ArrayList<byte[]>(paths.size());
+
+                    for (int i = 0; i < size; i++)
+                        signatures.add(readBytes(in));
+                }
+
+                if (in.readBoolean()) {
+                    textSignatures = new ArrayList<byte[]>(paths.size());
+
+                    for (int i = 0; i < size; i++)
+                        textSignatures.add(readBytes(in));
+                }
+            }
+
+            return new ChecksumErrorActivityDataObject(source, target, paths,
+                signatures, textSignatures, recoveryID);
+        }
+        case NOP: {
+            JID source = readJID(in);
+            JID target = readJID(in);
+            int id = readSigned(in);
+            return new NOPActivityDataObject(source, target, id);
+        }
+        case PERMISSION: {
+            JID source = readJID(in);
+            JID affectedUser = readJID(in);
+            Permission permission = readEnum(Permission.values(), in);
+            return new PermissionActivityDataObject(source, affectedUser,
+                permission);
+        }
+        case PROGRESS: {
+            JID source = readJID(in);
+            JID target = readJID(in);
+            String progressID = readString(in);
+            int workCurrent = readSigned(in);
+            int workTotal = readSigned(in);
+            String taskName = readString(in);
+            ProgressAction action = readEnum(ProgressAction.values(), in);
+            return new ProgressActivityDataObject(source, target, progressID,
+                workCurrent, workTotal, taskName, action);
+        }
+        case SHARE_CONSOLE: {
+            JID source = readJID(in);
+            String content = readString(in);
+            return new ShareConsoleActivityDataObject(source, content);
+        }
+        case START_FOLLOWING: {
+            JID source = readJID(in);
+            JID target = readJID(in);
+            return new StartFollowingActivityDataObject(source, target);
+        }
+        case STOP: {
+            JID source = readJID(in);
+            JID initiator = readJID(in);
+            JID affected = readJID(in);
+            StopActivity.Type stopType = readEnum(StopActivity.Type.values(),
+                in);
+            StopActivity.State state = readEnum(StopActivity.State.values(),
+                in);
+            String stopActivityID = readString(in);
+            return new StopActivityDataObject(source, initiator, affected,
+                stopType, state, stopActivityID);
+        }
+        case STOP_FOLLOWING:
+            return new StopFollowingActivityDataObject(readJID(in));
+        default:
+            throw new IOException("unknown activity data object type: " + type);
+        }
+    }
+
+    private void writeProjectActivityHeader(
+        AbstractProjectActivityDataObject activity, DataOutputStream out)
+        throws IOException {
+        writeJID(activity.getSource(), out);
+        writePath(activity.getPath(), out);
+    }
+
+    private void writeSharedOperation(Operation operation, DataOutputStream out)
+        throws IOException {
+
+        if (encodedOperations == null || operation == null) {
+            writeOperation(operation, out);
+            return;
+        }
+
+        byte[] encoded = encodedOperations.get(operation);
+
+        if (encoded == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            writeOperation(operation, new DataOutputStream(buffer));
+            encoded = buffer.toByteArray();
+            encodedOperations.put(operation, encoded);
+        }
+
+        out.write(encoded);
+    }
+
+    private void writeOperation(Operation operation, DataOutputStream out)
+        throws IOException {
+
+        if (operation == null) {
+            out.writeByte(NULL_OPERATION);
+        } else if (operation instanceof InsertOperation) {
+            InsertOperation insert = (InsertOperation) operation;
+            out.writeByte(INSERT_OPERATION);
+            writeUnsigned(insert.getPosition(), out);
+            writeUnsigned(insert.getOrigin(), out);
+            writeText(insert.getText(), out);
+        } else if (operation instanceof DeleteOperation) {
+            DeleteOperation delete = (DeleteOperation) operation;
+            out.writeByte(DELETE_OPERATION);
+            writeUnsigned(delete.getPosition(), out);
+            writeText(delete.getText(), out);
+        } else if (operation instanceof SplitOperation) {
+            SplitOperation split = (SplitOperation) operation;
+            out.writeByte(SPLIT_OPERATION);
+            writeOperation(split.getFirst(), out);
+            writeOperation(split.getSecond(), out);
+        } else if (operation instanceof NoOperation) {
+            out.writeByte(NO_OPERATION);
+        } else if (operation instanceof TimestampOperation) {
+            out.writeByte(TIMESTAMP_OPERATION);
+        } else {
+            throw new IOException("unsupported operation: "
+                + operation.getClass().getName());
+        }
+    }
+
+    private Operation readOperation(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+
+        try {
+            switch (type) {
+            case NULL_OPERATION:
+                return null;
+            case INSERT_OPERATION: {
+                int position = readUnsigned(in);
+                int origin = readUnsigned(in);
+                return new InsertOperation(position, readText(in), origin);
+            }
+            case DELETE_OPERATION: {
+                int position = readUnsigned(in);
+                return new DeleteOperation(position, readText(in));
+            }
+            case SPLIT_OPERATION: {
+                Operation first = readOperation(in);
+                return new SplitOperation(first, readOperation(in));
+            }
+            case NO_OPERATION:
+                return new NoOperation();
+            case TIMESTAMP_OPERATION:
+                return new TimestampOperation();
+            default:
+                throw new IOException("unknown operation type: " + type);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("malformed operation: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeTimestamp(Timestamp timestamp, DataOutputStream out)
+        throws IOException {
+
+        if (timestamp == null) {
+            out.writeBoolean(false);
+            return;
+        }
+
+        if (!(timestamp instanceof JupiterVectorTime))
+            throw new IOException("unsupported timestamp: "
+                + timestamp.getClass().getName());
+
+        JupiterVectorTime vectorTime = (JupiterVectorTime) timestamp;
+        out.writeBoolean(true);
+        writeUnsigned(vectorTime.getLocalOperationCount(), out);
+        writeUnsigned(vectorTime.getRemoteOperationCount(), out);
+    }
+
+    private Timestamp readTimestamp(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        int localOperationCount = readUnsigned(in);
+        int remoteOperationCount = readUnsigned(in);
+
+        return new JupiterVectorTime(localOperationCount, remoteOperationCount);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void writePath(SPathDataObject path, DataOutputStream out)
+        throws IOException {
+
+        out.writeBoolean(path != null);
+
+        if (path == null)
+            return;
+
+        writeString(path.getProjectID(), out);
+        writeString(path.getPath(), out);
+        writeString(path.getEditorType(), out);
+    }
+
+    private SPathDataObject readPath(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        String projectID = readString(in);
+        String path = readString(in);
+        String editorType = readString(in);
+
+        return new SPathDataObject(projectID, path, editorType);
+    }
+
+    private void writeJID(JID jid, DataOutputStream out) throws IOException {
+        writeString(jid == null ? null : jid.toString(), out);
+    }
+
+    private JID readJID(DataInputStream in) throws IOException {
+        String jid = readString(in);
+        return jid == null ? null : new JID(jid);
+    }
+
+    private void writeEnum(Enum<?> value, DataOutputStream out)
+        throws IOException {
+        writeUnsigned(value == null ? 0 : value.ordinal() + 1, out);
+    }
+
+    private <E extends Enum<E>> E readEnum(E[] values, DataInputStream in)
+        throws IOException {
+        int ordinal = readUnsigned(in);
+
+        if (ordinal == 0)
+            return null;
+
+        if (ordinal > values.length)
+            throw new IOException("unknown enum ordinal " + (ordinal - 1)
+                + " for type " + values.getClass().getComponentType().getName());
+
+        return values[ordinal - 1];
+    }
+
+    /**
+     * Writes a string using the string table of this codec. Use this method
+     * for values that are likely to occur more than once per batch.
+     */
+    private void writeString(String value, DataOutputStream out)
+        throws IOException {
+
+        if (value == null) {
+            writeUnsigned(NULL_STRING, out);
+            return;
+        }
+
+        Integer index = writtenStrings.get(value);
+
+        if (index != null) {
+            writeUnsigned(index + STRING_REFERENCE_OFFSET, out);
+            return;
+        }
+
+        writtenStrings.put(value, writtenStrings.size());
+        writeUnsigned(NEW_STRING, out);
+        writeText(value, out);
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int reference = readUnsigned(in);
+
+        if (reference == NULL_STRING)
+            return null;
+
+        if (reference == NEW_STRING) {
+            String value = readText(in);
+            readStrings.add(value);
+            return value;
+        }
+
+        int index = reference - STRING_REFERENCE_OFFSET;
+
+        if (index >= readStrings.size())
+            throw new IOException("invalid string reference: " + index);
+
+        return readStrings.get(index);
+    }
+
+    /**
+     * Writes a string without using the string table. Unlike
+     * {@link DataOutputStream#writeUTF(String)} the length of the string is
+     * not limited.
+     */
+    private static void writeText(String text, DataOutputStream out)
+        throws IOException {
+        writeBytes(text.getBytes("UTF-8"), out);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] data = readBytes(in);
+
+        if (data == null)
+            throw new IOException("malformed text");
+
+        return new String(data, "UTF-8");
+    }
+
+    private static void writeBytes(byte[] data, DataOutputStream out)
+        throws IOException {
+
+        if (data == null) {
+            writeUnsigned(0, out);
+            return;
+        }
+
+        writeUnsigned(data.length + 1, out);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = readUnsigned(in);
+
+        if (length == 0)
+            return null;
+
+        byte[] data = new byte[checkLength(length - 1, in)];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void writeSigned(int value, DataOutputStream out)
+        throws IOException {
+        // zig zag encoding, small negative values result in small numbers
+        writeUnsigned((value << 1) ^ (value >> 31), out);
+    }
+
+    private static int readSigned(DataInputStream in) throws IOException {
+        int value = readUnsigned(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -20,12 +20,15 @@
 package de.fu_berlin.inf.dpp.activities.serializable;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 import com.thoughtworks.xstream.annotations.XStreamConverter;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
 
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.SPathDataObject;
@@ -53,13 +56,48 @@ public class ChecksumErrorActivityDataObject extends AbstractActivityDataObject
     @XStreamImplicit
     protected List<SPathDataObject> paths;
 
+    /**
+     * The block signatures of the paths in the same order, entries are
+     * <code>null</code> for paths without signature. The signatures are only
+     * sent in the binary form of the {@link ActivityDataObjectCodec}, older
+     * versions reject the XML form if it contains unknown elements.
+     */
+    @XStreamOmitField
+    protected List<byte[]> signatures;
+
+    /**
+     * The text signatures of the paths in the same order, entries are
+     * <code>null</code> for paths without text signature. Like the
+     * {@link #signatures} they are only sent in the binary form.
+     */
+    @XStreamOmitField
+    protected List<byte[]> textSignatures;
+
     public ChecksumErrorActivityDataObject(JID source, JID target,
         List<SPathDataObject> paths, String recoveryID) {
+        this(source, target, paths, null, null, recoveryID);
+    }
+
+    public ChecksumErrorActivityDataObject(JID source, JID target,
+        List<SPathDataObject> paths, List<byte[]> signatures,
+        List<byte[]> textSignatures, String recoveryID) {
 
         super(source);
 
+        if (signatures != null
+            && (paths == null || paths.size() != signatures.size()))
+            throw new IllegalArgumentException(
+                "signatures do not match the paths");
+
+        if (textSignatures != null
+            && (paths == null || paths.size() != textSignatures.size()))
+            throw new IllegalArgumentException(
+                "text signatures do not match the paths");
+
         this.target = target;
         this.paths = paths;
+        this.signatures = signatures;
+        this.textSignatures = textSignatures;
         this.recoveryID = recoveryID;
     }
 
@@ -67,14 +105,34 @@ public class ChecksumErrorActivityDataObject extends AbstractActivityDataObject
     public IActivity getActivity(ISarosSession sarosSession,
         IPathFactory pathFactory) {
         ArrayList<SPath> sPaths = null;
+        Map<SPath, byte[]> sSignatures = null;
+        Map<SPath, byte[]> sTextSignatures = null;
         if (this.paths != null) {
             sPaths = new ArrayList<SPath>();
             for (SPathDataObject path : this.paths) {
                 sPaths.add(path.toSPath(sarosSession, pathFactory));
             }
+
+            if (this.signatures != null) {
+                sSignatures = new HashMap<SPath, byte[]>();
+                for (int i = 0; i < sPaths.size(); i++) {
+                    if (this.signatures.get(i) != null)
+                        sSignatures.put(sPaths.get(i), this.signatures.get(i));
+                }
+            }
+
+            if (this.textSignatures != null) {
+                sTextSignatures = new HashMap<SPath, byte[]>();
+                for (int i = 0; i < sPaths.size(); i++) {
+                    if (this.textSignatures.get(i) != null)
+                        sTextSignatures.put(sPaths.get(i),
+                            this.textSignatures.get(i));
+                }
+            }
         }
         return new ChecksumErrorActivity(sarosSession.getUser(getSource()),
-            sarosSession.getUser(target), sPaths, recoveryID);
+            sarosSession.getUser(target), sPaths, sSignatures,
+            sTextSignatures, recoveryID);
     }
 
     @Override
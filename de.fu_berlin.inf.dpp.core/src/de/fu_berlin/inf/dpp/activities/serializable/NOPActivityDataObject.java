@@ -21,6 +21,14 @@ public class NOPActivityDataObject extends AbstractActivityDataObject {
         this.id = id;
     }
 
+    public JID getTarget() {
+        return target;
+    }
+
+    public int getID() {
+        return id;
+    }
+
     @Override
     public IActivity getActivity(ISarosSession sarosSession,
         IPathFactory pathFactory) {
@@ -11,6 +11,7 @@ import de.fu_berlin.inf.dpp.activities.business.FileActivity.Purpose;
 import de.fu_berlin.inf.dpp.activities.business.FileActivity.Type;
 import de.fu_berlin.inf.dpp.activities.business.IActivity;
 import de.fu_berlin.inf.dpp.activities.business.RecoveryFileActivity;
+import de.fu_berlin.inf.dpp.activities.business.RecoveryFileActivity.DataType;
 import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
 import de.fu_berlin.inf.dpp.misc.xstream.JIDConverter;
 import de.fu_berlin.inf.dpp.net.JID;
@@ -29,12 +30,22 @@ public class RecoveryFileActivityDataObject extends FileActivityDataObject
     @XStreamConverter(JIDConverter.class)
     protected JID target;
 
+    @XStreamAsAttribute
+    protected DataType dataType;
+
     public RecoveryFileActivityDataObject(JID source, JID target, Type type,
         SPathDataObject newPath, SPathDataObject oldPath, byte[] data) {
+        this(source, target, type, newPath, oldPath, data, DataType.CONTENT);
+    }
+
+    public RecoveryFileActivityDataObject(JID source, JID target, Type type,
+        SPathDataObject newPath, SPathDataObject oldPath, byte[] data,
+        DataType dataType) {
 
         super(source, type, newPath, oldPath, data, Purpose.RECOVERY);
 
         this.target = target;
+        this.dataType = dataType;
     }
 
     @Override
@@ -43,7 +54,7 @@ public class RecoveryFileActivityDataObject extends FileActivityDataObject
         return new RecoveryFileActivity(sarosSession.getUser(getSource()),
             sarosSession.getUser(target), getType(), path.toSPath(sarosSession,
                 pathFactory), (oldPath != null ? oldPath.toSPath(sarosSession,
-                pathFactory) : null), data);
+                pathFactory) : null), data, dataType);
     }
 
     @Override
@@ -51,6 +62,7 @@ public class RecoveryFileActivityDataObject extends FileActivityDataObject
         final int prime = 31;
         int result = super.hashCode();
         result = prime * result + ObjectUtils.hashCode(target);
+        result = prime * result + ObjectUtils.hashCode(dataType);
         return result;
     }
 
@@ -67,6 +79,8 @@ public class RecoveryFileActivityDataObject extends FileActivityDataObject
 
         if (!ObjectUtils.equals(this.target, other.target))
             return false;
+        if (this.dataType != other.dataType)
+            return false;
 
         return true;
     }
@@ -19,6 +19,10 @@ public class ShareConsoleActivityDataObject extends AbstractActivityDataObject {
         this.consoleContent = content;
     }
 
+    public String getConsoleContent() {
+        return consoleContent;
+    }
+
     @Override
     public IActivity getActivity(ISarosSession sarosSession,
         IPathFactory pathFactory) {
@@ -52,6 +52,14 @@ public class TextSelectionActivityDataObject extends
         this.length = length;
     }
 
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -21,7 +21,6 @@
 package de.fu_berlin.inf.dpp.concurrent.jupiter.internal;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.undo.CannotRedoException;
@@ -37,7 +36,9 @@ import de.fu_berlin.inf.dpp.concurrent.jupiter.InclusionTransformation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.Timestamp;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
 import de.fu_berlin.inf.dpp.session.User;
@@ -76,15 +77,36 @@ public class Jupiter implements Algorithm {
     protected final List<OperationWrapper> ackJupiterActivityList;
 
     /**
-     * Class constructor that creates a new Jupiter algorithm.
+     * Flag indicating whether consecutive local operations in the
+     * {@link #ackJupiterActivityList} are composed into a single operation.
+     */
+    protected final boolean composeOperations;
+
+    /**
+     * Class constructor that creates a new Jupiter algorithm which composes
+     * unacknowledged operations.
      * 
      * @param isClientSide
      *            true if the algorithm resides on the client side
      */
     public Jupiter(boolean isClientSide) {
+        this(isClientSide, true);
+    }
+
+    /**
+     * Class constructor that creates a new Jupiter algorithm.
+     * 
+     * @param isClientSide
+     *            true if the algorithm resides on the client side
+     * @param composeOperations
+     *            true if consecutive unacknowledged operations should be
+     *            composed, see {@link #compose(Operation, Operation)}
+     */
+    public Jupiter(boolean isClientSide, boolean composeOperations) {
         this.inclusion = new GOTOInclusionTransformation();
         this.vectorTime = new JupiterVectorTime(0, 0);
         this.isClientSide = isClientSide;
+        this.composeOperations = composeOperations;
         this.ackJupiterActivityList = new ArrayList<OperationWrapper>();
     }
 
@@ -100,8 +122,9 @@ public class Jupiter implements Algorithm {
             op, source, editor);
 
         // add(op, myMsgs) to outgoing;
-        this.ackJupiterActivityList.add(new OperationWrapper(op,
-            this.vectorTime.getLocalOperationCount()));
+        if (!composeWithLastOperation(op))
+            this.ackJupiterActivityList.add(new OperationWrapper(op,
+                this.vectorTime.getLocalOperationCount()));
 
         // myMsgs = myMsgs + 1;
         this.vectorTime = this.vectorTime.incrementLocalOperationCount();
@@ -241,14 +264,28 @@ public class Jupiter implements Algorithm {
      *            the remote JupiterVectorTime
      */
     protected void discardAcknowledgedOperations(JupiterVectorTime time) {
-        Iterator<OperationWrapper> iter = this.ackJupiterActivityList
-            .iterator();
-        while (iter.hasNext()) {
-            OperationWrapper wrap = iter.next();
-            if (wrap.getLocalOperationCount() < time.getRemoteOperationCount()) {
-                iter.remove();
-            }
+        int remoteOperationCount = time.getRemoteOperationCount();
+
+        // the list is ordered by the local operation count
+        int acknowledged = 0;
+
+        while (acknowledged < this.ackJupiterActivityList.size()
+            && this.ackJupiterActivityList.get(acknowledged)
+                .getLastLocalOperationCount() < remoteOperationCount)
+            acknowledged++;
+
+        this.ackJupiterActivityList.subList(0, acknowledged).clear();
+
+        // a composed operation may be acknowledged partially
+        if (!this.ackJupiterActivityList.isEmpty()
+            && this.ackJupiterActivityList.get(0).getLocalOperationCount() < remoteOperationCount) {
+
+            decompose(0);
+
+            while (this.ackJupiterActivityList.get(0).getLocalOperationCount() < remoteOperationCount)
+                this.ackJupiterActivityList.remove(0);
         }
+
         // ASSERT msg.myMsgs == otherMsgs
         assert time.getLocalOperationCount() == this.vectorTime
             .getRemoteOperationCount() : "msg.myMsgs != otherMsgs !!";
@@ -268,30 +305,189 @@ public class Jupiter implements Algorithm {
             .size(); ackJupiterActivityListCnt++) {
             OperationWrapper wrap = this.ackJupiterActivityList
                 .get(ackJupiterActivityListCnt);
-            Operation existingOp = wrap.getOperation();
 
-            Operation transformedOp;
-
-            if (isClientSide()) {
-                transformedOp = this.inclusion.transform(newOp, existingOp,
-                    Boolean.TRUE);
-                existingOp = this.inclusion.transform(existingOp, newOp,
-                    Boolean.FALSE);
-            } else {
-                transformedOp = this.inclusion.transform(newOp, existingOp,
-                    Boolean.FALSE);
-                existingOp = this.inclusion.transform(existingOp, newOp,
-                    Boolean.TRUE);
+            if (wrap.isComposed() && !isDisjoint(newOp, wrap.getOperation())) {
+                decompose(ackJupiterActivityListCnt);
+                wrap = this.ackJupiterActivityList
+                    .get(ackJupiterActivityListCnt);
             }
-            this.ackJupiterActivityList
-                .set(ackJupiterActivityListCnt, new OperationWrapper(
-                    existingOp, wrap.getLocalOperationCount()));
 
-            newOp = transformedOp;
+            Operation existingOp = wrap.getOperation();
+
+            if (wrap.isComposed())
+                wrap.remoteOperations.add(newOp);
+
+            wrap.op = transformExisting(existingOp, newOp);
+            newOp = transformNew(newOp, existingOp);
         }
         return newOp;
     }
 
+    /**
+     * Transforms an operation of the other site against an operation of this
+     * site.
+     */
+    private Operation transformNew(Operation newOp, Operation existingOp) {
+        return this.inclusion.transform(newOp, existingOp,
+            Boolean.valueOf(isClientSide()));
+    }
+
+    /**
+     * Transforms an operation of this site against an operation of the other
+     * site.
+     */
+    private Operation transformExisting(Operation existingOp, Operation newOp) {
+        return this.inclusion.transform(existingOp, newOp,
+            Boolean.valueOf(!isClientSide()));
+    }
+
+    /**
+     * Tries to compose the given operation which was just generated with the
+     * last unacknowledged operation.
+     * 
+     * @return true if the operation was composed, false if it must be added
+     *         as a separate entry
+     */
+    private boolean composeWithLastOperation(Operation op) {
+        if (!composeOperations || this.ackJupiterActivityList.isEmpty())
+            return false;
+
+        OperationWrapper last = this.ackJupiterActivityList
+            .get(this.ackJupiterActivityList.size() - 1);
+
+        /*
+         * the parts of a composed operation were not transformed, so the new
+         * operation can no longer be added if the composed operation was
+         * already transformed
+         */
+        if (last.isComposed() && !last.remoteOperations.isEmpty())
+            return false;
+
+        Operation composed = compose(last.getOperation(), op);
+
+        if (composed == null)
+            return false;
+
+        if (!last.isComposed()) {
+            last.parts = new ArrayList<Operation>();
+            last.parts.add(last.getOperation());
+            last.remoteOperations = new ArrayList<Operation>();
+        }
+
+        last.parts.add(op);
+        last.op = composed;
+        return true;
+    }
+
+    /**
+     * Composes two consecutive operations of this site into one operation.
+     * Only text typed directly behind an insertion and text removed directly
+     * next to a deletion is composed, as the result of transforming the
+     * composed operation is then equal to transforming its parts one after
+     * another as long as the other operation does not touch the composed
+     * operation, see {@link #isDisjoint(Operation, Operation)}.
+     * 
+     * @return the composed operation or <code>null</code> if the operations
+     *         cannot be composed
+     */
+    protected Operation compose(Operation first, Operation second) {
+        if (first instanceof InsertOperation
+            && second instanceof InsertOperation) {
+
+            InsertOperation a = (InsertOperation) first;
+            InsertOperation b = (InsertOperation) second;
+
+            if (b.getPosition() == a.getPosition() + a.getTextLength())
+                return new InsertOperation(a.getPosition(), a.getText()
+                    + b.getText(), a.getOrigin());
+
+        } else if (first instanceof DeleteOperation
+            && second instanceof DeleteOperation) {
+
+            DeleteOperation a = (DeleteOperation) first;
+            DeleteOperation b = (DeleteOperation) second;
+
+            if (b.getPosition() == a.getPosition())
+                return new DeleteOperation(a.getPosition(), a.getText()
+                    + b.getText());
+
+            if (b.getPosition() + b.getTextLength() == a.getPosition())
+                return new DeleteOperation(b.getPosition(), b.getText()
+                    + a.getText());
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks whether the operation of the other site is located completely
+     * before or behind the composed operation without touching it. Otherwise
+     * the tie breaking of the inclusion transformation could treat the
+     * composed operation differently than its parts.
+     */
+    protected boolean isDisjoint(Operation newOp, Operation composedOp) {
+        int start;
+        int end;
+
+        if (newOp instanceof NoOperation) {
+            return true;
+        } else if (newOp instanceof InsertOperation) {
+            start = end = ((InsertOperation) newOp).getPosition();
+        } else if (newOp instanceof DeleteOperation) {
+            start = ((DeleteOperation) newOp).getPosition();
+            end = start + ((DeleteOperation) newOp).getTextLength();
+        } else {
+            return false;
+        }
+
+        if (composedOp instanceof InsertOperation) {
+            int position = ((InsertOperation) composedOp).getPosition();
+            return end < position || start > position;
+        }
+
+        if (composedOp instanceof DeleteOperation) {
+            int position = ((DeleteOperation) composedOp).getPosition();
+            return end < position
+                || start > position
+                    + ((DeleteOperation) composedOp).getTextLength();
+        }
+
+        return false;
+    }
+
+    /**
+     * Replaces the composed operation at the given index of the
+     * {@link #ackJupiterActivityList} with its parts. The parts are
+     * transformed against all operations of the other site the composed
+     * operation was transformed against in the meantime.
+     */
+    private void decompose(int index) {
+        OperationWrapper wrap = this.ackJupiterActivityList.get(index);
+
+        if (!wrap.isComposed())
+            return;
+
+        List<Operation> parts = wrap.parts;
+
+        for (Operation remoteOp : wrap.remoteOperations) {
+            for (int i = 0; i < parts.size(); i++) {
+                Operation part = parts.get(i);
+                parts.set(i, transformExisting(part, remoteOp));
+                remoteOp = transformNew(remoteOp, part);
+            }
+        }
+
+        List<OperationWrapper> wrappers = new ArrayList<OperationWrapper>(
+            parts.size());
+
+        for (int i = 0; i < parts.size(); i++)
+            wrappers.add(new OperationWrapper(parts.get(i), wrap
+                .getLocalOperationCount() + i));
+
+        this.ackJupiterActivityList.remove(index);
+        this.ackJupiterActivityList.addAll(index, wrappers);
+    }
+
     /**
      * Test 3 preconditions that must be fulfilled before transforming. They are
      * taken from the Jupiter paper.
@@ -322,20 +518,30 @@ public class Jupiter implements Algorithm {
      * This is a simple helper class used in the implementation of the Jupiter
      * algorithm. A OperationWrapper instance is created with an operation and
      * the current local operation count and inserted into the outgoing queue
-     * (see {@link Jupiter#ackJupiterActivityList}).
+     * (see {@link Jupiter#ackJupiterActivityList}). The operation is replaced
+     * in place whenever it is transformed.
      * 
-     * @valueObject Instances of this class should be treated as value objects
-     *              and should be treated as immutable.
+     * A composed OperationWrapper represents the operations with the local
+     * operation counts from {@link #getLocalOperationCount()} to
+     * {@link #getLastLocalOperationCount()}. It keeps the original parts and
+     * the operations of the other site it was transformed against so it can be
+     * decomposed again.
      * 
      * @see Jupiter#generateJupiterActivity(Operation, User, SPath)
      * @see Jupiter#receiveJupiterActivity(JupiterActivity)
      */
     protected static class OperationWrapper {
 
-        protected final Operation op;
+        protected Operation op;
 
         protected final int count;
 
+        /** the composed operations, <code>null</code> if not composed */
+        protected List<Operation> parts;
+
+        /** operations of the other site transformed against the composition */
+        protected List<Operation> remoteOperations;
+
         OperationWrapper(Operation op, int count) {
             this.op = op;
             this.count = count;
@@ -349,12 +555,22 @@ public class Jupiter implements Algorithm {
             return this.count;
         }
 
+        int getLastLocalOperationCount() {
+            return isComposed() ? this.count + this.parts.size() - 1
+                : this.count;
+        }
+
+        boolean isComposed() {
+            return this.parts != null;
+        }
+
         /**
          * {@inheritDoc}
          */
         @Override
         public String toString() {
-            return ("OperationWrapper(" + this.op + ", " + this.count + ")");
+            return ("OperationWrapper(" + this.op + ", " + this.count + ", "
+                + getLastLocalOperationCount() + ")");
         }
     }
 
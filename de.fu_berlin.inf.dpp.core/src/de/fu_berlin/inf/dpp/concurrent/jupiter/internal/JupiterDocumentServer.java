@@ -18,6 +18,9 @@ import de.fu_berlin.inf.dpp.session.User;
  * The JupiterDocumentServer is the host side component managing all server
  * Jupiter instances.
  * 
+ * All methods are synchronized on this instance which acts as the lock for the
+ * document, see {@link de.fu_berlin.inf.dpp.concurrent.management.JupiterServer}.
+ * 
  * TODO [CO] Document and review this class
  */
 public class JupiterDocumentServer {
@@ -49,8 +52,7 @@ public class JupiterDocumentServer {
         return proxies.remove(jid) != null;
     }
 
-    // FIXME why is this not synchronized ?!
-    public Map<JID, JupiterActivity> transformJupiterActivity(
+    public synchronized Map<JID, JupiterActivity> transformJupiterActivity(
         JupiterActivity jupiterActivity) throws TransformationException {
 
         Map<JID, JupiterActivity> result = new HashMap<JID, JupiterActivity>();
@@ -117,7 +119,7 @@ public class JupiterDocumentServer {
             addProxyClient(jid);
     }
 
-    public Map<JID, ChecksumActivity> withTimestamp(
+    public synchronized Map<JID, ChecksumActivity> withTimestamp(
         ChecksumActivity checksumActivity) throws TransformationException {
 
         Map<JID, ChecksumActivity> result = new HashMap<JID, ChecksumActivity>();
@@ -102,7 +102,9 @@ public class ConcurrentDocumentServer implements Startable {
      * 
      * @host
      * 
-     * @sarosThread Must be executed in the Saros dispatch thread.
+     * @sarosThread Must be executed in the Saros dispatch thread or in one of
+     *              the activity dispatch lanes. Activities for the same
+     *              document must not be transformed concurrently.
      * 
      * @notGUI This method may not be called from SWT, otherwise a deadlock
      *         might occur!!
@@ -1,9 +1,9 @@
 package de.fu_berlin.inf.dpp.concurrent.management;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.business.ChecksumActivity;
@@ -19,6 +19,17 @@ import de.fu_berlin.inf.dpp.session.User;
  * number of paths.
  * 
  * (in contrast to a JupiterDocumentServer which only handles a single path)
+ * 
+ * <p>
+ * Locking protocol: every {@link JupiterDocumentServer} guards its own state
+ * with its monitor, so transformations of different documents can run in
+ * parallel and only transformations of the same document are serialized.
+ * Changes of the session membership and the creation of new document servers
+ * are serialized with the {@link #membershipLock}. While holding the
+ * membership lock the document locks are acquired one after another but never
+ * the other way around, so a membership change only blocks the document it is
+ * currently updating and not the whole server.
+ * </p>
  */
 public class JupiterServer {
 
@@ -27,9 +38,15 @@ public class JupiterServer {
      * 
      * @host
      */
-    private HashMap<SPath, JupiterDocumentServer> concurrentDocuments = new HashMap<SPath, JupiterDocumentServer>();
+    private final Map<SPath, JupiterDocumentServer> concurrentDocuments = new ConcurrentHashMap<SPath, JupiterDocumentServer>();
 
-    private Set<User> currentClients = new HashSet<User>();
+    private final Set<User> currentClients = new CopyOnWriteArraySet<User>();
+
+    /**
+     * Serializes {@link #addUser}, {@link #removeUser} and the creation of
+     * document servers in {@link #getServer}.
+     */
+    private final Object membershipLock = new Object();
 
     private ISarosSession sarosSession;
 
@@ -37,23 +54,27 @@ public class JupiterServer {
         this.sarosSession = sarosSession;
     }
 
-    public synchronized void removePath(SPath path) {
+    public void removePath(SPath path) {
         concurrentDocuments.remove(path);
     }
 
-    public synchronized void addUser(User user) {
+    public void addUser(User user) {
         JID jid = user.getJID();
-        currentClients.add(user);
-        for (JupiterDocumentServer server : concurrentDocuments.values()) {
-            server.addProxyClient(jid);
+        synchronized (membershipLock) {
+            currentClients.add(user);
+            for (JupiterDocumentServer server : concurrentDocuments.values()) {
+                server.addProxyClient(jid);
+            }
         }
     }
 
-    public synchronized void removeUser(User user) {
+    public void removeUser(User user) {
         JID jid = user.getJID();
-        currentClients.remove(user);
-        for (JupiterDocumentServer server : concurrentDocuments.values()) {
-            server.removeProxyClient(jid);
+        synchronized (membershipLock) {
+            currentClients.remove(user);
+            for (JupiterDocumentServer server : concurrentDocuments.values()) {
+                server.removeProxyClient(jid);
+            }
         }
     }
 
@@ -70,11 +91,19 @@ public class JupiterServer {
      * SarosSessionMapper to also track the resources and not just the projects
      * that are already shared for every user individually.
      */
-    protected synchronized JupiterDocumentServer getServer(SPath path) {
+    protected JupiterDocumentServer getServer(SPath path) {
 
         JupiterDocumentServer docServer = concurrentDocuments.get(path);
 
-        if (docServer == null) {
+        if (docServer != null)
+            return docServer;
+
+        synchronized (membershipLock) {
+
+            docServer = concurrentDocuments.get(path);
+
+            if (docServer != null)
+                return docServer;
 
             docServer = new JupiterDocumentServer(path);
 
@@ -95,19 +124,19 @@ public class JupiterServer {
         return docServer;
     }
 
-    public synchronized void reset(SPath path, JID jid) {
+    public void reset(SPath path, JID jid) {
         getServer(path).reset(jid);
     }
 
-    public synchronized Map<JID, JupiterActivity> transform(
-        JupiterActivity jupiterActivity) throws TransformationException {
+    public Map<JID, JupiterActivity> transform(JupiterActivity jupiterActivity)
+        throws TransformationException {
 
         JupiterDocumentServer docServer = getServer(jupiterActivity.getPath());
 
         return docServer.transformJupiterActivity(jupiterActivity);
     }
 
-    public synchronized Map<JID, ChecksumActivity> withTimestamp(
+    public Map<JID, ChecksumActivity> withTimestamp(
         ChecksumActivity checksumActivity) throws TransformationException {
 
         JupiterDocumentServer docServer = getServer(checksumActivity.getPath());
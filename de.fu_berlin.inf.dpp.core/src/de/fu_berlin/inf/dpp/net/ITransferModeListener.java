@@ -27,6 +27,28 @@ public interface ITransferModeListener {
         boolean incoming, long sizeTransferred, long sizeUncompressed,
         long transmissionMillisecs);
 
+    /**
+     * Informs a listener that the payload of an incoming data transfer was
+     * decompressed or the payload of an outgoing data transfer was compressed.
+     * The compression ratio is <code>sizeUncompressed / sizeCompressed</code>.
+     * 
+     * @param jid
+     *            The JID of the user to which the data is sent (outgoing) or
+     *            from which the data was received (incoming)
+     * @param incoming
+     *            <code>true</code> if the payload was received and
+     *            decompressed, <code>false</code> if it is sent and was
+     *            compressed
+     * @param sizeCompressed
+     *            The size of the compressed payload in byte
+     * @param sizeUncompressed
+     *            The size of the uncompressed payload in byte
+     * @param compressionNanos
+     *            The time the (de)compression took in nanoseconds
+     */
+    public void compressionFinished(JID jid, boolean incoming,
+        long sizeCompressed, long sizeUncompressed, long compressionNanos);
+
     /**
      * Gets called when the {@linkplain NetTransferMode transfer mode} changed.
      * 
@@ -19,6 +19,10 @@
  */
 package de.fu_berlin.inf.dpp.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 
@@ -48,6 +52,10 @@ import de.fu_berlin.inf.dpp.misc.xstream.XppReader;
  * objects.
  * 
  * Supports PacketExtension and IQPackets
+ * <p>
+ * Subclasses may additionally install a {@link BinaryCodec} which allows to
+ * transfer the payload in a compact binary form over established byte streams
+ * instead of XML.
  */
 public class XStreamExtensionProvider<T> implements PacketExtensionProvider,
     IQProvider {
@@ -63,6 +71,31 @@ public class XStreamExtensionProvider<T> implements PacketExtensionProvider,
 
     private final XStream xstream;
 
+    private volatile BinaryCodec<T> binaryCodec;
+
+    /**
+     * A codec that is able to convert the payload of a packet extension into a
+     * compact binary representation and back.
+     */
+    public static interface BinaryCodec<T> {
+
+        /**
+         * Writes the given payload to the given output stream.
+         * 
+         * @throws IOException
+         *             if an I/O error occurs or the payload cannot be encoded
+         */
+        public void encode(T payload, DataOutputStream out) throws IOException;
+
+        /**
+         * Reads a payload that was written by {@link #encode}.
+         * 
+         * @throws IOException
+         *             if an I/O error occurs or the data is malformed
+         */
+        public T decode(DataInputStream in) throws IOException;
+    }
+
     /**
      * Sets the class loader to use when a new provider is created. This class
      * loader will be used by {@link XStream} to unmarshal the given packet
@@ -198,6 +231,38 @@ public class XStreamExtensionProvider<T> implements PacketExtensionProvider,
         }
     }
 
+    /**
+     * A packet extension whose payload can be transferred in its binary
+     * representation. The XML representation is still available as fallback,
+     * e.g if the extension has to be sent through the XMPP server.
+     */
+    public static class BinaryPacketExtension<T> extends
+        XStreamPacketExtension<T> {
+
+        protected BinaryPacketExtension(XStreamExtensionProvider<T> ourProvider,
+            T payload) {
+            super(ourProvider, payload);
+        }
+
+        /**
+         * Returns the binary representation of the payload.
+         * 
+         * @throws IOException
+         *             if the payload cannot be encoded
+         */
+        public byte[] toBinary() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            provider.binaryCodec.encode(payload, new DataOutputStream(out));
+            return out.toByteArray();
+        }
+
+        @Override
+        public String toXML() {
+            // marshal the base class, the receiver does not know this one
+            return new XStreamPacketExtension<T>(provider, payload).toXML();
+        }
+    }
+
     /**
      * PacketFilter for Packets which contain a PacketExtension matching the
      * {@link XStreamExtensionProvider#elementName} and
@@ -299,6 +364,61 @@ public class XStreamExtensionProvider<T> implements PacketExtensionProvider,
         return new XStreamPacketExtension<T>(this, t);
     }
 
+    /**
+     * Creates a packet extension whose payload is transferred in its binary
+     * representation if possible. If this provider has no {@link BinaryCodec}
+     * installed the result is the same as calling {@link #create}.
+     */
+    public XStreamPacketExtension<T> createBinary(T t) {
+        if (binaryCodec == null)
+            return create(t);
+
+        return new BinaryPacketExtension<T>(this, t);
+    }
+
+    /**
+     * Returns whether this provider is able to handle the binary
+     * representation of its payload.
+     */
+    public boolean isBinaryCodecInstalled() {
+        return binaryCodec != null;
+    }
+
+    /**
+     * Installs the codec to use for the binary representation of the payload.
+     */
+    protected void setBinaryCodec(BinaryCodec<T> binaryCodec) {
+        this.binaryCodec = binaryCodec;
+    }
+
+    /**
+     * Converts the binary representation of a payload back to a packet
+     * extension.
+     * 
+     * @return the packet extension or an extension that will be dropped
+     *         silently if the data could not be decoded
+     */
+    public PacketExtension parseBinary(byte[] data) {
+        BinaryCodec<T> codec = binaryCodec;
+
+        if (codec == null) {
+            LOG.error("cannot unmarshal binary data for element '"
+                + elementName + "', no binary codec installed");
+            return new DropSilentlyPacketExtension();
+        }
+
+        try {
+            return new BinaryPacketExtension<T>(this,
+                codec.decode(new DataInputStream(new ByteArrayInputStream(data))));
+        } catch (IOException e) {
+            LOG.error("unmarshalling binary data failed", e);
+            return new DropSilentlyPacketExtension();
+        } catch (RuntimeException e) {
+            LOG.error("unmarshalling binary data failed", e);
+            return new DropSilentlyPacketExtension();
+        }
+    }
+
     public IQ createIQ(T t) {
         return new XStreamIQPacket<T>(create(t));
     }
@@ -1,18 +1,14 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.net.ProtocolException;
+import java.io.OutputStream;
 import java.net.SocketException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
@@ -20,6 +16,7 @@ import org.jivesoftware.smackx.bytestreams.BytestreamSession;
 import de.fu_berlin.inf.dpp.net.IncomingTransferObject;
 import de.fu_berlin.inf.dpp.net.JID;
 import de.fu_berlin.inf.dpp.net.NetTransferMode;
+import de.fu_berlin.inf.dpp.net.internal.BinaryChannelFraming.OutgoingTransfer;
 
 /**
  * BinaryChannelConnection is a class that encapsulates a bidirectional
@@ -30,6 +27,25 @@ import de.fu_berlin.inf.dpp.net.NetTransferMode;
  * send() is a reentrant method for sending data. Any number of threads can call
  * it in parallel.
  * 
+ * The payloads of parallel send() calls are multiplexed chunk by chunk over the
+ * stream as described by the {@linkplain BinaryChannelFraming framing}, so
+ * single chunk payloads, e.g most activities, do not have to wait until a file
+ * transfer is finished. There is no dedicated sender thread: the calling
+ * threads take turns in writing the next chunk of whatever payload is due, and
+ * each call returns as soon as its own payload is written.
+ * 
+ * The stream is not flushed after every frame. As long as further payloads are
+ * queued the frames are collected in the stream buffer, so a burst of small
+ * payloads costs a single flush. A payload that is sent while the connection
+ * was idle is flushed immediately. If the previous flush was only a moment
+ * ago, the writing thread waits up to {@link #FLUSH_DELAY} microseconds for
+ * further payloads before it flushes.
+ * 
+ * The transfer descriptions are sent in a compact form that refers to the
+ * strings of the previous descriptions by the ids of a {@linkplain
+ * HeaderSymbolTable symbol table} per direction. The full form is still
+ * accepted.
+ * 
  * @author sszuecs
  * @author coezbek
  * @author srossbach
@@ -41,17 +57,18 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
     private static final long TERMINATE_TIMEOUT = 10000L;
 
-    private static class Opcode {
-        /* these opcodes will be cropped to byte values, do not exceed 0xFF ! */
-
-        private static final int TRANSFERDESCRIPTION = 0xFA;
-        private static final int DATA = 0xFB;
-    }
+    /**
+     * Max time in microseconds the frames of a burst are collected before the
+     * stream is flushed, 0 to flush as soon as no further payloads are queued
+     */
+    private static final long FLUSH_DELAY = Long.getLong(
+        "de.fu_berlin.inf.dpp.net.binary.FLUSH_DELAY", 200);
 
     /**
-     * Max size of data chunks
+     * Number of collected bytes that causes a flush regardless of the delay
      */
-    private static final int CHUNKSIZE = 32 * 1024 - 1;
+    private static final int FLUSH_THRESHOLD = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.net.binary.FLUSH_THRESHOLD", 16 * 1024);
 
     private IByteStreamConnectionListener listener;
     private ReceiverThread receiveThread;
@@ -60,16 +77,55 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
     private final String connectionID;
 
-    private AtomicInteger nextFragmentId = new AtomicInteger(0);
+    /**
+     * Guards the state of the outgoing transfers and ensures that only one
+     * thread is writing to the stream at a time.
+     */
+    private final Object sendLock = new Object();
+
+    private boolean writing;
+
+    private IOException sendFailure;
 
     private boolean connected;
     private boolean initialized;
 
-    private Map<Integer, ByteArrayOutputStream> pendingFragmentedPackets = new HashMap<Integer, ByteArrayOutputStream>();
-    private Map<Integer, BinaryChannelTransferObject> pendingTransferObjects = new HashMap<Integer, BinaryChannelTransferObject>();
+    /**
+     * The state of the outgoing transfers is guarded by the send lock, the
+     * incoming transfers are only accessed by the receiver thread
+     */
+    private final BinaryChannelFraming framing;
 
-    private DataInputStream inputStream;
-    private DataOutputStream outputStream;
+    /**
+     * Holds the frames of the chunk that is written next, only accessed by
+     * the thread that is currently writing
+     */
+    private final ByteBuffer writeBuffer = ByteBuffer
+        .allocate(BinaryChannelFraming.MAX_CHUNK_FRAMES_SIZE);
+
+    /**
+     * Holds the data that is not decoded yet, only accessed by the receiver
+     * thread
+     */
+    private final ByteBuffer readBuffer = ByteBuffer
+        .allocate(BinaryChannelFraming.READ_BUFFER_SIZE);
+
+    /*
+     * state of the frames that are not flushed yet, only accessed by the
+     * thread that is currently writing
+     */
+    private int unflushedFrames;
+    private int unflushedBytes;
+    private long firstUnflushedFrameTime;
+    private long lastFlushTime;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedFrames = new AtomicLong();
+
+    private InputStream inputStream;
+    private OutputStream outputStream;
     private BytestreamSession session;
 
     /**
@@ -116,10 +172,13 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         this.session.setReadTimeout(0); // keep connection alive
         this.transferMode = mode;
 
-        outputStream = new DataOutputStream(new BufferedOutputStream(
-            session.getOutputStream()));
-        inputStream = new DataInputStream(new BufferedInputStream(
-            session.getInputStream()));
+        framing = new BinaryChannelFraming(this, mode);
+
+        outputStream = new BufferedOutputStream(session.getOutputStream(),
+            Math.max(1, FLUSH_THRESHOLD));
+        inputStream = session.getInputStream();
+
+        readBuffer.flip();
     }
 
     @Override
@@ -143,6 +202,11 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         return connectionID;
     }
 
+    @Override
+    public void setCompactTransferDescriptions(boolean enabled) {
+        framing.setCompactTransferDescriptions(enabled);
+    }
+
     @Override
     public synchronized boolean isConnected() {
         return connected;
@@ -164,6 +228,14 @@ public class BinaryChannelConnection implements IByteStreamConnection {
             }
         }
 
+        if (log.isDebugEnabled())
+            log.debug(this + " closed: sent=" + bytesSent.get()
+                + " bytes, received=" + bytesReceived.get()
+                + " bytes, buffer allocations="
+                + framing.getBufferAllocations() + " ("
+                + framing.getAllocatedBufferBytes() + " bytes), flushes="
+                + flushes.get() + " (" + flushedFrames.get() + " frames)");
+
         assert receiveThread != null;
 
         if (Thread.currentThread() != receiveThread) {
@@ -193,6 +265,73 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         return peer;
     }
 
+    /**
+     * Returns the number of bytes that were written to the underlying stream,
+     * including the framing.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the number of bytes that were read from the underlying stream,
+     * including the framing.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns how many buffers were allocated for the payloads of the incoming
+     * transfer objects. This is one per transfer object unless the sender did
+     * not announce the payload size.
+     */
+    public long getBufferAllocations() {
+        return framing.getBufferAllocations();
+    }
+
+    /**
+     * Returns the total size of the buffers that were allocated for the
+     * payloads of the incoming transfer objects.
+     */
+    public long getAllocatedBufferBytes() {
+        return framing.getAllocatedBufferBytes();
+    }
+
+    /**
+     * Returns how many single chunk payloads were sent while the sending of a
+     * larger payload was in progress.
+     */
+    public long getPreemptedChunks() {
+        return framing.getPreemptedChunks();
+    }
+
+    /**
+     * Returns how often the stream was flushed. Together with
+     * {@link #getFlushedFrames()} this gives the number of frames per flush.
+     */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Returns the number of frames that were flushed, i.e the transfer
+     * descriptions and data chunks.
+     */
+    public long getFlushedFrames() {
+        return flushedFrames.get();
+    }
+
+    /**
+     * Returns the number of payloads that are not completely sent yet, for
+     * testing purposes only.
+     */
+    int getOutgoingTransferCount() {
+        synchronized (sendLock) {
+            return framing.getOutgoingTransferCount();
+        }
+    }
+
     @Override
     public void send(TransferDescription data, byte[] content)
         throws IOException {
@@ -200,18 +339,20 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         if (!isConnected())
             throw new EOFException("connection is closed");
 
-        try {
-            int fragmentId = nextFragmentId.getAndIncrement() & 0x7FFF;
-
-            byte[] descData = TransferDescription.toByteArray(data);
+        OutgoingTransfer transfer;
 
-            assert content.length > 0;
+        synchronized (sendLock) {
+            if (sendFailure != null)
+                throw new EOFException("connection is closed");
 
-            int chunks = ((content.length - 1) / CHUNKSIZE) + 1;
+            transfer = framing.queue(data, content);
 
-            sendTransferDescription(descData, fragmentId, chunks);
+            // wake up a writer that waits for further frames
+            sendLock.notifyAll();
+        }
 
-            splitAndSend(content, chunks, fragmentId);
+        try {
+            sendUntilDone(transfer);
         } catch (IOException e) {
             close();
             throw e;
@@ -219,169 +360,202 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     }
 
     /**
-     * Reads the next incoming transfer object. The payload of this object may
-     * not completely received at this point !
-     * 
-     * @return returns the next incoming transfer object
-     * 
-     * @throws IOException
-     *             If the associated socket broke, while reading or if the
-     *             socket has already been disposed.
-     * @throws ClassNotFoundException
-     *             If the data sent from the other side could not be decoded.
+     * Writes the chunks of the queued transfers until the given transfer is
+     * completely sent. If another thread is currently writing, this method
+     * waits for its turn instead.
      */
-    private IncomingTransferObject receiveIncomingTransferObject()
-        throws IOException, ClassNotFoundException {
-
-        while (!Thread.currentThread().isInterrupted()) {
-
-            int opcode = inputStream.read();
-
-            if (opcode == -1)
-                throw new EOFException("no stream data available");
-
-            int fragmentId;
-
-            int payloadLength;
-
-            switch (opcode) {
-            case Opcode.TRANSFERDESCRIPTION:
-                fragmentId = inputStream.readShort();
-                int chunks = inputStream.readInt();
-                payloadLength = inputStream.readInt();
+    private void sendUntilDone(OutgoingTransfer transfer) throws IOException {
+        boolean interrupted = false;
 
-                if (log.isTraceEnabled()) {
-                    log.trace("processing opcode 0x"
-                        + Integer.toHexString(opcode).toUpperCase()
-                        + " [TFD]: id=" + fragmentId + ", chunks=" + chunks
-                        + ", TFD len=" + payloadLength + " bytes");
+        try {
+            while (true) {
+                OutgoingTransfer next;
+
+                synchronized (sendLock) {
+                    while (writing && !transfer.isDone()
+                        && sendFailure == null) {
+                        try {
+                            sendLock.wait();
+                        } catch (InterruptedException e) {
+                            /*
+                             * the transfer cannot be aborted as its first
+                             * chunks may already be sent
+                             */
+                            interrupted = true;
+                        }
+                    }
+
+                    if (transfer.isDone())
+                        return;
+
+                    if (sendFailure != null)
+                        throw new IOException("failed to send data: "
+                            + sendFailure.getMessage(), sendFailure);
+
+                    writeBuffer.clear();
+
+                    try {
+                        next = framing.encodeNextChunk(writeBuffer);
+                    } catch (IOException e) {
+                        sendFailure = e;
+                        sendLock.notifyAll();
+                        throw e;
+                    }
+
+                    // the buffer holds the frames of any chunk
+                    assert next != null;
+
+                    writing = true;
                 }
 
-                if (payloadLength <= 0 || payloadLength > CHUNKSIZE)
-                    throw new ProtocolException(
-                        "payload length field contains corrupted value: 0 < "
-                            + payloadLength + " <= " + CHUNKSIZE);
-
-                byte[] transferDescriptionData = new byte[payloadLength];
-                inputStream.readFully(transferDescriptionData);
-
-                TransferDescription transferDescription = TransferDescription
-                    .fromByteArray(transferDescriptionData);
-
-                BinaryChannelTransferObject oldTransferObject = pendingTransferObjects
-                    .put(fragmentId, new BinaryChannelTransferObject(
-                        transferMode, transferDescription, chunks));
-
-                if (oldTransferObject != null)
-                    throw new IOException(
-                        "replaced an transfer object that is still transmitted");
-                break;
-
-            case Opcode.DATA:
-                fragmentId = inputStream.readShort();
-                payloadLength = inputStream.readInt();
-
-                if (log.isTraceEnabled()) {
-                    log.trace("processing opcode 0x"
-                        + Integer.toHexString(opcode).toUpperCase()
-                        + " [DATA]: id=" + fragmentId + ", DATA len="
-                        + payloadLength + " bytes");
-                }
-
-                if (payloadLength <= 0 || payloadLength > CHUNKSIZE)
-                    throw new ProtocolException(
-                        "payload length field contains corrupted value: 0 < "
-                            + payloadLength + " <= " + CHUNKSIZE);
-
-                byte[] payload = new byte[payloadLength];
-                inputStream.readFully(payload);
-
-                ByteArrayOutputStream out = pendingFragmentedPackets
-                    .get(fragmentId);
-
-                if (out == null) {
-                    out = new ByteArrayOutputStream(payloadLength * 2);
-                    pendingFragmentedPackets.put(fragmentId, out);
+                boolean success = false;
+
+                try {
+                    writeFrames(next);
+                    flushIfDue();
+                    success = true;
+                } finally {
+                    synchronized (sendLock) {
+                        writing = false;
+
+                        if (!success) {
+                            sendFailure = new EOFException(
+                                "connection is closed");
+                        } else if (next.isEncoded()) {
+                            framing.complete(next);
+                        }
+
+                        sendLock.notifyAll();
+                    }
                 }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
 
-                out.write(payload);
-                out.flush();
+    /**
+     * Writes the frames of the chunk that was just encoded into the write
+     * buffer.
+     */
+    private void writeFrames(OutgoingTransfer transfer) throws IOException {
+        int length = writeBuffer.position();
 
-                if (!pendingTransferObjects.get(fragmentId).isLastChunk())
-                    break;
+        outputStream.write(writeBuffer.array(), 0, length);
 
-                pendingFragmentedPackets.remove(fragmentId);
+        // the first chunk is preceded by the transfer description
+        int frames = transfer.getEncodedChunks() == 1 ? 2 : 1;
 
-                BinaryChannelTransferObject fullyReceivedTransferObject = pendingTransferObjects
-                    .remove(fragmentId);
+        if (unflushedFrames == 0)
+            firstUnflushedFrameTime = System.nanoTime();
 
-                payload = out.toByteArray();
-                out = null; // help GC
+        unflushedFrames += frames;
+        unflushedBytes += length;
 
-                fullyReceivedTransferObject.setPayload(payload.length, payload);
+        bytesSent.addAndGet(length);
+    }
 
-                return fullyReceivedTransferObject;
-            default:
-                close();
-                throw new ProtocolException("unknown opcode: 0x"
-                    + Integer.toHexString(opcode).toUpperCase());
+    /**
+     * Flushes the stream unless the collected frames are small and further
+     * frames are about to be written. Must only be called by the writing
+     * thread.
+     */
+    private void flushIfDue() throws IOException {
+        if (unflushedBytes < FLUSH_THRESHOLD) {
+            synchronized (sendLock) {
+                if (framing.hasQueuedTransfers())
+                    return;
+
+                if (isBurst() && awaitNextTransfer())
+                    return;
             }
         }
 
-        // clear the interrupt flag
-        Thread.interrupted();
-        throw new InterruptedIOException(
-            "interrupted while reading stream data");
-    }
+        outputStream.flush();
 
-    private synchronized void sendData(int fragmentId, byte[] data, int offset,
-        int length) throws IOException {
+        flushes.incrementAndGet();
+        flushedFrames.addAndGet(unflushedFrames);
 
-        if (log.isTraceEnabled()) {
-            log.trace("sending data: id=" + fragmentId + ", len=" + length
-                + " bytes");
-        }
+        unflushedFrames = 0;
+        unflushedBytes = 0;
+        lastFlushTime = System.nanoTime();
+    }
 
-        outputStream.write(Opcode.DATA);
-        outputStream.writeShort(fragmentId);
-        outputStream.writeInt(length);
-        outputStream.write(data, offset, length);
-        outputStream.flush();
+    /**
+     * Returns whether the collected frames were written shortly after the last
+     * flush. A frame that is written while the connection was idle is flushed
+     * without any delay.
+     */
+    private boolean isBurst() {
+        return FLUSH_DELAY > 0 && lastFlushTime != 0
+            && firstUnflushedFrameTime - lastFlushTime < FLUSH_DELAY * 1000;
     }
 
-    private synchronized void sendTransferDescription(byte[] description,
-        int fragmentId, int chunks) throws IOException {
+    /**
+     * Waits until another transfer is queued or the flush delay of the
+     * collected frames has elapsed. Must be called while holding the send
+     * lock.
+     * 
+     * @return <code>true</code> if another transfer was queued
+     */
+    private boolean awaitNextTransfer() {
+        long deadline = firstUnflushedFrameTime + FLUSH_DELAY * 1000;
+
+        while (!framing.hasQueuedTransfers()) {
+            long remaining = deadline - System.nanoTime();
 
-        if (log.isTraceEnabled()) {
-            log.trace("sending transfer description: id=" + fragmentId
-                + ", len=" + description.length + " bytes");
+            if (remaining <= 0)
+                return false;
+
+            try {
+                sendLock.wait(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
 
-        outputStream.write(Opcode.TRANSFERDESCRIPTION);
-        outputStream.writeShort(fragmentId);
-        outputStream.writeInt(chunks);
-        outputStream.writeInt(description.length);
-        outputStream.write(description);
-        outputStream.flush();
+        return true;
     }
 
     /**
-     * Splits the given data into chunks of CHUNKSIZE to send the BinaryPackets.
+     * Reads the next incoming transfer object.
+     * 
+     * @return returns the next incoming transfer object
+     * 
+     * @throws IOException
+     *             If the associated socket broke, while reading or if the
+     *             socket has already been disposed.
      */
-    private void splitAndSend(byte[] data, int chunks, int fragmentId)
+    private IncomingTransferObject receiveIncomingTransferObject()
         throws IOException {
 
-        int offset = 0;
-        int length = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+
+            IncomingTransferObject transferObject = framing.decode(readBuffer);
 
-        while (chunks-- > 0) {
+            if (transferObject != null)
+                return transferObject;
 
-            length = Math.min(data.length - offset, CHUNKSIZE);
+            readBuffer.compact();
 
-            sendData(fragmentId, data, offset, length);
+            int count = inputStream.read(readBuffer.array(),
+                readBuffer.position(), readBuffer.remaining());
 
-            offset += length;
+            if (count == -1)
+                throw new EOFException("no stream data available");
+
+            readBuffer.position(readBuffer.position() + count);
+            readBuffer.flip();
+
+            bytesReceived.addAndGet(count);
         }
+
+        // clear the interrupt flag
+        Thread.interrupted();
+        throw new InterruptedIOException(
+            "interrupted while reading stream data");
     }
 
     @Override
@@ -0,0 +1,714 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.fu_berlin.inf.dpp.net.NetTransferMode;
+
+/**
+ * The framing of the {@link BinaryChannelConnection} and the
+ * {@link NIOChannelConnection}, independent of how the frames are read and
+ * written.
+ *
+ * Every payload is split into chunks of at most {@link #CHUNKSIZE} bytes that
+ * are sent as data frames, the first one is preceded by the transfer
+ * description of the payload. Payloads that fit into a single chunk are
+ * queued in the interactive lane and are sent before the next chunk of any
+ * larger payload, but at most {@link #MAX_INTERACTIVE_BURST} in a row. The
+ * larger payloads are queued in the bulk lane and share the remaining
+ * bandwidth in a round-robin fashion. The chunks of different payloads are
+ * told apart by the fragment id of their payload.
+ *
+ * The receiving side reads all chunks of a payload directly into a single
+ * buffer that grows as the chunks arrive. The sender announces the payload
+ * size in the transfer description, it caps the growth so the buffer ends up
+ * with the final size and needs no trimming. The announced size is never
+ * allocated up front.
+ *
+ * The methods of the sending side are not thread safe, the connection has to
+ * call them while holding its send lock. The methods of the receiving side
+ * must only be called by the thread that reads from the connection.
+ */
+final class BinaryChannelFraming {
+
+    private static final Logger log = Logger
+        .getLogger(BinaryChannelFraming.class);
+
+    static class Opcode {
+        /* these opcodes will be cropped to byte values, do not exceed 0xFF ! */
+
+        static final int TRANSFERDESCRIPTION = 0xFA;
+        static final int DATA = 0xFB;
+        static final int INTERNED_TRANSFERDESCRIPTION = 0xFC;
+    }
+
+    /**
+     * Size of the frame headers: opcode, fragment id, (chunks,) payload length
+     */
+    static final int TRANSFERDESCRIPTION_HEADER_SIZE = 1 + 2 + 4 + 4;
+    static final int DATA_HEADER_SIZE = 1 + 2 + 4;
+
+    /**
+     * Max size of data chunks and transfer descriptions
+     */
+    static final int CHUNKSIZE = 32 * 1024 - 1;
+
+    /**
+     * Size of a buffer that is able to hold the frames of the next chunk,
+     * i.e a complete transfer description frame followed by a complete data
+     * frame
+     */
+    static final int MAX_CHUNK_FRAMES_SIZE = TRANSFERDESCRIPTION_HEADER_SIZE
+        + CHUNKSIZE + DATA_HEADER_SIZE + CHUNKSIZE;
+
+    /**
+     * Size of the buffers the frames are decoded from, must be able to hold a
+     * complete transfer description frame
+     */
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Max initial size of the buffer for a payload, larger payloads let the
+     * buffer grow as their chunks arrive
+     */
+    static final int MAX_INITIAL_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Max number of single chunk payloads that are sent in a row while larger
+     * payloads are waiting
+     */
+    static final int MAX_INTERACTIVE_BURST = 16;
+
+    /**
+     * The state of a payload that is sent.
+     */
+    static final class OutgoingTransfer {
+
+        private final int fragmentId;
+
+        private final TransferDescription description;
+
+        private final byte[] content;
+
+        private final int chunks;
+
+        private byte[] encodedDescription;
+
+        private int descriptionOpcode;
+
+        private int encodedChunks;
+
+        private int offset;
+
+        private boolean done;
+
+        private OutgoingTransfer(int fragmentId,
+            TransferDescription description, byte[] content, int chunks) {
+            this.fragmentId = fragmentId;
+            this.description = description;
+            this.content = content;
+            this.chunks = chunks;
+        }
+
+        /**
+         * Returns the number of chunks that were already encoded.
+         */
+        int getEncodedChunks() {
+            return encodedChunks;
+        }
+
+        /**
+         * Returns whether all chunks of this payload were encoded.
+         */
+        boolean isEncoded() {
+            return encodedChunks == chunks;
+        }
+
+        /**
+         * Returns whether this payload was {@linkplain #complete completely
+         * sent}.
+         */
+        boolean isDone() {
+            return done;
+        }
+    }
+
+    /**
+     * The state of a payload whose chunks are still arriving.
+     */
+    private static final class IncomingTransfer {
+
+        private final BinaryChannelTransferObject transferObject;
+
+        /** the announced payload size or -1 if it is unknown */
+        private final int size;
+
+        private int remainingChunks;
+
+        private byte[] buffer;
+
+        private int length;
+
+        private IncomingTransfer(BinaryChannelTransferObject transferObject,
+            int size, int chunks) {
+            this.transferObject = transferObject;
+            this.size = size;
+            this.remainingChunks = chunks;
+        }
+    }
+
+    private final IByteStreamConnection connection;
+
+    private final NetTransferMode mode;
+
+    /*
+     * state of the sending side
+     */
+
+    private int nextFragmentId;
+
+    private final Map<Integer, OutgoingTransfer> outgoingTransfers = new HashMap<Integer, OutgoingTransfer>();
+
+    /** transfers consisting of a single chunk */
+    private final Deque<OutgoingTransfer> interactiveLane = new ArrayDeque<OutgoingTransfer>();
+
+    /** transfers consisting of multiple chunks, served round-robin */
+    private final Deque<OutgoingTransfer> bulkLane = new ArrayDeque<OutgoingTransfer>();
+
+    private int interactiveBurst;
+
+    /**
+     * transfer whose description is already encoded but did not fit into the
+     * buffer, it must be encoded next
+     */
+    private OutgoingTransfer pendingTransfer;
+
+    private final HeaderSymbolTable outgoingSymbols = new HeaderSymbolTable();
+
+    /**
+     * Whether the transfer descriptions are sent in the compact form, older
+     * peers drop the connection on the compact opcode
+     */
+    private volatile boolean compactTransferDescriptions;
+
+    /*
+     * state of the receiving side
+     */
+
+    private final Map<Integer, IncomingTransfer> pendingTransfers = new HashMap<Integer, IncomingTransfer>();
+
+    /** transfer whose data frame is currently read or null */
+    private IncomingTransfer currentTransfer;
+
+    private int currentChunkRemaining;
+
+    private int currentFragmentId;
+
+    /** reused to decode the transfer descriptions */
+    private byte[] descriptionBuffer = new byte[256];
+
+    private final HeaderSymbolTable incomingSymbols = new HeaderSymbolTable();
+
+    private final AtomicLong bufferAllocations = new AtomicLong();
+    private final AtomicLong allocatedBufferBytes = new AtomicLong();
+    private final AtomicLong preemptedChunks = new AtomicLong();
+
+    /**
+     * @param connection
+     *            the connection the incoming transfer objects belong to
+     * @param mode
+     *            the transfer mode of the incoming transfer objects
+     */
+    BinaryChannelFraming(IByteStreamConnection connection,
+        NetTransferMode mode) {
+        this.connection = connection;
+        this.mode = mode;
+    }
+
+    void setCompactTransferDescriptions(boolean enabled) {
+        compactTransferDescriptions = enabled;
+    }
+
+    /**
+     * Returns how many buffers were allocated for the payloads of the incoming
+     * transfer objects. This is one per transfer object unless the sender did
+     * not announce the payload size.
+     */
+    long getBufferAllocations() {
+        return bufferAllocations.get();
+    }
+
+    /**
+     * Returns the total size of the buffers that were allocated for the
+     * payloads of the incoming transfer objects.
+     */
+    long getAllocatedBufferBytes() {
+        return allocatedBufferBytes.get();
+    }
+
+    /**
+     * Returns how many single chunk payloads were sent while the sending of a
+     * larger payload was in progress.
+     */
+    long getPreemptedChunks() {
+        return preemptedChunks.get();
+    }
+
+    /**
+     * Queues the given payload in its lane.
+     *
+     * @return the state of the payload, it is
+     *         {@linkplain OutgoingTransfer#isDone done} after it was
+     *         {@linkplain #complete completed}
+     */
+    OutgoingTransfer queue(TransferDescription description, byte[] content) {
+        assert content.length > 0;
+
+        description.setSize(content.length);
+
+        int chunks = ((content.length - 1) / CHUNKSIZE) + 1;
+
+        OutgoingTransfer transfer = new OutgoingTransfer(allocateFragmentId(),
+            description, content, chunks);
+
+        outgoingTransfers.put(transfer.fragmentId, transfer);
+
+        if (chunks == 1)
+            interactiveLane.add(transfer);
+        else
+            bulkLane.add(transfer);
+
+        return transfer;
+    }
+
+    /**
+     * Returns whether any queued payload has chunks that are not encoded yet.
+     */
+    boolean hasQueuedTransfers() {
+        return !interactiveLane.isEmpty() || !bulkLane.isEmpty();
+    }
+
+    /**
+     * Returns the number of payloads that are not {@linkplain #complete
+     * completed} yet.
+     */
+    int getOutgoingTransferCount() {
+        return outgoingTransfers.size();
+    }
+
+    /**
+     * Marks the given payload as done after its last chunk was written, so its
+     * fragment id can be used again.
+     */
+    void complete(OutgoingTransfer transfer) {
+        assert transfer.isEncoded();
+
+        transfer.done = true;
+        outgoingTransfers.remove(transfer.fragmentId);
+    }
+
+    /**
+     * Returns the next fragment id that is not used by a transfer that is
+     * still being sent.
+     */
+    private int allocateFragmentId() {
+        int fragmentId;
+
+        do {
+            fragmentId = nextFragmentId++ & 0x7FFF;
+        } while (outgoingTransfers.containsKey(fragmentId));
+
+        return fragmentId;
+    }
+
+    /**
+     * Encodes the next chunk of the payload that is due into the given buffer,
+     * preceded by the transfer description of the payload if this is its first
+     * chunk. The payload is queued again if it has further chunks.
+     *
+     * @return the payload whose chunk was encoded or <code>null</code> if
+     *         there is nothing to send or the frames do not fit into the
+     *         remaining space of the buffer
+     * @throws IOException
+     *             if the transfer description could not be encoded
+     */
+    OutgoingTransfer encodeNextChunk(ByteBuffer out) throws IOException {
+        Deque<OutgoingTransfer> lane = getNextLane();
+
+        if (lane == null)
+            return null;
+
+        OutgoingTransfer transfer = lane.peek();
+
+        if (transfer.encodedChunks == 0
+            && transfer.encodedDescription == null) {
+            encodeDescription(transfer);
+
+            if (transfer.encodedDescription.length > CHUNKSIZE)
+                throw new ProtocolException(
+                    "transfer description is too large: "
+                        + transfer.encodedDescription.length);
+        }
+
+        int length = Math.min(transfer.content.length - transfer.offset,
+            CHUNKSIZE);
+
+        int required = DATA_HEADER_SIZE + length;
+
+        if (transfer.encodedChunks == 0)
+            required += TRANSFERDESCRIPTION_HEADER_SIZE
+                + transfer.encodedDescription.length;
+
+        if (required > out.remaining()) {
+            /*
+             * the description must be sent before any other one as the symbol
+             * table already contains its strings
+             */
+            if (transfer.encodedChunks == 0)
+                pendingTransfer = transfer;
+
+            return null;
+        }
+
+        lane.poll();
+        pendingTransfer = null;
+
+        if (lane == interactiveLane && !bulkLane.isEmpty()) {
+            interactiveBurst++;
+            preemptedChunks.incrementAndGet();
+        } else {
+            interactiveBurst = 0;
+        }
+
+        if (transfer.encodedChunks == 0) {
+            byte[] description = transfer.encodedDescription;
+
+            if (log.isTraceEnabled())
+                log.trace("sending transfer description: id="
+                    + transfer.fragmentId + ", len=" + description.length
+                    + " bytes");
+
+            out.put((byte) transfer.descriptionOpcode);
+            out.putShort((short) transfer.fragmentId);
+            out.putInt(transfer.chunks);
+            out.putInt(description.length);
+            out.put(description);
+
+            transfer.encodedDescription = null;
+        }
+
+        if (log.isTraceEnabled())
+            log.trace("sending data: id=" + transfer.fragmentId + ", len="
+                + length + " bytes");
+
+        out.put((byte) Opcode.DATA);
+        out.putShort((short) transfer.fragmentId);
+        out.putInt(length);
+        out.put(transfer.content, transfer.offset, length);
+
+        transfer.offset += length;
+        transfer.encodedChunks++;
+
+        if (!transfer.isEncoded())
+            bulkLane.add(transfer);
+
+        return transfer;
+    }
+
+    /**
+     * Returns the lane whose first transfer has to be sent next or
+     * <code>null</code> if there is no transfer to send.
+     */
+    private Deque<OutgoingTransfer> getNextLane() {
+        if (pendingTransfer != null)
+            return pendingTransfer.chunks == 1 ? interactiveLane : bulkLane;
+
+        boolean bulkWaiting = !bulkLane.isEmpty();
+
+        if (!interactiveLane.isEmpty()
+            && (!bulkWaiting || interactiveBurst < MAX_INTERACTIVE_BURST))
+            return interactiveLane;
+
+        return bulkWaiting ? bulkLane : null;
+    }
+
+    /**
+     * Encodes the description of the given transfer in the form the peer is
+     * able to read. The compact form must be encoded in the order the
+     * descriptions are written as the receiver has to resolve the symbols in
+     * this order.
+     */
+    private void encodeDescription(OutgoingTransfer transfer)
+        throws IOException {
+        if (compactTransferDescriptions) {
+            transfer.descriptionOpcode = Opcode.INTERNED_TRANSFERDESCRIPTION;
+            transfer.encodedDescription = TransferDescription.toByteArray(
+                transfer.description, outgoingSymbols);
+        } else {
+            transfer.descriptionOpcode = Opcode.TRANSFERDESCRIPTION;
+            transfer.encodedDescription = TransferDescription
+                .toByteArray(transfer.description);
+        }
+    }
+
+    /**
+     * Decodes the frames contained in the given buffer until a payload is
+     * complete. Incomplete frames at the end of the buffer are left in the
+     * buffer, except for the data of a data frame which is consumed right
+     * away.
+     *
+     * @return the transfer object of the completed payload or
+     *         <code>null</code> if more data has to be read first
+     * @throws IOException
+     *             if the data is malformed
+     */
+    BinaryChannelTransferObject decode(ByteBuffer in) throws IOException {
+        while (true) {
+            if (currentTransfer != null) {
+                if (!readChunkData(in))
+                    return null;
+
+                BinaryChannelTransferObject transferObject = completeChunk();
+
+                if (transferObject != null)
+                    return transferObject;
+
+            } else if (!decodeHeader(in)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decodes the next transfer description frame or the header of the next
+     * data frame.
+     *
+     * @return <code>false</code> if more data has to be read first
+     */
+    private boolean decodeHeader(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining())
+            return false;
+
+        int opcode = in.get(in.position()) & 0xFF;
+
+        switch (opcode) {
+        case Opcode.TRANSFERDESCRIPTION:
+        case Opcode.INTERNED_TRANSFERDESCRIPTION:
+            if (in.remaining() < TRANSFERDESCRIPTION_HEADER_SIZE)
+                return false;
+
+            int descriptionLength = in.getInt(in.position()
+                + TRANSFERDESCRIPTION_HEADER_SIZE - 4);
+
+            checkPayloadLength(descriptionLength);
+
+            if (in.remaining() < TRANSFERDESCRIPTION_HEADER_SIZE
+                + descriptionLength)
+                return false;
+
+            in.get();
+            readTransferDescription(opcode, in);
+            return true;
+
+        case Opcode.DATA:
+            if (in.remaining() < DATA_HEADER_SIZE)
+                return false;
+
+            in.get();
+            readDataHeader(in);
+            return true;
+
+        default:
+            throw new ProtocolException("unknown opcode: 0x"
+                + Integer.toHexString(opcode).toUpperCase());
+        }
+    }
+
+    private void readTransferDescription(int opcode, ByteBuffer in)
+        throws IOException {
+        int fragmentId = in.getShort();
+        int chunks = in.getInt();
+        int length = in.getInt();
+
+        if (log.isTraceEnabled())
+            log.trace("processing opcode 0x"
+                + Integer.toHexString(opcode).toUpperCase() + " [TFD]: id="
+                + fragmentId + ", chunks=" + chunks + ", TFD len=" + length
+                + " bytes");
+
+        if (descriptionBuffer.length < length)
+            descriptionBuffer = new byte[length];
+
+        in.get(descriptionBuffer, 0, length);
+
+        TransferDescription description;
+
+        if (opcode == Opcode.INTERNED_TRANSFERDESCRIPTION)
+            description = TransferDescription.fromByteArray(descriptionBuffer,
+                0, length, incomingSymbols);
+        else
+            description = TransferDescription.fromByteArray(descriptionBuffer,
+                0, length);
+
+        IncomingTransfer oldTransfer = pendingTransfers.put(fragmentId,
+            new IncomingTransfer(new BinaryChannelTransferObject(connection,
+                mode, description, chunks), getAnnouncedSize(description,
+                chunks), chunks));
+
+        if (oldTransfer != null)
+            throw new ProtocolException(
+                "replaced an transfer object that is still transmitted");
+    }
+
+    private void readDataHeader(ByteBuffer in) throws IOException {
+        int fragmentId = in.getShort();
+        int length = in.getInt();
+
+        if (log.isTraceEnabled())
+            log.trace("processing opcode 0x"
+                + Integer.toHexString(Opcode.DATA).toUpperCase()
+                + " [DATA]: id=" + fragmentId + ", DATA len=" + length
+                + " bytes");
+
+        checkPayloadLength(length);
+
+        IncomingTransfer transfer = pendingTransfers.get(fragmentId);
+
+        if (transfer == null)
+            throw new ProtocolException(
+                "received data for unknown fragment id: " + fragmentId);
+
+        ensureCapacity(transfer, length);
+
+        currentTransfer = transfer;
+        currentChunkRemaining = length;
+        currentFragmentId = fragmentId;
+    }
+
+    /**
+     * Copies the available data of the current data frame into the payload
+     * buffer of its transfer.
+     *
+     * @return <code>true</code> if the data frame is complete
+     */
+    private boolean readChunkData(ByteBuffer in) {
+        int length = Math.min(currentChunkRemaining, in.remaining());
+
+        IncomingTransfer transfer = currentTransfer;
+
+        in.get(transfer.buffer, transfer.length, length);
+
+        transfer.length += length;
+        currentChunkRemaining -= length;
+
+        return currentChunkRemaining == 0;
+    }
+
+    /**
+     * Finishes the current data frame.
+     *
+     * @return the transfer object of the current transfer if this was its
+     *         last chunk, <code>null</code> otherwise
+     */
+    private BinaryChannelTransferObject completeChunk() {
+        IncomingTransfer transfer = currentTransfer;
+
+        currentTransfer = null;
+        transfer.remainingChunks--;
+
+        if (!transfer.transferObject.isLastChunk())
+            return null;
+
+        pendingTransfers.remove(currentFragmentId);
+
+        byte[] payload = transfer.buffer;
+
+        if (payload.length != transfer.length) {
+            payload = Arrays.copyOf(payload, transfer.length);
+
+            bufferAllocations.incrementAndGet();
+            allocatedBufferBytes.addAndGet(payload.length);
+        }
+
+        transfer.transferObject.setPayload(payload.length, payload);
+
+        return transfer.transferObject;
+    }
+
+    /**
+     * Ensures that the payload buffer of the given transfer can hold the next
+     * chunk. The buffer starts with at most {@link #MAX_INITIAL_BUFFER_SIZE}
+     * bytes and doubles as needed, so the memory used is bounded by the data
+     * actually received and not by the size the sender claims. An announced
+     * size only caps the growth so the final buffer does not need to be
+     * trimmed.
+     */
+    private void ensureCapacity(IncomingTransfer transfer, int length)
+        throws ProtocolException {
+
+        int required = transfer.length + length;
+
+        if (transfer.size >= 0 && required > transfer.size)
+            throw new ProtocolException("received more data than announced: "
+                + required + " > " + transfer.size);
+
+        if (transfer.buffer != null && transfer.buffer.length >= required)
+            return;
+
+        long limit = transfer.size >= 0 ? transfer.size : Integer.MAX_VALUE;
+
+        int capacity;
+
+        if (transfer.remainingChunks <= 1)
+            capacity = required;
+        else if (transfer.buffer == null)
+            capacity = (int) Math.max(required, Math.min(Math.min(
+                (long) transfer.remainingChunks * CHUNKSIZE, limit),
+                MAX_INITIAL_BUFFER_SIZE));
+        else
+            capacity = (int) Math.max(required,
+                Math.min(2L * transfer.buffer.length, limit));
+
+        byte[] buffer = new byte[capacity];
+
+        if (transfer.buffer != null)
+            System.arraycopy(transfer.buffer, 0, buffer, 0, transfer.length);
+
+        bufferAllocations.incrementAndGet();
+        allocatedBufferBytes.addAndGet(capacity);
+
+        transfer.buffer = buffer;
+    }
+
+    /**
+     * Returns the payload size that was announced in the transfer description
+     * or -1 if the sender did not announce it or it does not match the number
+     * of chunks.
+     */
+    static int getAnnouncedSize(TransferDescription description, int chunks) {
+        long size = description.getSize();
+
+        if (size <= 0 || size > Integer.MAX_VALUE
+            || chunks != ((size - 1) / CHUNKSIZE) + 1)
+            return -1;
+
+        return (int) size;
+    }
+
+    private static void checkPayloadLength(int length)
+        throws ProtocolException {
+        if (length <= 0 || length > CHUNKSIZE)
+            throw new ProtocolException(
+                "payload length field contains corrupted value: 0 < " + length
+                    + " <= " + CHUNKSIZE);
+    }
+}
@@ -13,9 +13,12 @@ public class BinaryChannelTransferObject implements IncomingTransferObject {
     private byte[] payload;
     private long tranferDuration;
     private NetTransferMode transferMode;
+    private IByteStreamConnection connection;
 
-    public BinaryChannelTransferObject(NetTransferMode transferMode,
-        TransferDescription transferDescription, int chunkCount) {
+    public BinaryChannelTransferObject(IByteStreamConnection connection,
+        NetTransferMode transferMode, TransferDescription transferDescription,
+        int chunkCount) {
+        this.connection = connection;
         this.transferMode = transferMode;
         this.transferDescription = transferDescription;
         this.chunkCount = chunkCount;
@@ -54,6 +57,13 @@ public class BinaryChannelTransferObject implements IncomingTransferObject {
         return tranferDuration;
     }
 
+    /**
+     * Returns the connection this transfer object was received on.
+     */
+    IByteStreamConnection getConnection() {
+        return connection;
+    }
+
     /**
      * Sets the payload for this transfer object.
      * 
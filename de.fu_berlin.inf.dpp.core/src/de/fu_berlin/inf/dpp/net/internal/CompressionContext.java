@@ -0,0 +1,118 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The compression state of one direction of a byte stream connection.
+ * <p>
+ * Small payloads like activity packets barely compress on their own, but they
+ * repeat a lot of the content of the previous packets. Every payload is
+ * therefore compressed with the most recent payloads of the same direction as
+ * preset dictionary, which gives the same effect as keeping a single deflate
+ * stream open with sync flushes but does not need
+ * <code>Deflater.SYNC_FLUSH</code> and does not keep any native memory alive
+ * between two payloads. Before the first payload the history consists of a
+ * static dictionary of strings that are common in Saros activity packets.
+ * <p>
+ * As both sides have to maintain the same history, the receiver must
+ * decompress the payloads in the same order as the sender compressed them.
+ * Decompressing a payload with a different history is detected by zlib.
+ * <p>
+ * <b>Important:</b> any change to the dictionary or the history size
+ * <b>must</b> increase the
+ * {@link DataTransferManager#CONTEXT_COMPRESSION_VERSION}.
+ * <p>
+ * This class is not thread safe.
+ */
+final class CompressionContext {
+
+    /**
+     * The maximum number of bytes of the previous payloads that are used as
+     * dictionary.
+     */
+    static final int HISTORY_SIZE = 8 * 1024;
+
+    /*
+     * element and attribute names of the activities and other strings that
+     * occur in most activity packets, the most frequent ones at the end as
+     * zlib prefers near matches
+     */
+    private static final String DICTIONARY = "progressActivity"
+        + "permissionActivity changeColorActivity vcsActivity"
+        + " shareConsoleActivity folderActivity fileActivity"
+        + " recoveryFileActivity checksumErrorActivity"
+        + " stopFollowingActivity startFollowingActivity stopActivity"
+        + " nopActivity checksumActivity viewportActivity"
+        + " textSelectionActivity editorActivity"
+        + "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "@saros-con.imp.fu-berlin.de/Saros</source>"
+        + "<SPath><p>src/</p><i>.java</i></SPath>"
+        + "<vectorTime local=\"0\" remote=\"0\"/>"
+        + "<timestampOp><noOp/><splitOp><deleteOp><insertOp"
+        + " position=\"\" origin=\"\" text=\"\"/>"
+        + "<jupiterActivity source=\"\"><editorActivity type=\"\"/>"
+        + "<ADOS xmlns=\"de.fu_berlin.inf.dpp\" sid=\"\" seq=\"\">";
+
+    private static final byte[] DICTIONARY_BYTES;
+
+    static {
+        try {
+            DICTIONARY_BYTES = DICTIONARY.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        assert DICTIONARY_BYTES.length <= HISTORY_SIZE;
+    }
+
+    private final CompressionPool pool;
+
+    private final byte[] history = new byte[HISTORY_SIZE];
+
+    private int historyLength;
+
+    CompressionContext(CompressionPool pool) {
+        this.pool = pool;
+        append(DICTIONARY_BYTES);
+    }
+
+    /**
+     * Compresses the next payload of this direction.
+     */
+    byte[] deflate(byte[] payload) {
+        byte[] data = pool.deflate(payload, history, historyLength);
+        append(payload);
+        return data;
+    }
+
+    /**
+     * Decompresses the next payload of this direction.
+     *
+     * @throws IOException
+     *             if the payload is corrupted or the payloads are not
+     *             decompressed in the order they were compressed, in this case
+     *             the context cannot be used any longer
+     */
+    byte[] inflate(byte[] data) throws IOException {
+        byte[] payload = pool.inflate(data, history, historyLength);
+        append(payload);
+        return payload;
+    }
+
+    private void append(byte[] data) {
+        if (data.length >= HISTORY_SIZE) {
+            System.arraycopy(data, data.length - HISTORY_SIZE, history, 0,
+                HISTORY_SIZE);
+            historyLength = HISTORY_SIZE;
+            return;
+        }
+
+        int keep = Math.min(historyLength, HISTORY_SIZE - data.length);
+
+        System.arraycopy(history, historyLength - keep, history, 0, keep);
+        System.arraycopy(data, 0, history, keep, data.length);
+
+        historyLength = keep + data.length;
+    }
+}
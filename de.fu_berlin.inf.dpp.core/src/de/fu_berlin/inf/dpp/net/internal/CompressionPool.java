@@ -0,0 +1,200 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses payloads with pooled {@link Deflater} and
+ * {@link Inflater} instances. Both hold native zlib memory that is only
+ * released by calling <code>end()</code>, so the instances are reused for
+ * every payload instead of being left to the garbage collector. At most
+ * <code>capacity</code> instances of each kind are kept, the others are ended
+ * as soon as they are returned.
+ * <p>
+ * This class is thread safe.
+ */
+final class CompressionPool {
+
+    private final int level;
+
+    private final int capacity;
+
+    private final Deque<Deflater> deflaters = new ArrayDeque<Deflater>();
+
+    private final Deque<Inflater> inflaters = new ArrayDeque<Inflater>();
+
+    /**
+     * @param level
+     *            the compression level of the deflaters
+     * @param capacity
+     *            the maximum number of idle instances of each kind
+     */
+    CompressionPool(int level, int capacity) {
+        this.level = level;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Compresses the given data.
+     *
+     * @param dictionary
+     *            the preset dictionary or <code>null</code>
+     * @param dictionaryLength
+     *            the number of bytes of the dictionary to use
+     */
+    byte[] deflate(byte[] input, byte[] dictionary, int dictionaryLength) {
+        Deflater deflater = acquireDeflater();
+
+        try {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary, 0, dictionaryLength);
+
+            deflater.setInput(input);
+            deflater.finish();
+
+            // only incompressible data needs more space than the input
+            byte[] output = new byte[Math.max(input.length, 64)];
+            int length = 0;
+
+            while (!deflater.finished()) {
+                if (length == output.length)
+                    output = Arrays.copyOf(output, grow(output.length));
+
+                length += deflater.deflate(output, length, output.length
+                    - length);
+            }
+
+            return Arrays.copyOf(output, length);
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Decompresses the given data.
+     *
+     * @param dictionary
+     *            the preset dictionary the data was compressed with or
+     *            <code>null</code>
+     * @param dictionaryLength
+     *            the number of bytes of the dictionary to use
+     * @throws IOException
+     *             if the data is corrupted or was compressed with a different
+     *             dictionary
+     */
+    byte[] inflate(byte[] input, byte[] dictionary, int dictionaryLength)
+        throws IOException {
+
+        Inflater inflater = acquireInflater();
+
+        try {
+            inflater.setInput(input, 0, input.length);
+
+            byte[] output = new byte[grow(input.length)];
+            int length = 0;
+
+            while (!inflater.finished()) {
+                if (length == output.length)
+                    output = Arrays.copyOf(output, grow(output.length));
+
+                int count = inflater.inflate(output, length, output.length
+                    - length);
+
+                if (count == 0 && inflater.needsDictionary()) {
+                    if (dictionary == null)
+                        throw new IOException(
+                            "failed to inflate data: missing dictionary");
+
+                    try {
+                        inflater.setDictionary(dictionary, 0,
+                            dictionaryLength);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(
+                            "failed to inflate data: dictionary differs", e);
+                    }
+
+                    continue;
+                }
+
+                if (count == 0 && !inflater.finished()
+                    && inflater.needsInput())
+                    throw new IOException("failed to inflate data: truncated");
+
+                length += count;
+            }
+
+            return Arrays.copyOf(output, length);
+        } catch (DataFormatException e) {
+            throw new IOException("failed to inflate data", e);
+        } finally {
+            release(inflater);
+        }
+    }
+
+    /**
+     * Ends all idle instances. The pool can still be used afterwards.
+     */
+    synchronized void clear() {
+        for (Deflater deflater : deflaters)
+            deflater.end();
+
+        for (Inflater inflater : inflaters)
+            inflater.end();
+
+        deflaters.clear();
+        inflaters.clear();
+    }
+
+    /**
+     * Returns the number of idle instances of each kind, for testing purposes
+     * only.
+     */
+    synchronized int getIdleCount() {
+        return Math.max(deflaters.size(), inflaters.size());
+    }
+
+    private synchronized Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level);
+    }
+
+    private synchronized Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+
+        synchronized (this) {
+            if (deflaters.size() < capacity) {
+                deflaters.push(deflater);
+                return;
+            }
+        }
+
+        deflater.end();
+    }
+
+    private void release(Inflater inflater) {
+        inflater.reset();
+
+        synchronized (this) {
+            if (inflaters.size() < capacity) {
+                inflaters.push(inflater);
+                return;
+            }
+        }
+
+        inflater.end();
+    }
+
+    private static int grow(int length) {
+        return (int) Math.min(Math.max(length * 2L, 64), Integer.MAX_VALUE - 8);
+    }
+}
@@ -1,6 +1,5 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
@@ -11,13 +10,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
@@ -56,10 +54,26 @@ public class DataTransferManager implements IConnectionListener {
     private static final Logger log = Logger
         .getLogger(DataTransferManager.class);
 
-    private static final int CHUNKSIZE = 16 * 1024;
-
     private static final String DEFAULT_CONNECTION_ID = "default";
 
+    /**
+     * Payloads up to this size are compressed with the compression context of
+     * the connection, larger payloads are compressed separately so they do
+     * not hold up the small ones.
+     */
+    private static final int CONTEXT_COMPRESSION_LIMIT = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.net.CONTEXT_COMPRESSION_LIMIT", 16 * 1024);
+
+    private static final int COMPRESSION_POOL_SIZE = 8;
+
+    /**
+     * The version of the context compression, i.e of the static dictionary
+     * and the history size of the {@link CompressionContext}. Payloads are
+     * only compressed with a compression context if the peer announced the
+     * same version.
+     */
+    public static final int CONTEXT_COMPRESSION_VERSION = 1;
+
     private final TransferModeDispatch transferModeDispatch = new TransferModeDispatch();
 
     private CopyOnWriteArrayList<IPacketInterceptor> packetInterceptors = new CopyOnWriteArrayList<IPacketInterceptor>();
@@ -85,6 +99,33 @@ public class DataTransferManager implements IConnectionListener {
 
     private final List<ITransport> availableTransports = new CopyOnWriteArrayList<ITransport>();
 
+    private final CompressionPool compressionPool = new CompressionPool(
+        Deflater.DEFLATED, COMPRESSION_POOL_SIZE);
+
+    private final Map<IByteStreamConnection, CompressionContext> sendContexts = new HashMap<IByteStreamConnection, CompressionContext>();
+
+    private final Map<IByteStreamConnection, CompressionContext> receiveContexts = new HashMap<IByteStreamConnection, CompressionContext>();
+
+    /**
+     * Peers that are able to read the compact form of the transfer
+     * descriptions
+     */
+    private final Set<JID> compactTransferDescriptionPeers = Collections
+        .newSetFromMap(new ConcurrentHashMap<JID, Boolean>());
+
+    /**
+     * Peers that are able to inflate payloads compressed with a compression
+     * context
+     */
+    private final Set<JID> contextCompressionPeers = Collections
+        .newSetFromMap(new ConcurrentHashMap<JID, Boolean>());
+
+    /**
+     * Peers that accept connections of the {@link TCPTransport}
+     */
+    private final Set<JID> tcpTransportPeers = Collections
+        .newSetFromMap(new ConcurrentHashMap<JID, Boolean>());
+
     private final IByteStreamConnectionListener byteStreamConnectionListener = new IByteStreamConnectionListener() {
 
         /**
@@ -122,10 +163,43 @@ public class DataTransferManager implements IConnectionListener {
                 byte[] payload = transferObject.getPayload();
                 long compressedPayloadLenght = payload.length;
 
+                IByteStreamConnection connection = ((BinaryChannelTransferObject) transferObject)
+                    .getConnection();
+
+                CompressionContext context = null;
+
+                if (description.contextCompression()) {
+                    if (connection == null) {
+                        log.error("could not decompress transfer object payload,"
+                            + " the connection it was received on is unknown");
+                        return;
+                    }
+
+                    context = getCompressionContext(receiveContexts,
+                        connection);
+                }
+
                 try {
-                    payload = inflate(payload);
+                    long start = System.nanoTime();
+
+                    if (context != null) {
+                        synchronized (context) {
+                            payload = context.inflate(payload);
+                        }
+                    } else {
+                        payload = compressionPool.inflate(payload, null, 0);
+                    }
+
+                    transferModeDispatch.compressionFinished(
+                        description.getSender(), true, compressedPayloadLenght,
+                        payload.length, System.nanoTime() - start);
                 } catch (IOException e) {
                     log.error("could not decompress transfer object payload", e);
+
+                    // all following payloads of the context are lost too
+                    if (context != null)
+                        connection.close();
+
                     return;
                 }
 
@@ -170,6 +244,9 @@ public class DataTransferManager implements IConnectionListener {
                     holder.in = connection;
                 }
 
+                connection.setCompactTransferDescriptions(
+                    compactTransferDescriptionPeers.contains(peer));
+
                 connection.initialize();
             }
 
@@ -180,6 +257,7 @@ public class DataTransferManager implements IConnectionListener {
         @Override
         public void connectionClosed(String connectionID, JID peer,
             IByteStreamConnection connection) {
+            removeCompressionContexts(connection);
             closeConnection(connectionID, peer);
             transferModeDispatch
                 .transferModeChanged(peer, NetTransferMode.NONE);
@@ -278,12 +356,44 @@ public class DataTransferManager implements IConnectionListener {
                 return;
 
             long sizeUncompressed = payload.length;
+            long transferStartTime;
+
+            /*
+             * older peers ignore the context flag and cannot inflate such
+             * payloads
+             */
+            if (transferData.compressContent()
+                && payload.length <= CONTEXT_COMPRESSION_LIMIT
+                && contextCompressionPeers.contains(connection.getPeer())) {
+
+                CompressionContext context = getCompressionContext(
+                    sendContexts, connection);
+
+                /*
+                 * the receiver must decompress the payloads of a context in
+                 * the order they were compressed, so no other payload of this
+                 * context may be sent in between
+                 */
+                synchronized (context) {
+                    transferData.setContextCompression(true);
+                    payload = deflate(transferData, context, payload);
+                    transferStartTime = System.currentTimeMillis();
+
+                    try {
+                        connection.send(transferData, payload);
+                    } catch (IOException e) {
+                        // the receiver may not know the payload
+                        removeCompressionContexts(connection);
+                        throw e;
+                    }
+                }
+            } else {
+                if (transferData.compressContent())
+                    payload = deflate(transferData, null, payload);
 
-            if (transferData.compressContent())
-                payload = deflate(payload);
-
-            long transferStartTime = System.currentTimeMillis();
-            connection.send(transferData, payload);
+                transferStartTime = System.currentTimeMillis();
+                connection.send(transferData, payload);
+            }
 
             transferModeDispatch.transferFinished(transferData.getRecipient(),
                 connection.getMode(), false, payload.length, sizeUncompressed,
@@ -344,6 +454,90 @@ public class DataTransferManager implements IConnectionListener {
 
     }
 
+    /**
+     * Sets whether the given peer is able to read transfer descriptions in
+     * the compact form of {@linkplain TransferDescription#VERSION this
+     * version}. The setting applies to the current and all future connections
+     * to the peer. By default the full form is sent, which older peers are
+     * able to read.
+     * 
+     * @param peer
+     *            the resource qualified JID of the peer
+     * @param supported
+     *            <code>true</code> if the peer announced the same transfer
+     *            description version, <code>false</code> otherwise
+     */
+    public void setCompactTransferDescriptionsSupported(JID peer,
+        boolean supported) {
+
+        if (supported)
+            compactTransferDescriptionPeers.add(peer);
+        else
+            compactTransferDescriptionPeers.remove(peer);
+
+        synchronized (connections) {
+            for (ConnectionHolder holder : connections.values()) {
+                if (holder.out != null && holder.out.getPeer().equals(peer))
+                    holder.out.setCompactTransferDescriptions(supported);
+
+                if (holder.in != null && holder.in.getPeer().equals(peer))
+                    holder.in.setCompactTransferDescriptions(supported);
+            }
+        }
+    }
+
+    /**
+     * Sets whether the given peer is able to inflate payloads that were
+     * compressed with a compression context of the
+     * {@linkplain #CONTEXT_COMPRESSION_VERSION same version}. The setting
+     * applies to all payloads sent afterwards. By default every payload is
+     * compressed on its own, which older peers are able to inflate.
+     * 
+     * @param peer
+     *            the resource qualified JID of the peer
+     * @param supported
+     *            <code>true</code> if the peer announced the same context
+     *            compression version, <code>false</code> otherwise
+     */
+    public void setContextCompressionSupported(JID peer, boolean supported) {
+        if (supported)
+            contextCompressionPeers.add(peer);
+        else
+            contextCompressionPeers.remove(peer);
+    }
+
+    /**
+     * Sets whether the given peer accepts connections of the
+     * {@link TCPTransport} of the {@linkplain TCPTransport#VERSION same
+     * version}. The TCP transport is skipped for all other peers as they would
+     * not answer its offer requests.
+     * 
+     * @param peer
+     *            the resource qualified JID of the peer
+     * @param supported
+     *            <code>true</code> if the peer announced the same TCP
+     *            transport version, <code>false</code> otherwise
+     */
+    public void setTCPTransportSupported(JID peer, boolean supported) {
+        if (supported)
+            tcpTransportPeers.add(peer);
+        else
+            tcpTransportPeers.remove(peer);
+    }
+
+    /**
+     * Returns whether the {@link TCPTransport} is used for the current
+     * connection to the XMPP server, i.e whether it accepts connections of
+     * other peers.
+     */
+    public boolean isTCPTransportAvailable() {
+        for (ITransport transport : availableTransports)
+            if (transport instanceof TCPTransport)
+                return true;
+
+        return false;
+    }
+
     /**
      * Sets the transport that should be used to establish direct connections.
      * The transports will be used on the next successful connection to a XMPP
@@ -419,6 +613,13 @@ public class DataTransferManager implements IConnectionListener {
                     .getLocalAddresses().toArray()));
 
             for (ITransport transport : transportModesToUse) {
+                if (transport instanceof TCPTransport
+                    && !tcpTransportPeers.contains(peer)) {
+                    log.debug("skipping " + transport + " transport, " + peer
+                        + " does not accept its connections");
+                    continue;
+                }
+
                 log.info("establishing connection to " + peer.getBase()
                     + " from " + connectionJID + " using " + transport);
                 try {
@@ -557,6 +758,16 @@ public class DataTransferManager implements IConnectionListener {
 
         connections.clear();
 
+        synchronized (sendContexts) {
+            sendContexts.clear();
+        }
+
+        synchronized (receiveContexts) {
+            receiveContexts.clear();
+        }
+
+        compressionPool.clear();
+
         connection = null;
     }
 
@@ -630,42 +841,47 @@ public class DataTransferManager implements IConnectionListener {
         return connectionIdentifier.concat(":").concat(jid.toString());
     }
 
-    private static byte[] deflate(byte[] input) {
-
-        Deflater compressor = new Deflater(Deflater.DEFLATED);
-        compressor.setInput(input);
-        compressor.finish();
+    /**
+     * Compresses the payload with the given context or separately if the
+     * context is <code>null</code>.
+     */
+    private byte[] deflate(TransferDescription transferData,
+        CompressionContext context, byte[] payload) {
 
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
+        long start = System.nanoTime();
 
-        byte[] buf = new byte[CHUNKSIZE];
+        byte[] data = context != null ? context.deflate(payload)
+            : compressionPool.deflate(payload, null, 0);
 
-        while (!compressor.finished()) {
-            int count = compressor.deflate(buf);
-            bos.write(buf, 0, count);
-        }
+        transferModeDispatch.compressionFinished(transferData.getRecipient(),
+            false, data.length, payload.length, System.nanoTime() - start);
 
-        return bos.toByteArray();
+        return data;
     }
 
-    private static byte[] inflate(byte[] input) throws IOException {
+    private CompressionContext getCompressionContext(
+        Map<IByteStreamConnection, CompressionContext> contexts,
+        IByteStreamConnection connection) {
 
-        ByteArrayOutputStream bos;
-        Inflater decompressor = new Inflater();
+        synchronized (contexts) {
+            CompressionContext context = contexts.get(connection);
 
-        decompressor.setInput(input, 0, input.length);
-        bos = new ByteArrayOutputStream(input.length);
+            if (context == null) {
+                context = new CompressionContext(compressionPool);
+                contexts.put(connection, context);
+            }
 
-        byte[] buf = new byte[CHUNKSIZE];
+            return context;
+        }
+    }
 
-        try {
-            while (!decompressor.finished()) {
-                int count = decompressor.inflate(buf);
-                bos.write(buf, 0, count);
-            }
-            return bos.toByteArray();
-        } catch (DataFormatException e) {
-            throw new IOException("failed to inflate data", e);
+    private void removeCompressionContexts(IByteStreamConnection connection) {
+        synchronized (sendContexts) {
+            sendContexts.remove(connection);
+        }
+
+        synchronized (receiveContexts) {
+            receiveContexts.remove(connection);
         }
     }
 }
@@ -0,0 +1,120 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.util.VarIntUtils;
+
+/**
+ * The strings of the {@linkplain TransferDescription transfer descriptions}
+ * that were already sent in one direction of a connection, i.e the element
+ * names, namespaces and JIDs. The first occurrence of a string is sent
+ * completely and assigned the next id, every further occurrence is sent as
+ * this id. The receiving side maintains the same table and resolves the JIDs
+ * to shared instances.
+ * <p>
+ * Both sides must process the descriptions in the same order. The table is
+ * limited to {@link #MAX_SYMBOLS} strings, further strings are always sent
+ * completely.
+ * <p>
+ * This class is not thread safe.
+ */
+final class HeaderSymbolTable {
+
+    static final int MAX_SYMBOLS = 1024;
+
+    // reference that is followed by a string that is not (yet) known
+    private static final int LITERAL = 0;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private final List<String> symbols = new ArrayList<String>();
+
+    private final List<JID> jids = new ArrayList<JID>();
+
+    /**
+     * Writes the given string or its id if it was already written before.
+     */
+    void writeString(String value, DataOutputStream out) throws IOException {
+        Integer id = ids.get(value);
+
+        if (id != null) {
+            VarIntUtils.writeUnsignedLong(id + 1, out);
+            return;
+        }
+
+        VarIntUtils.writeUnsignedLong(LITERAL, out);
+        out.writeUTF(value);
+
+        if (symbols.size() < MAX_SYMBOLS) {
+            ids.put(value, symbols.size());
+            symbols.add(value);
+        }
+    }
+
+    /**
+     * Reads a string that was written with {@link #writeString}.
+     */
+    String readString(DataInputStream in) throws IOException {
+        return symbols.get(readSymbol(in));
+    }
+
+    /**
+     * Reads a JID that was written with {@link #writeString}. The same JID
+     * instance is returned for every occurrence of a string that is in the
+     * table.
+     */
+    JID readJID(DataInputStream in) throws IOException {
+        int id = readSymbol(in);
+
+        JID jid = jids.get(id);
+
+        if (jid == null) {
+            jid = new JID(symbols.get(id));
+
+            if (id < MAX_SYMBOLS)
+                jids.set(id, jid);
+        }
+
+        return jid;
+    }
+
+    /*
+     * Returns the id of the next symbol. Strings that do not fit into the
+     * table are stored temporarily at the index MAX_SYMBOLS.
+     */
+    private int readSymbol(DataInputStream in) throws IOException {
+        long reference = VarIntUtils.readUnsignedLong(in);
+
+        if (reference != LITERAL) {
+            if (reference > symbols.size() || reference > MAX_SYMBOLS)
+                throw new IOException("unknown symbol id: " + (reference - 1));
+
+            return (int) reference - 1;
+        }
+
+        String value = in.readUTF();
+
+        if (symbols.size() < MAX_SYMBOLS) {
+            symbols.add(value);
+            jids.add(null);
+            return symbols.size() - 1;
+        }
+
+        if (symbols.size() == MAX_SYMBOLS) {
+            symbols.add(value);
+            jids.add(null);
+        } else {
+            symbols.set(MAX_SYMBOLS, value);
+            jids.set(MAX_SYMBOLS, null);
+        }
+
+        return MAX_SYMBOLS;
+    }
+}
@@ -44,5 +44,18 @@ public interface IByteStreamConnection {
      */
     public String getConnectionID();
 
+    /**
+     * Sets whether the peer is able to read transfer descriptions in the
+     * compact form whose strings are interned per connection. Peers that did
+     * not announce this ability only know the full form, which is also the
+     * default. The setting may be changed at any time and applies to all
+     * transfer descriptions that were not written yet.
+     * 
+     * @param enabled
+     *            <code>true</code> to send the compact form,
+     *            <code>false</code> to send the full form
+     */
+    public void setCompactTransferDescriptions(boolean enabled);
+
     public NetTransferMode getMode();
 }
\ No newline at end of file
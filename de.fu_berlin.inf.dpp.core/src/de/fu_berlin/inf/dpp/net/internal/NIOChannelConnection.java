@@ -0,0 +1,582 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.fu_berlin.inf.dpp.net.IncomingTransferObject;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.NetTransferMode;
+import de.fu_berlin.inf.dpp.net.internal.BinaryChannelFraming.OutgoingTransfer;
+
+/**
+ * A byte stream connection on top of non-blocking channels that are served by
+ * a {@link NIOEventLoop}. The connection uses the same framing as the
+ * {@link BinaryChannelConnection}, including the interned transfer
+ * descriptions and the priority lanes for the outgoing payloads, but does not
+ * need any thread of its own: the frames are decoded and encoded by the I/O
+ * thread of the loop using direct buffers.
+ *
+ * The channel to read from and the channel to write to may be the same
+ * channel, e.g a socket channel, or two different channels, e.g the source and
+ * the sink of two pipes.
+ *
+ * send() is a reentrant method for sending data. It blocks until the payload
+ * is written to the channel, unless it is called by the I/O thread itself, in
+ * this case the payload is only queued.
+ *
+ * The incoming transfer objects are passed to the listener by a
+ * {@linkplain NIOEventLoop.Worker#dispatch dispatch thread} in the order they
+ * were received, so a slow listener does not stall the other channels of the
+ * I/O thread. While {@link #MAX_PENDING_DISPATCHES} transfer objects are
+ * waiting for their dispatch, no further data is read from the channel.
+ */
+final class NIOChannelConnection implements IByteStreamConnection,
+    NIOEventLoop.Handler {
+
+    private static final Logger log = Logger
+        .getLogger(NIOChannelConnection.class);
+
+    /**
+     * Max number of received transfer objects that wait for their dispatch
+     * before the I/O thread stops reading from the channel
+     */
+    static final int MAX_PENDING_DISPATCHES = 64;
+
+    private final JID peer;
+
+    private final String connectionID;
+
+    private final NetTransferMode mode;
+
+    private final IByteStreamConnectionListener listener;
+
+    private final NIOEventLoop.Worker worker;
+
+    private final SelectableChannel readChannel;
+
+    private final ReadableByteChannel reader;
+
+    private final SelectableChannel writeChannel;
+
+    private final WritableByteChannel writer;
+
+    private boolean connected;
+
+    private boolean initialized;
+
+    private boolean closed;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * The state of the outgoing transfers is guarded by the send lock, the
+     * incoming transfers are only accessed by the I/O thread
+     */
+    private final BinaryChannelFraming framing;
+
+    /*
+     * The following fields are only accessed by the I/O thread.
+     */
+
+    private SelectionKey readKey;
+
+    private SelectionKey writeKey;
+
+    private final ByteBuffer readBuffer = ByteBuffer
+        .allocateDirect(BinaryChannelFraming.READ_BUFFER_SIZE);
+
+    private final ByteBuffer writeBuffer = ByteBuffer
+        .allocateDirect(BinaryChannelFraming.MAX_CHUNK_FRAMES_SIZE);
+
+    /** whether reading stopped until further transfer objects are dispatched */
+    private boolean readSuspended;
+
+    /** transfers whose last chunk is contained in the write buffer */
+    private final List<OutgoingTransfer> flushing = new ArrayList<OutgoingTransfer>();
+
+    /** the received transfer objects in the order they were received */
+    private final Queue<IncomingTransferObject> dispatchQueue = new ConcurrentLinkedQueue<IncomingTransferObject>();
+
+    /** number of the received transfer objects that are not dispatched yet */
+    private final AtomicInteger pendingDispatches = new AtomicInteger();
+
+    /**
+     * Passes the queued transfer objects to the listener. Only one instance of
+     * this task is running at a time, it is started for the first transfer
+     * object that is queued while the queue is empty.
+     */
+    private final Runnable dispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            int remaining;
+
+            do {
+                IncomingTransferObject transferObject = dispatchQueue.poll();
+
+                try {
+                    listener.addIncomingTransferObject(transferObject);
+                } catch (RuntimeException e) {
+                    log.error(NIOChannelConnection.this
+                        + " failed to dispatch transfer object: "
+                        + e.getMessage(), e);
+                }
+
+                remaining = pendingDispatches.decrementAndGet();
+
+                if (remaining == MAX_PENDING_DISPATCHES - 1)
+                    worker.execute(resumeReadTask);
+
+            } while (remaining > 0);
+        }
+    };
+
+    private final Runnable resumeReadTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!readSuspended || !readKey.isValid())
+                return;
+
+            try {
+                decodeAvailable();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+    };
+
+    /*
+     * The following fields are guarded by the send lock.
+     */
+
+    private final Object sendLock = new Object();
+
+    private boolean writeRequested;
+
+    private IOException sendFailure;
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (sendLock) {
+                writeRequested = false;
+            }
+
+            try {
+                write();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+    };
+
+    /**
+     * Creates a connection on the given channels. The channels are registered
+     * with the given I/O thread when the connection is
+     * {@linkplain #initialize() initialized}, unless the connection was
+     * {@linkplain #attach attached} to an existing key before.
+     */
+    <R extends SelectableChannel & ReadableByteChannel, W extends SelectableChannel & WritableByteChannel> NIOChannelConnection(
+        JID peer, String connectionID, R readChannel, W writeChannel,
+        NetTransferMode mode, NIOEventLoop.Worker worker,
+        IByteStreamConnectionListener listener) {
+        this.peer = peer;
+        this.connectionID = connectionID;
+        this.readChannel = readChannel;
+        this.reader = readChannel;
+        this.writeChannel = writeChannel;
+        this.writer = writeChannel;
+        this.mode = mode;
+        this.worker = worker;
+        this.listener = listener;
+
+        framing = new BinaryChannelFraming(this, mode);
+
+        writeBuffer.flip();
+    }
+
+    /**
+     * Takes over the given key which must belong to the channel of this
+     * connection and be registered with the I/O thread of this connection.
+     * Must be called by that I/O thread before the connection is initialized.
+     */
+    void attach(SelectionKey key) {
+        assert worker.isCurrentThread();
+        assert readChannel == writeChannel && key.channel() == readChannel;
+
+        key.attach(this);
+        key.interestOps(0);
+
+        readKey = key;
+        writeKey = key;
+    }
+
+    @Override
+    public synchronized void initialize() {
+        if (initialized)
+            return;
+
+        initialized = true;
+        connected = !closed;
+
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    register();
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+        });
+    }
+
+    private void register() throws IOException {
+        if (!isConnected())
+            return;
+
+        if (readKey == null) {
+            readKey = worker.register(readChannel, 0, this);
+
+            writeKey = writeChannel == readChannel ? readKey : worker.register(
+                writeChannel, 0, this);
+        }
+
+        readKey.interestOps(readKey.interestOps() | SelectionKey.OP_READ);
+
+        // the payloads that were queued before the initialization
+        write();
+    }
+
+    @Override
+    public String getConnectionID() {
+        return connectionID;
+    }
+
+    @Override
+    public void setCompactTransferDescriptions(boolean enabled) {
+        framing.setCompactTransferDescriptions(enabled);
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public NetTransferMode getMode() {
+        return mode;
+    }
+
+    @Override
+    public JID getPeer() {
+        return peer;
+    }
+
+    /**
+     * Returns the number of bytes that were written to the channel, including
+     * the framing.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the number of bytes that were read from the channel, including
+     * the framing.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns how many buffers were allocated for the payloads of the incoming
+     * transfer objects. This is one per transfer object unless the sender did
+     * not announce the payload size.
+     */
+    public long getBufferAllocations() {
+        return framing.getBufferAllocations();
+    }
+
+    /**
+     * Returns the total size of the buffers that were allocated for the
+     * payloads of the incoming transfer objects.
+     */
+    public long getAllocatedBufferBytes() {
+        return framing.getAllocatedBufferBytes();
+    }
+
+    /**
+     * Returns how many single chunk payloads were sent while the sending of a
+     * larger payload was in progress.
+     */
+    public long getPreemptedChunks() {
+        return framing.getPreemptedChunks();
+    }
+
+    /**
+     * Returns the number of received transfer objects that are not dispatched
+     * yet, for testing purposes only.
+     */
+    int getPendingDispatches() {
+        return pendingDispatches.get();
+    }
+
+    @Override
+    public void close() {
+        boolean notify;
+
+        synchronized (this) {
+            if (closed)
+                return;
+
+            closed = true;
+            notify = connected;
+            connected = false;
+        }
+
+        closeQuietly(readChannel);
+
+        if (writeChannel != readChannel)
+            closeQuietly(writeChannel);
+
+        synchronized (sendLock) {
+            if (sendFailure == null)
+                sendFailure = new EOFException("connection is closed");
+
+            sendLock.notifyAll();
+        }
+
+        if (log.isDebugEnabled())
+            log.debug(this + " closed: sent=" + bytesSent.get()
+                + " bytes, received=" + bytesReceived.get()
+                + " bytes, buffer allocations="
+                + framing.getBufferAllocations() + " ("
+                + framing.getAllocatedBufferBytes() + " bytes)");
+
+        if (notify)
+            listener.connectionClosed(connectionID, peer, this);
+    }
+
+    @Override
+    public void failed(IOException cause) {
+        if (cause instanceof EOFException)
+            log.debug(this + " connection closed remotely: "
+                + cause.getMessage());
+        else if (cause instanceof ClosedChannelException)
+            log.debug(this + " connection closed locally");
+        else
+            log.error(this + " network error: " + cause.getMessage(), cause);
+
+        close();
+    }
+
+    @Override
+    public void send(TransferDescription data, byte[] content)
+        throws IOException {
+
+        OutgoingTransfer transfer;
+
+        synchronized (sendLock) {
+            if (sendFailure != null)
+                throw new EOFException("connection is closed");
+
+            transfer = framing.queue(data, content);
+
+            if (!writeRequested) {
+                writeRequested = true;
+                worker.execute(writeTask);
+            }
+
+            if (worker.isCurrentThread())
+                return;
+
+            boolean interrupted = false;
+
+            while (!transfer.isDone() && sendFailure == null) {
+                try {
+                    sendLock.wait();
+                } catch (InterruptedException e) {
+                    /*
+                     * the transfer cannot be aborted as its first chunks may
+                     * already be sent
+                     */
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            if (!transfer.isDone())
+                throw new IOException("failed to send data: "
+                    + sendFailure.getMessage(), sendFailure);
+        }
+    }
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+        if (key == readKey && key.isReadable())
+            read();
+
+        if (key == writeKey && key.isValid() && key.isWritable())
+            write();
+    }
+
+    /**
+     * Writes as many frames as the channel accepts without blocking.
+     */
+    private void write() throws IOException {
+        if (writeKey == null)
+            return;
+
+        while (true) {
+            if (!writeBuffer.hasRemaining()) {
+                completeFlushing();
+
+                if (!fillWriteBuffer()) {
+                    setWriteInterest(false);
+                    return;
+                }
+            }
+
+            int count = writer.write(writeBuffer);
+            bytesSent.addAndGet(count);
+
+            if (writeBuffer.hasRemaining()) {
+                setWriteInterest(true);
+                return;
+            }
+        }
+    }
+
+    private void setReadInterest(boolean enabled) {
+        int ops = readKey.interestOps();
+
+        int newOps = enabled ? ops | SelectionKey.OP_READ : ops
+            & ~SelectionKey.OP_READ;
+
+        if (newOps != ops)
+            readKey.interestOps(newOps);
+    }
+
+    private void setWriteInterest(boolean enabled) {
+        int ops = writeKey.interestOps();
+
+        int newOps = enabled ? ops | SelectionKey.OP_WRITE : ops
+            & ~SelectionKey.OP_WRITE;
+
+        if (newOps != ops)
+            writeKey.interestOps(newOps);
+    }
+
+    private void completeFlushing() {
+        if (flushing.isEmpty())
+            return;
+
+        synchronized (sendLock) {
+            for (OutgoingTransfer transfer : flushing)
+                framing.complete(transfer);
+
+            sendLock.notifyAll();
+        }
+
+        flushing.clear();
+    }
+
+    /**
+     * Encodes the next chunks of the queued transfers into the write buffer.
+     *
+     * @return <code>false</code> if there was nothing to send
+     */
+    private boolean fillWriteBuffer() throws IOException {
+        writeBuffer.clear();
+
+        synchronized (sendLock) {
+            OutgoingTransfer transfer;
+
+            while ((transfer = framing.encodeNextChunk(writeBuffer)) != null) {
+                if (transfer.isEncoded())
+                    flushing.add(transfer);
+            }
+        }
+
+        writeBuffer.flip();
+        return writeBuffer.hasRemaining();
+    }
+
+    /**
+     * Reads the available data and decodes all complete frames.
+     */
+    private void read() throws IOException {
+        int count = reader.read(readBuffer);
+
+        if (count < 0)
+            throw new EOFException("end of stream");
+
+        bytesReceived.addAndGet(count);
+
+        decodeAvailable();
+    }
+
+    /**
+     * Decodes the complete frames of the read buffer and queues the received
+     * transfer objects for their dispatch. Stops decoding and reading while
+     * too many transfer objects are waiting for their dispatch.
+     */
+    private void decodeAvailable() throws IOException {
+        readBuffer.flip();
+
+        try {
+            BinaryChannelTransferObject transferObject;
+
+            while (pendingDispatches.get() < MAX_PENDING_DISPATCHES
+                && (transferObject = framing.decode(readBuffer)) != null)
+                dispatch(transferObject);
+
+        } finally {
+            readBuffer.compact();
+        }
+
+        boolean suspend = pendingDispatches.get() >= MAX_PENDING_DISPATCHES;
+
+        if (suspend != readSuspended) {
+            readSuspended = suspend;
+            setReadInterest(!suspend);
+        }
+    }
+
+    private void dispatch(IncomingTransferObject transferObject) {
+        dispatchQueue.add(transferObject);
+
+        if (pendingDispatches.getAndIncrement() == 0)
+            worker.dispatch(dispatchTask);
+    }
+
+    private static void closeQuietly(SelectableChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode.toString() + " " + peer;
+    }
+}
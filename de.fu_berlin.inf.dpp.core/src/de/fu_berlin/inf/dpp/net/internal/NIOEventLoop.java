@@ -0,0 +1,344 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
+
+/**
+ * A small, fixed set of I/O threads that perform all reads and writes of the
+ * non-blocking channels registered with this loop. Every thread owns a
+ * {@link Selector}; channels are assigned to the threads in a round-robin
+ * fashion and stay with their thread for their whole life time, so all
+ * callbacks of a {@linkplain Handler handler} are performed by the same
+ * thread.
+ * <p>
+ * The selector of a thread must only be accessed by the thread itself. Other
+ * threads submit {@linkplain Worker#execute tasks} instead, which are
+ * performed by the I/O thread after its current selection.
+ * <p>
+ * Work that may block, e.g passing received data to the upper layers, must not
+ * be performed by the I/O threads as it would stall all channels of the
+ * thread. It is {@linkplain Worker#dispatch dispatched} to a separate pool of
+ * threads instead.
+ * <p>
+ * This class is thread safe.
+ */
+final class NIOEventLoop {
+
+    private static final Logger log = Logger.getLogger(NIOEventLoop.class);
+
+    /**
+     * Receives the readiness events of a registered channel.
+     */
+    interface Handler {
+
+        /**
+         * Called by the I/O thread when the channel of the given key is ready
+         * for at least one of the operations of its interest set.
+         *
+         * @throws IOException
+         *             if the channel failed, the key is cancelled and
+         *             {@link #failed} is called afterwards
+         */
+        public void ready(SelectionKey key) throws IOException;
+
+        /**
+         * Called by the I/O thread when handling an event of the channel
+         * failed or the loop is shut down.
+         */
+        public void failed(IOException cause);
+    }
+
+    /**
+     * An I/O thread of the loop.
+     */
+    final class Worker extends Thread {
+
+        private final Selector selector;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        // only accessed by this thread
+        private final PriorityQueue<TimedTask> timedTasks = new PriorityQueue<TimedTask>();
+
+        private long timedTaskCount;
+
+        private Worker(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        /**
+         * Performs the given task on this I/O thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+
+            if (Thread.currentThread() != this)
+                selector.wakeup();
+        }
+
+        /**
+         * Performs the given task on a dispatch thread of the loop, i.e not on
+         * any I/O thread. The task is dropped if the loop is shut down.
+         */
+        void dispatch(Runnable task) {
+            try {
+                dispatchExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                log.debug(getName() + " dropped task after shutdown");
+            }
+        }
+
+        /**
+         * Performs the given task on this I/O thread after the given delay.
+         */
+        void schedule(final Runnable task, long delay) {
+            final long time = System.currentTimeMillis() + delay;
+
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    timedTasks.add(new TimedTask(time, timedTaskCount++, task));
+                }
+            });
+        }
+
+        /**
+         * Registers the given channel with this thread. Must be called by this
+         * thread.
+         */
+        SelectionKey register(SelectableChannel channel, int ops,
+            Handler handler) throws IOException {
+
+            assert isCurrentThread();
+
+            channel.configureBlocking(false);
+            return channel.register(selector, ops, handler);
+        }
+
+        /**
+         * Returns whether the calling thread is this I/O thread.
+         */
+        boolean isCurrentThread() {
+            return Thread.currentThread() == this;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    runTasks();
+
+                    long timeout = runTimedTasks();
+
+                    if (!tasks.isEmpty())
+                        selector.selectNow();
+                    else
+                        selector.select(timeout);
+
+                    handleSelectedKeys();
+                }
+            } catch (IOException e) {
+                log.error(getName() + " selector failed: " + e.getMessage(), e);
+            } catch (RuntimeException e) {
+                log.error(getName() + " internal error: " + e.getMessage(), e);
+            } finally {
+                close();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error(getName() + " task failed: " + e.getMessage(), e);
+                }
+            }
+        }
+
+        /*
+         * returns the time in milliseconds until the next timed task is due or
+         * 0 if there is none
+         */
+        private long runTimedTasks() {
+            long now = System.currentTimeMillis();
+
+            TimedTask next;
+
+            while ((next = timedTasks.peek()) != null && next.time <= now) {
+                timedTasks.poll();
+
+                try {
+                    next.task.run();
+                } catch (RuntimeException e) {
+                    log.error(getName() + " task failed: " + e.getMessage(), e);
+                }
+            }
+
+            return next == null ? 0 : Math.max(1, next.time - now);
+        }
+
+        private void handleSelectedKeys() {
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                Handler handler = (Handler) key.attachment();
+
+                try {
+                    if (key.isValid())
+                        handler.ready(key);
+                } catch (CancelledKeyException e) {
+                    // closed by another thread while handling the event
+                    handler.failed(new ClosedChannelException());
+                } catch (IOException e) {
+                    key.cancel();
+                    handler.failed(e);
+                }
+            }
+        }
+
+        private void close() {
+            runTasks();
+
+            for (SelectionKey key : selector.keys()) {
+                key.cancel();
+                ((Handler) key.attachment()).failed(new ClosedChannelException());
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.warn(getName() + " failed to close selector", e);
+            }
+
+            log.debug(getName() + " stopped");
+        }
+    }
+
+    private static final class TimedTask implements Comparable<TimedTask> {
+
+        private final long time;
+
+        private final long sequence;
+
+        private final Runnable task;
+
+        private TimedTask(long time, long sequence, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(TimedTask other) {
+            if (time != other.time)
+                return time < other.time ? -1 : 1;
+
+            return sequence < other.sequence ? -1
+                : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final Worker[] workers;
+
+    private final ExecutorService dispatchExecutor;
+
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    private volatile boolean shutdown;
+
+    /**
+     * Creates and starts a new event loop.
+     *
+     * @param name
+     *            the name prefix of the I/O threads, the dispatch threads are
+     *            prefixed with <code>Dispatch-</code> followed by this name
+     * @param threads
+     *            the number of I/O threads, must be greater than zero
+     * @throws IOException
+     *             if a selector could not be opened
+     */
+    NIOEventLoop(String name, int threads) throws IOException {
+        if (threads <= 0)
+            throw new IllegalArgumentException("invalid thread count: "
+                + threads);
+
+        workers = new Worker[threads];
+
+        try {
+            for (int i = 0; i < threads; i++)
+                workers[i] = new Worker(name + "-" + i);
+        } catch (IOException e) {
+            for (Worker worker : workers)
+                if (worker != null)
+                    worker.selector.close();
+
+            throw e;
+        }
+
+        dispatchExecutor = Executors.newCachedThreadPool(new NamedThreadFactory(
+            "Dispatch-" + name + "-"));
+
+        for (Worker worker : workers)
+            worker.start();
+    }
+
+    /**
+     * Returns the I/O thread that should serve the next channel.
+     */
+    Worker next() {
+        return workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE)
+            % workers.length];
+    }
+
+    /**
+     * Returns the number of I/O threads of this loop.
+     */
+    int getThreadCount() {
+        return workers.length;
+    }
+
+    /**
+     * Stops all I/O threads. The handlers of the channels that are still
+     * registered are notified that their channel {@linkplain Handler#failed
+     * failed}. Tasks that were already dispatched are still performed.
+     */
+    void shutdown() {
+        shutdown = true;
+
+        for (Worker worker : workers)
+            worker.selector.wakeup();
+
+        dispatchExecutor.shutdown();
+    }
+
+    /**
+     * Returns whether {@link #shutdown} was called.
+     */
+    boolean isShutdown() {
+        return shutdown;
+    }
+}
@@ -0,0 +1,652 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.log4j.Logger;
+import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.PacketCollector;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.IQTypeFilter;
+import org.jivesoftware.smack.filter.PacketIDFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import com.thoughtworks.xstream.annotations.XStreamImplicit;
+
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.NetTransferMode;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider;
+
+/**
+ * Transport for direct TCP connections whose channels are served by a small
+ * {@linkplain NIOEventLoop event loop} instead of a thread per connection.
+ * <p>
+ * The peers negotiate a connection via XMPP: the connecting side asks the
+ * remote side for an offer, the remote side answers with the addresses and
+ * the port it is listening on and a random token which is only valid for a
+ * short time. The connecting side then tries to connect to the offered
+ * addresses and presents the token, so the remote side knows which peer and
+ * connection id the new connection belongs to. There is no fallback to a
+ * mediated connection, peers that cannot reach each other directly have to
+ * use another transport.
+ * <p>
+ * Peers that do not use this transport do not answer the offer requests, so
+ * it must only be used for peers that announced the same {@link #VERSION}.
+ */
+public class TCPTransport implements ITransport {
+
+    private static final Logger LOG = Logger.getLogger(TCPTransport.class);
+
+    /**
+     * The version of the negotiation and the handshake of this transport.
+     * <p>
+     * <b>Important:</b> any change to the offer or the handshake <b>must</b>
+     * increase the version.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The port to listen on for incoming connections, 0 to use any free port
+     */
+    private static final int PORT = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.net.tcp.PORT", 0);
+
+    /**
+     * Number of I/O threads that serve all connections of this transport
+     */
+    private static final int IO_THREADS = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.net.tcp.IO_THREADS", 2);
+
+    /**
+     * Timeout for connecting to a single offered address
+     */
+    private static final int CONNECT_TIMEOUT = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.net.tcp.CONNECT_TIMEOUT", 5000);
+
+    /**
+     * Time an offered token is valid and the remote side has to complete the
+     * handshake in
+     */
+    private static final int HANDSHAKE_TIMEOUT = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.net.tcp.HANDSHAKE_TIMEOUT", 30000);
+
+    private static final int MAGIC = 0x53544350; // STCP
+
+    private static final int TOKEN_LENGTH = 16;
+
+    private static final int HELLO_SIZE = 4 + TOKEN_LENGTH;
+
+    private static final byte ACCEPTED = 0x01;
+
+    private static final SecureRandom TOKEN_GENERATOR = new SecureRandom();
+
+    /**
+     * The payload of the IQ packets that are used to negotiate a connection.
+     * The request only contains the connection id.
+     */
+    @XStreamAlias(/* TCPTransportOffer */"TCPOF")
+    static final class Offer {
+
+        static final Provider PROVIDER = new Provider();
+
+        @XStreamAsAttribute
+        private String sid;
+
+        @XStreamAsAttribute
+        private String token;
+
+        @XStreamAsAttribute
+        private int port;
+
+        @XStreamImplicit(itemFieldName = "host")
+        private List<String> hosts;
+
+        Offer(String sid) {
+            this.sid = sid;
+        }
+
+        static final class Provider extends XStreamExtensionProvider<Offer> {
+            private Provider() {
+                super("de.fu_berlin.inf.dpp", "tcpof", Offer.class);
+            }
+        }
+    }
+
+    /**
+     * The peer and connection id an offered token belongs to.
+     */
+    private static final class PendingAccept {
+
+        private final JID peer;
+
+        private final String connectionID;
+
+        private final long expires;
+
+        private PendingAccept(JID peer, String connectionID, long expires) {
+            this.peer = peer;
+            this.connectionID = connectionID;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Reads the hello of an accepted channel and turns the channel into a
+     * connection if the hello contains a valid token.
+     */
+    private final class Handshake implements NIOEventLoop.Handler {
+
+        private final NIOEventLoop.Worker worker;
+
+        private final SocketChannel channel;
+
+        private final ByteBuffer hello = ByteBuffer.allocate(HELLO_SIZE);
+
+        private boolean done;
+
+        private Handshake(NIOEventLoop.Worker worker, SocketChannel channel) {
+            this.worker = worker;
+            this.channel = channel;
+        }
+
+        @Override
+        public void ready(SelectionKey key) throws IOException {
+            if (channel.read(hello) < 0)
+                throw new ProtocolException("incomplete handshake");
+
+            if (hello.hasRemaining())
+                return;
+
+            done = true;
+            hello.flip();
+
+            if (hello.getInt() != MAGIC)
+                throw new ProtocolException("invalid handshake");
+
+            byte[] token = new byte[TOKEN_LENGTH];
+            hello.get(token);
+
+            PendingAccept accept = removePendingAccept(toHex(token));
+
+            if (accept == null)
+                throw new ProtocolException("unknown or expired token");
+
+            IByteStreamConnectionListener listener = getConnectionListener();
+
+            if (listener == null)
+                throw new IOException("transport is not initialized");
+
+            if (channel.write(ByteBuffer.wrap(new byte[] { ACCEPTED })) != 1)
+                throw new IOException("failed to accept connection");
+
+            NIOChannelConnection connection = new NIOChannelConnection(
+                accept.peer, accept.connectionID, channel, channel,
+                NetTransferMode.TCP, worker, listener);
+
+            connection.attach(key);
+
+            LOG.debug("accepted TCP connection from " + accept.peer + " ["
+                + channel.socket().getRemoteSocketAddress() + "]");
+
+            listener.connectionChanged(accept.connectionID, accept.peer,
+                connection, true);
+        }
+
+        @Override
+        public void failed(IOException cause) {
+            done = true;
+
+            LOG.warn("rejected TCP connection from "
+                + channel.socket().getRemoteSocketAddress() + ": "
+                + cause.getMessage());
+
+            closeQuietly(channel);
+        }
+
+        private void timeout() {
+            if (done)
+                return;
+
+            failed(new IOException("handshake timed out"));
+        }
+    }
+
+    /**
+     * Accepts the incoming channels and starts their handshakes.
+     */
+    private final class Acceptor implements NIOEventLoop.Handler {
+
+        private final NIOEventLoop loop;
+
+        private final ServerSocketChannel serverChannel;
+
+        private Acceptor(NIOEventLoop loop, ServerSocketChannel serverChannel) {
+            this.loop = loop;
+            this.serverChannel = serverChannel;
+        }
+
+        @Override
+        public void ready(SelectionKey key) throws IOException {
+            SocketChannel channel = serverChannel.accept();
+
+            if (channel == null)
+                return;
+
+            channel.socket().setTcpNoDelay(true);
+
+            final NIOEventLoop.Worker worker = loop.next();
+            final Handshake handshake = new Handshake(worker, channel);
+
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        worker.register(handshake.channel,
+                            SelectionKey.OP_READ, handshake);
+                    } catch (IOException e) {
+                        handshake.failed(e);
+                        return;
+                    }
+
+                    worker.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            handshake.timeout();
+                        }
+                    }, HANDSHAKE_TIMEOUT);
+                }
+            });
+        }
+
+        @Override
+        public void failed(IOException cause) {
+            if (!loop.isShutdown())
+                LOG.error("stopped accepting TCP connections: "
+                    + cause.getMessage(), cause);
+
+            closeQuietly(serverChannel);
+        }
+    }
+
+    /**
+     * Answers the offer requests of the remote side.
+     */
+    private final PacketListener offerListener = new PacketListener() {
+
+        @Override
+        public void processPacket(Packet packet) {
+            Offer request = Offer.PROVIDER.getPayload(packet);
+
+            if (request == null || request.sid == null)
+                return;
+
+            Offer offer = createOffer(new JID(packet.getFrom()), request.sid);
+
+            IQ reply;
+
+            if (offer != null) {
+                reply = Offer.PROVIDER.createIQ(offer);
+                reply.setType(IQ.Type.RESULT);
+            } else {
+                reply = Offer.PROVIDER.createIQ(request);
+                reply.setType(IQ.Type.ERROR);
+            }
+
+            reply.setPacketID(packet.getPacketID());
+            reply.setTo(packet.getFrom());
+
+            Connection connection = getConnection();
+
+            if (connection != null)
+                connection.sendPacket(reply);
+        }
+    };
+
+    private Connection connection;
+
+    private IByteStreamConnectionListener connectionListener;
+
+    private NIOEventLoop loop;
+
+    private ServerSocketChannel serverChannel;
+
+    private final Map<String, PendingAccept> pendingAccepts = new HashMap<String, PendingAccept>();
+
+    @Override
+    public IByteStreamConnection connect(String connectionID, JID peer)
+        throws IOException, InterruptedException {
+
+        if (connectionID == null)
+            throw new NullPointerException("connectionID is null");
+
+        if (peer == null)
+            throw new NullPointerException("peer is null");
+
+        if (connectionID.isEmpty())
+            throw new IllegalArgumentException(
+                "connection id must not be empty");
+
+        if (connectionID.contains(String
+            .valueOf(ITransport.SESSION_ID_DELIMITER)))
+            throw new IllegalArgumentException(
+                "connection id must not contain '"
+                    + ITransport.SESSION_ID_DELIMITER + "'");
+
+        Connection connection;
+        IByteStreamConnectionListener listener;
+        NIOEventLoop loop;
+
+        synchronized (this) {
+            connection = this.connection;
+            listener = this.connectionListener;
+            loop = this.loop;
+        }
+
+        if (connection == null || listener == null || loop == null)
+            throw new IOException(this + " transport is not initialized");
+
+        Offer offer = requestOffer(connection, connectionID, peer);
+
+        byte[] token = fromHex(offer.token);
+
+        if (offer.hosts == null || token == null
+            || token.length != TOKEN_LENGTH)
+            throw new ProtocolException("received invalid offer from " + peer);
+
+        IOException lastError = null;
+
+        for (String host : offer.hosts) {
+            if (Thread.interrupted())
+                throw new InterruptedException(
+                    "interrupted while connecting to " + peer);
+
+            InetSocketAddress address = new InetSocketAddress(host, offer.port);
+
+            LOG.debug("trying to connect to " + peer + " at " + address);
+
+            SocketChannel channel = SocketChannel.open();
+
+            try {
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setSoTimeout(CONNECT_TIMEOUT);
+                channel.socket().connect(address, CONNECT_TIMEOUT);
+
+                ByteBuffer hello = ByteBuffer.allocate(HELLO_SIZE);
+                hello.putInt(MAGIC).put(token).flip();
+
+                while (hello.hasRemaining())
+                    channel.write(hello);
+
+                // the socket adaptor honors the read timeout
+                int response = new DataInputStream(channel.socket()
+                    .getInputStream()).read();
+
+                if (response != ACCEPTED)
+                    throw new ProtocolException("connection was rejected");
+
+                LOG.debug("established TCP connection to " + peer + " at "
+                    + address);
+
+                return new NIOChannelConnection(peer, connectionID, channel,
+                    channel, NetTransferMode.TCP, loop.next(), listener);
+            } catch (IOException e) {
+                LOG.debug("failed to connect to " + peer + " at " + address
+                    + ": " + e.getMessage());
+
+                closeQuietly(channel);
+                lastError = e;
+            }
+        }
+
+        throw new IOException("could not connect to any address offered by "
+            + peer, lastError);
+    }
+
+    @Override
+    public synchronized void initialize(Connection connection,
+        IByteStreamConnectionListener listener) {
+
+        try {
+            loop = new NIOEventLoop("TCPTransport", IO_THREADS);
+
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().bind(new InetSocketAddress(PORT));
+        } catch (IOException e) {
+            LOG.error("failed to initialize TCP transport: " + e.getMessage(),
+                e);
+
+            closeQuietly(serverChannel);
+            serverChannel = null;
+
+            if (loop != null)
+                loop.shutdown();
+
+            loop = null;
+            return;
+        }
+
+        final NIOEventLoop.Worker worker = loop.next();
+        final Acceptor acceptor = new Acceptor(loop, serverChannel);
+
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    worker.register(acceptor.serverChannel,
+                        SelectionKey.OP_ACCEPT, acceptor);
+                } catch (IOException e) {
+                    acceptor.failed(e);
+                }
+            }
+        });
+
+        this.connection = connection;
+        this.connectionListener = listener;
+
+        connection.addPacketListener(offerListener, new AndFilter(
+            Offer.PROVIDER.getIQFilter(), new IQTypeFilter(IQ.Type.GET)));
+
+        LOG.debug("listening for TCP connections on port "
+            + serverChannel.socket().getLocalPort());
+    }
+
+    @Override
+    public synchronized void uninitialize() {
+        if (connection != null)
+            connection.removePacketListener(offerListener);
+
+        closeQuietly(serverChannel);
+
+        if (loop != null)
+            loop.shutdown();
+
+        pendingAccepts.clear();
+
+        connection = null;
+        connectionListener = null;
+        serverChannel = null;
+        loop = null;
+    }
+
+    @Override
+    public String toString() {
+        return "TCP";
+    }
+
+    private synchronized Connection getConnection() {
+        return connection;
+    }
+
+    private synchronized IByteStreamConnectionListener getConnectionListener() {
+        return connectionListener;
+    }
+
+    private Offer requestOffer(Connection connection, String connectionID,
+        JID peer) throws IOException {
+
+        IQ request = Offer.PROVIDER.createIQ(new Offer(connectionID));
+        request.setType(IQ.Type.GET);
+        request.setTo(peer.toString());
+
+        PacketCollector collector = connection
+            .createPacketCollector(new PacketIDFilter(request.getPacketID()));
+
+        try {
+            connection.sendPacket(request);
+
+            Packet response = collector.nextResult(SmackConfiguration
+                .getPacketReplyTimeout());
+
+            if (response == null)
+                throw new IOException("no offer received from " + peer);
+
+            if (((IQ) response).getType() != IQ.Type.RESULT)
+                throw new IOException(peer + " does not accept TCP connections");
+
+            Offer offer = Offer.PROVIDER.getPayload(response);
+
+            if (offer == null)
+                throw new ProtocolException("received invalid offer from "
+                    + peer);
+
+            return offer;
+        } finally {
+            collector.cancel();
+        }
+    }
+
+    /**
+     * Creates an offer for the given peer or returns <code>null</code> if this
+     * transport is not accepting connections.
+     */
+    private synchronized Offer createOffer(JID peer, String connectionID) {
+        if (serverChannel == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+
+        for (Iterator<PendingAccept> it = pendingAccepts.values().iterator(); it
+            .hasNext();) {
+            if (it.next().expires < now)
+                it.remove();
+        }
+
+        byte[] token = new byte[TOKEN_LENGTH];
+        TOKEN_GENERATOR.nextBytes(token);
+
+        Offer offer = new Offer(connectionID);
+        offer.token = toHex(token);
+        offer.port = serverChannel.socket().getLocalPort();
+        offer.hosts = getLocalAddresses();
+
+        pendingAccepts.put(offer.token, new PendingAccept(peer, connectionID,
+            now + HANDSHAKE_TIMEOUT));
+
+        return offer;
+    }
+
+    private synchronized PendingAccept removePendingAccept(String token) {
+        PendingAccept accept = pendingAccepts.remove(token);
+
+        if (accept == null || accept.expires < System.currentTimeMillis())
+            return null;
+
+        return accept;
+    }
+
+    /**
+     * Returns the addresses of all interfaces that are up, the loopback
+     * addresses last.
+     */
+    private static List<String> getLocalAddresses() {
+        List<String> addresses = new ArrayList<String>();
+        List<String> loopbackAddresses = new ArrayList<String>();
+
+        try {
+            for (NetworkInterface networkInterface : Collections
+                .list(NetworkInterface.getNetworkInterfaces())) {
+
+                if (!networkInterface.isUp())
+                    continue;
+
+                for (InetAddress address : Collections.list(networkInterface
+                    .getInetAddresses())) {
+
+                    // would need the scope id of the remote side
+                    if (address instanceof Inet6Address
+                        && address.isLinkLocalAddress())
+                        continue;
+
+                    String host = address.getHostAddress();
+
+                    // the scope id is only meaningful on this host
+                    int scope = host.indexOf('%');
+
+                    if (scope != -1)
+                        host = host.substring(0, scope);
+
+                    if (address.isLoopbackAddress())
+                        loopbackAddresses.add(host);
+                    else
+                        addresses.add(host);
+                }
+            }
+        } catch (SocketException e) {
+            LOG.warn("failed to determine local addresses: " + e.getMessage());
+        }
+
+        addresses.addAll(loopbackAddresses);
+        return addresses;
+    }
+
+    private static String toHex(byte[] data) {
+        return new String(Hex.encodeHex(data));
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex == null)
+            return null;
+
+        try {
+            return Hex.decodeHex(hex.toCharArray());
+        } catch (DecoderException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.util.VarIntUtils;
 
 /**
  * A TransferDescription contains all necessary information for dealing with
@@ -20,6 +21,20 @@ import de.fu_berlin.inf.dpp.net.JID;
  */
 public class TransferDescription {
 
+    /*
+     * flags of the compact form, the binary and context flags are also
+     * appended to the full form if one of them is set
+     */
+    private static final int FLAG_COMPRESS = 1;
+    private static final int FLAG_BINARY = 2;
+    private static final int FLAG_CONTEXT = 4;
+
+    /**
+     * The version of the compact form. Peers must only send the compact form
+     * to each other if they announced the same version.
+     */
+    public static final int VERSION = 1;
+
     private TransferDescription() {
         // NOP
     }
@@ -39,6 +54,18 @@ public class TransferDescription {
      */
     private boolean compress;
 
+    /**
+     * Field used to indicate that the payload is not XML but the binary
+     * representation of a packet extension.
+     */
+    private boolean binary;
+
+    /**
+     * Field used to indicate that the payload was compressed with the
+     * compression context of the connection it was sent on.
+     */
+    private boolean contextCompression;
+
     @Override
     public String toString() {
         return "Bytestream transfer. type=" + type + " namespace=" + namespace;
@@ -48,6 +75,13 @@ public class TransferDescription {
         return new TransferDescription();
     }
 
+    /**
+     * Serializes the given description in the full form. The flags that were
+     * added after the initial version of this form are appended as an
+     * optional trailing byte, which is omitted if none of them is set, so the
+     * result can be read by older receivers as long as the payload does not
+     * require the newer flags.
+     */
     public static byte[] toByteArray(TransferDescription description)
         throws IOException {
         ByteArrayOutputStream serialized = new ByteArrayOutputStream();
@@ -65,6 +99,12 @@ public class TransferDescription {
         out.writeLong(description.size);
         out.writeBoolean(description.compress);
 
+        int flags = (description.binary ? FLAG_BINARY : 0)
+            | (description.contextCompression ? FLAG_CONTEXT : 0);
+
+        if (flags != 0)
+            out.writeByte(flags);
+
         out.close();
 
         return serialized.toByteArray();
@@ -72,7 +112,13 @@ public class TransferDescription {
 
     public static TransferDescription fromByteArray(byte[] data)
         throws IOException {
-        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        return fromByteArray(data, 0, data.length);
+    }
+
+    public static TransferDescription fromByteArray(byte[] data, int offset,
+        int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data,
+            offset, length));
 
         TransferDescription description = new TransferDescription();
 
@@ -85,8 +131,78 @@ public class TransferDescription {
         description.size = in.readLong();
         description.compress = in.readBoolean();
 
+        // older senders do not write the trailing flags
+        if (in.available() > 0) {
+            int flags = in.readUnsignedByte();
+
+            description.binary = (flags & FLAG_BINARY) != 0;
+            description.contextCompression = (flags & FLAG_CONTEXT) != 0;
+        }
+
+        return description;
+
+    }
+
+    /**
+     * Serializes the given description in a compact form in which the strings
+     * are replaced by the ids of the given symbol table if they were already
+     * written before.
+     */
+    static byte[] toByteArray(TransferDescription description,
+        HeaderSymbolTable symbols) throws IOException {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream(32);
+
+        DataOutputStream out = new DataOutputStream(serialized);
+
+        JID recipient = description.recipient;
+        JID sender = description.sender;
+
+        symbols.writeString(nullToEmpty(description.type), out);
+        symbols.writeString(nullToEmpty(description.namespace), out);
+        symbols.writeString(recipient != null ? recipient.toString() : "", out);
+        symbols.writeString(sender != null ? sender.toString() : "", out);
+
+        VarIntUtils.writeUnsignedLong(description.size, out);
+
+        out.writeByte((description.compress ? FLAG_COMPRESS : 0)
+            | (description.binary ? FLAG_BINARY : 0)
+            | (description.contextCompression ? FLAG_CONTEXT : 0));
+
+        out.close();
+
+        return serialized.toByteArray();
+    }
+
+    /**
+     * Deserializes a description that was serialized with
+     * {@link #toByteArray(TransferDescription, HeaderSymbolTable)}.
+     */
+    static TransferDescription fromByteArray(byte[] data, int offset,
+        int length, HeaderSymbolTable symbols) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data,
+            offset, length));
+
+        TransferDescription description = new TransferDescription();
+
+        description.type = symbols.readString(in);
+        description.namespace = symbols.readString(in);
+
+        description.recipient = symbols.readJID(in);
+        description.sender = symbols.readJID(in);
+
+        description.size = VarIntUtils.readUnsignedLong(in);
+
+        int flags = in.readUnsignedByte();
+
+        description.compress = (flags & FLAG_COMPRESS) != 0;
+        description.binary = (flags & FLAG_BINARY) != 0;
+        description.contextCompression = (flags & FLAG_CONTEXT) != 0;
+
         return description;
+    }
 
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
     }
 
     TransferDescription setNamespace(String namespace) {
@@ -134,6 +250,24 @@ public class TransferDescription {
         return compress;
     }
 
+    TransferDescription setBinaryContent(boolean binary) {
+        this.binary = binary;
+        return this;
+    }
+
+    public boolean binaryContent() {
+        return binary;
+    }
+
+    TransferDescription setContextCompression(boolean contextCompression) {
+        this.contextCompression = contextCompression;
+        return this;
+    }
+
+    public boolean contextCompression() {
+        return contextCompression;
+    }
+
     /**
      * Set the size of the object that is to be transferred (e.g. bytes, words,
      * units)
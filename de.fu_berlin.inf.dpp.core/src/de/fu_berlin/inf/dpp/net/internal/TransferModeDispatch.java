@@ -39,6 +39,20 @@ class TransferModeDispatch implements ITransferModeListener {
         }
     }
 
+    @Override
+    public void compressionFinished(JID jid, boolean incoming,
+        long sizeCompressed, long sizeUncompressed, long compressionNanos) {
+
+        for (ITransferModeListener listener : listeners) {
+            try {
+                listener.compressionFinished(jid, incoming, sizeCompressed,
+                    sizeUncompressed, compressionNanos);
+            } catch (RuntimeException e) {
+                log.error("Listener crashed: ", e);
+            }
+        }
+    }
+
     @Override
     public synchronized void transferModeChanged(JID jid, NetTransferMode mode) {
         for (ITransferModeListener listener : listeners) {
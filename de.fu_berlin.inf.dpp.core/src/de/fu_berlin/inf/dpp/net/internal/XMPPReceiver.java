@@ -27,6 +27,7 @@ import de.fu_berlin.inf.dpp.net.IncomingTransferObject;
 import de.fu_berlin.inf.dpp.net.SarosPacketCollector;
 import de.fu_berlin.inf.dpp.net.SarosPacketCollector.CancelHook;
 import de.fu_berlin.inf.dpp.net.XMPPConnectionService;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider;
 
 @Component(module = "net")
 public class XMPPReceiver implements IReceiver {
@@ -175,11 +176,43 @@ public class XMPPReceiver implements IReceiver {
             return null;
         }
 
+        PacketExtension extension;
+
+        if (description.binaryContent()) {
+            if (!(provider instanceof XStreamExtensionProvider)) {
+                LOG.warn("could not deserialize binary transfer object because the provider with namespace '"
+                    + namespace
+                    + "' and element name '"
+                    + name
+                    + "' does not support binary data");
+                return null;
+            }
+
+            extension = ((XStreamExtensionProvider<?>) provider)
+                .parseBinary(transferObject.getPayload());
+        } else {
+            extension = parseExtension(provider, transferObject.getPayload());
+        }
+
+        if (extension == null)
+            return null;
+
+        Packet packet = new Message();
+        packet.setPacketID(Packet.ID_NOT_AVAILABLE);
+        packet.setFrom(description.getSender().toString());
+        packet.setTo(description.getRecipient().toString());
+        packet.addExtension(extension);
+
+        return packet;
+    }
+
+    private PacketExtension parseExtension(PacketExtensionProvider provider,
+        byte[] payload) {
+
         PacketExtension extension = null;
 
         try {
-            parser.setInput(
-                new ByteArrayInputStream(transferObject.getPayload()), "UTF-8");
+            parser.setInput(new ByteArrayInputStream(payload), "UTF-8");
             /*
              * We have to skip the empty start tag because Smack expects a
              * parser that already has started parsing.
@@ -196,12 +229,6 @@ public class XMPPReceiver implements IReceiver {
             return null;
         }
 
-        Packet packet = new Message();
-        packet.setPacketID(Packet.ID_NOT_AVAILABLE);
-        packet.setFrom(description.getSender().toString());
-        packet.setTo(description.getRecipient().toString());
-        packet.addExtension(extension);
-
-        return packet;
+        return extension;
     }
 }
@@ -33,6 +33,7 @@ import de.fu_berlin.inf.dpp.net.IConnectionListener;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
 import de.fu_berlin.inf.dpp.net.JID;
 import de.fu_berlin.inf.dpp.net.XMPPConnectionService;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider.BinaryPacketExtension;
 
 /**
  * ITransmitter implementation using XMPP, IBB streams and Socks5 streams for
@@ -78,7 +79,21 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
             .setType(extension.getElementName())
             .setNamespace(extension.getNamespace());
 
-        byte[] data = extension.toXML().getBytes("UTF-8");
+        byte[] data = null;
+
+        if (extension instanceof BinaryPacketExtension) {
+            try {
+                data = ((BinaryPacketExtension<?>) extension).toBinary();
+                transferDescription.setBinaryContent(true);
+            } catch (IOException e) {
+                log.warn("could not encode packet extension '"
+                    + extension.getElementName()
+                    + "' in binary format, falling back to XML", e);
+            }
+        }
+
+        if (data == null)
+            data = extension.toXML().getBytes("UTF-8");
 
         if (data.length > PACKET_EXTENSION_COMPRESS_THRESHOLD)
             transferDescription.setCompressContent(true);
@@ -0,0 +1,460 @@
+package de.fu_berlin.inf.dpp.util;
+
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.readUnsigned;
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.writeUnsigned;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Block based delta encoding of file contents similar to the rsync algorithm.
+ * <p>
+ * The side that owns an outdated copy of a file calculates a
+ * {@linkplain #createSignature signature} of it. The signature contains a weak
+ * rolling checksum and a strong checksum for every block of the file. The side
+ * that owns the current copy uses the signature to {@linkplain #createDelta
+ * create a delta} that only contains references to the blocks that are
+ * already present in the outdated copy and the literal data in between. The
+ * outdated copy is then updated by {@linkplain #applyDelta applying} the
+ * delta.
+ * <p>
+ * Every delta contains the MD5 hash of the current content, so applying a
+ * delta to a different base than the one the signature was calculated from is
+ * always detected.
+ */
+public final class BlockDelta {
+
+    /**
+     * Files smaller than this size should be transferred completely as the
+     * signature and delta overhead outweighs the savings.
+     */
+    public static final int MIN_FILE_SIZE = 4096;
+
+    private static final int VERSION = 1;
+
+    private static final int MIN_BLOCK_SIZE = 512;
+
+    private static final int MAX_BLOCK_SIZE = 16 * 1024;
+
+    // delta instructions
+
+    private static final int END = 0;
+    private static final int COPY = 1;
+    private static final int LITERAL = 2;
+
+    private BlockDelta() {
+        // NOP
+    }
+
+    /**
+     * Calculates the signature of the given content.
+     *
+     * @param content
+     *            the content of the outdated copy
+     * @return the encoded signature
+     */
+    public static byte[] createSignature(byte[] content) {
+        int blockSize = getBlockSize(content.length);
+        int blocks = (content.length + blockSize - 1) / blockSize;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+            16 + blocks * 12);
+
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        MessageDigest digest = createDigest();
+
+        try {
+            out.writeByte(VERSION);
+            writeUnsigned(blockSize, out);
+            writeUnsigned(content.length, out);
+
+            for (int offset = 0; offset < content.length; offset += blockSize) {
+                int length = Math.min(blockSize, content.length - offset);
+                out.writeInt(weakChecksum(content, offset, length));
+                out.writeLong(strongChecksum(digest, content, offset, length));
+            }
+        } catch (IOException e) {
+            // cannot happen
+            throw new IllegalStateException(e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Creates a delta that transforms the content the given signature was
+     * calculated from into the given content.
+     *
+     * @param signature
+     *            the signature of the outdated copy
+     * @param content
+     *            the current content
+     * @return the encoded delta
+     * @throws IOException
+     *             if the signature is malformed
+     */
+    public static byte[] createDelta(byte[] signature, byte[] content)
+        throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            signature));
+
+        int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported signature version: " + version);
+
+        int blockSize = readUnsigned(in);
+        int baseLength = readUnsigned(in);
+
+        if (blockSize <= 0)
+            throw new IOException("invalid block size: " + blockSize);
+
+        int blocks = (int) ((baseLength + (long) blockSize - 1) / blockSize);
+
+        int[] weak = new int[blocks];
+        long[] strong = new long[blocks];
+
+        for (int i = 0; i < blocks; i++) {
+            weak[i] = in.readInt();
+            strong[i] = in.readLong();
+        }
+
+        // only full blocks can be found with the rolling checksum
+        Map<Integer, List<Integer>> blocksByWeak = new HashMap<Integer, List<Integer>>();
+
+        int fullBlocks = baseLength / blockSize;
+
+        for (int i = 0; i < fullBlocks; i++) {
+            List<Integer> candidates = blocksByWeak.get(weak[i]);
+
+            if (candidates == null) {
+                candidates = new ArrayList<Integer>(1);
+                blocksByWeak.put(weak[i], candidates);
+            }
+
+            candidates.add(i);
+        }
+
+        MessageDigest digest = createDigest();
+
+        DeltaWriter writer = new DeltaWriter(content, blockSize);
+
+        int position = 0;
+        int literalStart = 0;
+
+        if (fullBlocks > 0 && content.length >= blockSize) {
+            int a = 0;
+            int b = 0;
+
+            for (int i = 0; i < blockSize; i++) {
+                int value = content[i] & 0xFF;
+                a += value;
+                b += (blockSize - i) * value;
+            }
+
+            while (true) {
+                int match = -1;
+
+                List<Integer> candidates = blocksByWeak.get(toWeak(a, b));
+
+                if (candidates != null) {
+                    long checksum = strongChecksum(digest, content, position,
+                        blockSize);
+
+                    for (int candidate : candidates) {
+                        if (strong[candidate] != checksum)
+                            continue;
+
+                        match = candidate;
+
+                        // prefer continuing the current copy run
+                        if (writer.continuesCopy(candidate))
+                            break;
+                    }
+                }
+
+                if (match >= 0) {
+                    writer.literal(literalStart, position);
+                    writer.copy(match);
+                    position += blockSize;
+                    literalStart = position;
+
+                    if (position + blockSize > content.length)
+                        break;
+
+                    a = 0;
+                    b = 0;
+
+                    for (int i = 0; i < blockSize; i++) {
+                        int value = content[position + i] & 0xFF;
+                        a += value;
+                        b += (blockSize - i) * value;
+                    }
+
+                    continue;
+                }
+
+                if (position + blockSize >= content.length)
+                    break;
+
+                int outgoing = content[position] & 0xFF;
+                int incoming = content[position + blockSize] & 0xFF;
+
+                a += incoming - outgoing;
+                b += a - blockSize * outgoing;
+                position++;
+            }
+        }
+
+        // the last block of the base may be shorter than the block size
+        int tailLength = baseLength - fullBlocks * blockSize;
+        int tailStart = content.length - tailLength;
+
+        if (tailLength > 0 && tailStart >= literalStart
+            && weakChecksum(content, tailStart, tailLength) == weak[blocks - 1]
+            && strongChecksum(digest, content, tailStart, tailLength) == strong[blocks - 1]) {
+
+            writer.literal(literalStart, tailStart);
+            writer.copy(blocks - 1);
+            literalStart = content.length;
+        }
+
+        writer.literal(literalStart, content.length);
+
+        return writer.finish(digest);
+    }
+
+    /**
+     * Applies the given delta to the given base content.
+     *
+     * @param base
+     *            the content the signature was calculated from
+     * @param delta
+     *            the delta
+     * @return the current content
+     * @throws IOException
+     *             if the delta is malformed or the result does not match the
+     *             content the delta was created for, e.g because the delta was
+     *             applied to a different base
+     */
+    public static byte[] applyDelta(byte[] base, byte[] delta)
+        throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            delta));
+
+        int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported delta version: " + version);
+
+        int blockSize = readUnsigned(in);
+        int length = readUnsigned(in);
+
+        byte[] hash = new byte[16];
+        in.readFully(hash);
+
+        byte[] result = new byte[length];
+        int position = 0;
+
+        while (true) {
+            int instruction = in.readUnsignedByte();
+
+            if (instruction == END)
+                break;
+
+            int count;
+            int offset;
+
+            switch (instruction) {
+            case COPY:
+                offset = readUnsigned(in) * blockSize;
+                count = Math.min(readUnsigned(in) * blockSize, base.length
+                    - offset);
+
+                if (offset < 0 || count < 0 || count > length - position)
+                    throw new IOException("invalid block reference");
+
+                System.arraycopy(base, offset, result, position, count);
+                break;
+            case LITERAL:
+                count = readUnsigned(in);
+
+                if (count > length - position)
+                    throw new IOException("invalid literal length");
+
+                in.readFully(result, position, count);
+                break;
+            default:
+                throw new IOException("unknown delta instruction: "
+                    + instruction);
+            }
+
+            position += count;
+        }
+
+        if (position != length)
+            throw new IOException("delta produced " + position
+                + " bytes, expected " + length);
+
+        if (!Arrays.equals(hash, createDigest().digest(result)))
+            throw new IOException(
+                "delta result does not match, the base content differs");
+
+        return result;
+    }
+
+    private static int getBlockSize(int length) {
+        int blockSize = ((int) Math.sqrt(length) + 7) & ~7;
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    private static int weakChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xFF;
+            a += value;
+            b += (length - i) * value;
+        }
+
+        return toWeak(a, b);
+    }
+
+    private static int toWeak(int a, int b) {
+        return (b << 16) | (a & 0xFFFF);
+    }
+
+    private static long strongChecksum(MessageDigest digest, byte[] data,
+        int offset, int length) {
+
+        digest.update(data, offset, length);
+        byte[] hash = digest.digest();
+
+        long checksum = 0;
+
+        for (int i = 0; i < 8; i++)
+            checksum = (checksum << 8) | (hash[i] & 0xFF);
+
+        return checksum;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * Collects the instructions of a delta. Consecutive block references are
+     * merged into a single instruction.
+     */
+    private static class DeltaWriter {
+
+        private final byte[] content;
+
+        private final int blockSize;
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(buffer);
+
+        private int copyStart = -1;
+
+        private int copyCount;
+
+        DeltaWriter(byte[] content, int blockSize) {
+            this.content = content;
+            this.blockSize = blockSize;
+        }
+
+        boolean continuesCopy(int block) {
+            return copyStart >= 0 && copyStart + copyCount == block;
+        }
+
+        void copy(int block) {
+            if (continuesCopy(block)) {
+                copyCount++;
+                return;
+            }
+
+            flushCopy();
+            copyStart = block;
+            copyCount = 1;
+        }
+
+        void literal(int start, int end) {
+            if (start >= end)
+                return;
+
+            flushCopy();
+
+            try {
+                out.writeByte(LITERAL);
+                writeUnsigned(end - start, out);
+                out.write(content, start, end - start);
+            } catch (IOException e) {
+                // cannot happen
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] finish(MessageDigest digest) {
+            flushCopy();
+
+            ByteArrayOutputStream delta = new ByteArrayOutputStream(
+                buffer.size() + 32);
+
+            DataOutputStream deltaOut = new DataOutputStream(delta);
+
+            try {
+                out.writeByte(END);
+                out.flush();
+
+                deltaOut.writeByte(VERSION);
+                writeUnsigned(blockSize, deltaOut);
+                writeUnsigned(content.length, deltaOut);
+                deltaOut.write(digest.digest(content));
+                buffer.writeTo(deltaOut);
+                deltaOut.flush();
+            } catch (IOException e) {
+                // cannot happen
+                throw new IllegalStateException(e);
+            }
+
+            return delta.toByteArray();
+        }
+
+        private void flushCopy() {
+            if (copyStart < 0)
+                return;
+
+            try {
+                out.writeByte(COPY);
+                writeUnsigned(copyStart, out);
+                writeUnsigned(copyCount, out);
+            } catch (IOException e) {
+                // cannot happen
+                throw new IllegalStateException(e);
+            }
+
+            copyStart = -1;
+            copyCount = 0;
+        }
+    }
+}
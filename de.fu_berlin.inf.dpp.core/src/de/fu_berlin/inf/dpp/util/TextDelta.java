@@ -0,0 +1,362 @@
+package de.fu_berlin.inf.dpp.util;
+
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.readUnsigned;
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.writeUnsigned;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A single text replacement that transforms an outdated copy of a text into
+ * the current text, similar to a {@link BlockDelta} but on characters instead
+ * of bytes so it can be applied to an open document as a normal text edit.
+ * <p>
+ * The side that owns the outdated copy calculates a
+ * {@linkplain #createSignature signature} of it, i.e the
+ * {@linkplain String#hashCode() hash codes} of consecutive blocks of the text.
+ * These are the leaves of a hash tree: as the hash code is a polynomial, the
+ * side that owns the current text can combine them to the hash of any prefix
+ * or suffix of the outdated copy that starts or ends at a block boundary. This
+ * way the {@linkplain #create divergent region} is narrowed down to the blocks
+ * between the longest common prefix and the longest common suffix of both
+ * texts without any further round trip.
+ * <p>
+ * Every delta contains the length and the hash code of the base text and of
+ * the current text, so applying a delta to a different base is detected.
+ */
+public final class TextDelta {
+
+    /**
+     * Texts shorter than this length should be transferred completely as the
+     * signature overhead outweighs the savings.
+     */
+    public static final int MIN_TEXT_LENGTH = 4096;
+
+    private static final int VERSION = 1;
+
+    private static final int MIN_BLOCK_SIZE = 256;
+
+    /**
+     * The maximum number of blocks of a signature, larger texts use larger
+     * blocks.
+     */
+    private static final int MAX_BLOCKS = 1024;
+
+    private final int offset;
+
+    private final int replacedLength;
+
+    private final String text;
+
+    private final int baseLength;
+
+    private final int baseHash;
+
+    private final int resultLength;
+
+    private final int resultHash;
+
+    private TextDelta(int offset, int replacedLength, String text,
+        int baseLength, int baseHash, int resultLength, int resultHash) {
+        this.offset = offset;
+        this.replacedLength = replacedLength;
+        this.text = text;
+        this.baseLength = baseLength;
+        this.baseHash = baseHash;
+        this.resultLength = resultLength;
+        this.resultHash = resultHash;
+    }
+
+    /**
+     * Returns the offset of the replaced region in the base text.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the length of the replaced region in the base text.
+     */
+    public int getReplacedLength() {
+        return replacedLength;
+    }
+
+    /**
+     * Returns the text that replaces the region.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns whether the given text is the base text this delta was created
+     * for.
+     */
+    public boolean matchesBase(String base) {
+        return base.length() == baseLength && base.hashCode() == baseHash;
+    }
+
+    /**
+     * Returns whether the given text is the text this delta was created from,
+     * e.g to verify the result of applying it.
+     */
+    public boolean matchesResult(String result) {
+        return result.length() == resultLength
+            && result.hashCode() == resultHash;
+    }
+
+    /**
+     * Applies this delta to the given base text.
+     *
+     * @return the current text
+     * @throws IOException
+     *             if the base text is not the text this delta was created for
+     *             or the result does not match the current text
+     */
+    public String apply(String base) throws IOException {
+        if (!matchesBase(base))
+            throw new IOException("base text differs");
+
+        String result = base.substring(0, offset) + text
+            + base.substring(offset + replacedLength);
+
+        if (!matchesResult(result))
+            throw new IOException("delta result does not match");
+
+        return result;
+    }
+
+    /**
+     * Calculates the signature of the given text.
+     *
+     * @param text
+     *            the outdated copy
+     * @return the encoded signature
+     */
+    public static byte[] createSignature(String text) {
+        int blockSize = getBlockSize(text.length());
+        int blocks = (text.length() + blockSize - 1) / blockSize;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+            16 + blocks * 4);
+
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        try {
+            out.writeByte(VERSION);
+            writeUnsigned(text.length(), out);
+            out.writeInt(text.hashCode());
+
+            for (int offset = 0; offset < text.length(); offset += blockSize) {
+                int end = Math.min(offset + blockSize, text.length());
+                out.writeInt(text.substring(offset, end).hashCode());
+            }
+        } catch (IOException e) {
+            // cannot happen
+            throw new IllegalStateException(e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Creates a delta that transforms the text the given signature was
+     * calculated from into the given text.
+     *
+     * @param signature
+     *            the signature of the outdated copy
+     * @param text
+     *            the current text
+     * @return the delta
+     * @throws IOException
+     *             if the signature is malformed
+     */
+    public static TextDelta create(byte[] signature, String text)
+        throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            signature));
+
+        int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported signature version: " + version);
+
+        int baseLength = readUnsigned(in);
+        int baseHash = in.readInt();
+
+        int blockSize = getBlockSize(baseLength);
+        int blocks = (int) ((baseLength + (long) blockSize - 1) / blockSize);
+
+        int[] hashes = new int[blocks];
+
+        for (int i = 0; i < blocks; i++)
+            hashes[i] = in.readInt();
+
+        int length = text.length();
+
+        // prefix[i] is the hash of the first i characters of the text
+        int[] prefix = new int[length + 1];
+
+        for (int i = 0; i < length; i++)
+            prefix[i + 1] = 31 * prefix[i] + text.charAt(i);
+
+        // number of leading blocks shared by both texts
+        int head = 0;
+        int baseHead = 0;
+
+        while (head < blocks) {
+            int end = Math.min((head + 1) * blockSize, baseLength);
+
+            if (end > length)
+                break;
+
+            int hash = combine(baseHead, hashes[head], end - head * blockSize);
+
+            if (hash != prefix[end])
+                break;
+
+            baseHead = hash;
+            head++;
+        }
+
+        int start = Math.min(head * blockSize, baseLength);
+
+        // first block of the base text that belongs to the common suffix
+        int tail = blocks;
+        int baseTail = 0;
+        int tailLength = 0;
+
+        while (tail > head) {
+            int blockStart = (tail - 1) * blockSize;
+            int blockLength = Math.min(blockSize, baseLength - blockStart);
+
+            int suffixLength = tailLength + blockLength;
+
+            // the common suffix must not overlap the common prefix
+            if (length - suffixLength < start)
+                break;
+
+            int hash = combine(hashes[tail - 1], baseTail, tailLength);
+
+            if (hash != hash(prefix, length - suffixLength, length))
+                break;
+
+            baseTail = hash;
+            tailLength = suffixLength;
+            tail--;
+        }
+
+        return new TextDelta(start, baseLength - tailLength - start,
+            text.substring(start, length - tailLength), baseLength, baseHash,
+            length, text.hashCode());
+    }
+
+    /**
+     * Encodes this delta.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+            32 + text.length());
+
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        try {
+            out.writeByte(VERSION);
+            writeUnsigned(baseLength, out);
+            out.writeInt(baseHash);
+            writeUnsigned(resultLength, out);
+            out.writeInt(resultHash);
+            writeUnsigned(offset, out);
+            writeUnsigned(replacedLength, out);
+
+            byte[] data = text.getBytes("UTF-8");
+            writeUnsigned(data.length, out);
+            out.write(data);
+        } catch (IOException e) {
+            // cannot happen
+            throw new IllegalStateException(e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Decodes a delta that was previously encoded with {@link #encode()}.
+     *
+     * @throws IOException
+     *             if the delta is malformed
+     */
+    public static TextDelta decode(byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            delta));
+
+        int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported delta version: " + version);
+
+        int baseLength = readUnsigned(in);
+        int baseHash = in.readInt();
+        int resultLength = readUnsigned(in);
+        int resultHash = in.readInt();
+        int offset = readUnsigned(in);
+        int replacedLength = readUnsigned(in);
+
+        byte[] data = new byte[readUnsigned(in)];
+        in.readFully(data);
+
+        String text = new String(data, "UTF-8");
+
+        if (offset < 0 || replacedLength < 0
+            || (long) offset + replacedLength > baseLength
+            || (long) baseLength - replacedLength + text.length() != resultLength)
+            throw new IOException("invalid text region");
+
+        return new TextDelta(offset, replacedLength, text, baseLength,
+            baseHash, resultLength, resultHash);
+    }
+
+    @Override
+    public String toString() {
+        return "TextDelta [offset=" + offset + ", replaced=" + replacedLength
+            + ", inserted=" + text.length() + "]";
+    }
+
+    private static int getBlockSize(int length) {
+        return Math.max(MIN_BLOCK_SIZE, (length + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    }
+
+    /**
+     * Returns the hash of the concatenation of two texts, the second text
+     * having the given length.
+     */
+    private static int combine(int first, int second, int secondLength) {
+        return first * pow31(secondLength) + second;
+    }
+
+    /**
+     * Returns the hash of the given range using the prefix hashes.
+     */
+    private static int hash(int[] prefix, int start, int end) {
+        return prefix[end] - prefix[start] * pow31(end - start);
+    }
+
+    private static int pow31(int exponent) {
+        int result = 1;
+        int base = 31;
+
+        while (exponent != 0) {
+            if ((exponent & 1) != 0)
+                result *= base;
+
+            base *= base;
+            exponent >>= 1;
+        }
+
+        return result;
+    }
+}
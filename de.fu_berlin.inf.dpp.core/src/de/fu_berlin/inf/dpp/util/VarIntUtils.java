@@ -0,0 +1,112 @@
+package de.fu_berlin.inf.dpp.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Static helper methods for variable length integers as used by the binary
+ * encodings. Every byte carries seven bits of the value starting with the
+ * lowest ones, the highest bit of a byte is set if another byte follows. Small
+ * values therefore only need a single byte.
+ */
+public class VarIntUtils {
+
+    private VarIntUtils() {
+        // NOP do not allow object creation
+    }
+
+    /**
+     * Writes the given value as variable length integer. Negative values are
+     * treated as unsigned and always need five bytes.
+     */
+    public static void writeUnsigned(int value, DataOutputStream out)
+        throws IOException {
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a value that was written with {@link #writeUnsigned(int,
+     * DataOutputStream)}. The result may be negative if the value was
+     * negative or the input is malformed.
+     *
+     * @throws IOException
+     *             if the value does not end after five bytes
+     */
+    public static int readUnsigned(DataInputStream in) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("malformed variable length integer");
+    }
+
+    /**
+     * Writes the given value as variable length integer. Negative values are
+     * treated as unsigned and always need ten bytes.
+     */
+    public static void writeUnsignedLong(long value, DataOutputStream out)
+        throws IOException {
+
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a value that was written with {@link #writeUnsignedLong}.
+     *
+     * @throws IOException
+     *             if the value does not end after ten bytes
+     */
+    public static long readUnsignedLong(DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("malformed variable length integer");
+    }
+
+    /**
+     * Checks a length that was read from the given stream before an array of
+     * this length is allocated, so malformed or hostile input cannot cause
+     * huge allocations. The stream must return the number of remaining bytes
+     * on {@link InputStream#available()}, like streams over byte arrays do.
+     *
+     * @return the given length
+     * @throws IOException
+     *             if the length is negative or exceeds the remaining bytes of
+     *             the stream
+     */
+    public static int checkLength(int length, InputStream in)
+        throws IOException {
+
+        if (length < 0 || length > in.available())
+            throw new IOException("invalid length: " + length + ", remaining: "
+                + in.available());
+
+        return length;
+    }
+}
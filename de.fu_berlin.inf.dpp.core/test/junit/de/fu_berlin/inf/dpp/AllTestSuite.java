@@ -8,10 +8,14 @@ import org.junit.runners.Suite;
 
 de.fu_berlin.inf.dpp.activities.business.TestSuite.class,
 
+de.fu_berlin.inf.dpp.activities.serializable.TestSuite.class,
+
 de.fu_berlin.inf.dpp.concurrent.TestSuite.class,
 
 de.fu_berlin.inf.dpp.concurrent.jupiter.test.puzzles.TestSuite.class,
 
+de.fu_berlin.inf.dpp.concurrent.management.TestSuite.class,
+
 de.fu_berlin.inf.dpp.net.TestSuite.class,
 
 de.fu_berlin.inf.dpp.net.internal.TestSuite.class,
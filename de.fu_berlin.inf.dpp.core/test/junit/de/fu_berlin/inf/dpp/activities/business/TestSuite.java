@@ -11,7 +11,8 @@ import org.junit.runners.Suite.SuiteClasses;
     PermissionActivityTest.class, ProgressActivityTest.class,
     RecoveryFileActivityTest.class, StartFollowingActivityTest.class,
     StopActivityTest.class, StopFollowingActivityTest.class,
-    TextSelectionActivityTest.class, VCSActivityTest.class,
+    TextEditActivityTest.class, TextSelectionActivityTest.class,
+    VCSActivityTest.class,
     ViewportActivityTest.class, ShareConsoleActivityTest.class })
 public class TestSuite {
     // the class remains completely empty,
@@ -0,0 +1,119 @@
+package de.fu_berlin.inf.dpp.activities.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.PathFake;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.session.User;
+
+public class TextEditActivityTest {
+
+    private User alice;
+    private User bob;
+
+    private SPath foo;
+    private SPath bar;
+
+    @Before
+    public void setUp() {
+        alice = new User(new JID("alice@test"), false, true, 0, 0);
+        bob = new User(new JID("bob@test"), false, false, 1, 1);
+
+        IProject project = EasyMock.createMock(IProject.class);
+        EasyMock.replay(project);
+
+        foo = new SPath(project, new PathFake("foo"));
+        bar = new SPath(project, new PathFake("bar"));
+    }
+
+    @Test
+    public void testCoalesceTyping() {
+        TextEditActivity edit = insert(10, "a");
+
+        edit = edit.coalesce(insert(11, "b"));
+        edit = edit.coalesce(insert(12, "c"));
+
+        assertEquals(new TextEditActivity(alice, 10, "abc", "", foo), edit);
+    }
+
+    @Test
+    public void testCoalesceTypingAfterReplace() {
+        TextEditActivity edit = new TextEditActivity(alice, 5, "x", "old", foo);
+
+        assertEquals(new TextEditActivity(alice, 5, "xy", "old", foo),
+            edit.coalesce(insert(6, "y")));
+    }
+
+    @Test
+    public void testCoalesceCorrectingTypo() {
+        TextEditActivity edit = insert(10, "teh");
+
+        edit = edit.coalesce(delete(12, "h"));
+        edit = edit.coalesce(delete(11, "e"));
+        edit = edit.coalesce(insert(11, "he"));
+
+        assertEquals(new TextEditActivity(alice, 10, "the", "", foo), edit);
+    }
+
+    @Test
+    public void testCoalesceBackspace() {
+        TextEditActivity edit = delete(10, "c");
+
+        edit = edit.coalesce(delete(9, "b"));
+        edit = edit.coalesce(delete(8, "a"));
+
+        assertEquals(new TextEditActivity(alice, 8, "", "abc", foo), edit);
+    }
+
+    @Test
+    public void testCoalesceForwardDelete() {
+        TextEditActivity edit = delete(10, "a");
+
+        edit = edit.coalesce(delete(10, "b"));
+
+        assertEquals(new TextEditActivity(alice, 10, "", "ab", foo), edit);
+    }
+
+    @Test
+    public void testCoalesceCancelingEdits() {
+        TextEditActivity edit = insert(10, "ab").coalesce(delete(10, "ab"));
+
+        assertEquals(new TextEditActivity(alice, 10, "", "", foo), edit);
+    }
+
+    @Test
+    public void testNoCoalesce() {
+        // not adjacent
+        assertNull(insert(10, "a").coalesce(insert(10, "b")));
+        assertNull(insert(10, "a").coalesce(insert(20, "b")));
+        assertNull(delete(10, "a").coalesce(delete(5, "b")));
+
+        // deleting text in front of the inserted text
+        assertNull(insert(10, "a").coalesce(delete(9, "xa")));
+
+        // replace after insert
+        assertNull(insert(10, "a").coalesce(
+            new TextEditActivity(alice, 11, "b", "c", foo)));
+
+        // different document or user
+        assertNull(insert(10, "a").coalesce(
+            new TextEditActivity(alice, 11, "b", "", bar)));
+        assertNull(insert(10, "a").coalesce(
+            new TextEditActivity(bob, 11, "b", "", foo)));
+    }
+
+    private TextEditActivity insert(int offset, String text) {
+        return new TextEditActivity(alice, offset, text, "", foo);
+    }
+
+    private TextEditActivity delete(int offset, String text) {
+        return new TextEditActivity(alice, offset, "", text, foo);
+    }
+}
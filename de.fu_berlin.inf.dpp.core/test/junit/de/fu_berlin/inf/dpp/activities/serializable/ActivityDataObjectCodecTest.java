@@ -0,0 +1,393 @@
+package de.fu_berlin.inf.dpp.activities.serializable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Vector;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.SPathDataObject;
+import de.fu_berlin.inf.dpp.activities.business.EditorActivity;
+import de.fu_berlin.inf.dpp.activities.business.FileActivity;
+import de.fu_berlin.inf.dpp.activities.business.FolderActivity;
+import de.fu_berlin.inf.dpp.activities.business.ProgressActivity.ProgressAction;
+import de.fu_berlin.inf.dpp.activities.business.RecoveryFileActivity;
+import de.fu_berlin.inf.dpp.activities.business.StopActivity;
+import de.fu_berlin.inf.dpp.activities.business.VCSActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.session.User.Permission;
+import de.fu_berlin.inf.dpp.util.VarIntUtils;
+
+public class ActivityDataObjectCodecTest {
+
+    private static final JID ALICE = new JID("alice@jabber.org/Saros");
+    private static final JID BOB = new JID("bob@jabber.org/Saros");
+
+    private static final SPathDataObject PATH = new SPathDataObject("4711",
+        "src/de/fu_berlin/inf/dpp/Saros.java", "txt");
+
+    private static final SPathDataObject OTHER_PATH = new SPathDataObject(
+        "4711", "src/Umlaut \u00e4\u00f6\u00fc.java", null);
+
+    @Test
+    public void testChangeColor() throws Exception {
+        assertRoundTrip(new ChangeColorActivityDataObject(ALICE, BOB, ALICE, 3));
+        assertRoundTrip(new ChangeColorActivityDataObject(ALICE, null, BOB, -1));
+    }
+
+    @Test
+    public void testChecksum() throws Exception {
+        assertRoundTrip(new ChecksumActivityDataObject(ALICE, PATH,
+            0xDEADBEEFCAFEL, 12345L, new JupiterVectorTime(4, 2)));
+        assertRoundTrip(new ChecksumActivityDataObject(ALICE, PATH, -1, -1,
+            null));
+    }
+
+    @Test
+    public void testChecksumError() throws Exception {
+        assertRoundTrip(new ChecksumErrorActivityDataObject(ALICE, BOB,
+            Arrays.asList(PATH, OTHER_PATH), "recovery-1"));
+        assertRoundTrip(new ChecksumErrorActivityDataObject(ALICE, BOB, null,
+            null));
+    }
+
+    @Test
+    public void testChecksumErrorWithSignatures() throws Exception {
+        byte[] signature = new byte[] { 1, 2, 3 };
+        byte[] textSignature = new byte[] { 4, 5 };
+
+        ChecksumErrorActivityDataObject decoded = (ChecksumErrorActivityDataObject) decode(
+            encode(Collections
+                .<IActivityDataObject> singletonList(new ChecksumErrorActivityDataObject(
+                    ALICE, BOB, Arrays.asList(PATH, OTHER_PATH), Arrays
+                        .asList(signature, null), Arrays.asList(null,
+                        textSignature), "recovery-1")))).get(0);
+
+        assertEquals(Arrays.asList(PATH, OTHER_PATH), decoded.paths);
+        assertEquals(2, decoded.signatures.size());
+        assertTrue(Arrays.equals(signature, decoded.signatures.get(0)));
+        assertNull(decoded.signatures.get(1));
+        assertEquals(2, decoded.textSignatures.size());
+        assertNull(decoded.textSignatures.get(0));
+        assertTrue(Arrays.equals(textSignature, decoded.textSignatures.get(1)));
+    }
+
+    @Test
+    public void testEditor() throws Exception {
+        for (EditorActivity.Type type : EditorActivity.Type.values())
+            assertRoundTrip(new EditorActivityDataObject(ALICE, type, PATH));
+
+        assertRoundTrip(new EditorActivityDataObject(ALICE,
+            EditorActivity.Type.ACTIVATED, null));
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        for (FileActivity.Type type : FileActivity.Type.values())
+            for (FileActivity.Purpose purpose : FileActivity.Purpose.values())
+                assertRoundTrip(new FileActivityDataObject(ALICE, type, PATH,
+                    OTHER_PATH, new byte[] { 0, 1, 2, -1 }, purpose));
+
+        assertRoundTrip(new FileActivityDataObject(ALICE,
+            FileActivity.Type.REMOVED, PATH, null, null,
+            FileActivity.Purpose.ACTIVITY));
+
+        assertRoundTrip(new FileActivityDataObject(ALICE,
+            FileActivity.Type.CREATED, PATH, null, new byte[0],
+            FileActivity.Purpose.ACTIVITY));
+    }
+
+    @Test
+    public void testFolder() throws Exception {
+        for (FolderActivity.Type type : FolderActivity.Type.values())
+            assertRoundTrip(new FolderActivityDataObject(ALICE, type, PATH));
+    }
+
+    @Test
+    public void testJupiter() throws Exception {
+        List<Operation> operations = Arrays.<Operation> asList(null,
+            new NoOperation(), new TimestampOperation(), new InsertOperation(
+                0, "abc"), new InsertOperation(70000, "x", 12),
+            new DeleteOperation(10, "abc"), new SplitOperation(null, null),
+            new SplitOperation(new DeleteOperation(5, "foo"),
+                new SplitOperation(new InsertOperation(2, "bar"),
+                    new NoOperation())));
+
+        for (Operation operation : operations) {
+            assertRoundTrip(new JupiterActivityDataObject(
+                new JupiterVectorTime(0, 0), operation, ALICE, PATH));
+            assertRoundTrip(new JupiterActivityDataObject(
+                new JupiterVectorTime(Integer.MAX_VALUE, 128), operation,
+                BOB, OTHER_PATH));
+        }
+    }
+
+    @Test
+    public void testNOP() throws Exception {
+        assertRoundTrip(new NOPActivityDataObject(ALICE, BOB, 42));
+        assertRoundTrip(new NOPActivityDataObject(ALICE, BOB, Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testPermission() throws Exception {
+        for (Permission permission : Permission.values())
+            assertRoundTrip(new PermissionActivityDataObject(ALICE, BOB,
+                permission));
+    }
+
+    @Test
+    public void testProgress() throws Exception {
+        for (ProgressAction action : ProgressAction.values())
+            assertRoundTrip(new ProgressActivityDataObject(ALICE, BOB,
+                "progress", 5, 100, "Copying files...", action));
+
+        assertRoundTrip(new ProgressActivityDataObject(ALICE, BOB, null, 0, 0,
+            null, null));
+    }
+
+    @Test
+    public void testRecoveryFile() throws Exception {
+        assertRoundTrip(new RecoveryFileActivityDataObject(ALICE, BOB,
+            FileActivity.Type.CREATED, PATH, null, "content".getBytes("UTF-8")));
+        assertRoundTrip(new RecoveryFileActivityDataObject(ALICE, BOB,
+            FileActivity.Type.REMOVED, PATH, null, null));
+        assertRoundTrip(new RecoveryFileActivityDataObject(ALICE, BOB,
+            FileActivity.Type.CREATED, PATH, null, new byte[] { 1, 2, 3 },
+            RecoveryFileActivity.DataType.BLOCK_DELTA));
+        assertRoundTrip(new RecoveryFileActivityDataObject(ALICE, BOB,
+            FileActivity.Type.CREATED, PATH, null, new byte[] { 4, 5 },
+            RecoveryFileActivity.DataType.TEXT_DELTA));
+    }
+
+    @Test
+    public void testShareConsole() throws Exception {
+        char[] content = new char[100000];
+        Arrays.fill(content, '\u20ac');
+
+        assertRoundTrip(new ShareConsoleActivityDataObject(ALICE, "console"));
+        assertRoundTrip(new ShareConsoleActivityDataObject(ALICE, new String(
+            content)));
+    }
+
+    @Test
+    public void testStartFollowing() throws Exception {
+        assertRoundTrip(new StartFollowingActivityDataObject(ALICE, BOB));
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        for (StopActivity.Type type : StopActivity.Type.values())
+            for (StopActivity.State state : StopActivity.State.values())
+                assertRoundTrip(new StopActivityDataObject(ALICE, ALICE, BOB,
+                    type, state, "stop-1"));
+    }
+
+    @Test
+    public void testStopFollowing() throws Exception {
+        assertRoundTrip(new StopFollowingActivityDataObject(ALICE));
+    }
+
+    @Test
+    public void testTextSelection() throws Exception {
+        assertRoundTrip(new TextSelectionActivityDataObject(ALICE, 100, 5, PATH));
+        assertRoundTrip(new TextSelectionActivityDataObject(ALICE, 0, 0, null));
+    }
+
+    @Test
+    public void testVCS() throws Exception {
+        Vector<IActivityDataObject> contained = new Vector<IActivityDataObject>();
+        contained.add(new FolderActivityDataObject(ALICE,
+            FolderActivity.Type.CREATED, PATH));
+        contained.add(new FileActivityDataObject(ALICE,
+            FileActivity.Type.CREATED, OTHER_PATH, null, new byte[] { 1 },
+            FileActivity.Purpose.ACTIVITY));
+
+        for (VCSActivity.Type type : VCSActivity.Type.values())
+            assertRoundTrip(new VCSActivityDataObject(ALICE, type,
+                "svn://example.org/repo", PATH, "src", "1234", contained));
+
+        assertRoundTrip(new VCSActivityDataObject(ALICE,
+            VCSActivity.Type.UPDATE, null, PATH, null, null, null));
+    }
+
+    @Test
+    public void testViewport() throws Exception {
+        assertRoundTrip(new ViewportActivityDataObject(ALICE, 10, 40, PATH));
+    }
+
+    @Test
+    public void testMixedBatch() throws Exception {
+        List<IActivityDataObject> activities = new ArrayList<IActivityDataObject>();
+
+        for (int i = 0; i < 100; i++) {
+            activities.add(new JupiterActivityDataObject(new JupiterVectorTime(
+                i, 0), new InsertOperation(i, "a"), ALICE, PATH));
+            activities.add(new TextSelectionActivityDataObject(ALICE, i + 1,
+                0, PATH));
+            activities.add(new ViewportActivityDataObject(BOB, i, 20,
+                OTHER_PATH));
+        }
+
+        assertRoundTrip(activities);
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        assertRoundTrip(Collections.<IActivityDataObject> emptyList());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownVersion() throws Exception {
+        byte[] data = encode(Collections
+            .<IActivityDataObject> singletonList(new StopFollowingActivityDataObject(
+                ALICE)));
+
+        data[0] = (byte) (ActivityDataObjectCodec.VERSION + 1);
+
+        decode(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedData() throws Exception {
+        byte[] data = encode(Collections
+            .<IActivityDataObject> singletonList(new TextSelectionActivityDataObject(
+                ALICE, 1, 2, PATH)));
+
+        decode(Arrays.copyOf(data, data.length - 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidStringLength() throws Exception {
+        assertInvalidStringLength(-1);
+    }
+
+    @Test(expected = IOException.class)
+    public void testStringLengthExceedsData() throws Exception {
+        assertInvalidStringLength(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decodes a stop following activity whose JID has the given encoded
+     * length, i.e the length of the string + 1.
+     */
+    private static void assertInvalidStringLength(int length)
+        throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+
+        out.writeByte(ActivityDataObjectCodec.VERSION);
+        // one activity
+        VarIntUtils.writeUnsigned(1, out);
+        // stop following activity type
+        out.writeByte(15);
+        // new string
+        VarIntUtils.writeUnsigned(1, out);
+        VarIntUtils.writeUnsigned(length, out);
+        out.write(new byte[16]);
+        out.close();
+
+        decode(data.toByteArray());
+    }
+
+    @Test
+    public void testOperationIsEncodedOnceForAllRecipients() throws Exception {
+        final int recipients = 8;
+
+        final List<Operation> encodedOperations = new ArrayList<Operation>();
+
+        IdentityHashMap<Operation, byte[]> cache = new IdentityHashMap<Operation, byte[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public byte[] put(Operation operation, byte[] encoded) {
+                encodedOperations.add(operation);
+                return super.put(operation, encoded);
+            }
+        };
+
+        // the host creates one activity per recipient with the same operation
+        Operation operation = new SplitOperation(new DeleteOperation(2,
+            "foo"), new InsertOperation(2, "bar \u00e4\u00f6\u00fc"));
+
+        for (int i = 0; i < recipients; i++) {
+            List<IActivityDataObject> activities = Collections
+                .<IActivityDataObject> singletonList(new JupiterActivityDataObject(
+                    new JupiterVectorTime(i, recipients - i), operation,
+                    ALICE, PATH));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ActivityDataObjectCodec.encode(activities,
+                new DataOutputStream(out), cache);
+
+            assertArrayEquals("shared operation changed the encoded form",
+                encode(activities), out.toByteArray());
+
+            JupiterActivityDataObject decoded = (JupiterActivityDataObject) decode(
+                out.toByteArray()).get(0);
+
+            assertEquals(new JupiterVectorTime(i, recipients - i),
+                decoded.timestamp);
+            assertEquals(operation, decoded.operation);
+        }
+
+        assertEquals("operation was encoded more than once",
+            Collections.singletonList(operation), encodedOperations);
+    }
+
+    private static void assertRoundTrip(IActivityDataObject activity)
+        throws IOException {
+        assertRoundTrip(Collections.singletonList(activity));
+    }
+
+    private static void assertRoundTrip(List<IActivityDataObject> activities)
+        throws IOException {
+
+        List<IActivityDataObject> decoded = decode(encode(activities));
+
+        assertEquals("wrong number of decoded activities", activities.size(),
+            decoded.size());
+
+        for (int i = 0; i < activities.size(); i++) {
+            IActivityDataObject expected = activities.get(i);
+            IActivityDataObject actual = decoded.get(i);
+
+            assertEquals(expected.getClass(), actual.getClass());
+            assertTrue("decoded activity differs: " + expected + " != "
+                + actual, EqualsBuilder.reflectionEquals(expected, actual));
+        }
+    }
+
+    private static byte[] encode(List<IActivityDataObject> activities)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ActivityDataObjectCodec.encode(activities, new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    private static List<IActivityDataObject> decode(byte[] data)
+        throws IOException {
+        return ActivityDataObjectCodec.decode(new DataInputStream(
+            new ByteArrayInputStream(data)));
+    }
+}
@@ -0,0 +1,174 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.test.puzzles;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.business.JupiterActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.Jupiter;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.Document;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.JupiterTestCase;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.PathFake;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.session.User;
+
+/**
+ * Checks that composing unacknowledged operations does not change the result
+ * of the transformations. Both sites type bursts of text concurrently while
+ * the messages are delivered with random delays, so composed operations are
+ * transformed, acknowledged partially and decomposed again.
+ */
+public class ComposedOperationsTest extends JupiterTestCase {
+
+    private static final String INITIAL_TEXT = "The quick brown fox jumps over the lazy dog";
+
+    private static class Site {
+        private final BacklogJupiter jupiter;
+        private final Document document;
+        private final User user;
+        private final LinkedList<JupiterActivity> outgoing = new LinkedList<JupiterActivity>();
+        private int cursor;
+
+        private Site(boolean isClientSide, boolean compose, IProject project,
+            String name) {
+            jupiter = new BacklogJupiter(isClientSide, compose);
+            document = new Document(INITIAL_TEXT, project, new PathFake("doc"));
+            user = createUserMock(name);
+            cursor = INITIAL_TEXT.length() / 2;
+        }
+
+        private void edit(Random random) {
+            String text = document.getDocument();
+
+            if (cursor > text.length() || random.nextInt(10) == 0)
+                cursor = random.nextInt(text.length() + 1);
+
+            Operation op;
+
+            int action = random.nextInt(10);
+
+            if (action < 6 || text.length() == 0) {
+                op = new InsertOperation(cursor, String.valueOf((char) ('a' + random
+                    .nextInt(26))));
+                cursor++;
+            } else if (action < 8 && cursor > 0) {
+                cursor--;
+                op = new DeleteOperation(cursor, text.substring(cursor,
+                    cursor + 1));
+            } else if (cursor < text.length()) {
+                op = new DeleteOperation(cursor, text.substring(cursor,
+                    cursor + 1));
+            } else {
+                op = new InsertOperation(cursor, "x");
+                cursor++;
+            }
+
+            document.execOperation(op);
+            outgoing.add(jupiter.generateJupiterActivity(op, user, null));
+        }
+
+        private void receive(JupiterActivity activity)
+            throws TransformationException {
+            document.execOperation(jupiter.receiveJupiterActivity(activity));
+        }
+    }
+
+    private static class BacklogJupiter extends Jupiter {
+        private BacklogJupiter(boolean isClientSide, boolean compose) {
+            super(isClientSide, compose);
+        }
+
+        private int getBacklogSize() {
+            return ackJupiterActivityList.size();
+        }
+    }
+
+    @Test
+    public void testConvergenceWithComposition() throws Exception {
+        for (long seed = 0; seed < 200; seed++)
+            simulate(seed, true);
+    }
+
+    @Test
+    public void testConvergenceWithoutComposition() throws Exception {
+        for (long seed = 0; seed < 200; seed++)
+            simulate(seed, false);
+    }
+
+    @Test
+    public void testBacklogIsCompact() throws Exception {
+        IProject project = createMock(IProject.class);
+        replay(project);
+
+        Site client = new Site(true, true, project, "client");
+        Site server = new Site(false, true, project, "server");
+
+        client.cursor = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            Operation op = new InsertOperation(i, "a");
+            client.document.execOperation(op);
+            client.outgoing.add(client.jupiter.generateJupiterActivity(op,
+                client.user, null));
+        }
+
+        assertEquals(1, client.jupiter.getBacklogSize());
+
+        // a remote operation touching the composed insertion splits it up
+        Operation op = new InsertOperation(0, "b");
+        server.document.execOperation(op);
+        client.receive(server.jupiter.generateJupiterActivity(op, server.user,
+            null));
+
+        assertEquals(1000, client.jupiter.getBacklogSize());
+
+        while (!client.outgoing.isEmpty())
+            server.receive(client.outgoing.removeFirst());
+
+        assertEquals(client.document.getDocument(),
+            server.document.getDocument());
+    }
+
+    private void simulate(long seed, boolean compose) throws Exception {
+        IProject project = createMock(IProject.class);
+        replay(project);
+
+        Random random = new Random(seed);
+
+        Site client = new Site(true, compose, project, "client");
+        Site server = new Site(false, compose, project, "server");
+
+        for (int step = 0; step < 300; step++) {
+            int action = random.nextInt(10);
+
+            if (action < 4)
+                client.edit(random);
+            else if (action < 8)
+                server.edit(random);
+            else if (action == 8 && !client.outgoing.isEmpty())
+                server.receive(client.outgoing.removeFirst());
+            else if (action == 9 && !server.outgoing.isEmpty())
+                client.receive(server.outgoing.removeFirst());
+        }
+
+        while (!client.outgoing.isEmpty() || !server.outgoing.isEmpty()) {
+            if (!client.outgoing.isEmpty())
+                server.receive(client.outgoing.removeFirst());
+
+            if (!server.outgoing.isEmpty())
+                client.receive(server.outgoing.removeFirst());
+        }
+
+        assertEquals("seed " + seed + ", compose " + compose,
+            client.document.getDocument(), server.document.getDocument());
+    }
+}
@@ -0,0 +1,142 @@
+package de.fu_berlin.inf.dpp.concurrent.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.business.JupiterActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.Jupiter;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.PathFake;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.User;
+
+public class JupiterServerTest {
+
+    private static final int EDITS = 200;
+
+    private User host;
+    private User alice;
+    private User bob;
+
+    private SPath fooPath;
+    private SPath barPath;
+
+    private JupiterServer server;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        host = new User(new JID("host@test"), true, true, 0, 0);
+        alice = new User(new JID("alice@test"), false, false, 1, 1);
+        bob = new User(new JID("bob@test"), false, false, 2, 2);
+
+        IProject project = EasyMock.createMock(IProject.class);
+        EasyMock.replay(project);
+
+        fooPath = new SPath(project, new PathFake("foo"));
+        barPath = new SPath(project, new PathFake("bar"));
+
+        ISarosSession session = EasyMock.createMock(ISarosSession.class);
+        EasyMock.expect(session.getHost()).andStubReturn(host);
+        EasyMock.expect(
+            session.userHasProject(EasyMock.anyObject(User.class),
+                EasyMock.anyObject(IProject.class))).andStubReturn(true);
+        EasyMock.replay(session);
+
+        server = new JupiterServer(session);
+        server.addUser(host);
+        server.addUser(alice);
+        server.addUser(bob);
+
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentTransformationOfDifferentDocuments()
+        throws Exception {
+
+        Future<List<Map<JID, JupiterActivity>>> aliceEdits = executor
+            .submit(edit(alice, fooPath));
+
+        Future<List<Map<JID, JupiterActivity>>> bobEdits = executor
+            .submit(edit(bob, barPath));
+
+        assertOutgoing(aliceEdits.get(), alice);
+        assertOutgoing(bobEdits.get(), bob);
+    }
+
+    @Test
+    public void testMembershipChangeDuringTransformation() throws Exception {
+        final User carl = new User(new JID("carl@test"), false, false, 3, 3);
+
+        Future<List<Map<JID, JupiterActivity>>> aliceEdits = executor
+            .submit(edit(alice, fooPath));
+
+        for (int i = 0; i < EDITS; i++) {
+            server.addUser(carl);
+            server.removeUser(carl);
+        }
+
+        for (Map<JID, JupiterActivity> outgoing : aliceEdits.get())
+            assertNull(outgoing.get(alice.getJID()));
+    }
+
+    private Callable<List<Map<JID, JupiterActivity>>> edit(final User user,
+        final SPath path) {
+        return new Callable<List<Map<JID, JupiterActivity>>>() {
+            @Override
+            public List<Map<JID, JupiterActivity>> call() throws Exception {
+                Jupiter client = new Jupiter(true);
+
+                List<Map<JID, JupiterActivity>> result = new ArrayList<Map<JID, JupiterActivity>>();
+
+                for (int i = 0; i < EDITS; i++)
+                    result.add(server.transform(client.generateJupiterActivity(
+                        new InsertOperation(i, "x"), user, path)));
+
+                return result;
+            }
+        };
+    }
+
+    private void assertOutgoing(List<Map<JID, JupiterActivity>> result,
+        User source) {
+        assertEquals(EDITS, result.size());
+
+        for (int i = 0; i < EDITS; i++) {
+            Map<JID, JupiterActivity> outgoing = result.get(i);
+
+            assertEquals(2, outgoing.size());
+            assertNull(outgoing.get(source.getJID()));
+
+            for (JupiterActivity activity : outgoing.values()) {
+                assertTrue(activity.getOperation() instanceof InsertOperation);
+                assertEquals(i, ((InsertOperation) activity.getOperation())
+                    .getPosition());
+            }
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -100,6 +107,91 @@ public class BinaryChannelConnectionTest {
         bobSession = new PipedBytestreamSession(bobIn, bobOut);
     }
 
+    /**
+     * Returns a thread that sends the given payload. The thread stays alive
+     * until the given latch is released as the piped streams break as soon as
+     * the last writing thread dies.
+     */
+    private static Thread createSender(final BinaryChannelConnection connection,
+        final byte[] payload, final CountDownLatch finished) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.send(
+                        TransferDescription.createCustomTransferDescription(),
+                        payload);
+
+                    finished.await(10000, TimeUnit.MILLISECONDS);
+                } catch (IOException e) {
+                    // checked by the assertions
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * Session whose first flush blocks until the given latch is released.
+     */
+    private static class BlockingFlushSession implements BytestreamSession {
+
+        private final BytestreamSession delegate;
+
+        private final CountDownLatch flushEntered = new CountDownLatch(1);
+
+        private final CountDownLatch flushReleased = new CountDownLatch(1);
+
+        private BlockingFlushSession(BytestreamSession delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return delegate.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new FilterOutputStream(delegate.getOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len)
+                    throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    flushEntered.countDown();
+
+                    try {
+                        flushReleased.await(10000, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    super.flush();
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public int getReadTimeout() throws IOException {
+            return delegate.getReadTimeout();
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) throws IOException {
+            delegate.setReadTimeout(timeout);
+        }
+    }
+
     private volatile byte[] receivedBytes;
 
     @Test
@@ -152,6 +244,497 @@ public class BinaryChannelConnectionTest {
         assertArrayEquals("fragmentation error", bytesToSend, receivedBytes);
     }
 
+    @Test
+    public void testPayloadIsReadIntoSingleBuffer() throws Exception {
+
+        final CountDownLatch received = new CountDownLatch(2);
+        final List<byte[]> payloads = new CopyOnWriteArrayList<byte[]>();
+
+        BinaryChannelConnection alice = new BinaryChannelConnection(new JID(
+            "alice@baumeister.de"), "junit", aliceSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    payloads.add(incomingTransferObject.getPayload());
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        byte[] largePayload = new byte[100 * 1024 + 1];
+        byte[] smallPayload = new byte[10];
+
+        for (int i = 0; i < largePayload.length; i++)
+            largePayload[i] = (byte) i;
+
+        try {
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                largePayload);
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                smallPayload);
+            received.await(10000, TimeUnit.MILLISECONDS);
+
+            assertTrue("not all payloads were received",
+                received.getCount() == 0);
+
+            assertArrayEquals(largePayload, payloads.get(0));
+            assertArrayEquals(smallPayload, payloads.get(1));
+
+            assertEquals("payloads were copied", 2, bob.getBufferAllocations());
+            assertEquals(largePayload.length + smallPayload.length,
+                bob.getAllocatedBufferBytes());
+            assertEquals(alice.getBytesSent(), bob.getBytesReceived());
+        } finally {
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testPayloadWithoutAnnouncedSize() throws Exception {
+
+        final CountDownLatch received = new CountDownLatch(1);
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    receivedBytes = incomingTransferObject.getPayload();
+                    received.countDown();
+                }
+            });
+
+        bob.initialize();
+
+        byte[] bytesToSend = new byte[3 * 1000];
+
+        for (int i = 0; i < bytesToSend.length; i++)
+            bytesToSend[i] = (byte) i;
+
+        // frames of a sender that does not announce the payload size
+        byte[] description = TransferDescription
+            .toByteArray(TransferDescription.createCustomTransferDescription());
+
+        DataOutputStream out = new DataOutputStream(
+            aliceSession.getOutputStream());
+
+        try {
+            out.write(0xFA);
+            out.writeShort(0);
+            out.writeInt(3);
+            out.writeInt(description.length);
+            out.write(description);
+
+            for (int i = 0; i < 3; i++) {
+                out.write(0xFB);
+                out.writeShort(0);
+                out.writeInt(1000);
+                out.write(bytesToSend, i * 1000, 1000);
+            }
+
+            out.flush();
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+        } finally {
+            bob.close();
+        }
+
+        assertTrue("no bytes were received", received.getCount() == 0);
+
+        assertArrayEquals("fragmentation error", bytesToSend, receivedBytes);
+    }
+
+    @Test
+    public void testAnnouncedSizeIsNotAllocatedUpFront() throws Exception {
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    // NOP
+                }
+            });
+
+        bob.initialize();
+
+        // a sender that announces 1 GiB but only sends a single chunk
+        long announcedSize = 1L << 30;
+        int chunks = (int) ((announcedSize - 1)
+            / BinaryChannelFraming.CHUNKSIZE + 1);
+
+        byte[] description = TransferDescription
+            .toByteArray(TransferDescription.createCustomTransferDescription()
+                .setSize(announcedSize));
+
+        DataOutputStream out = new DataOutputStream(
+            aliceSession.getOutputStream());
+
+        try {
+            out.write(0xFA);
+            out.writeShort(0);
+            out.writeInt(chunks);
+            out.writeInt(description.length);
+            out.write(description);
+
+            out.write(0xFB);
+            out.writeShort(0);
+            out.writeInt(1000);
+            out.write(new byte[1000]);
+            out.flush();
+
+            long frameBytes = BinaryChannelFraming.TRANSFERDESCRIPTION_HEADER_SIZE
+                + description.length
+                + BinaryChannelFraming.DATA_HEADER_SIZE + 1000;
+
+            for (int i = 0; i < 100 && bob.getBytesReceived() < frameBytes; i++)
+                Thread.sleep(100);
+
+            assertEquals("chunk was not received", frameBytes,
+                bob.getBytesReceived());
+
+            long allocated = bob.getAllocatedBufferBytes();
+
+            assertTrue("announced size was allocated: " + allocated,
+                allocated <= BinaryChannelFraming.MAX_INITIAL_BUFFER_SIZE);
+        } finally {
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testCompactTransferDescriptionIsOnlySentIfEnabled()
+        throws Exception {
+
+        BinaryChannelConnection alice = new BinaryChannelConnection(new JID(
+            "alice@baumeister.de"), "junit", aliceSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    // NOP
+                }
+            });
+
+        alice.initialize();
+
+        DataInputStream in = new DataInputStream(bobSession.getInputStream());
+
+        try {
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                new byte[] { 1, 2, 3 });
+
+            assertEquals("peers without support must get the full form",
+                0xFA, readPayloadFrames(in));
+
+            alice.setCompactTransferDescriptions(true);
+
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                new byte[] { 4, 5, 6 });
+
+            assertEquals(0xFC, readPayloadFrames(in));
+        } finally {
+            alice.close();
+        }
+    }
+
+    /**
+     * Reads the frames of a payload that consists of a single chunk and
+     * returns the opcode of its transfer description.
+     */
+    private static int readPayloadFrames(DataInputStream in)
+        throws IOException {
+        int opcode = in.readUnsignedByte();
+
+        in.readShort();
+        assertEquals(1, in.readInt());
+        in.readFully(new byte[in.readInt()]);
+
+        assertEquals(0xFB, in.readUnsignedByte());
+        in.readShort();
+        in.readFully(new byte[in.readInt()]);
+
+        return opcode;
+    }
+
+    @Test
+    public void testSmallPayloadPreemptsLargePayload() throws Exception {
+
+        final CountDownLatch received = new CountDownLatch(2);
+        final List<byte[]> payloads = new CopyOnWriteArrayList<byte[]>();
+
+        BinaryChannelConnection alice = new BinaryChannelConnection(new JID(
+            "alice@baumeister.de"), "junit", aliceSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    payloads.add(incomingTransferObject.getPayload());
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+
+        byte[] largePayload = new byte[4 * PIPE_BUFFER_SIZE];
+        byte[] smallPayload = new byte[] { 1, 2, 3 };
+
+        CountDownLatch finished = new CountDownLatch(1);
+
+        Thread largeSender = createSender(alice, largePayload, finished);
+        Thread smallSender = createSender(alice, smallPayload, finished);
+
+        try {
+            // bob is not reading yet so the large payload blocks the pipe
+            largeSender.start();
+
+            while (alice.getBytesSent() < PIPE_BUFFER_SIZE / 2)
+                Thread.sleep(10);
+
+            smallSender.start();
+
+            while (alice.getOutgoingTransferCount() < 2)
+                Thread.sleep(10);
+
+            bob.initialize();
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+
+            assertTrue("not all payloads were received",
+                received.getCount() == 0);
+
+            assertArrayEquals("small payload was not sent first",
+                smallPayload, payloads.get(0));
+            assertArrayEquals(largePayload, payloads.get(1));
+            assertEquals(1, alice.getPreemptedChunks());
+        } finally {
+            finished.countDown();
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testParallelLargePayloads() throws Exception {
+
+        final int senderCount = 4;
+
+        final CountDownLatch received = new CountDownLatch(senderCount);
+        final List<byte[]> payloads = new CopyOnWriteArrayList<byte[]>();
+
+        BinaryChannelConnection alice = new BinaryChannelConnection(new JID(
+            "alice@baumeister.de"), "junit", aliceSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    payloads.add(incomingTransferObject.getPayload());
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        CountDownLatch finished = new CountDownLatch(1);
+
+        Thread[] senders = new Thread[senderCount];
+
+        for (int i = 0; i < senderCount; i++) {
+            byte[] payload = new byte[(i + 1) * 100 * 1024];
+
+            Arrays.fill(payload, (byte) i);
+
+            senders[i] = createSender(alice, payload, finished);
+        }
+
+        try {
+            for (Thread sender : senders)
+                sender.start();
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+
+            assertTrue("not all payloads were received",
+                received.getCount() == 0);
+
+            for (byte[] payload : payloads) {
+                int i = payload.length / (100 * 1024) - 1;
+
+                byte[] expected = new byte[(i + 1) * 100 * 1024];
+                Arrays.fill(expected, (byte) i);
+
+                assertArrayEquals("payloads were mixed up", expected, payload);
+            }
+
+            assertEquals(0, alice.getOutgoingTransferCount());
+            assertEquals(alice.getBytesSent(), bob.getBytesReceived());
+        } finally {
+            finished.countDown();
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testSinglePayloadIsFlushedImmediately() throws Exception {
+
+        final CountDownLatch received = new CountDownLatch(2);
+
+        BinaryChannelConnection alice = new BinaryChannelConnection(new JID(
+            "alice@baumeister.de"), "junit", aliceSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        try {
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                new byte[] { 1, 2, 3 });
+
+            assertEquals(1, alice.getFlushes());
+            assertEquals(2, alice.getFlushedFrames());
+
+            // the connection is idle again
+            Thread.sleep(100);
+
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                new byte[] { 4, 5, 6 });
+
+            assertEquals(2, alice.getFlushes());
+            assertEquals(4, alice.getFlushedFrames());
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+
+            assertTrue("not all payloads were received",
+                received.getCount() == 0);
+        } finally {
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testQueuedPayloadsShareFlush() throws Exception {
+
+        final int senderCount = 8;
+
+        final CountDownLatch received = new CountDownLatch(senderCount);
+
+        BlockingFlushSession blockingSession = new BlockingFlushSession(
+            aliceSession);
+
+        BinaryChannelConnection alice = new BinaryChannelConnection(new JID(
+            "alice@baumeister.de"), "junit", blockingSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobSession,
+            NetTransferMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void addIncomingTransferObject(
+                    final IncomingTransferObject incomingTransferObject) {
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        CountDownLatch finished = new CountDownLatch(1);
+
+        Thread[] senders = new Thread[senderCount];
+
+        for (int i = 0; i < senderCount; i++)
+            senders[i] = createSender(alice, new byte[] { (byte) i },
+                finished);
+
+        try {
+            // the first payload blocks the writer in its flush
+            senders[0].start();
+
+            blockingSession.flushEntered.await(10000, TimeUnit.MILLISECONDS);
+
+            for (int i = 1; i < senderCount; i++)
+                senders[i].start();
+
+            while (alice.getOutgoingTransferCount() < senderCount)
+                Thread.sleep(10);
+
+            blockingSession.flushReleased.countDown();
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+
+            assertTrue("not all payloads were received",
+                received.getCount() == 0);
+
+            assertEquals("queued payloads were not flushed at once", 2,
+                alice.getFlushes());
+            assertEquals(2 * senderCount, alice.getFlushedFrames());
+        } finally {
+            finished.countDown();
+            alice.close();
+            bob.close();
+        }
+    }
+
     @Test
     @Ignore("this test consumes much CPU resources and should only executed manually when making changes")
     public void testFragmentationCleanup() throws Exception {
@@ -0,0 +1,106 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CompressionContextTest {
+
+    private final CompressionPool pool = new CompressionPool(
+        Deflater.DEFLATED, 2);
+
+    @After
+    public void tearDown() {
+        pool.clear();
+    }
+
+    private static byte[] createActivityPacket(int sequenceNumber, int offset)
+        throws IOException {
+        return ("<ADOS xmlns=\"de.fu_berlin.inf.dpp\" sid=\"4711\" seq=\""
+            + sequenceNumber
+            + "\"><jupiterActivity source=\"alice@saros-con.imp.fu-berlin.de/Saros\">"
+            + "<SPath><p>src/de/example/Main.java</p><i>0815</i></SPath>"
+            + "<vectorTime local=\"" + sequenceNumber + "\" remote=\"3\"/>"
+            + "<insertOp position=\"" + offset + "\" text=\"x\"/>"
+            + "</jupiterActivity></ADOS>").getBytes("UTF-8");
+    }
+
+    @Test
+    public void testRoundtrip() throws IOException {
+        CompressionContext sender = new CompressionContext(pool);
+        CompressionContext receiver = new CompressionContext(pool);
+
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100; i++) {
+            byte[] payload;
+
+            if (i % 10 == 0) {
+                payload = new byte[random.nextInt(20000)];
+                random.nextBytes(payload);
+            } else {
+                payload = createActivityPacket(i, random.nextInt(1000));
+            }
+
+            assertArrayEquals(payload,
+                receiver.inflate(sender.deflate(payload)));
+        }
+    }
+
+    @Test
+    public void testSmallPacketsCompressBetterWithContext() throws IOException {
+        CompressionContext sender = new CompressionContext(pool);
+
+        int separately = 0;
+        int withContext = 0;
+
+        for (int i = 0; i < 50; i++) {
+            byte[] payload = createActivityPacket(i, 100 + i);
+            separately += pool.deflate(payload, null, 0).length;
+            withContext += sender.deflate(payload).length;
+        }
+
+        assertTrue("context compression: " + withContext + ", separately: "
+            + separately, withContext * 3 < separately);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOutOfOrderDecompression() throws IOException {
+        CompressionContext sender = new CompressionContext(pool);
+        CompressionContext receiver = new CompressionContext(pool);
+
+        List<byte[]> data = new ArrayList<byte[]>();
+
+        for (int i = 0; i < 3; i++)
+            data.add(sender.deflate(createActivityPacket(i, i)));
+
+        receiver.inflate(data.get(0));
+        receiver.inflate(data.get(2));
+    }
+
+    @Test
+    public void testPoolIsBounded() throws IOException {
+        CompressionContext sender = new CompressionContext(pool);
+        CompressionContext receiver = new CompressionContext(pool);
+
+        for (int i = 0; i < 10; i++)
+            receiver.inflate(sender.deflate(createActivityPacket(i, i)));
+
+        assertEquals(1, pool.getIdleCount());
+
+        pool.clear();
+        assertEquals(0, pool.getIdleCount());
+
+        // the pool is still usable after it was cleared
+        receiver.inflate(sender.deflate(createActivityPacket(10, 10)));
+    }
+}
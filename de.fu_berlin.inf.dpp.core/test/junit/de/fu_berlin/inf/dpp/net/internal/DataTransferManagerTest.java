@@ -3,6 +3,7 @@ package de.fu_berlin.inf.dpp.net.internal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -130,6 +131,8 @@ public class DataTransferManagerTest {
         private IByteStreamConnectionListener listener;
         private volatile boolean closed;
         private volatile int sendPackets;
+        private volatile boolean compactTransferDescriptions;
+        private volatile TransferDescription lastDescription;
 
         public ChannelConnection(JID to, NetTransferMode mode,
             IByteStreamConnectionListener listener) {
@@ -158,6 +161,7 @@ public class DataTransferManagerTest {
         public void send(TransferDescription data, byte[] content)
             throws IOException {
             sendPackets++;
+            lastDescription = data;
         }
 
         @Override
@@ -174,6 +178,11 @@ public class DataTransferManagerTest {
             return null;
         }
 
+        @Override
+        public void setCompactTransferDescriptions(boolean enabled) {
+            compactTransferDescriptions = enabled;
+        }
+
         @Override
         public void initialize() {
             // NOP
@@ -422,6 +431,101 @@ public class DataTransferManagerTest {
         dtm.sendData("foo", description, new byte[0]);
     }
 
+    @Test
+    public void testContextCompressionIsOnlyUsedIfSupported()
+        throws Exception {
+        Transport mainTransport = new Transport(NetTransferMode.SOCKS5_DIRECT);
+
+        DataTransferManager dtm = new DataTransferManager(
+            connectionServiceStub, null, mainTransport, null);
+
+        connectionListener.getValue().connectionStateChanged(connectionMock,
+            ConnectionState.CONNECTED);
+
+        JID peer = new JID("foo@bar.com");
+
+        dtm.connect("foo", peer);
+
+        ChannelConnection connection = mainTransport
+            .getEstablishedConnections().get(0);
+
+        assertFalse("compact form must be negotiated first",
+            connection.compactTransferDescriptions);
+
+        dtm.sendData("foo", createCompressedDescription(peer), new byte[100]);
+
+        assertFalse("peer cannot inflate payloads of a compression context",
+            connection.lastDescription.contextCompression());
+
+        dtm.setCompactTransferDescriptionsSupported(peer, true);
+
+        assertTrue(connection.compactTransferDescriptions);
+
+        dtm.sendData("foo", createCompressedDescription(peer), new byte[100]);
+
+        assertFalse("context compression is negotiated separately",
+            connection.lastDescription.contextCompression());
+
+        dtm.setContextCompressionSupported(peer, true);
+
+        dtm.sendData("foo", createCompressedDescription(peer), new byte[100]);
+
+        assertTrue(connection.lastDescription.contextCompression());
+    }
+
+    @Test
+    public void testTCPTransportIsOnlyUsedIfSupported() throws Exception {
+        final Transport tcpTransport = new Transport(NetTransferMode.TCP);
+
+        ITransport mainTransport = new TCPTransport() {
+            @Override
+            public IByteStreamConnection connect(String connectionID, JID peer)
+                throws IOException, InterruptedException {
+                return tcpTransport.connect(connectionID, peer);
+            }
+
+            @Override
+            public synchronized void initialize(Connection connection,
+                IByteStreamConnectionListener listener) {
+                tcpTransport.initialize(connection, listener);
+            }
+
+            @Override
+            public synchronized void uninitialize() {
+                tcpTransport.uninitialize();
+            }
+        };
+
+        ITransport fallbackTransport = new Transport(NetTransferMode.IBB);
+
+        DataTransferManager dtm = new DataTransferManager(
+            connectionServiceStub, null, mainTransport, fallbackTransport);
+
+        connectionListener.getValue().connectionStateChanged(connectionMock,
+            ConnectionState.CONNECTED);
+
+        assertTrue(dtm.isTCPTransportAvailable());
+
+        JID oldPeer = new JID("old@bar.com/Saros");
+        JID newPeer = new JID("new@bar.com/Saros");
+
+        dtm.setTCPTransportSupported(newPeer, true);
+
+        dtm.connect(oldPeer);
+        dtm.connect(newPeer);
+
+        assertEquals(NetTransferMode.IBB, dtm.getTransferMode(oldPeer));
+        assertEquals(NetTransferMode.TCP, dtm.getTransferMode(newPeer));
+
+        assertEquals("TCP transport was used for a peer without support", 1,
+            tcpTransport.getEstablishedConnections().size());
+    }
+
+    private static TransferDescription createCompressedDescription(JID peer) {
+        return TransferDescription.createCustomTransferDescription()
+            .setRecipient(peer).setCompressContent(true);
+    }
+
     @Test(timeout = 30000)
     public void testConcurrentConnections() throws Exception {
 
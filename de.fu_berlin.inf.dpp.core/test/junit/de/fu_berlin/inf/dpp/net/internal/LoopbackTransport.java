@@ -0,0 +1,78 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jivesoftware.smack.Connection;
+
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.NetTransferMode;
+
+/**
+ * Transport that connects the transports of the same process with each other
+ * using pipes. The connections are served by the given {@link NIOEventLoop}
+ * just like the connections of the {@link TCPTransport}.
+ */
+public class LoopbackTransport implements ITransport {
+
+    private static final Map<JID, LoopbackTransport> transports = Collections
+        .synchronizedMap(new HashMap<JID, LoopbackTransport>());
+
+    private final JID localJID;
+
+    private final NIOEventLoop loop;
+
+    private volatile IByteStreamConnectionListener listener;
+
+    public LoopbackTransport(JID localJID, NIOEventLoop loop) {
+        this.localJID = localJID;
+        this.loop = loop;
+    }
+
+    @Override
+    public IByteStreamConnection connect(String connectionID, JID peer)
+        throws IOException {
+
+        LoopbackTransport remote = transports.get(peer);
+
+        if (remote == null || remote.listener == null)
+            throw new IOException(peer + " is not reachable");
+
+        Pipe toRemote = Pipe.open();
+        Pipe fromRemote = Pipe.open();
+
+        NIOChannelConnection remoteConnection = new NIOChannelConnection(
+            localJID, connectionID, toRemote.source(), fromRemote.sink(),
+            NetTransferMode.TCP, remote.loop.next(), remote.listener);
+
+        NIOChannelConnection connection = new NIOChannelConnection(peer,
+            connectionID, fromRemote.source(), toRemote.sink(),
+            NetTransferMode.TCP, loop.next(), listener);
+
+        remote.listener.connectionChanged(connectionID, localJID,
+            remoteConnection, true);
+
+        return connection;
+    }
+
+    @Override
+    public void initialize(Connection connection,
+        IByteStreamConnectionListener listener) {
+        this.listener = listener;
+        transports.put(localJID, this);
+    }
+
+    @Override
+    public void uninitialize() {
+        transports.remove(localJID);
+        listener = null;
+    }
+
+    @Override
+    public String toString() {
+        return "Loopback";
+    }
+}
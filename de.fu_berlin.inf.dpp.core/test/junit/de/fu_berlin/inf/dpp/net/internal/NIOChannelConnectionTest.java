@@ -0,0 +1,387 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smackx.bytestreams.BytestreamSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.net.IncomingTransferObject;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.NetTransferMode;
+
+public class NIOChannelConnectionTest {
+
+    private static final JID ALICE = new JID("alice@baumeister.de/Saros");
+
+    private static final JID BOB = new JID("bob@baumeister.de/Saros");
+
+    private static final AtomicInteger loopCount = new AtomicInteger();
+
+    /**
+     * Initializes every new connection and collects everything that is
+     * received.
+     */
+    private static class ConnectionListener implements
+        IByteStreamConnectionListener {
+
+        private final BlockingQueue<IncomingTransferObject> received = new LinkedBlockingQueue<IncomingTransferObject>();
+
+        private final BlockingQueue<IByteStreamConnection> connections = new LinkedBlockingQueue<IByteStreamConnection>();
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private final List<String> receivingThreads = new CopyOnWriteArrayList<String>();
+
+        /** blocks the listener until it is counted down if set */
+        private volatile CountDownLatch blocked;
+
+        @Override
+        public void addIncomingTransferObject(
+            IncomingTransferObject incomingTransferObject) {
+            receivingThreads.add(Thread.currentThread().getName());
+
+            CountDownLatch latch = blocked;
+
+            try {
+                if (latch != null)
+                    latch.await(10000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            received.add(incomingTransferObject);
+        }
+
+        @Override
+        public void connectionClosed(String connectionID, JID remoteJID,
+            IByteStreamConnection connection) {
+            closed.countDown();
+        }
+
+        @Override
+        public void connectionChanged(String connectionID, JID remoteJID,
+            IByteStreamConnection connection, boolean incomingRequest) {
+            connection.initialize();
+            connections.add(connection);
+        }
+
+        private byte[] nextPayload() throws InterruptedException {
+            IncomingTransferObject transferObject = received.poll(10000,
+                TimeUnit.MILLISECONDS);
+
+            assertNotNull("nothing was received", transferObject);
+            return transferObject.getPayload();
+        }
+    }
+
+    private static class SocketBytestreamSession implements BytestreamSession {
+
+        private final Socket socket;
+
+        private SocketBytestreamSession(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public int getReadTimeout() throws IOException {
+            return socket.getSoTimeout();
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) throws IOException {
+            socket.setSoTimeout(timeout);
+        }
+    }
+
+    private String threadName;
+
+    private NIOEventLoop loop;
+
+    private ConnectionListener aliceListener;
+    private ConnectionListener bobListener;
+
+    private LoopbackTransport aliceTransport;
+    private LoopbackTransport bobTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        threadName = "NIOChannelConnectionTest" + loopCount.incrementAndGet();
+        loop = new NIOEventLoop(threadName, 2);
+
+        aliceListener = new ConnectionListener();
+        bobListener = new ConnectionListener();
+
+        aliceTransport = new LoopbackTransport(ALICE, loop);
+        bobTransport = new LoopbackTransport(BOB, loop);
+
+        aliceTransport.initialize(null, aliceListener);
+        bobTransport.initialize(null, bobListener);
+    }
+
+    @After
+    public void tearDown() {
+        aliceTransport.uninitialize();
+        bobTransport.uninitialize();
+        loop.shutdown();
+    }
+
+    private static byte[] createPayload(int size) {
+        byte[] payload = new byte[size];
+
+        for (int i = 0; i < payload.length; i++)
+            payload[i] = (byte) (i * 31);
+
+        return payload;
+    }
+
+    @Test
+    public void testLoopbackTransfer() throws Exception {
+        IByteStreamConnection alice = aliceTransport.connect("junit", BOB);
+        alice.initialize();
+
+        IByteStreamConnection bob = bobListener.connections.poll(10000,
+            TimeUnit.MILLISECONDS);
+
+        assertNotNull("remote side was not notified", bob);
+        assertEquals(ALICE, bob.getPeer());
+        assertEquals("junit", bob.getConnectionID());
+
+        byte[] smallPayload = createPayload(100);
+        byte[] largePayload = createPayload(1024 * 1024 + 1);
+
+        try {
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                smallPayload);
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                largePayload);
+            bob.send(TransferDescription.createCustomTransferDescription(),
+                largePayload);
+
+            assertArrayEquals(smallPayload, bobListener.nextPayload());
+            assertArrayEquals(largePayload, bobListener.nextPayload());
+            assertArrayEquals(largePayload, aliceListener.nextPayload());
+
+            assertEquals(((NIOChannelConnection) alice).getBytesSent(),
+                ((NIOChannelConnection) bob).getBytesReceived());
+        } finally {
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testTransferObjectsAreDispatchedInOrder() throws Exception {
+        IByteStreamConnection alice = aliceTransport.connect("junit", BOB);
+        alice.initialize();
+
+        IByteStreamConnection bob = bobListener.connections.poll(10000,
+            TimeUnit.MILLISECONDS);
+
+        assertNotNull("remote side was not notified", bob);
+
+        int maxPending = NIOChannelConnection.MAX_PENDING_DISPATCHES;
+
+        // more than the I/O thread queues before it stops reading
+        int count = 4 * maxPending;
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        bobListener.blocked = blocked;
+
+        try {
+            for (int i = 0; i < count; i++)
+                alice.send(
+                    TransferDescription.createCustomTransferDescription(),
+                    createPayload(i + 1));
+
+            NIOChannelConnection receiver = (NIOChannelConnection) bob;
+
+            for (int i = 0; i < 100
+                && receiver.getPendingDispatches() < maxPending; i++)
+                Thread.sleep(100);
+
+            Thread.sleep(100);
+
+            assertEquals("reading did not stop", maxPending,
+                receiver.getPendingDispatches());
+
+            blocked.countDown();
+
+            for (int i = 0; i < count; i++)
+                assertEquals("transfer objects were reordered", i + 1,
+                    bobListener.nextPayload().length);
+
+            for (String thread : bobListener.receivingThreads)
+                assertFalse("listener was called by I/O thread " + thread,
+                    thread.startsWith(threadName + "-"));
+        } finally {
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testConnectionsShareIOThreads() throws Exception {
+        int connectionCount = 16;
+
+        IByteStreamConnection[] connections = new IByteStreamConnection[connectionCount];
+
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                connections[i] = aliceTransport.connect("junit" + i, BOB);
+                connections[i].initialize();
+            }
+
+            for (int i = 0; i < connectionCount; i++)
+                connections[i].send(
+                    TransferDescription.createCustomTransferDescription(),
+                    createPayload(i + 1));
+
+            for (int i = 0; i < connectionCount; i++)
+                bobListener.nextPayload();
+
+            assertEquals("I/O threads", loop.getThreadCount(),
+                countThreads(threadName + "-"));
+        } finally {
+            for (IByteStreamConnection connection : connections)
+                if (connection != null)
+                    connection.close();
+
+            for (IByteStreamConnection connection : bobListener.connections)
+                connection.close();
+        }
+    }
+
+    @Test
+    public void testCloseIsDetectedByRemoteSide() throws Exception {
+        IByteStreamConnection alice = aliceTransport.connect("junit", BOB);
+        alice.initialize();
+
+        IByteStreamConnection bob = bobListener.connections.poll(10000,
+            TimeUnit.MILLISECONDS);
+
+        assertNotNull("remote side was not notified", bob);
+
+        alice.close();
+
+        assertTrue("remote side did not detect the closed connection",
+            bobListener.closed.await(10000, TimeUnit.MILLISECONDS));
+
+        assertTrue(!bob.isConnected());
+    }
+
+    @Test
+    public void testInteroperabilityWithBinaryChannelConnection()
+        throws Exception {
+
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        ServerSocket serverSocket = new ServerSocket(0, 1, localhost);
+
+        SocketChannel channel;
+        Socket socket;
+
+        try {
+            channel = SocketChannel.open(new InetSocketAddress(localhost,
+                serverSocket.getLocalPort()));
+            socket = serverSocket.accept();
+        } finally {
+            serverSocket.close();
+        }
+
+        NIOChannelConnection alice = new NIOChannelConnection(BOB, "junit",
+            channel, channel, NetTransferMode.TCP, loop.next(), aliceListener);
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(ALICE,
+            "junit", new SocketBytestreamSession(socket),
+            NetTransferMode.SOCKS5_DIRECT, bobListener);
+
+        alice.initialize();
+        bob.initialize();
+
+        byte[] smallPayload = createPayload(10);
+        byte[] largePayload = createPayload(256 * 1024 + 7);
+
+        try {
+            for (int i = 0; i < 2; i++) {
+                // the full form first, then the compact one
+                alice.setCompactTransferDescriptions(i > 0);
+                bob.setCompactTransferDescriptions(i > 0);
+
+                alice.send(
+                    TransferDescription.createCustomTransferDescription(),
+                    largePayload);
+                alice.send(
+                    TransferDescription.createCustomTransferDescription(),
+                    smallPayload);
+                bob.send(TransferDescription.createCustomTransferDescription(),
+                    largePayload);
+                bob.send(TransferDescription.createCustomTransferDescription(),
+                    smallPayload);
+            }
+
+            for (int i = 0; i < 2; i++) {
+                assertArrayEquals(largePayload, bobListener.nextPayload());
+                assertArrayEquals(smallPayload, bobListener.nextPayload());
+                assertArrayEquals(largePayload, aliceListener.nextPayload());
+                assertArrayEquals(smallPayload, aliceListener.nextPayload());
+            }
+
+            assertEquals(alice.getBytesSent(), bob.getBytesReceived());
+            assertEquals(bob.getBytesSent(), alice.getBytesReceived());
+
+            // the announced sizes need no growing or trimming
+            assertEquals("payloads were copied", 4,
+                alice.getBufferAllocations());
+            assertEquals("payloads were copied", 4, bob.getBufferAllocations());
+        } finally {
+            alice.close();
+            bob.close();
+        }
+    }
+
+    private static int countThreads(String namePrefix) {
+        int count = 0;
+
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().startsWith(namePrefix) && thread.isAlive())
+                count++;
+
+        return count;
+    }
+}
@@ -0,0 +1,265 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.PacketCollector;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.net.IncomingTransferObject;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.NetTransferMode;
+
+public class TCPTransportTest {
+
+    private static final JID ALICE = new JID("alice@baumeister.de/Saros");
+
+    private static final JID BOB = new JID("bob@baumeister.de/Saros");
+
+    /**
+     * Initializes every new connection and collects everything that is
+     * received.
+     */
+    private static class ConnectionListener implements
+        IByteStreamConnectionListener {
+
+        private final BlockingQueue<IncomingTransferObject> received = new LinkedBlockingQueue<IncomingTransferObject>();
+
+        private final BlockingQueue<IByteStreamConnection> connections = new LinkedBlockingQueue<IByteStreamConnection>();
+
+        @Override
+        public void addIncomingTransferObject(
+            IncomingTransferObject incomingTransferObject) {
+            received.add(incomingTransferObject);
+        }
+
+        @Override
+        public void connectionClosed(String connectionID, JID remoteJID,
+            IByteStreamConnection connection) {
+            // NOP
+        }
+
+        @Override
+        public void connectionChanged(String connectionID, JID remoteJID,
+            IByteStreamConnection connection, boolean incomingRequest) {
+            connection.initialize();
+            connections.add(connection);
+        }
+
+        private byte[] nextPayload() throws InterruptedException {
+            IncomingTransferObject transferObject = received.poll(10000,
+                TimeUnit.MILLISECONDS);
+
+            assertNotNull("nothing was received", transferObject);
+            return transferObject.getPayload();
+        }
+    }
+
+    /** the offer listeners of the XMPP connections by their JID */
+    private final Map<String, PacketListener> offerListeners = Collections
+        .synchronizedMap(new HashMap<String, PacketListener>());
+
+    /** the last response that was sent to a JID */
+    private final Map<String, Packet> responses = Collections
+        .synchronizedMap(new HashMap<String, Packet>());
+
+    /** if set, this response is delivered instead of every offer */
+    private volatile Packet replayedOffer;
+
+    private ConnectionListener aliceListener;
+    private ConnectionListener bobListener;
+
+    private TCPTransport aliceTransport;
+    private TCPTransport bobTransport;
+
+    @Before
+    public void setUp() {
+        aliceListener = new ConnectionListener();
+        bobListener = new ConnectionListener();
+
+        aliceTransport = new TCPTransport();
+        bobTransport = new TCPTransport();
+
+        aliceTransport.initialize(createConnection(ALICE), aliceListener);
+        bobTransport.initialize(createConnection(BOB), bobListener);
+    }
+
+    @After
+    public void tearDown() {
+        aliceTransport.uninitialize();
+        bobTransport.uninitialize();
+    }
+
+    @Test
+    public void testOfferAndHandshake() throws Exception {
+        IByteStreamConnection alice = aliceTransport.connect("junit", BOB);
+        alice.initialize();
+
+        IByteStreamConnection bob = bobListener.connections.poll(10000,
+            TimeUnit.MILLISECONDS);
+
+        assertNotNull("remote side was not notified", bob);
+        assertEquals(ALICE, bob.getPeer());
+        assertEquals("junit", bob.getConnectionID());
+        assertEquals(NetTransferMode.TCP, alice.getMode());
+
+        byte[] payload = new byte[100 * 1024];
+
+        for (int i = 0; i < payload.length; i++)
+            payload[i] = (byte) i;
+
+        try {
+            alice.send(TransferDescription.createCustomTransferDescription(),
+                payload);
+            bob.send(TransferDescription.createCustomTransferDescription(),
+                payload);
+
+            assertArrayEquals(payload, bobListener.nextPayload());
+            assertArrayEquals(payload, aliceListener.nextPayload());
+        } finally {
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testTokenIsOnlyValidOnce() throws Exception {
+        IByteStreamConnection alice = aliceTransport.connect("junit", BOB);
+        alice.close();
+
+        replayedOffer = responses.get(ALICE.toString());
+
+        assertNotNull(replayedOffer);
+
+        try {
+            aliceTransport.connect("junit", BOB);
+            fail("connected with a token that was already used");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConnectWithoutRemoteTransport() throws Exception {
+        bobTransport.uninitialize();
+
+        try {
+            aliceTransport.connect("junit", BOB);
+            fail("connected to a peer that does not accept connections");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Creates a XMPP connection that delivers the requests directly to the
+     * offer listener of the recipient and the responses to the next packet
+     * collector of the recipient.
+     */
+    private Connection createConnection(final JID jid) {
+        final Connection connection = EasyMock.createMock(Connection.class);
+
+        connection.addPacketListener(EasyMock.isA(PacketListener.class),
+            EasyMock.isA(PacketFilter.class));
+
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                offerListeners.put(jid.toString(),
+                    (PacketListener) EasyMock.getCurrentArguments()[0]);
+                return null;
+            }
+        }).anyTimes();
+
+        connection.removePacketListener(EasyMock.isA(PacketListener.class));
+
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                offerListeners.remove(jid.toString());
+                return null;
+            }
+        }).anyTimes();
+
+        connection.sendPacket(EasyMock.isA(Packet.class));
+
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                route(jid, (Packet) EasyMock.getCurrentArguments()[0]);
+                return null;
+            }
+        }).anyTimes();
+
+        EasyMock.expect(
+            connection.createPacketCollector(EasyMock.isA(PacketFilter.class)))
+            .andAnswer(new IAnswer<PacketCollector>() {
+                @Override
+                public PacketCollector answer() throws Throwable {
+                    return createCollector(jid);
+                }
+            }).anyTimes();
+
+        EasyMock.replay(connection);
+        return connection;
+    }
+
+    private PacketCollector createCollector(final JID jid) {
+        PacketCollector collector = EasyMock
+            .createMock(PacketCollector.class);
+
+        EasyMock.expect(collector.nextResult(EasyMock.anyLong()))
+            .andAnswer(new IAnswer<Packet>() {
+                @Override
+                public Packet answer() throws Throwable {
+                    return responses.get(jid.toString());
+                }
+            }).anyTimes();
+
+        collector.cancel();
+        EasyMock.expectLastCall().anyTimes();
+
+        EasyMock.replay(collector);
+        return collector;
+    }
+
+    private void route(JID from, Packet packet) {
+        packet.setFrom(from.toString());
+
+        IQ.Type type = ((IQ) packet).getType();
+
+        if (type != IQ.Type.GET) {
+            Packet response = packet;
+
+            if (replayedOffer != null && type == IQ.Type.RESULT)
+                response = replayedOffer;
+
+            responses.put(packet.getTo(), response);
+            return;
+        }
+
+        PacketListener offerListener = offerListeners.get(packet.getTo());
+
+        if (offerListener != null)
+            offerListener.processPacket(packet);
+    }
+}
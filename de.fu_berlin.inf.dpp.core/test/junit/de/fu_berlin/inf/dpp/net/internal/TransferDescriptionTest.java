@@ -1,6 +1,13 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 
 import org.junit.Test;
 
@@ -20,6 +27,7 @@ public class TransferDescriptionTest {
         td.setSender(new JID("bob@test"));
         td.setSize(0xFFFFF);
         td.setCompressContent(true);
+        td.setBinaryContent(true);
 
         byte[] data = TransferDescription.toByteArray(td);
         TransferDescription td2 = TransferDescription.fromByteArray(data);
@@ -30,5 +38,131 @@ public class TransferDescriptionTest {
         assertEquals(td.getSender(), td2.getSender());
         assertEquals(td.getSize(), td2.getSize());
         assertEquals(td.compressContent(), td2.compressContent());
+        assertEquals(td.binaryContent(), td2.binaryContent());
+    }
+
+    @Test
+    public void testByteArrayOfOlderSender() throws Exception {
+        byte[] data = createLegacyByteArray("foo", "bar", "alice@test",
+            "bob@test", 42, true);
+
+        TransferDescription td = TransferDescription.fromByteArray(data);
+
+        assertEquals("foo", td.getType());
+        assertEquals("bar", td.getNamespace());
+        assertEquals(new JID("alice@test"), td.getRecipient());
+        assertEquals(new JID("bob@test"), td.getSender());
+        assertEquals(42, td.getSize());
+        assertTrue(td.compressContent());
+        assertFalse(td.binaryContent());
+        assertFalse(td.contextCompression());
+    }
+
+    @Test
+    public void testByteArrayForOlderReceiver() throws Exception {
+        TransferDescription td = TransferDescription
+            .createCustomTransferDescription();
+
+        td.setType("foo");
+        td.setNamespace("bar");
+        td.setRecipient(new JID("alice@test"));
+        td.setSender(new JID("bob@test"));
+        td.setSize(42);
+        td.setCompressContent(true);
+
+        assertArrayEquals("newer flags must not be written if unset",
+            createLegacyByteArray("foo", "bar", "alice@test", "bob@test", 42,
+                true), TransferDescription.toByteArray(td));
+    }
+
+    @Test
+    public void testInternedByteArray() throws Exception {
+        HeaderSymbolTable outgoing = new HeaderSymbolTable();
+        HeaderSymbolTable incoming = new HeaderSymbolTable();
+
+        TransferDescription td = createDescription("alice@test/Saros");
+
+        byte[] first = TransferDescription.toByteArray(td, outgoing);
+        byte[] second = TransferDescription.toByteArray(td, outgoing);
+
+        assertTrue("strings are not interned", second.length < first.length);
+        assertTrue("interned description is too large", second.length <= 8);
+
+        TransferDescription td1 = TransferDescription.fromByteArray(first, 0,
+            first.length, incoming);
+        TransferDescription td2 = TransferDescription.fromByteArray(second, 0,
+            second.length, incoming);
+
+        for (TransferDescription decoded : new TransferDescription[] { td1,
+            td2 }) {
+            assertEquals(td.getType(), decoded.getType());
+            assertEquals(td.getNamespace(), decoded.getNamespace());
+            assertEquals(td.getRecipient(), decoded.getRecipient());
+            assertEquals(td.getSender(), decoded.getSender());
+            assertEquals(td.getSize(), decoded.getSize());
+            assertEquals(td.compressContent(), decoded.compressContent());
+            assertEquals(td.binaryContent(), decoded.binaryContent());
+            assertEquals(td.contextCompression(),
+                decoded.contextCompression());
+        }
+
+        assertSame(td1.getRecipient(), td2.getRecipient());
+        assertSame(td1.getSender(), td2.getSender());
+    }
+
+    @Test
+    public void testInternedByteArrayWithFullSymbolTable() throws Exception {
+        HeaderSymbolTable outgoing = new HeaderSymbolTable();
+        HeaderSymbolTable incoming = new HeaderSymbolTable();
+
+        for (int i = 0; i < HeaderSymbolTable.MAX_SYMBOLS + 8; i++) {
+            TransferDescription td = createDescription("alice@test/" + i);
+
+            byte[] data = TransferDescription.toByteArray(td, outgoing);
+
+            TransferDescription decoded = TransferDescription.fromByteArray(
+                data, 0, data.length, incoming);
+
+            assertEquals(td.getRecipient(), decoded.getRecipient());
+            assertEquals(td.getSender(), decoded.getSender());
+            assertEquals(td.getType(), decoded.getType());
+        }
+    }
+
+    /**
+     * Returns the full form as written by senders that do not know the binary
+     * and context compression flags.
+     */
+    private static byte[] createLegacyByteArray(String type, String namespace,
+        String recipient, String sender, long size, boolean compress)
+        throws Exception {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(serialized);
+
+        out.writeUTF(type);
+        out.writeUTF(namespace);
+        out.writeUTF(recipient);
+        out.writeUTF(sender);
+        out.writeLong(size);
+        out.writeBoolean(compress);
+        out.close();
+
+        return serialized.toByteArray();
+    }
+
+    private static TransferDescription createDescription(String recipient) {
+        TransferDescription td = TransferDescription
+            .createCustomTransferDescription();
+
+        td.setType("foo");
+        td.setNamespace("bar");
+        td.setRecipient(new JID(recipient));
+        td.setSender(new JID("bob@test/Saros"));
+        td.setSize(0xFFFFF);
+        td.setCompressContent(true);
+        td.setBinaryContent(false);
+        td.setContextCompression(true);
+
+        return td;
     }
 }
@@ -36,6 +36,8 @@ import de.fu_berlin.inf.dpp.net.internal.extensions.KickUserExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.LeaveSessionExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.PingExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.PongExtension;
+import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationHashRequestExtension;
+import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationHashResponseExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationMissingFilesExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationOfferingExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.SessionStatusRequestExtension;
@@ -124,6 +126,10 @@ public class SarosContext implements ISarosContext {
             Class.forName(PingExtension.class.getName());
             Class.forName(PongExtension.class.getName());
             Class.forName(ProjectNegotiationOfferingExtension.class.getName());
+            Class.forName(ProjectNegotiationHashRequestExtension.class
+                .getName());
+            Class.forName(ProjectNegotiationHashResponseExtension.class
+                .getName());
 
             Class.forName(UserFinishedProjectNegotiationExtension.class
                 .getName());
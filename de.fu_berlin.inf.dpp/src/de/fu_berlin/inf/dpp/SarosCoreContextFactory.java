@@ -28,6 +28,7 @@ import de.fu_berlin.inf.dpp.net.internal.DataTransferManager;
 import de.fu_berlin.inf.dpp.net.internal.IBBTransport;
 import de.fu_berlin.inf.dpp.net.internal.ITransport;
 import de.fu_berlin.inf.dpp.net.internal.Socks5Transport;
+import de.fu_berlin.inf.dpp.net.internal.TCPTransport;
 import de.fu_berlin.inf.dpp.net.internal.XMPPReceiver;
 import de.fu_berlin.inf.dpp.net.internal.XMPPTransmitter;
 import de.fu_berlin.inf.dpp.net.stun.IStunService;
@@ -56,6 +57,13 @@ import de.fu_berlin.inf.dpp.versioning.VersionManager;
  */
 public class SarosCoreContextFactory extends AbstractSarosContextFactory {
 
+    /**
+     * Whether direct connections are established with the TCP transport
+     * instead of SOCKS5, both peers must use the same transport
+     */
+    private static final boolean USE_TCP_TRANSPORT = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.net.tcp.ENABLED");
+
     // TODO we must abstract the IPrefenceStore stuff otherwise anything here is
     // broken
 
@@ -87,10 +95,9 @@ public class SarosCoreContextFactory extends AbstractSarosContextFactory {
         Component.create(BindKey.bindKey(ITransport.class,
             ISarosContextBindings.IBBTransport.class), IBBTransport.class),
 
-        Component
-            .create(BindKey.bindKey(ITransport.class,
-                ISarosContextBindings.Socks5Transport.class),
-                Socks5Transport.class),
+        Component.create(BindKey.bindKey(ITransport.class,
+            ISarosContextBindings.Socks5Transport.class),
+            USE_TCP_TRANSPORT ? TCPTransport.class : Socks5Transport.class),
 
         Component.create(RosterTracker.class),
         Component.create(XMPPConnectionService.class),
@@ -1,5 +1,6 @@
 package de.fu_berlin.inf.dpp;
 
+import java.io.File;
 import java.util.Arrays;
 
 import org.eclipse.core.runtime.Platform;
@@ -42,6 +43,12 @@ import de.fu_berlin.inf.dpp.ui.eventhandler.XMPPAuthorizationHandler;
 // TODO class is misplaced in the current package along with Saros Eclipse stuff
 public class SarosEclipseContextFactory extends AbstractSarosContextFactory {
 
+    /**
+     * Name of the file in the plugin state location that stores the checksums
+     * of the {@link IChecksumCache}.
+     */
+    private static final String CHECKSUM_STORE_FILE = "checksums.dat";
+
     private final ISarosContextFactory additionalContext;
 
     private final Saros saros;
@@ -72,14 +79,6 @@ public class SarosEclipseContextFactory extends AbstractSarosContextFactory {
         Component.create(ServerPreferenceHandler.class),
         Component.create(SessionStatusRequestHandler.class),
         Component.create(XMPPAuthorizationHandler.class),
-        // Cache support
-        /*
-         * TODO avoid direct creation as this will become tricky especially if
-         * we are the delegate and depends on components that are only available
-         * after we added all our context stuff or vice versa
-         */
-        Component.create(IChecksumCache.class, new ChecksumCacheImpl(
-            new FileContentNotifierBridge())),
 
         // Saros Core Path Support
         Component.create(IPathFactory.class, EclipsePathFactory.class),
@@ -104,6 +103,17 @@ public class SarosEclipseContextFactory extends AbstractSarosContextFactory {
 
         container.addComponent(saros);
 
+        // Cache support
+        /*
+         * TODO avoid direct creation as this will become tricky especially if
+         * we are the delegate and depends on components that are only available
+         * after we added all our context stuff or vice versa
+         */
+        // ChecksumCacheImpl closes its store when the context is disposed
+        container.addComponent(IChecksumCache.class, new ChecksumCacheImpl(
+            new FileContentNotifierBridge(), new File(saros.getStateLocation()
+                .toFile(), CHECKSUM_STORE_FILE)));
+
         container.addComponent(BindKey.bindKey(String.class,
             ISarosContextBindings.SarosVersion.class), saros.getBundle()
             .getVersion().toString());
@@ -0,0 +1,130 @@
+package de.fu_berlin.inf.dpp.concurrent.watchdog;
+
+/**
+ * Decides when the checksum of a single document has to be sent again.
+ * <p>
+ * Documents that are not changed are skipped and only refreshed after a long
+ * time. The check interval of a changed document depends on how often it is
+ * edited: it is halved for every check of a document that was also changed
+ * before the previous check and doubled for every other check, so documents
+ * that are continuously edited are checked often while documents that are
+ * edited only now and then do not cause a checksum for every change.
+ * <p>
+ * This class is not thread safe.
+ */
+final class ChecksumSchedule {
+
+    /**
+     * Weight of the latest check interval in the smoothed check rate.
+     */
+    private static final double RATE_WEIGHT = 0.25;
+
+    private final long minInterval;
+
+    private final long maxInterval;
+
+    private final long refreshInterval;
+
+    private long interval;
+
+    // -1 if no checksum was sent yet
+    private long lastCheck = -1;
+
+    private boolean lastCheckChanged;
+
+    // checks per minute
+    private double rate;
+
+    /**
+     * @param minInterval
+     *            the shortest interval between two checks of a changed
+     *            document
+     * @param maxInterval
+     *            the longest interval between two checks of a changed
+     *            document
+     * @param refreshInterval
+     *            the interval after which the checksum of an unchanged
+     *            document is sent again
+     */
+    ChecksumSchedule(long minInterval, long maxInterval, long refreshInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.refreshInterval = refreshInterval;
+        this.interval = maxInterval;
+    }
+
+    /**
+     * Returns the current interval between two checks of the document while
+     * it is changed.
+     */
+    long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns whether the checksum of the document has to be sent.
+     *
+     * @param now
+     *            the current time in milliseconds
+     * @param changed
+     *            whether the document was changed since the last check
+     */
+    boolean isDue(long now, boolean changed) {
+        return getDelay(now, changed) <= 0;
+    }
+
+    /**
+     * Returns the time in milliseconds until the checksum of the document has
+     * to be sent, zero or less if it is already due.
+     *
+     * @param now
+     *            the current time in milliseconds
+     * @param changed
+     *            whether the document was changed since the last check
+     */
+    long getDelay(long now, boolean changed) {
+        if (lastCheck < 0)
+            return 0;
+
+        return lastCheck + (changed ? interval : refreshInterval) - now;
+    }
+
+    /**
+     * Records that the checksum of the document was sent.
+     *
+     * @param now
+     *            the current time in milliseconds
+     * @param changed
+     *            whether the document was changed since the last check
+     */
+    void checked(long now, boolean changed) {
+        if (lastCheck >= 0) {
+            double current = 60000D / Math.max(1, now - lastCheck);
+
+            rate = rate == 0 ? current : (1 - RATE_WEIGHT) * rate
+                + RATE_WEIGHT * current;
+        }
+
+        if (changed && lastCheckChanged && now - lastCheck <= 2 * interval)
+            interval = Math.max(minInterval, interval / 2);
+        else
+            interval = Math.min(maxInterval, interval * 2);
+
+        lastCheck = now;
+        lastCheckChanged = changed;
+    }
+
+    /**
+     * Returns the smoothed number of checks per minute. The rate decays while
+     * no checks are performed.
+     *
+     * @param now
+     *            the current time in milliseconds
+     */
+    double getRate(long now) {
+        if (lastCheck < 0)
+            return 0;
+
+        return Math.min(rate, 60000D / Math.max(1, now - lastCheck));
+    }
+}
@@ -5,9 +5,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -46,8 +48,12 @@ import de.fu_berlin.inf.dpp.session.ISharedProjectListener;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.ui.RemoteProgressManager;
 import de.fu_berlin.inf.dpp.ui.actions.ConsistencyAction;
+import de.fu_berlin.inf.dpp.ui.util.SWTUtils;
 import de.fu_berlin.inf.dpp.ui.views.SarosView;
+import de.fu_berlin.inf.dpp.util.BlockDelta;
+import de.fu_berlin.inf.dpp.util.FileUtils;
 import de.fu_berlin.inf.dpp.util.StackTrace;
+import de.fu_berlin.inf.dpp.util.TextDelta;
 
 /**
  * This class is responsible for two things: 1.) Process checksums sent to us
@@ -66,6 +72,21 @@ public class ConsistencyWatchdogClient extends AbstractActivityProvider {
 
     private static final Random RANDOM = new Random();
 
+    /**
+     * If set to <code>true</code> no block signatures are sent with a checksum
+     * error so the host always sends the complete files.
+     */
+    private static final boolean DISABLE_DELTA_RECOVERY = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.session.watchdog.DISABLE_DELTA_RECOVERY");
+
+    /**
+     * If set to <code>true</code> no text signatures are sent with a checksum
+     * error so the host never replaces only the divergent region of an open
+     * document.
+     */
+    private static final boolean DISABLE_TEXT_RECOVERY = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.session.watchdog.DISABLE_TEXT_RECOVERY");
+
     @Inject
     protected IsInconsistentObservable inconsistencyToResolve;
 
@@ -84,6 +105,12 @@ public class ConsistencyWatchdogClient extends AbstractActivityProvider {
 
     protected Set<SPath> pathsWithWrongChecksums = new CopyOnWriteArraySet<SPath>();
 
+    /**
+     * Paths whose last text recovery failed, the next recovery requests the
+     * complete file for them.
+     */
+    private final Set<SPath> pathsWithFailedTextRecovery = new CopyOnWriteArraySet<SPath>();
+
     protected Map<SPath, ChecksumActivity> latestChecksums = new HashMap<SPath, ChecksumActivity>();
 
     protected ISarosSessionListener sessionListener = new AbstractSarosSessionListener() {
@@ -107,6 +134,7 @@ public class ConsistencyWatchdogClient extends AbstractActivityProvider {
             }
 
             pathsWithWrongChecksums.clear();
+            pathsWithFailedTextRecovery.clear();
             inconsistencyToResolve.setValue(false);
 
             newSarosSession.addActivityProvider(ConsistencyWatchdogClient.this);
@@ -122,6 +150,7 @@ public class ConsistencyWatchdogClient extends AbstractActivityProvider {
 
             latestChecksums.clear();
             pathsWithWrongChecksums.clear();
+            pathsWithFailedTextRecovery.clear();
 
             synchronized (this) {
                 sarosSession = null;
@@ -206,6 +235,15 @@ public class ConsistencyWatchdogClient extends AbstractActivityProvider {
         return this.pathsWithWrongChecksums;
     }
 
+    /**
+     * Notifies the watchdog that a {@link TextDelta} received during a
+     * recovery could not be applied to the document of the given path. The
+     * next recovery of the path will request the complete file.
+     */
+    public void textRecoveryFailed(SPath path) {
+        pathsWithFailedTextRecovery.add(path);
+    }
+
     /**
      * boolean condition variable used to interrupt another thread from
      * performing a recovery in {@link #runRecovery(SubMonitor)}
@@ -301,8 +339,13 @@ public class ConsistencyWatchdogClient extends AbstractActivityProvider {
                 + session.getLocalUser().getJID().getBase(),
                 filesRemaining.get());
 
+            Map<SPath, byte[]> textSignatures = createTextSignatures(
+                pathsOfHandledFiles);
+
             fireActivity(new ChecksumErrorActivity(session.getLocalUser(),
-                session.getHost(), pathsOfHandledFiles, recoveryID));
+                session.getHost(), pathsOfHandledFiles, createSignatures(
+                    pathsOfHandledFiles, textSignatures.keySet()),
+                textSignatures.isEmpty() ? null : textSignatures, recoveryID));
 
             try {
                 // block until all inconsistencies are resolved
@@ -341,6 +384,102 @@ public class ConsistencyWatchdogClient extends AbstractActivityProvider {
         }
     }
 
+    /**
+     * Calculates the block signatures of the local copies of the given files,
+     * so the host only has to send the differences. Files that do not exist,
+     * are too small to benefit from a delta or are contained in the given
+     * excluded paths are omitted.
+     */
+    private Map<SPath, byte[]> createSignatures(List<SPath> paths,
+        Set<SPath> excludedPaths) {
+        if (DISABLE_DELTA_RECOVERY)
+            return null;
+
+        Map<SPath, byte[]> signatures = new HashMap<SPath, byte[]>();
+
+        for (SPath path : paths) {
+            if (excludedPaths.contains(path))
+                continue;
+
+            IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
+
+            if (!file.exists())
+                continue;
+
+            byte[] content = FileUtils.getLocalFileContent(file);
+
+            if (content == null || content.length < BlockDelta.MIN_FILE_SIZE)
+                continue;
+
+            signatures.put(path, BlockDelta.createSignature(content));
+        }
+
+        return signatures;
+    }
+
+    /**
+     * Calculates the text signatures of the documents of the given files that
+     * are opened in an editor, so the host only has to replace the divergent
+     * region and the editors can stay open. Documents that are too small to
+     * benefit from this and files whose last text recovery failed are omitted.
+     */
+    private Map<SPath, byte[]> createTextSignatures(final List<SPath> paths) {
+        final Map<SPath, byte[]> signatures = new HashMap<SPath, byte[]>();
+
+        if (DISABLE_TEXT_RECOVERY)
+            return signatures;
+
+        try {
+            SWTUtils.runSWTSync(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (SPath path : paths) {
+                        if (pathsWithFailedTextRecovery.remove(path)
+                            || !editorManager.isOpenEditor(path))
+                            continue;
+
+                        String text = getDocumentText(path);
+
+                        if (text != null
+                            && text.length() >= TextDelta.MIN_TEXT_LENGTH)
+                            signatures.put(path,
+                                TextDelta.createSignature(text));
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.error("could not calculate the text signatures", e);
+            signatures.clear();
+        }
+
+        return signatures;
+    }
+
+    private String getDocumentText(SPath path) {
+        IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
+
+        if (!file.exists())
+            return null;
+
+        FileEditorInput input = new FileEditorInput(file);
+        IDocumentProvider provider = EditorManager.getDocumentProvider(input);
+
+        try {
+            provider.connect(input);
+        } catch (CoreException e) {
+            log.warn("could not read document of file " + path, e);
+            return null;
+        }
+
+        try {
+            IDocument doc = provider.getDocument(input);
+            return doc == null ? null : doc.get();
+        } finally {
+            provider.disconnect(input);
+        }
+    }
+
     protected SimpleDateFormat format = new SimpleDateFormat("HHmmssSS");
 
     protected String getNextRecoveryID() {
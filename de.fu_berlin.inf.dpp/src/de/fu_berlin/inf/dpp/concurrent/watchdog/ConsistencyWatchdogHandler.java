@@ -34,7 +34,9 @@ import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.StartHandle;
 import de.fu_berlin.inf.dpp.ui.util.SWTUtils;
+import de.fu_berlin.inf.dpp.util.BlockDelta;
 import de.fu_berlin.inf.dpp.util.FileUtils;
+import de.fu_berlin.inf.dpp.util.TextDelta;
 
 /**
  * This component is responsible for handling Consistency Errors on the host
@@ -207,7 +209,8 @@ public class ConsistencyWatchdogHandler implements Startable {
                 progress.subTask("Recovering file: "
                     + path.getProjectRelativePath());
                 recoverFile(checksumError.getSource(), sarosSession, path,
-                    progress.newChild(1));
+                    checksumError.getSignature(path),
+                    checksumError.getTextSignature(path), progress.newChild(1));
             }
 
             // Tell the user that we sent all files
@@ -221,10 +224,14 @@ public class ConsistencyWatchdogHandler implements Startable {
 
     /**
      * Recover a single file for the given user (that is either send the file or
-     * tell the user to remove it).
+     * tell the user to remove it). If the user sent the block signature of
+     * its copy of the file only the differences are sent. If the user sent the
+     * text signature of its document only the divergent region of the
+     * document is sent.
      */
     protected void recoverFile(User from, final ISarosSession sarosSession,
-        final SPath path, SubMonitor progress) {
+        final SPath path, byte[] signature, byte[] textSignature,
+        SubMonitor progress) {
 
         progress.beginTask("Handling file: " + path.toString(), 10);
 
@@ -256,9 +263,18 @@ public class ConsistencyWatchdogHandler implements Startable {
                 if (content == null)
                     throw new IOException();
 
+                RecoveryFileActivity recovery = null;
+
+                if (textSignature != null)
+                    recovery = createTextRecoveryActivity(user, path,
+                        textSignature, from);
+
+                if (recovery == null)
+                    recovery = createRecoveryActivity(user, path, content,
+                        signature, from);
+
                 // Send the file to client
-                activityProvider.fireActivity(RecoveryFileActivity.created(
-                    user, path, content, from));
+                activityProvider.fireActivity(recovery);
 
                 // Immediately follow up with a new checksum
                 IDocument doc;
@@ -298,4 +314,67 @@ public class ConsistencyWatchdogHandler implements Startable {
         progress.done();
     }
 
+    /**
+     * Creates a recovery Activity that only replaces the divergent region of
+     * the document of the target.
+     * 
+     * @return the Activity or <code>null</code> if the document could not be
+     *         read or the text signature is malformed
+     */
+    private RecoveryFileActivity createTextRecoveryActivity(User user,
+        SPath path, byte[] textSignature, User target) {
+
+        IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
+        FileEditorInput input = new FileEditorInput(file);
+        IDocumentProvider provider = EditorManager.getDocumentProvider(input);
+
+        try {
+            provider.connect(input);
+        } catch (CoreException e) {
+            log.warn("could not read document of file " + path, e);
+            return null;
+        }
+
+        try {
+            IDocument doc = provider.getDocument(input);
+
+            if (doc == null)
+                return null;
+
+            String text = doc.get();
+            TextDelta delta = TextDelta.create(textSignature, text);
+
+            log.debug("sending " + delta + " for " + path + " ("
+                + text.length() + " characters)");
+
+            return RecoveryFileActivity.textDelta(user, path, delta, target);
+        } catch (IOException e) {
+            log.warn("received malformed text signature for " + path, e);
+            return null;
+        } finally {
+            provider.disconnect(input);
+        }
+    }
+
+    private RecoveryFileActivity createRecoveryActivity(User user,
+        SPath path, byte[] content, byte[] signature, User target) {
+
+        if (signature == null)
+            return RecoveryFileActivity.created(user, path, content, target);
+
+        try {
+            byte[] delta = BlockDelta.createDelta(signature, content);
+
+            if (delta.length < content.length) {
+                log.debug("sending delta of " + delta.length + " bytes for "
+                    + path + " (" + content.length + " bytes)");
+
+                return RecoveryFileActivity.delta(user, path, delta, target);
+            }
+        } catch (IOException e) {
+            log.warn("received malformed block signature for " + path, e);
+        }
+
+        return RecoveryFileActivity.created(user, path, content, target);
+    }
 }
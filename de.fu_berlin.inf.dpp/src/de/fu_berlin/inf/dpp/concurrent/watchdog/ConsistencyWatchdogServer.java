@@ -1,10 +1,16 @@
 package de.fu_berlin.inf.dpp.concurrent.watchdog;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -23,6 +29,7 @@ import de.fu_berlin.inf.dpp.activities.business.IActivity;
 import de.fu_berlin.inf.dpp.annotations.Component;
 import de.fu_berlin.inf.dpp.editor.EditorManager;
 import de.fu_berlin.inf.dpp.filesystem.EclipseFileImpl;
+import de.fu_berlin.inf.dpp.project.internal.ActivitySequencer;
 import de.fu_berlin.inf.dpp.session.AbstractActivityProvider;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.synchronize.Blockable;
@@ -40,7 +47,13 @@ import de.fu_berlin.inf.dpp.util.ThreadUtils;
  * These will call their ConcurrentDocumentManager.check(...) method, to verify
  * that their version is correct.
  * 
- * Once started with schedule() the job is scheduled to rerun every INTERVAL ms.
+ * Only documents that were changed are checked. Every document has its own
+ * {@linkplain ChecksumSchedule schedule}, so documents that are continuously
+ * edited are checked every MIN_INTERVAL ms while other documents are checked
+ * after MAX_INTERVAL ms and unchanged documents only every REFRESH_INTERVAL
+ * ms. Rounds are deferred while the activities cannot be sent fast enough.
+ * The documents are only read on the UI thread, the hashing is done by the
+ * job itself.
  * 
  * @author chjacob
  * 
@@ -55,14 +68,53 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
     private static final Logger LOG = Logger
         .getLogger(ConsistencyWatchdogServer.class);
 
-    private static final long INTERVAL = 10000;
+    /**
+     * Shortest interval in milliseconds between two checksums of a document
+     * that is continuously edited.
+     */
+    private static final long MIN_INTERVAL = Long.getLong(
+        "de.fu_berlin.inf.dpp.session.watchdog.MIN_INTERVAL", 2000L);
+
+    /**
+     * Longest interval in milliseconds between two checksums of a document
+     * that is edited.
+     */
+    private static final long MAX_INTERVAL = Long.getLong(
+        "de.fu_berlin.inf.dpp.session.watchdog.MAX_INTERVAL", 10000L);
+
+    /**
+     * Interval in milliseconds after which the checksum of a document that was
+     * not edited is sent again, e.g for participants that opened it after the
+     * last checksum.
+     */
+    private static final long REFRESH_INTERVAL = Long.getLong(
+        "de.fu_berlin.inf.dpp.session.watchdog.REFRESH_INTERVAL", 60000L);
+
+    /**
+     * Number of activities waiting to be sent at which checksum rounds are
+     * deferred, as they would only add to the backlog. A round is never
+     * deferred for more than MAX_INTERVAL.
+     */
+    private static final int BACK_PRESSURE_THRESHOLD = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.session.watchdog.BACK_PRESSURE_THRESHOLD", 16);
 
     private ScheduledThreadPoolExecutor executor;
 
-    private ScheduledFuture<?> triggerChecksumFuture;
+    private volatile ScheduledFuture<?> triggerChecksumFuture;
 
+    // executor thread access only
+    private long lastRound;
+
+    // UI thread access only
     private final HashMap<SPath, DocumentChecksum> docsChecksums = new HashMap<SPath, DocumentChecksum>();
 
+    // UI thread access only
+    private final HashMap<SPath, ChecksumSchedule> docsSchedules = new HashMap<SPath, ChecksumSchedule>();
+
+    private final Map<SPath, Double> checkRates = new ConcurrentHashMap<SPath, Double>();
+
+    private final ActivitySequencer sequencer;
+
     private final EditorManager editorManager;
 
     private final ISarosSession session;
@@ -73,26 +125,49 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
 
     private boolean locked;
 
+    /**
+     * The state of a document during a checksum round. The document stays
+     * connected until the checksum was sent.
+     */
+    private static class Snapshot {
+        private final DocumentChecksum checksum;
+
+        private final IDocumentProvider provider;
+
+        private final FileEditorInput input;
+
+        private final boolean changed;
+
+        private List<String> texts = Collections.emptyList();
+
+        private Snapshot(DocumentChecksum checksum,
+            IDocumentProvider provider, FileEditorInput input) {
+            this.checksum = checksum;
+            this.provider = provider;
+            this.input = input;
+            this.changed = checksum.isDirty();
+        }
+    }
+
     private final Runnable checksumCalculationTrigger = new Runnable() {
 
         @Override
         public void run() {
-            synchronizer.syncExec(ThreadUtils.wrapSafe(LOG, new Runnable() {
-                @Override
-                public void run() {
-                    if (locked)
-                        return;
+            long delay = MAX_INTERVAL;
 
-                    calculateChecksums();
-                }
-            }));
+            try {
+                delay = calculateChecksums();
+            } finally {
+                scheduleNextRound(delay);
+            }
         }
     };
 
     public ConsistencyWatchdogServer(ISarosSession session,
         EditorManager editorManager, StopManager stopManager,
-        UISynchronizer synchronizer) {
+        UISynchronizer synchronizer, ActivitySequencer sequencer) {
         this.session = session;
+        this.sequencer = sequencer;
         this.editorManager = editorManager;
         this.stopManager = stopManager;
         this.synchronizer = synchronizer;
@@ -112,9 +187,8 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
 
         executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
 
-        triggerChecksumFuture = executor.scheduleWithFixedDelay(
-            checksumCalculationTrigger, 0, INTERVAL, TimeUnit.MILLISECONDS);
-
+        triggerChecksumFuture = executor.schedule(checksumCalculationTrigger,
+            0, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -146,6 +220,8 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
                     document.dispose();
 
                 docsChecksums.clear();
+                docsSchedules.clear();
+                checkRates.clear();
             }
         });
 
@@ -176,8 +252,112 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
         locked = false;
     }
 
+    /**
+     * Returns the number of checksums per minute that were recently sent for
+     * each document that is currently checked.
+     */
+    public Map<SPath, Double> getCheckRates() {
+        return new HashMap<SPath, Double>(checkRates);
+    }
+
+    /**
+     * Runs a checksum round for all documents that are due. Only the changed
+     * parts of the documents are read on the UI thread, they are hashed by the
+     * calling thread. The checksums are then combined and sent on the UI
+     * thread again so they are timestamped with the state of the documents
+     * they were calculated from.
+     * 
+     * @return the delay in milliseconds until the next round
+     */
+    private long calculateChecksums() {
+        long now = System.currentTimeMillis();
+
+        int pending = sequencer.getPendingActivityCount();
+
+        if (pending >= BACK_PRESSURE_THRESHOLD
+            && now - lastRound < MAX_INTERVAL) {
+            LOG.debug("deferring checksum round, " + pending
+                + " activities are waiting to be sent");
+            return MIN_INTERVAL;
+        }
+
+        lastRound = now;
+
+        final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        final long[] delay = { MAX_INTERVAL };
+
+        try {
+            synchronizer.syncExec(ThreadUtils.wrapSafe(LOG, new Runnable() {
+                @Override
+                public void run() {
+                    if (locked)
+                        return;
+
+                    captureSnapshots(snapshots);
+                    delay[0] = getNextDelay();
+                }
+            }));
+
+            /*
+             * String caches its hash code, so hashing the captured texts here
+             * is the actual work that the later update on the UI thread skips
+             */
+            for (Snapshot snapshot : snapshots) {
+                for (String text : snapshot.texts)
+                    text.hashCode();
+            }
+
+        } finally {
+            if (!snapshots.isEmpty()) {
+                synchronizer.syncExec(ThreadUtils.wrapSafe(LOG,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            sendChecksums(snapshots);
+                            delay[0] = getNextDelay();
+                        }
+                    }));
+            }
+        }
+
+        return delay[0];
+    }
+
+    private void scheduleNextRound(long delay) {
+        if (executor.isShutdown())
+            return;
+
+        try {
+            triggerChecksumFuture = executor.schedule(
+                checksumCalculationTrigger, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the watchdog was stopped in the meantime
+        }
+    }
+
+    /*
+     * UI thread access only ! Returns the time until the first document is
+     * due, documents that are changed later are checked after MAX_INTERVAL at
+     * the latest. Also publishes the current check rates.
+     */
+    private long getNextDelay() {
+        long now = System.currentTimeMillis();
+        long delay = MAX_INTERVAL;
+
+        for (Entry<SPath, ChecksumSchedule> entry : docsSchedules.entrySet()) {
+            DocumentChecksum checksum = docsChecksums.get(entry.getKey());
+
+            delay = Math.min(delay,
+                entry.getValue().getDelay(now, checksum.isDirty()));
+
+            checkRates.put(entry.getKey(), entry.getValue().getRate(now));
+        }
+
+        return Math.max(MIN_INTERVAL, delay);
+    }
+
     // UI thread access only !
-    private void calculateChecksums() {
+    private void captureSnapshots(List<Snapshot> snapshots) {
 
         Set<SPath> localEditors = editorManager.getLocallyOpenEditors();
         Set<SPath> remoteEditors = editorManager.getRemoteOpenEditors();
@@ -195,18 +375,26 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
 
             if (!allEditors.contains(entry.getKey())) {
                 entry.getValue().dispose();
+                docsSchedules.remove(entry.getKey());
+                checkRates.remove(entry.getKey());
                 it.remove();
             }
         }
 
+        long now = System.currentTimeMillis();
+
         for (SPath docPath : allEditors) {
-            updateChecksum(localEditors, remoteEditors, docPath);
+            Snapshot snapshot = captureSnapshot(localEditors, remoteEditors,
+                docPath, now);
+
+            if (snapshot != null)
+                snapshots.add(snapshot);
         }
     }
 
     // UI thread access only !
-    private void updateChecksum(final Set<SPath> localEditors,
-        final Set<SPath> remoteEditors, final SPath docPath) {
+    private Snapshot captureSnapshot(final Set<SPath> localEditors,
+        final Set<SPath> remoteEditors, final SPath docPath, final long now) {
 
         IFile file = ((EclipseFileImpl) docPath.getFile()).getDelegate();
 
@@ -214,19 +402,21 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
         IDocumentProvider provider = null;
         FileEditorInput input = null;
 
-        try {
-
-            if (file.exists()) {
-                input = new FileEditorInput(file);
-                provider = EditorManager.getDocumentProvider(input);
-                try {
-                    provider.connect(input);
-                    doc = provider.getDocument(input);
-                } catch (CoreException e) {
-                    LOG.warn("could not check checksum of file " + docPath);
-                    provider = null;
-                }
+        if (file.exists()) {
+            input = new FileEditorInput(file);
+            provider = EditorManager.getDocumentProvider(input);
+            try {
+                provider.connect(input);
+                doc = provider.getDocument(input);
+            } catch (CoreException e) {
+                LOG.warn("could not check checksum of file " + docPath);
+                provider = null;
             }
+        }
+
+        Snapshot snapshot = null;
+
+        try {
 
             // Null means that the document does not exist locally
             if (doc == null) {
@@ -244,7 +434,7 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
                      * open, they are right (and our EditorPool might be
                      * confused)
                      */
-                    return;
+                    return null;
                 }
             }
 
@@ -260,17 +450,58 @@ public class ConsistencyWatchdogServer extends AbstractActivityProvider
              * represent a missing file (existsFile() == false)
              */
             checksum.bind(doc);
-            checksum.update();
 
-            ChecksumActivity checksumActivity = new ChecksumActivity(
-                session.getLocalUser(), checksum.getPath(), checksum.getHash(),
-                checksum.getLength(), null);
+            ChecksumSchedule schedule = docsSchedules.get(docPath);
 
-            fireActivity(checksumActivity);
+            if (schedule == null) {
+                schedule = new ChecksumSchedule(MIN_INTERVAL, MAX_INTERVAL,
+                    REFRESH_INTERVAL);
+                docsSchedules.put(docPath, schedule);
+            }
+
+            // unchanged documents are skipped until they need a refresh
+            if (!schedule.isDue(now, checksum.isDirty()))
+                return null;
+
+            snapshot = new Snapshot(checksum, provider, input);
+            snapshot.texts = checksum.capture();
+
+            return snapshot;
 
         } finally {
-            if (provider != null && input != null) {
+            if (snapshot == null && provider != null)
                 provider.disconnect(input);
+        }
+    }
+
+    // UI thread access only !
+    private void sendChecksums(List<Snapshot> snapshots) {
+        try {
+            if (locked)
+                return;
+
+            long now = System.currentTimeMillis();
+
+            for (Snapshot snapshot : snapshots) {
+                DocumentChecksum checksum = snapshot.checksum;
+
+                /*
+                 * only combines the hashes of the snapshot, parts that were
+                 * changed since the snapshot are read again
+                 */
+                checksum.update();
+
+                fireActivity(new ChecksumActivity(session.getLocalUser(),
+                    checksum.getPath(), checksum.getHash(),
+                    checksum.getLength(), null));
+
+                docsSchedules.get(checksum.getPath()).checked(now,
+                    snapshot.changed);
+            }
+        } finally {
+            for (Snapshot snapshot : snapshots) {
+                if (snapshot.provider != null)
+                    snapshot.provider.disconnect(snapshot.input);
             }
         }
     }
@@ -1,5 +1,10 @@
 package de.fu_berlin.inf.dpp.concurrent.watchdog;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
@@ -9,11 +14,19 @@ import de.fu_berlin.inf.dpp.activities.SPath;
 /**
  * This Class represents a checksum of a document. It contains the path, the
  * length and the hash code of the document.
+ * <p>
+ * While the checksum is bound to a document the hash code is maintained
+ * incrementally, i.e an {@linkplain #update() update} only rehashes the parts
+ * of the document that were changed since the last update. The reading and
+ * the hashing of these parts can be split by {@linkplain #capture() capturing}
+ * them first.
  * 
  * @author chjacob
  */
 public class DocumentChecksum {
 
+    private static final Logger log = Logger.getLogger(DocumentChecksum.class);
+
     /**
      * Constant used for representing a missing file
      */
@@ -29,6 +42,20 @@ public class DocumentChecksum {
         @Override
         public void documentChanged(DocumentEvent event) {
             dirty = true;
+
+            if (textHash == null)
+                return;
+
+            String text = event.getText();
+
+            try {
+                textHash.replace(event.getOffset(), event.getLength(),
+                    text == null ? 0 : text.length());
+            } catch (IllegalArgumentException e) {
+                log.warn("could not track change of " + path + ": "
+                    + e.getMessage());
+                textHash = null;
+            }
         }
     };
 
@@ -45,6 +72,12 @@ public class DocumentChecksum {
 
     protected boolean dirty;
 
+    /*
+     * the incrementally maintained hash of the bound document, null if it has
+     * to be recalculated from the whole document
+     */
+    private IncrementalTextHash textHash;
+
     /**
      * Creates a new Checksum for the document represented in the given path.
      * 
@@ -79,6 +112,14 @@ public class DocumentChecksum {
         this.dirty = b;
     }
 
+    /**
+     * Returns whether the document was changed since the last
+     * {@linkplain #update() update}.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
     public void dispose() {
         unbind();
     }
@@ -97,6 +138,7 @@ public class DocumentChecksum {
         unbind();
 
         this.document = doc;
+        this.textHash = null;
 
         if (document != null)
             doc.addDocumentListener(dirtyListener);
@@ -114,12 +156,66 @@ public class DocumentChecksum {
             this.length = this.hash = NON_EXISTING_DOC;
         } else {
             this.length = document.getLength();
-            this.hash = document.get().hashCode();
+            this.hash = calculateHash();
         }
 
         dirty = false;
     }
 
+    /**
+     * Reads the parts of the bound document that were changed since the last
+     * update without hashing them. Must be called by the thread that owns the
+     * document. The hash codes of the returned texts can then be calculated by
+     * any thread, so the next {@link #update()} only has to combine them.
+     * 
+     * @return immutable snapshots of the changed parts of the document
+     */
+    public List<String> capture() {
+        if (!dirty || document == null)
+            return Collections.emptyList();
+
+        prepareTextHash(document.getLength());
+
+        try {
+            return textHash.capture();
+        } catch (IllegalStateException e) {
+            log.warn("incremental hash of " + path
+                + " is out of sync with the document: " + e.getMessage());
+            textHash = null;
+            return Collections.emptyList();
+        }
+    }
+
+    private void prepareTextHash(int documentLength) {
+        if (textHash == null || textHash.getLength() != documentLength) {
+            final IDocument target = document;
+
+            textHash = new IncrementalTextHash(documentLength) {
+                @Override
+                protected String getText(int offset, int length) {
+                    try {
+                        return target.get(offset, length);
+                    } catch (BadLocationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+        }
+    }
+
+    private int calculateHash() {
+        prepareTextHash(length);
+
+        try {
+            return textHash.getHash();
+        } catch (IllegalStateException e) {
+            log.warn("incremental hash of " + path
+                + " is out of sync with the document: " + e.getMessage());
+            textHash = null;
+            return document.get().hashCode();
+        }
+    }
+
     /**
      * Returns whether this checksum represents a file which exists at the host.
      * 
@@ -0,0 +1,405 @@
+package de.fu_berlin.inf.dpp.concurrent.watchdog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintains the {@linkplain String#hashCode() hash code} of a text
+ * incrementally.
+ * <p>
+ * The text is divided into chunks which are the leaves of a segment tree.
+ * Every node of the tree stores the length and the hash code of the text it
+ * covers. The hash codes of two adjacent parts can be combined as
+ * <code>hash(a + b) = hash(a) * 31^length(b) + hash(b)</code>, so the root
+ * always yields the same value as <code>text.hashCode()</code>.
+ * <p>
+ * A {@linkplain #replace change} of the text only marks the affected chunks as
+ * dirty. {@link #getHash()} reads and hashes the dirty chunks and recombines
+ * the nodes on their paths to the root. The cost of a hash calculation
+ * therefore depends on the size of the changes since the last calculation and
+ * not on the size of the text.
+ * <p>
+ * The reading and the hashing of the dirty chunks can also be separated:
+ * {@link #capture()} only reads the dirty chunks, the returned texts can be
+ * hashed by another thread and the next {@link #getHash()} call then only has
+ * to combine the results. Chunks that are changed in the meantime are read
+ * again.
+ * <p>
+ * This class is not thread safe.
+ */
+abstract class IncrementalTextHash {
+
+    /**
+     * The length of the chunks that are created when the text is (re)divided.
+     */
+    static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Chunks that grow beyond this length are split on the next change.
+     */
+    private static final int MAX_CHUNK_SIZE = 4 * CHUNK_SIZE;
+
+    /**
+     * Number of leaves, always a power of two. The nodes are stored in heap
+     * order, i.e the root is at index 1 and the leaves start at this index.
+     */
+    private int capacity;
+
+    private int chunks;
+
+    private int[] lengths;
+
+    private int[] hashes;
+
+    private int[] powers;
+
+    private boolean[] dirty;
+
+    /*
+     * the texts of the chunks that were captured but not yet combined, null
+     * for all other chunks
+     */
+    private String[] captured;
+
+    private final List<Integer> dirtyChunks = new ArrayList<Integer>();
+
+    private final List<Integer> capturedChunks = new ArrayList<Integer>();
+
+    /**
+     * @param length
+     *            the current length of the text
+     */
+    IncrementalTextHash(int length) {
+        reset(length);
+    }
+
+    /**
+     * Returns the given range of the current text.
+     */
+    protected abstract String getText(int offset, int length);
+
+    /**
+     * Discards all calculated hashes. The next {@link #getHash()} call reads
+     * the whole text.
+     *
+     * @param length
+     *            the current length of the text
+     */
+    void reset(int length) {
+        int count = Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        int[] chunkLengths = new int[count];
+        boolean[] chunkDirty = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            chunkLengths[i] = Math.min(CHUNK_SIZE, length - i * CHUNK_SIZE);
+            chunkDirty[i] = true;
+        }
+
+        build(count, chunkLengths, new int[count], chunkDirty,
+            new String[count]);
+    }
+
+    /**
+     * Returns the length of the text as it is known by this hash.
+     */
+    int getLength() {
+        return lengths[1];
+    }
+
+    /**
+     * Must be called for every change of the text before {@link #getHash()} is
+     * called again.
+     *
+     * @param offset
+     *            the offset of the change
+     * @param removed
+     *            the number of characters that were removed at the offset
+     * @param inserted
+     *            the number of characters that were inserted at the offset
+     */
+    void replace(int offset, int removed, int inserted) {
+        if (offset < 0 || removed < 0 || inserted < 0
+            || offset + removed > getLength())
+            throw new IllegalArgumentException("invalid change [offset="
+                + offset + ", removed=" + removed + ", length=" + getLength()
+                + "]");
+
+        int first = find(offset);
+        int last = removed == 0 ? first : find(offset + removed - 1);
+
+        int length = inserted - removed;
+
+        for (int i = first; i <= last; i++)
+            length += lengths[capacity + i];
+
+        // the changed range is merged into the first affected chunk
+        for (int i = first + 1; i <= last; i++)
+            setChunk(i, 0, 0, false);
+
+        setChunk(first, length, 0, true);
+
+        if (first != last || length > MAX_CHUNK_SIZE)
+            rebuild();
+    }
+
+    /**
+     * Reads the texts of all dirty chunks without hashing them. The hash codes
+     * of the returned texts may be calculated by any thread before the next
+     * call of {@link #getHash()}, as a String caches its hash code this moves
+     * the hashing work to that thread.
+     * 
+     * @return the texts of the chunks that were dirty
+     */
+    List<String> capture() {
+        List<String> texts = new ArrayList<String>(dirtyChunks.size());
+
+        for (int chunk : dirtyChunks) {
+            if (!dirty[chunk])
+                continue;
+
+            String text = readChunk(chunk);
+
+            dirty[chunk] = false;
+            captured[chunk] = text;
+            capturedChunks.add(chunk);
+            texts.add(text);
+        }
+
+        dirtyChunks.clear();
+
+        return texts;
+    }
+
+    /**
+     * Returns the hash code of the current text.
+     */
+    int getHash() {
+        for (int chunk : capturedChunks) {
+            String text = captured[chunk];
+
+            if (text != null)
+                setChunk(chunk, text.length(), text.hashCode(), false);
+        }
+
+        capturedChunks.clear();
+
+        for (int chunk : dirtyChunks) {
+            if (!dirty[chunk])
+                continue;
+
+            String text = readChunk(chunk);
+            setChunk(chunk, text.length(), text.hashCode(), false);
+        }
+
+        dirtyChunks.clear();
+
+        return hashes[1];
+    }
+
+    private String readChunk(int chunk) {
+        int length = lengths[capacity + chunk];
+
+        String text = length == 0 ? "" : getText(offsetOf(chunk), length);
+
+        if (text.length() != length)
+            throw new IllegalStateException("expected " + length
+                + " characters but got " + text.length());
+
+        return text;
+    }
+
+    /**
+     * Returns the index of the chunk containing the given offset or the last
+     * chunk if the offset is at or beyond the end of the text.
+     */
+    private int find(int offset) {
+        if (offset >= getLength())
+            return chunks - 1;
+
+        int node = 1;
+
+        while (node < capacity) {
+            int left = 2 * node;
+
+            if (offset < lengths[left]) {
+                node = left;
+            } else {
+                offset -= lengths[left];
+                node = left + 1;
+            }
+        }
+
+        return node - capacity;
+    }
+
+    private int offsetOf(int chunk) {
+        int offset = 0;
+
+        for (int node = capacity + chunk; node > 1; node >>= 1) {
+            if ((node & 1) != 0)
+                offset += lengths[node - 1];
+        }
+
+        return offset;
+    }
+
+    private void setChunk(int chunk, int length, int hash, boolean isDirty) {
+        int node = capacity + chunk;
+
+        lengths[node] = length;
+        hashes[node] = hash;
+        powers[node] = pow31(length);
+
+        if (isDirty && !dirty[chunk])
+            dirtyChunks.add(chunk);
+
+        dirty[chunk] = isDirty;
+        captured[chunk] = null;
+
+        for (node >>= 1; node >= 1; node >>= 1)
+            combine(node);
+    }
+
+    /**
+     * Divides the text again. Empty chunks are dropped and chunks that became
+     * too long are split into dirty chunks of the default size. The hashes of
+     * all other chunks are kept.
+     */
+    private void rebuild() {
+        int[] newLengths = new int[chunks + 1];
+        int[] newHashes = new int[chunks + 1];
+        boolean[] newDirty = new boolean[chunks + 1];
+        String[] newCaptured = new String[chunks + 1];
+
+        int count = 0;
+
+        for (int i = 0; i < chunks; i++) {
+            int length = lengths[capacity + i];
+
+            if (length == 0)
+                continue;
+
+            if (length <= MAX_CHUNK_SIZE) {
+                if (count == newLengths.length) {
+                    newLengths = grow(newLengths);
+                    newHashes = grow(newHashes);
+                    newDirty = grow(newDirty);
+                    newCaptured = grow(newCaptured);
+                }
+
+                newLengths[count] = length;
+                newHashes[count] = hashes[capacity + i];
+                newDirty[count] = dirty[i];
+                newCaptured[count] = captured[i];
+                count++;
+                continue;
+            }
+
+            for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+                if (count == newLengths.length) {
+                    newLengths = grow(newLengths);
+                    newHashes = grow(newHashes);
+                    newDirty = grow(newDirty);
+                    newCaptured = grow(newCaptured);
+                }
+
+                newLengths[count] = Math.min(CHUNK_SIZE, length - offset);
+                newDirty[count] = true;
+                count++;
+            }
+        }
+
+        if (count == 0) {
+            count = 1;
+            newDirty[0] = true;
+        }
+
+        build(count, newLengths, newHashes, newDirty, newCaptured);
+    }
+
+    private void build(int count, int[] chunkLengths, int[] chunkHashes,
+        boolean[] chunkDirty, String[] chunkCaptured) {
+
+        capacity = Integer.highestOneBit(count);
+
+        if (capacity < count)
+            capacity <<= 1;
+
+        chunks = count;
+        lengths = new int[2 * capacity];
+        hashes = new int[2 * capacity];
+        powers = new int[2 * capacity];
+        dirty = new boolean[capacity];
+        captured = new String[capacity];
+        dirtyChunks.clear();
+        capturedChunks.clear();
+
+        for (int i = 0; i < capacity; i++) {
+            int node = capacity + i;
+
+            if (i >= count) {
+                powers[node] = 1;
+                continue;
+            }
+
+            lengths[node] = chunkLengths[i];
+            hashes[node] = chunkHashes[i];
+            powers[node] = pow31(chunkLengths[i]);
+            dirty[i] = chunkDirty[i];
+
+            if (dirty[i])
+                dirtyChunks.add(i);
+
+            captured[i] = chunkCaptured[i];
+
+            if (captured[i] != null)
+                capturedChunks.add(i);
+        }
+
+        for (int node = capacity - 1; node >= 1; node--)
+            combine(node);
+    }
+
+    private void combine(int node) {
+        int left = 2 * node;
+        int right = left + 1;
+
+        lengths[node] = lengths[left] + lengths[right];
+        hashes[node] = hashes[left] * powers[right] + hashes[right];
+        powers[node] = powers[left] * powers[right];
+    }
+
+    private static int pow31(int exponent) {
+        int result = 1;
+        int base = 31;
+
+        while (exponent != 0) {
+            if ((exponent & 1) != 0)
+                result *= base;
+
+            base *= base;
+            exponent >>= 1;
+        }
+
+        return result;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static boolean[] grow(boolean[] array) {
+        boolean[] result = new boolean[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static String[] grow(String[] array) {
+        String[] result = new String[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+}
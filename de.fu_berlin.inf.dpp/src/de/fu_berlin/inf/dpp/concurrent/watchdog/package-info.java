@@ -29,8 +29,9 @@
  * Important components are:
  * 
  * <ul>
- * <li>ConsistencyWatchdogServer --- Generates checksums every 10 seconds for
- * all files which are opened anywhere (host and clients)</li>
+ * <li>ConsistencyWatchdogServer --- Generates checksums for all files which
+ * are opened anywhere (host and clients) and were changed, at most every 10
+ * seconds and more often for files that are continuously edited</li>
  * 
  * <li>ConsistencyWatchdogClient --- Receives incoming checksums and checks
  * whether the local files match the checksums</li>
@@ -96,6 +96,7 @@ import de.fu_berlin.inf.dpp.ui.views.SarosView;
 import de.fu_berlin.inf.dpp.util.BlockingProgressMonitor;
 import de.fu_berlin.inf.dpp.util.Predicate;
 import de.fu_berlin.inf.dpp.util.StackTrace;
+import de.fu_berlin.inf.dpp.util.TextDelta;
 
 /**
  * The EditorManager is responsible for handling all editors in a DPP-session.
@@ -1397,6 +1398,75 @@ public class EditorManager extends AbstractActivityProvider {
         }
     }
 
+    /**
+     * Replaces the divergent region of the document of the given file during a
+     * consistency recovery. In contrast to recovering the whole file the
+     * editors of the document stay open, so the undo history, the annotations
+     * and the selection outside of the region are kept. The document is saved
+     * afterwards.
+     * 
+     * @param source
+     *            the User who sent the delta
+     * @return <code>true</code> if the document matches the text the delta
+     *         was created from, <code>false</code> if the delta could not be
+     *         applied
+     * 
+     * @swt This method must be called from the SWT thread
+     */
+    public boolean recoverText(SPath path, TextDelta delta, User source) {
+        IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
+        FileEditorInput input = new FileEditorInput(file);
+        IDocumentProvider provider = getDocumentProvider(input);
+
+        try {
+            provider.connect(input);
+        } catch (CoreException e) {
+            log.error("Could not connect document provider for file: "
+                + file.toString(), e);
+            return false;
+        }
+
+        try {
+            IDocument doc = provider.getDocument(input);
+
+            if (doc == null || !delta.matchesBase(doc.get())) {
+                log.warn("could not apply " + delta + " to " + path
+                    + ", the document differs from the expected one");
+                return false;
+            }
+
+            String replacedText;
+
+            try {
+                replacedText = doc.get(delta.getOffset(),
+                    delta.getReplacedLength());
+            } catch (BadLocationException e) {
+                log.error("could not apply " + delta + " to " + path, e);
+                return false;
+            }
+
+            documentListener.setEnabled(false);
+
+            try {
+                replaceText(path, delta.getOffset(), replacedText,
+                    delta.getText(), source);
+            } finally {
+                documentListener.setEnabled(true);
+            }
+
+            if (!delta.matchesResult(doc.get())) {
+                log.error("applying " + delta + " to " + path
+                    + " did not result in the expected document");
+                return false;
+            }
+        } finally {
+            provider.disconnect(input);
+        }
+
+        saveText(path);
+        return true;
+    }
+
     /**
      * Save file denoted by the given project relative path if necessary
      * according to isDirty(IPath) and call saveText(IPath) if necessary in the
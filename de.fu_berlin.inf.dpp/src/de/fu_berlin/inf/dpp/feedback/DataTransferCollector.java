@@ -56,6 +56,12 @@ public class DataTransferCollector extends AbstractStatisticCollector {
             }
         }
 
+        @Override
+        public void compressionFinished(JID jid, boolean incoming,
+            long sizeCompressed, long sizeUncompressed, long compressionNanos) {
+            // do nothing
+        }
+
         @Override
         public void transferModeChanged(JID jid, NetTransferMode mode) {
             // do nothing
@@ -1,11 +1,15 @@
 package de.fu_berlin.inf.dpp.invitation;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -33,10 +37,22 @@ public class DecompressTask implements IWorkspaceRunnable {
 
     private static final Logger LOG = Logger.getLogger(DecompressTask.class);
 
+    /**
+     * Max number of bytes that are buffered for a batch of entries, see
+     * {@link #runInBatches}
+     */
+    static final int BATCH_SIZE = 1024 * 1024;
+
     private final ZipInputStream in;
     private final IProgressMonitor monitor;
     private final IProject project;
 
+    private final Map<String, IProject> projects;
+    private final String projectIDDelimiter;
+
+    private volatile long firstFileWrittenTime = -1;
+    private volatile int writtenFiles;
+
     /**
      * Creates a decompress task that can be executed by {@link IWorkspace#run}.
      * All necessary folders will be created on the fly and existing files will
@@ -56,6 +72,53 @@ public class DecompressTask implements IWorkspaceRunnable {
         this.in = in;
         this.project = project;
         this.monitor = monitor;
+        this.projects = null;
+        this.projectIDDelimiter = null;
+    }
+
+    /**
+     * Creates a decompress task for a stream that contains the files of
+     * multiple projects. Every entry name must start with the id of the
+     * project the file belongs to followed by the given delimiter and the
+     * project relative path of the file.
+     * 
+     * @param in
+     *            zip input stream providing the compressed data
+     * @param projects
+     *            the projects to uncompress the data to, projectID => project
+     * @param projectIDDelimiter
+     *            the string that separates the project id from the path
+     * @param monitor
+     *            monitor that is used for progress report and cancellation or
+     *            <code>null</code> to use the monitor provided by the
+     *            {@link #run(IProgressMonitor)} method
+     * 
+     * @see #DecompressTask(ZipInputStream, IProject, IProgressMonitor)
+     */
+    public DecompressTask(ZipInputStream in, Map<String, IProject> projects,
+        String projectIDDelimiter, IProgressMonitor monitor) {
+        this.in = in;
+        this.project = null;
+        this.monitor = monitor;
+        this.projects = projects;
+        this.projectIDDelimiter = projectIDDelimiter;
+    }
+
+    /**
+     * Returns the time in milliseconds (see {@link System#currentTimeMillis()}
+     * ) at which the first file was written to the workspace.
+     * 
+     * @return the time or <code>-1</code> if no file was written yet
+     */
+    public long getFirstFileWrittenTime() {
+        return firstFileWrittenTime;
+    }
+
+    /**
+     * Returns the number of files that were written to the workspace.
+     */
+    public int getWrittenFiles() {
+        return writtenFiles;
     }
 
     // TODO extract as much as possible even on some failures
@@ -76,41 +139,117 @@ public class DecompressTask implements IWorkspaceRunnable {
                 if (subMonitor.isCanceled())
                     throw new OperationCanceledException();
 
-                IPath path = Path.fromPortableString(entry.getName());
-                IFile file = project.getFile(path);
+                writeFile(getFile(entry.getName()), in, subMonitor);
 
-                /*
-                 * do not use FileUtils because it will remove read-only access
-                 * which might not what the user want
-                 */
-                createFoldersForFile(file);
+                in.closeEntry();
+            }
 
-                InputStream uncloseable = new FilterInputStream(in) {
-                    @Override
-                    public void close() throws IOException {
-                        // prevent the ZipInputStream from being closed
+        } catch (IOException e) {
+            LOG.error("failed to unpack archive", e);
+            throw new CoreException(new org.eclipse.core.runtime.Status(
+                IStatus.ERROR, Saros.SAROS, "failed to unpack archive", e));
+        } finally {
+            monitor.subTask("");
+            IOUtils.closeQuietly(in);
+            monitor.done();
+        }
+    }
+
+    /**
+     * Unpacks the entries like {@link #run(IProgressMonitor)} but only holds
+     * the workspace lock while the entries are written and not while they are
+     * read, which is needed if the zip input stream is fed by a network
+     * transfer. Entries are buffered until {@link #BATCH_SIZE} bytes are
+     * reached and then written together in one workspace operation. An entry
+     * that exceeds this size is written on its own and its remaining bytes are
+     * read while the workspace is locked.
+     * 
+     * @param workspace
+     *            the workspace to run the write operations in
+     * @param monitor
+     *            monitor that is used for progress report and cancellation,
+     *            ignored if a monitor was passed to the constructor
+     */
+    public void runInBatches(IWorkspace workspace, IProgressMonitor monitor)
+        throws CoreException {
+        if (this.monitor != null)
+            monitor = this.monitor;
+
+        final SubMonitor subMonitor = SubMonitor.convert(monitor,
+            "Unpacking archive stream to workspace", 1);
+
+        final List<IFile> files = new ArrayList<IFile>();
+        final List<InputStream> contents = new ArrayList<InputStream>();
+
+        IWorkspaceRunnable writeBatch = new IWorkspaceRunnable() {
+            @Override
+            public void run(IProgressMonitor unused) throws CoreException {
+                for (int i = 0; i < files.size(); i++)
+                    writeFile(files.get(i), contents.get(i), subMonitor);
+            }
+        };
+
+        try {
+            int batchSize = 0;
+
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+
+                if (subMonitor.isCanceled())
+                    throw new OperationCanceledException();
+
+                IFile file = getFile(entry.getName());
+
+                // one more byte to find out whether the entry is complete
+                byte[] head = readAtMost(in, BATCH_SIZE + 1);
+
+                if (head.length <= BATCH_SIZE) {
+                    files.add(file);
+                    contents.add(new ByteArrayInputStream(head));
+                    batchSize += head.length;
+                } else {
+                    // write the pending batch first to keep the order
+                    if (!files.isEmpty()) {
+                        workspace.run(writeBatch, null);
+                        files.clear();
+                        contents.clear();
                     }
-                };
 
-                subMonitor.subTask("decompressing: " + path);
+                    /*
+                     * the sequence closes every stream it has exhausted, the
+                     * ZipInputStream is still needed for the next entries
+                     */
+                    InputStream remaining = new FilterInputStream(in) {
+                        @Override
+                        public void close() throws IOException {
+                            // prevent the ZipInputStream from being closed
+                        }
+                    };
 
-                if (!file.exists())
-                    file.create(uncloseable, true,
-                        subMonitor.newChild(0, SubMonitor.SUPPRESS_ALL_LABELS));
-                else
-                    file.setContents(uncloseable, true, true,
-                        subMonitor.newChild(0, SubMonitor.SUPPRESS_ALL_LABELS));
+                    files.add(file);
+                    contents.add(new SequenceInputStream(
+                        new ByteArrayInputStream(head), remaining));
+                    batchSize = head.length;
+                }
 
-                if (LOG.isTraceEnabled())
-                    LOG.trace("file written to disk: " + path);
+                if (batchSize >= BATCH_SIZE) {
+                    workspace.run(writeBatch, null);
+                    files.clear();
+                    contents.clear();
+                    batchSize = 0;
+                }
 
                 in.closeEntry();
             }
 
+            if (!files.isEmpty())
+                workspace.run(writeBatch, null);
+
         } catch (IOException e) {
-            LOG.error("failed to unpack archive", e);
+            LOG.error("failed to unpack archive stream", e);
             throw new CoreException(new org.eclipse.core.runtime.Status(
-                IStatus.ERROR, Saros.SAROS, "failed to unpack archive", e));
+                IStatus.ERROR, Saros.SAROS, "failed to unpack archive stream",
+                e));
         } finally {
             monitor.subTask("");
             IOUtils.closeQuietly(in);
@@ -118,6 +257,82 @@ public class DecompressTask implements IWorkspaceRunnable {
         }
     }
 
+    /**
+     * Writes the given content to the given file, which is created together
+     * with its missing parent folders if it does not exist yet. The content
+     * stream is not closed.
+     */
+    private void writeFile(IFile file, InputStream content,
+        SubMonitor subMonitor) throws CoreException {
+
+        IPath path = file.getProjectRelativePath();
+
+        /*
+         * do not use FileUtils because it will remove read-only access which
+         * might not what the user want
+         */
+        createFoldersForFile(file);
+
+        InputStream uncloseable = new FilterInputStream(content) {
+            @Override
+            public void close() throws IOException {
+                // prevent the ZipInputStream from being closed
+            }
+        };
+
+        subMonitor.subTask("decompressing: " + path);
+
+        if (!file.exists())
+            file.create(uncloseable, true,
+                subMonitor.newChild(0, SubMonitor.SUPPRESS_ALL_LABELS));
+        else
+            file.setContents(uncloseable, true, true,
+                subMonitor.newChild(0, SubMonitor.SUPPRESS_ALL_LABELS));
+
+        if (writtenFiles++ == 0)
+            firstFileWrittenTime = System.currentTimeMillis();
+
+        if (LOG.isTraceEnabled())
+            LOG.trace("file written to disk: " + path);
+    }
+
+    /**
+     * Reads the given stream until the given number of bytes or the end of
+     * the stream is reached.
+     */
+    private static byte[] readAtMost(InputStream in, int length)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[8192];
+
+        int read;
+
+        while (out.size() < length
+            && (read = in.read(buffer, 0,
+                Math.min(buffer.length, length - out.size()))) != -1)
+            out.write(buffer, 0, read);
+
+        return out.toByteArray();
+    }
+
+    private IFile getFile(String entryName) throws IOException {
+        if (projects == null)
+            return project.getFile(Path.fromPortableString(entryName));
+
+        int idx = entryName.indexOf(projectIDDelimiter);
+
+        IProject entryProject = idx == -1 ? null : projects.get(entryName
+            .substring(0, idx));
+
+        if (entryProject == null)
+            throw new IOException("archive entry '" + entryName
+                + "' does not belong to any project");
+
+        return entryProject.getFile(Path.fromPortableString(entryName
+            .substring(idx + projectIDDelimiter.length())));
+    }
+
     private void createFoldersForFile(IFile file) throws CoreException {
         List<IFolder> parents = new ArrayList<IFolder>();
 
@@ -20,14 +20,28 @@
 package de.fu_berlin.inf.dpp.invitation;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.eclipse.core.resources.IContainer;
@@ -47,6 +61,7 @@ import com.thoughtworks.xstream.annotations.XStreamOmitField;
 
 import de.fu_berlin.inf.dpp.project.IChecksumCache;
 import de.fu_berlin.inf.dpp.util.FileUtils;
+import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
 import de.fu_berlin.inf.dpp.vcs.VCSAdapter;
 import de.fu_berlin.inf.dpp.vcs.VCSResourceInfo;
 
@@ -66,8 +81,24 @@ public class FileList {
 
     private static final Logger log = Logger.getLogger(FileList.class);
 
+    /**
+     * Maximum number of threads that are used to calculate the checksums of
+     * the files. Using more than one thread allows reading and hashing of
+     * different files to overlap.
+     */
+    private static final int CHECKSUM_THREADS = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.invitation.filelist.CHECKSUM_THREADS", Math.min(
+            4, Runtime.getRuntime().availableProcessors()));
+
+    private static final Comparator<File> NAME_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+            return a.path.compareTo(b.path);
+        }
+    };
+
     @XStreamAlias("f")
-    private static class File {
+    static class File {
 
         @XStreamAlias("p")
         @XStreamAsAttribute
@@ -83,7 +114,24 @@ public class FileList {
         @XStreamAsAttribute
         boolean isDirectory;
 
-        private File(String path, MetaData metaData, boolean isDirectory) {
+        /**
+         * The aggregate hash of this node and all its sub nodes, only valid if
+         * {@link #hashCalculated} is set.
+         */
+        @XStreamOmitField
+        long hash;
+
+        @XStreamOmitField
+        boolean hashCalculated;
+
+        /**
+         * Set if the sub nodes of this node are not known yet and only its
+         * {@link #hash} is available.
+         */
+        @XStreamOmitField
+        boolean collapsed;
+
+        File(String path, MetaData metaData, boolean isDirectory) {
             this.path = path;
             this.metaData = metaData;
             this.isDirectory = isDirectory;
@@ -117,7 +165,7 @@ public class FileList {
          * @param paths
          *            a list to store the paths
          */
-        private void toList(IPath path, List<IPath> paths) {
+        void toList(IPath path, List<IPath> paths) {
             if (files == null)
                 return;
 
@@ -131,6 +179,24 @@ public class FileList {
             }
         }
 
+        /**
+         * Returns the path of this node as reported by {@link #toList()}.
+         * 
+         * @param parent
+         *            the path of the parent node
+         * @return the path or <code>null</code> if this node is a directory
+         *         that is only reported through its sub nodes
+         */
+        IPath getPath(IPath parent) {
+            if (!isDirectory)
+                return parent.append(path);
+
+            if (files == null)
+                return parent.append(path).addTrailingSeparator();
+
+            return null;
+        }
+
         public boolean contains(IPath path) {
             return getFile(path) != null;
         }
@@ -225,6 +291,121 @@ public class FileList {
             file.addPath(segments, segmentIndex + 1, metaData, isDirectory);
         }
 
+        /**
+         * Returns the aggregate hash of this node. The hash covers the meta
+         * data of this node and the names and hashes of all sub nodes, but not
+         * the name of this node. The hashes of the sub nodes are calculated
+         * first, so the given digest is only used by one node at a time.
+         */
+        long getHash(MessageDigest digest) {
+            if (hashCalculated)
+                return hash;
+
+            List<File> sortedFiles = Collections.emptyList();
+
+            if (files != null) {
+                sortedFiles = new ArrayList<File>(files);
+                Collections.sort(sortedFiles, NAME_ORDER);
+            }
+
+            long[] hashes = new long[sortedFiles.size()];
+
+            for (int i = 0; i < hashes.length; i++)
+                hashes[i] = sortedFiles.get(i).getHash(digest);
+
+            digest.reset();
+            digest.update((byte) (isDirectory ? 'D' : 'F'));
+
+            if (metaData != null) {
+                digest.update((byte) 'M');
+                update(digest, metaData.checksum);
+
+                if (metaData.vcsInfo != null) {
+                    update(digest, metaData.vcsInfo.url);
+                    update(digest, metaData.vcsInfo.revision);
+                }
+            }
+
+            digest.update((byte) (files == null ? 'L' : 'N'));
+
+            for (int i = 0; i < hashes.length; i++) {
+                update(digest, sortedFiles.get(i).path);
+                update(digest, hashes[i]);
+            }
+
+            byte[] result = digest.digest();
+
+            long value = 0;
+
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (result[i] & 0xFF);
+
+            hash = value;
+            hashCalculated = true;
+            return hash;
+        }
+
+        /**
+         * Returns whether this node and the given node have the same aggregate
+         * hash. Both hashes must already be calculated, otherwise
+         * <code>false</code> is returned.
+         */
+        boolean hasSameHash(File other) {
+            return hashCalculated && other.hashCalculated
+                && hash == other.hash;
+        }
+
+        boolean containsCollapsed() {
+            if (collapsed)
+                return true;
+
+            if (files == null)
+                return false;
+
+            for (File file : files) {
+                if (file.containsCollapsed())
+                    return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Returns a copy of this node and all its sub nodes.
+         */
+        File copy() {
+            File copy = new File(path, metaData, isDirectory);
+            copy.hash = hash;
+            copy.hashCalculated = hashCalculated;
+            copy.collapsed = collapsed;
+
+            if (files != null) {
+                copy.files = new ArrayList<File>(files.size());
+
+                for (File file : files)
+                    copy.files.add(file.copy());
+            }
+
+            return copy;
+        }
+
+        /**
+         * Returns a copy of this node without its sub nodes. If this node has
+         * sub nodes the copy is collapsed and only carries the hash of this
+         * node.
+         */
+        File collapsedCopy(MessageDigest digest) {
+            File copy = new File(path, metaData, isDirectory);
+
+            if (files == null && !collapsed)
+                return copy;
+
+            copy.hash = getHash(digest);
+            copy.hashCalculated = true;
+            copy.collapsed = true;
+            return copy;
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
@@ -319,22 +500,26 @@ public class FileList {
         }
     }
 
-    private final boolean useVersionControl;
+    /*
+     * the fields are package private so the FileListCodec can access them
+     */
+
+    final boolean useVersionControl;
 
     /** Identifies the VCS used. */
-    private String vcsProviderID;
+    String vcsProviderID;
 
     /** @see VCSAdapter#getRepositoryString(IResource) */
-    private String vcsRepositoryRoot;
+    String vcsRepositoryRoot;
     /** VCS internal information. */
-    private VCSResourceInfo vcsProjectInfo;
+    VCSResourceInfo vcsProjectInfo;
 
     /** ID of Project this list of files belong to */
-    private String projectID;
+    String projectID;
 
-    private Set<String> encodings = new HashSet<String>();
+    Set<String> encodings = new HashSet<String>();
 
-    private File root = new File("", null, true);
+    File root = new File("", null, true);
 
     MetaData getMetaData(IPath path) {
         return root.getMetaData(path);
@@ -579,40 +764,128 @@ public class FileList {
             }
         }
 
+        calculateChecksums(files, checksumCache, monitor);
+    }
+
+    /**
+     * Calculates the checksums of the given files using up to
+     * {@link #CHECKSUM_THREADS} threads. The structure of the file list is not
+     * modified so its ordering does not depend on the order in which the
+     * checksums are calculated. If the monitor is canceled the remaining
+     * checksums are not calculated and it is up to the caller to check the
+     * monitor.
+     */
+    private void calculateChecksums(List<IFile> files,
+        final IChecksumCache checksumCache, IProgressMonitor monitor) {
+
         monitor.beginTask("Calculating checksums...", files.size());
 
-        for (IFile file : files) {
-            try {
+        int threads = Math.min(CHECKSUM_THREADS, files.size());
+
+        if (threads <= 1) {
+            for (IFile file : files) {
+                if (monitor.isCanceled())
+                    return;
+
                 monitor.subTask(file.getProject().getName() + ": "
                     + file.getName());
 
-                MetaData data = root.getMetaData(file.getProjectRelativePath());
+                calculateChecksum(file, checksumCache);
+                monitor.worked(1);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new NamedThreadFactory("FileList-Checksum-"));
 
-                Long checksum = null;
+        CompletionService<IFile> completionService = new ExecutorCompletionService<IFile>(
+            executor);
 
-                /** {@link IChecksumCache} **/
-                String path = file.getFullPath().toPortableString();
+        try {
+            for (final IFile file : files) {
+                completionService.submit(new Callable<IFile>() {
+                    @Override
+                    public IFile call() {
+                        calculateChecksum(file, checksumCache);
+                        return file;
+                    }
+                });
+            }
 
-                if (checksumCache != null)
-                    checksum = checksumCache.getChecksum(path);
+            int remaining = files.size();
 
-                data.checksum = checksum == null ? FileUtils.checksum(file)
-                    : checksum;
+            while (remaining > 0) {
+                if (monitor.isCanceled())
+                    return;
 
-                if (checksumCache != null) {
-                    boolean isInvalid = checksumCache.addChecksum(path,
-                        data.checksum);
+                Future<IFile> result = completionService.poll(100,
+                    TimeUnit.MILLISECONDS);
 
-                    if (isInvalid && checksum != null)
-                        log.warn("calculated checksum on dirty data: "
-                            + file.getFullPath());
-                }
+                if (result == null)
+                    continue;
 
-            } catch (IOException e) {
-                log.error(e);
+                IFile file = result.get();
+
+                monitor.subTask(file.getProject().getName() + ": "
+                    + file.getName());
+
+                monitor.worked(1);
+                remaining--;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            monitor.setCanceled(true);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw (RuntimeException) cause;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            monitor.worked(1);
+    /**
+     * Calculates the checksum of the given file and stores it in the meta data
+     * of the file. May be called concurrently for different files.
+     */
+    private void calculateChecksum(IFile file, IChecksumCache checksumCache) {
+        try {
+            MetaData data = root.getMetaData(file.getProjectRelativePath());
+
+            Long checksum = null;
+
+            /** {@link IChecksumCache} **/
+            String path = file.getFullPath().toPortableString();
+
+            /*
+             * must be queried before the content is read, otherwise changes
+             * during the calculation might not be detected later on
+             */
+            long timestamp = file.getLocalTimeStamp();
+            IPath location = file.getLocation();
+            long size = location == null ? -1 : location.toFile().length();
+
+            if (checksumCache != null)
+                checksum = checksumCache.getChecksum(path, timestamp, size);
+
+            data.checksum = checksum == null ? FileUtils.checksum(file)
+                : checksum;
+
+            if (checksumCache != null) {
+                boolean isInvalid = checksumCache.addChecksum(path, timestamp,
+                    size, data.checksum);
+
+                if (isInvalid && checksum != null)
+                    log.warn("calculated checksum on dirty data: "
+                        + file.getFullPath());
+            }
+
+        } catch (IOException e) {
+            log.error(e);
         }
     }
 
@@ -620,6 +893,241 @@ public class FileList {
         return FileListDiff.diff(this, other);
     }
 
+    /**
+     * Returns the aggregate hash of all files and folders in this file list.
+     * File lists with the same paths, checksums and version control
+     * information have the same root hash. The hashes of all directories are
+     * calculated on the first call.
+     */
+    public synchronized long getRootHash() {
+        return root.getHash(createDigest());
+    }
+
+    /**
+     * Returns whether all directories of this file list are known. A file list
+     * that was offered as hashes only is not resolved until the missing
+     * directories were requested from the peer.
+     * 
+     * @see IncomingProjectNegotiation#resolveRemoteFileList
+     */
+    public synchronized boolean isResolved() {
+        return !root.containsCollapsed();
+    }
+
+    /**
+     * Returns a copy of this file list that only contains the root hash
+     * instead of the files and folders.
+     */
+    synchronized FileList collapse() {
+        FileList fileList = copyHeader();
+        fileList.root = root.collapsedCopy(createDigest());
+        return fileList;
+    }
+
+    /**
+     * Returns a file list that only contains the given directories of this
+     * file list. The directories in <code>expand</code> contain their direct
+     * sub nodes with all sub directories being collapsed. The directories in
+     * <code>complete</code> contain all their sub nodes. Directories that are
+     * not part of this file list are ignored.
+     */
+    synchronized FileList getListing(List<IPath> expand, List<IPath> complete) {
+        MessageDigest digest = createDigest();
+
+        FileList listing = copyHeader();
+
+        for (IPath path : expand) {
+            File directory = getDirectory(path);
+
+            if (directory == null || directory.files == null)
+                continue;
+
+            File listed = listing.createDirectory(path, directory.metaData);
+            listed.files = new ArrayList<File>(directory.files.size());
+
+            for (File file : directory.files)
+                listed.files.add(file.collapsedCopy(digest));
+        }
+
+        for (IPath path : complete) {
+            File directory = getDirectory(path);
+
+            if (directory == null || directory.files == null)
+                continue;
+
+            listing.createDirectory(path, directory.metaData).files = directory
+                .copy().files;
+        }
+
+        return listing;
+    }
+
+    /**
+     * Resolves the collapsed directories of this file list whose hash matches
+     * the hash of the same directory in the given file list by copying the
+     * sub nodes of the given file list. The paths of all other collapsed
+     * directories are added to the given lists.
+     * 
+     * @param other
+     *            the file list to take matching sub trees from
+     * @param expand
+     *            receives the paths of collapsed directories that also exist
+     *            in the given file list
+     * @param complete
+     *            receives the paths of collapsed directories that do not exist
+     *            in the given file list
+     */
+    synchronized void resolve(FileList other, List<IPath> expand,
+        List<IPath> complete) {
+        other.getRootHash();
+
+        if (resolve(root, other.root, Path.EMPTY, expand, complete))
+            clearCaches();
+    }
+
+    private boolean resolve(File file, File other, IPath path,
+        List<IPath> expand, List<IPath> complete) {
+
+        if (file.collapsed) {
+            if (other != null && other.files != null
+                && file.hasSameHash(other)) {
+                file.files = other.copy().files;
+                file.collapsed = false;
+                return true;
+            }
+
+            if (other != null && other.files != null)
+                expand.add(path);
+            else
+                complete.add(path);
+
+            return false;
+        }
+
+        if (file.files == null)
+            return false;
+
+        Map<String, File> otherFiles = new HashMap<String, File>();
+
+        if (other != null && other.files != null) {
+            for (File otherFile : other.files)
+                otherFiles.put(otherFile.path, otherFile);
+        }
+
+        boolean modified = false;
+
+        for (File child : file.files) {
+            modified |= resolve(child, otherFiles.get(child.path),
+                path.append(child.path), expand, complete);
+        }
+
+        return modified;
+    }
+
+    /**
+     * Replaces the collapsed directories at the given paths with the same
+     * directories of the given listing. The sub nodes of a listed directory
+     * are only taken if they match the hash of the collapsed directory, so the
+     * resolved file list is exactly the one the hashes were calculated for.
+     * 
+     * @return <code>false</code> if the listing did not contain one of the
+     *         directories
+     * @throws IOException
+     *             if the sub nodes of a listed directory do not match the hash
+     *             of the collapsed directory
+     */
+    synchronized boolean merge(FileList listing, List<IPath> paths)
+        throws IOException {
+        MessageDigest digest = createDigest();
+
+        boolean complete = true;
+
+        for (IPath path : paths) {
+            File directory = getDirectory(path);
+            File listed = listing.getDirectory(path);
+
+            if (directory == null || !directory.collapsed || listed == null
+                || listed.files == null) {
+                complete = false;
+                continue;
+            }
+
+            File merged = new File(directory.path, directory.metaData,
+                directory.isDirectory);
+
+            merged.files = listed.files;
+            merged.getHash(digest);
+
+            if (!merged.hasSameHash(directory))
+                throw new IOException("listing of directory " + path
+                    + " does not match its hash");
+
+            directory.files = listed.files;
+            directory.collapsed = false;
+        }
+
+        clearCaches();
+        return complete;
+    }
+
+    private File getDirectory(IPath path) {
+        return path.isEmpty() ? root : root.getFile(path);
+    }
+
+    private File createDirectory(IPath path, MetaData metaData) {
+        if (path.isEmpty())
+            return root;
+
+        root.addPath(path, metaData, true);
+        return root.getFile(path);
+    }
+
+    private FileList copyHeader() {
+        FileList fileList = new FileList(useVersionControl);
+        fileList.vcsProviderID = vcsProviderID;
+        fileList.vcsRepositoryRoot = vcsRepositoryRoot;
+        fileList.vcsProjectInfo = vcsProjectInfo;
+        fileList.projectID = projectID;
+        fileList.encodings.addAll(encodings);
+        return fileList;
+    }
+
+    private void clearCaches() {
+        cachedList = null;
+        toString = null;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, long value) {
+        for (int i = 56; i >= 0; i -= 8)
+            digest.update((byte) (value >>> i));
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            update(digest, -1L);
+            return;
+        }
+
+        byte[] data;
+
+        try {
+            data = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+
+        update(digest, data.length);
+        digest.update(data);
+    }
+
     public String getVcsProviderID() {
         return vcsProviderID;
     }
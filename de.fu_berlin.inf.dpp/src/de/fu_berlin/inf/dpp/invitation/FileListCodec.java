@@ -0,0 +1,366 @@
+package de.fu_berlin.inf.dpp.invitation;
+
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.checkLength;
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.readUnsigned;
+import static de.fu_berlin.inf.dpp.util.VarIntUtils.writeUnsigned;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fu_berlin.inf.dpp.invitation.FileList.File;
+import de.fu_berlin.inf.dpp.invitation.FileList.MetaData;
+import de.fu_berlin.inf.dpp.vcs.VCSResourceInfo;
+
+/**
+ * Compact binary representation of {@linkplain FileList file lists}. This
+ * codec is an alternative to the XStream based XML serialization and must only
+ * be used if the remote side announced support for the same {@link #VERSION}.
+ * <p>
+ * The tree structure of the file list is written as it is, so every path
+ * segment is only written once for all paths sharing it. Names and revisions
+ * are written only once per encoded file list and referenced by their index
+ * afterwards. VCS URLs only contain the part that differs from the previously
+ * written URL. Checksums are written with a fixed width of 8 bytes.
+ * <p>
+ * Directories whose content was omitted (see {@link FileList#collapse()}) are
+ * written with their aggregate hash instead of their sub nodes.
+ * <p>
+ * <b>Important:</b> any change to the wire format <b>must</b> increase the
+ * {@link #VERSION}.
+ */
+public final class FileListCodec {
+
+    /**
+     * The version of the binary format produced and understood by this codec.
+     */
+    public static final int VERSION = 2;
+
+    // node flags
+
+    private static final int DIRECTORY = 1;
+    private static final int META_DATA = 2;
+    private static final int VCS_INFO = 4;
+    private static final int COLLAPSED = 8;
+
+    // file list flags
+
+    private static final int USE_VERSION_CONTROL = 1;
+    private static final int PROJECT_INFO = 2;
+    private static final int ROOT_COLLAPSED = 4;
+
+    // string table references
+
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+    private static final int STRING_REFERENCE_OFFSET = 2;
+
+    private final Map<String, Integer> writtenStrings = new HashMap<String, Integer>();
+
+    private final List<String> readStrings = new ArrayList<String>();
+
+    private String lastURL = "";
+
+    private FileListCodec() {
+        // use the static methods
+    }
+
+    /**
+     * Encodes the given file list to the given output stream.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void encode(FileList fileList, DataOutputStream out)
+        throws IOException {
+
+        FileListCodec codec = new FileListCodec();
+
+        out.writeByte(VERSION);
+        codec.writeFileList(fileList, out);
+    }
+
+    /**
+     * Decodes a file list that was previously encoded with {@link #encode}.
+     *
+     * @throws IOException
+     *             if an I/O error occurs, the data is malformed or was encoded
+     *             with a different {@link #VERSION}
+     */
+    public static FileList decode(DataInputStream in) throws IOException {
+
+        int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported file list codec version: "
+                + version + ", expected: " + VERSION);
+
+        return new FileListCodec().readFileList(in);
+    }
+
+    private void writeFileList(FileList fileList, DataOutputStream out)
+        throws IOException {
+
+        int flags = 0;
+
+        if (fileList.useVersionControl)
+            flags |= USE_VERSION_CONTROL;
+
+        if (fileList.vcsProjectInfo != null)
+            flags |= PROJECT_INFO;
+
+        if (fileList.root.collapsed)
+            flags |= ROOT_COLLAPSED;
+
+        out.writeByte(flags);
+
+        writeString(fileList.projectID, out);
+        writeString(fileList.vcsProviderID, out);
+        writeString(fileList.vcsRepositoryRoot, out);
+
+        if (fileList.vcsProjectInfo != null)
+            writeVCSInfo(fileList.vcsProjectInfo, out);
+
+        writeUnsigned(fileList.encodings.size(), out);
+
+        for (String encoding : fileList.encodings)
+            writeString(encoding, out);
+
+        if (fileList.root.collapsed)
+            out.writeLong(fileList.root.hash);
+        else
+            writeFiles(fileList.root.files, out);
+    }
+
+    private FileList readFileList(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+
+        FileList fileList = new FileList((flags & USE_VERSION_CONTROL) != 0);
+
+        fileList.projectID = readString(in);
+        fileList.vcsProviderID = readString(in);
+        fileList.vcsRepositoryRoot = readString(in);
+
+        if ((flags & PROJECT_INFO) != 0)
+            fileList.vcsProjectInfo = readVCSInfo(in);
+
+        int encodings = readUnsigned(in);
+
+        for (int i = 0; i < encodings; i++) {
+            String encoding = readString(in);
+
+            if (encoding != null)
+                fileList.encodings.add(encoding);
+        }
+
+        if ((flags & ROOT_COLLAPSED) != 0)
+            readCollapsed(fileList.root, in);
+        else
+            fileList.root.files = readFiles(in);
+
+        return fileList;
+    }
+
+    /**
+     * Writes the given nodes and all their sub nodes. A <code>null</code> list
+     * is distinguished from an empty list because {@link FileList#getPaths()}
+     * only reports directories without a node list.
+     */
+    private void writeFiles(List<File> files, DataOutputStream out)
+        throws IOException {
+
+        if (files == null) {
+            writeUnsigned(0, out);
+            return;
+        }
+
+        writeUnsigned(files.size() + 1, out);
+
+        for (File file : files) {
+            int flags = 0;
+
+            if (file.isDirectory)
+                flags |= DIRECTORY;
+
+            if (file.metaData != null)
+                flags |= META_DATA;
+
+            if (file.metaData != null && file.metaData.vcsInfo != null)
+                flags |= VCS_INFO;
+
+            if (file.collapsed)
+                flags |= COLLAPSED;
+
+            writeString(file.path, out);
+            out.writeByte(flags);
+
+            if (file.metaData != null) {
+                out.writeLong(file.metaData.checksum);
+
+                if (file.metaData.vcsInfo != null)
+                    writeVCSInfo(file.metaData.vcsInfo, out);
+            }
+
+            if (file.collapsed)
+                out.writeLong(file.hash);
+            else
+                writeFiles(file.files, out);
+        }
+    }
+
+    private List<File> readFiles(DataInputStream in) throws IOException {
+        int size = readUnsigned(in);
+
+        if (size == 0)
+            return null;
+
+        List<File> files = new ArrayList<File>();
+
+        for (int i = 0; i < size - 1; i++) {
+            String path = readString(in);
+
+            if (path == null)
+                throw new IOException("malformed file list, path is missing");
+
+            int flags = in.readUnsignedByte();
+
+            MetaData metaData = null;
+
+            if ((flags & META_DATA) != 0) {
+                metaData = new MetaData();
+                metaData.checksum = in.readLong();
+
+                if ((flags & VCS_INFO) != 0)
+                    metaData.vcsInfo = readVCSInfo(in);
+            }
+
+            File file = new File(path, metaData, (flags & DIRECTORY) != 0);
+
+            if ((flags & COLLAPSED) != 0)
+                readCollapsed(file, in);
+            else
+                file.files = readFiles(in);
+
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    private static void readCollapsed(File file, DataInputStream in)
+        throws IOException {
+        file.hash = in.readLong();
+        file.hashCalculated = true;
+        file.collapsed = true;
+    }
+
+    private void writeVCSInfo(VCSResourceInfo info, DataOutputStream out)
+        throws IOException {
+        writeURL(info.url, out);
+        writeString(info.revision, out);
+    }
+
+    private VCSResourceInfo readVCSInfo(DataInputStream in) throws IOException {
+        VCSResourceInfo info = new VCSResourceInfo();
+        info.url = readURL(in);
+        info.revision = readString(in);
+        return info;
+    }
+
+    /**
+     * Writes an URL as the length of the prefix it shares with the previously
+     * written URL followed by the remaining characters. As the nodes are
+     * written in depth first order consecutive URLs usually only differ in
+     * their last segment.
+     */
+    private void writeURL(String url, DataOutputStream out) throws IOException {
+
+        if (url == null) {
+            writeUnsigned(0, out);
+            return;
+        }
+
+        int shared = 0;
+        int max = Math.min(url.length(), lastURL.length());
+
+        while (shared < max && url.charAt(shared) == lastURL.charAt(shared))
+            shared++;
+
+        writeUnsigned(shared + 1, out);
+        writeText(url.substring(shared), out);
+        lastURL = url;
+    }
+
+    private String readURL(DataInputStream in) throws IOException {
+        int shared = readUnsigned(in);
+
+        if (shared == 0)
+            return null;
+
+        shared--;
+
+        if (shared > lastURL.length())
+            throw new IOException("invalid URL prefix length: " + shared);
+
+        String url = lastURL.substring(0, shared) + readText(in);
+        lastURL = url;
+        return url;
+    }
+
+    private void writeString(String value, DataOutputStream out)
+        throws IOException {
+
+        if (value == null) {
+            writeUnsigned(NULL_STRING, out);
+            return;
+        }
+
+        Integer index = writtenStrings.get(value);
+
+        if (index != null) {
+            writeUnsigned(index + STRING_REFERENCE_OFFSET, out);
+            return;
+        }
+
+        writtenStrings.put(value, writtenStrings.size());
+        writeUnsigned(NEW_STRING, out);
+        writeText(value, out);
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int reference = readUnsigned(in);
+
+        if (reference == NULL_STRING)
+            return null;
+
+        if (reference == NEW_STRING) {
+            String value = readText(in);
+            readStrings.add(value);
+            return value;
+        }
+
+        int index = reference - STRING_REFERENCE_OFFSET;
+
+        if (index >= readStrings.size())
+            throw new IOException("invalid string reference: " + index);
+
+        return readStrings.get(index);
+    }
+
+    private static void writeText(String text, DataOutputStream out)
+        throws IOException {
+        byte[] data = text.getBytes("UTF-8");
+        writeUnsigned(data.length, out);
+        out.write(data);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] data = new byte[checkLength(readUnsigned(in), in)];
+        in.readFully(data);
+        return new String(data, "UTF-8");
+    }
+}
@@ -1,8 +1,10 @@
 package de.fu_berlin.inf.dpp.invitation;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.core.resources.IFolder;
@@ -14,8 +16,10 @@ import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.SubMonitor;
 
+import de.fu_berlin.inf.dpp.invitation.FileList.File;
 import de.fu_berlin.inf.dpp.invitation.FileList.MetaData;
 import de.fu_berlin.inf.dpp.util.FileUtils;
 
@@ -52,7 +56,10 @@ public class FileListDiff {
      * in <code>target</code>, but not in <code>base</code>.<br>
      * <br>
      * If either of the two parameters is <code>null</code>, the result is an
-     * empty diff.
+     * empty diff.<br>
+     * <br>
+     * Directories with the same {@linkplain FileList#getRootHash() aggregate
+     * hash} are not compared file by file.
      * 
      * @param base
      *            The base <code>FileList</code>.
@@ -61,46 +68,108 @@ public class FileListDiff {
      * 
      * @return a new <code>FileListDiff</code> which contains the difference
      *         information of the two <code>FileList</code>s.
+     * @throws IllegalArgumentException
+     *             if one of the file lists is not
+     *             {@linkplain FileList#isResolved() resolved}
      */
     public static FileListDiff diff(FileList base, FileList target) {
         FileListDiff result = new FileListDiff();
         if (base == null || target == null)
             return result;
-        // we have to copy the set because we should not work on references when
-        // deleting
-        Set<IPath> baseEntries = new HashSet<IPath>(base.getPaths());
-        Set<IPath> targetEntries = new HashSet<IPath>(target.getPaths());
-
-        // determine the paths that don't match the target to delete them
-        baseEntries.removeAll(targetEntries);
-        result.removed.addAll(baseEntries);
-
-        // determine the paths that are not already present in local workspace
-        baseEntries = new HashSet<IPath>(base.getPaths());
-        targetEntries.removeAll(baseEntries);
-        result.added.addAll(targetEntries);
-
-        // determine for all matching paths if files are altered
-        targetEntries = new HashSet<IPath>(target.getPaths());
-        baseEntries.retainAll(targetEntries);
-        for (IPath path : baseEntries) {
-            if (path.hasTrailingSeparator()) {
-                result.unaltered.add(path);
-                continue;
+
+        if (!base.isResolved() || !target.isResolved())
+            throw new IllegalArgumentException(
+                "cannot compare file lists that are not resolved");
+
+        // calculates the hashes of all directories
+        base.getRootHash();
+        target.getRootHash();
+
+        result.diff(base.root.files, target.root.files, Path.EMPTY);
+        return result;
+    }
+
+    /**
+     * Compares the sub nodes of two directory nodes. Only nodes that exist on
+     * both sides are compared further, all other nodes are added with their
+     * complete sub tree to the added or removed paths. Unlike looking up every
+     * path on its own this visits each node only once.
+     */
+    private void diff(List<File> baseFiles, List<File> targetFiles,
+        IPath parent) {
+
+        Map<String, File> baseFilesByName = new HashMap<String, File>();
+
+        if (baseFiles != null) {
+            for (File file : baseFiles)
+                baseFilesByName.put(file.path, file);
+        }
+
+        Set<String> matchedNames = new HashSet<String>();
+
+        if (targetFiles != null) {
+            for (File targetFile : targetFiles) {
+                File baseFile = baseFilesByName.get(targetFile.path);
+
+                if (baseFile == null) {
+                    addAll(targetFile, parent, added);
+                    continue;
+                }
+
+                matchedNames.add(targetFile.path);
+
+                if (baseFile.files != null && targetFile.files != null
+                    && baseFile.hasSameHash(targetFile)) {
+                    addAll(baseFile, parent, unaltered);
+                    continue;
+                }
+
+                IPath basePath = baseFile.getPath(parent);
+                IPath targetPath = targetFile.getPath(parent);
+
+                if (basePath != null && basePath.equals(targetPath)) {
+                    if (basePath.hasTrailingSeparator()
+                        || isUnaltered(baseFile.metaData, targetFile.metaData))
+                        unaltered.add(basePath);
+                    else
+                        altered.add(basePath);
+                } else {
+                    if (basePath != null)
+                        removed.add(basePath);
+
+                    if (targetPath != null)
+                        added.add(targetPath);
+                }
+
+                diff(baseFile.files, targetFile.files,
+                    parent.append(baseFile.path));
             }
+        }
 
-            MetaData fileData = base.getMetaData(path);
-            MetaData otherFileData = target.getMetaData(path);
-            if ((fileData == null && otherFileData == null)
-                || (fileData != null && otherFileData != null)
-                && (fileData.checksum == otherFileData.checksum)) {
-                result.unaltered.add(path);
-            } else {
-                result.altered.add(path);
+        if (baseFiles != null) {
+            for (File baseFile : baseFiles) {
+                if (!matchedNames.contains(baseFile.path))
+                    addAll(baseFile, parent, removed);
             }
         }
+    }
 
-        return result;
+    private static void addAll(File file, IPath parent, List<IPath> paths) {
+        IPath path = file.getPath(parent);
+
+        if (path != null)
+            paths.add(path);
+
+        file.toList(parent.append(file.path), paths);
+    }
+
+    private static boolean isUnaltered(MetaData fileData,
+        MetaData otherFileData) {
+        if (fileData == null && otherFileData == null)
+            return true;
+
+        return fileData != null && otherFileData != null
+            && fileData.checksum == otherFileData.checksum;
     }
 
     public List<IPath> getRemovedPaths() {
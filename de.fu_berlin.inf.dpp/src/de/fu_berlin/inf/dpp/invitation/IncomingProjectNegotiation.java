@@ -16,6 +16,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.log4j.Logger;
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IProject;
@@ -32,6 +33,7 @@ import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.ui.actions.WorkspaceModifyOperation;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
 import org.jivesoftware.smackx.filetransfer.FileTransferListener;
 import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
 import org.jivesoftware.smackx.filetransfer.IncomingFileTransfer;
@@ -46,6 +48,8 @@ import de.fu_berlin.inf.dpp.invitation.ProcessTools.CancelLocation;
 import de.fu_berlin.inf.dpp.invitation.ProcessTools.CancelOption;
 import de.fu_berlin.inf.dpp.net.JID;
 import de.fu_berlin.inf.dpp.net.SarosPacketCollector;
+import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationHashRequestExtension;
+import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationHashResponseExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationMissingFilesExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.StartActivityQueuingRequest;
 import de.fu_berlin.inf.dpp.net.internal.extensions.StartActivityQueuingResponse;
@@ -126,7 +130,8 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
      * @return The {@link FileList fileList} which belongs to the project with
      *         the ID <code>projectID</code> from inviter <br />
      *         <code><b>null<b></code> if there isn't such a {@link FileList
-     *         fileList}
+     *         fileList}. The file list may not be {@linkplain
+     *         #resolveRemoteFileList resolved} yet.
      */
     public FileList getRemoteFileList(String projectID) {
         for (ProjectNegotiationData info : this.projectInfos) {
@@ -136,6 +141,99 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         return null;
     }
 
+    /**
+     * Resolves the remote file list of the given project if the host only
+     * offered its hashes. Directories with the same hash as in the given local
+     * file list are taken from the local file list, all other directories are
+     * requested from the host level by level. Directories that do not exist
+     * in the local file list are requested completely. Does nothing if the
+     * remote file list is already resolved.
+     * 
+     * @param projectID
+     * @param localFileList
+     *            the file list of the local project that will be synchronized
+     * @throws IOException
+     *             if the host did not answer in time or sent an incomplete
+     *             listing or a listing that does not match the offered hashes
+     */
+    public void resolveRemoteFileList(String projectID, FileList localFileList)
+        throws IOException {
+
+        FileList remoteFileList = getRemoteFileList(projectID);
+
+        if (remoteFileList == null || remoteFileList.isResolved())
+            return;
+
+        long startTime = System.currentTimeMillis();
+        int requests = 0;
+
+        while (true) {
+            List<IPath> expand = new ArrayList<IPath>();
+            List<IPath> complete = new ArrayList<IPath>();
+
+            remoteFileList.resolve(localFileList, expand, complete);
+
+            if (expand.isEmpty() && complete.isEmpty())
+                break;
+
+            FileList listing = requestListing(projectID, expand, complete);
+            requests++;
+
+            List<IPath> paths = new ArrayList<IPath>(expand);
+            paths.addAll(complete);
+
+            if (!remoteFileList.merge(listing, paths))
+                throw new IOException("received incomplete file list of project "
+                    + projectID + " from " + peer);
+        }
+
+        log.debug(this + " : resolved file list of project " + projectID
+            + " with " + requests + " request(s) in "
+            + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private FileList requestListing(String projectID, List<IPath> expand,
+        List<IPath> complete) throws IOException {
+
+        SarosPacketCollector collector = xmppReceiver
+            .createCollector(ProjectNegotiationHashResponseExtension.PROVIDER
+                .getPacketFilter(sessionID, processID));
+
+        try {
+            transmitter.sendToSessionUser(ISarosSession.SESSION_CONNECTION_ID,
+                peer, ProjectNegotiationHashRequestExtension.PROVIDER
+                    .create(new ProjectNegotiationHashRequestExtension(
+                        sessionID, processID, projectID, toPortableStrings(expand),
+                        toPortableStrings(complete))));
+
+            Packet packet = collector.nextResult(PACKET_TIMEOUT);
+
+            if (packet == null)
+                throw new IOException("received no file list hashes from "
+                    + peer + " within " + PACKET_TIMEOUT + " ms");
+
+            ProjectNegotiationHashResponseExtension response = ProjectNegotiationHashResponseExtension.PROVIDER
+                .getPayload(packet);
+
+            if (response == null || !projectID.equals(response.getProjectID()))
+                throw new IOException("received malformed file list hashes from "
+                    + peer);
+
+            return response.getListing();
+        } finally {
+            collector.cancel();
+        }
+    }
+
+    private static List<String> toPortableStrings(List<IPath> paths) {
+        List<String> result = new ArrayList<String>(paths.size());
+
+        for (IPath path : paths)
+            result.add(path.toPortableString());
+
+        return result;
+    }
+
     public synchronized void setProjectInvitationUI(
         AddProjectToSessionWizard addIncomingProjectUI) {
         this.addIncomingProjectUI = addIncomingProjectUI;
@@ -168,7 +266,7 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         fileReplacementInProgressObservable.startReplacement();
 
         ArchiveTransferListener archiveTransferListener = new ArchiveTransferListener(
-            ARCHIVE_TRANSFER_ID + processID);
+            processID);
 
         Exception exception = null;
 
@@ -192,10 +290,20 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             List<FileList> missingFiles = calculateMissingFiles(projectNames,
                 useVersionControl, this.monitor.newChild(10));
 
+            ProjectNegotiationMissingFilesExtension missingFilesExtension = new ProjectNegotiationMissingFilesExtension(
+                sessionID, processID, missingFiles);
+
+            PacketExtension extension;
+
+            if (useBinaryFileList())
+                extension = ProjectNegotiationMissingFilesExtension.PROVIDER
+                    .createBinary(missingFilesExtension);
+            else
+                extension = ProjectNegotiationMissingFilesExtension.PROVIDER
+                    .create(missingFilesExtension);
+
             transmitter.sendToSessionUser(ISarosSession.SESSION_CONNECTION_ID,
-                peer, ProjectNegotiationMissingFilesExtension.PROVIDER
-                    .create(new ProjectNegotiationMissingFilesExtension(
-                        sessionID, processID, missingFiles)));
+                peer, extension);
 
             awaitActivityQueueingActivation(this.monitor.newChild(0));
 
@@ -299,9 +407,23 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
 
         monitor.beginTask(null, 100);
 
-        File archiveFile = receiveArchive(archiveTransferListener, processID,
+        long startTime = System.currentTimeMillis();
+
+        FileTransferRequest request = awaitArchiveRequest(
+            archiveTransferListener, monitor);
+
+        if (archiveTransferListener.isStream()) {
+            receiveArchiveStream(request, startTime,
+                monitor.newChild(100, SubMonitor.SUPPRESS_NONE));
+            monitor.done();
+            return;
+        }
+
+        File archiveFile = receiveArchive(request,
             monitor.newChild(50, SubMonitor.SUPPRESS_NONE));
 
+        long firstFileWrittenTime = -1;
+
         /*
          * FIXME at this point it makes no sense to report the cancellation to
          * the remote side, because his negotiation is already finished !
@@ -344,13 +466,17 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
                  * see FileUtils.writeArchive ... do not wrap the zip input
                  * stream here
                  */
-                writeArchive(new FilterInputStream(zipInputStream) {
+                long fileWrittenTime = writeArchive(new FilterInputStream(
+                    zipInputStream) {
                     @Override
                     public void close() throws IOException {
                         // prevent the ZipInputStream from being closed
                     }
                 }, project, currentArchiveMonitor);
 
+                if (firstFileWrittenTime == -1)
+                    firstFileWrittenTime = fileWrittenTime;
+
                 zipInputStream.closeEntry();
                 currentArchiveMonitor.done();
             }
@@ -360,11 +486,82 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         } finally {
             IOUtils.closeQuietly(zipInputStream);
 
-            if (archiveFile != null)
+            if (archiveFile != null) {
+                setTimeToFirstFile(startTime, firstFileWrittenTime);
+                peakDiskUsage = archiveFile.length();
+
+                log.debug(this + " : time to first file: "
+                    + formatTimeToFirstFile() + ", peak temporary disk usage: "
+                    + Utils.formatByte(peakDiskUsage));
+
                 archiveFile.delete();
+            }
+
+            monitor.done();
+        }
+    }
+
+    /**
+     * Receives the archive stream and unpacks all files while they are still
+     * being received. Every entry name of the stream starts with the id of
+     * the project the file belongs to so no temporary files are needed.
+     */
+    private void receiveArchiveStream(FileTransferRequest request,
+        long startTime, IProgressMonitor monitor) throws IOException,
+        SarosCancellationException {
+
+        monitor.beginTask("Receiving project files...",
+            IProgressMonitor.UNKNOWN);
+
+        log.debug(this + " : receiving archive stream");
+
+        IncomingFileTransfer transfer = request.accept();
+
+        CountingInputStream in;
 
+        try {
+            in = new CountingInputStream(transfer.recieveFile());
+        } catch (XMPPException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+
+        DecompressTask decompressTask = new DecompressTask(new ZipInputStream(
+            new BufferedInputStream(in)), localProjects, projectIDDelimiter,
+            monitor);
+
+        try {
+            decompressTask.runInBatches(ResourcesPlugin.getWorkspace(), monitor);
+        } catch (OperationCanceledException e) {
+            transfer.cancel();
+            /*
+             * unlike the archive file mode the remote side is still sending at
+             * this point
+             */
+            throw new LocalCancellationException(null,
+                CancelOption.NOTIFY_PEER);
+        } catch (CoreException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        } finally {
             monitor.done();
         }
+
+        setTimeToFirstFile(startTime, decompressTask.getFirstFileWrittenTime());
+
+        log.debug(this + " : received " + decompressTask.getWrittenFiles()
+            + " file(s) ["
+            + Utils.throughput(in.getByteCount(),
+                System.currentTimeMillis() - startTime)
+            + "], time to first file: " + formatTimeToFirstFile()
+            + ", no temporary files were created");
+    }
+
+    private void setTimeToFirstFile(long startTime, long firstFileWrittenTime) {
+        if (firstFileWrittenTime != -1)
+            timeToFirstFile = firstFileWrittenTime - startTime;
+    }
+
+    private String formatTimeToFirstFile() {
+        return timeToFirstFile == -1 ? "N/A" : timeToFirstFile + " ms";
     }
 
     /**
@@ -635,6 +832,8 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             throw new IOException(e.getMessage(), e.getCause());
         }
 
+        resolveRemoteFileList(projectID, localFileList);
+
         filesToSynchronize = computeDiff(localFileList, remoteFileList,
             currentLocalProject, projectID);
 
@@ -702,7 +901,7 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
      * 
      * @see WorkspaceModifyOperation
      */
-    private void writeArchive(final InputStream archiveStream,
+    private long writeArchive(final InputStream archiveStream,
         final IProject project, final IProgressMonitor monitor)
         throws LocalCancellationException, IOException {
 
@@ -733,6 +932,8 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             (System.currentTimeMillis() - startTime) / 1000));
 
         // TODO: now add the checksums into the cache
+
+        return decompressTask.getFirstFileWrittenTime();
     }
 
     @Override
@@ -860,22 +1061,20 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         startActivityQueuingRequestCollector.cancel();
     }
 
-    private File receiveArchive(
-        ArchiveTransferListener archiveTransferListener, String transferID,
-        IProgressMonitor monitor) throws IOException,
-        SarosCancellationException {
+    private FileTransferRequest awaitArchiveRequest(
+        ArchiveTransferListener archiveTransferListener,
+        IProgressMonitor monitor) throws SarosCancellationException {
 
-        monitor.beginTask("Receiving archive file...", 100);
         log.debug("waiting for incoming archive stream request");
 
         monitor
             .subTask("Host is compressing project files. Waiting for the archive file...");
 
+        FileTransferRequest request;
+
         try {
-            while (!archiveTransferListener.hasReceived()) {
+            while ((request = archiveTransferListener.awaitRequest(1000)) == null)
                 checkCancellation(CancelOption.NOTIFY_PEER);
-                Thread.sleep(200);
-            }
         } catch (InterruptedException e) {
             monitor.setCanceled(true);
             monitor.done();
@@ -883,12 +1082,20 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             throw new LocalCancellationException();
         }
 
-        monitor.subTask("Receiving archive file...");
+        monitor.subTask("");
+
+        return request;
+    }
+
+    private File receiveArchive(FileTransferRequest request,
+        IProgressMonitor monitor) throws IOException,
+        SarosCancellationException {
+
+        monitor.beginTask("Receiving archive file...", 100);
 
         log.debug(this + " : receiving archive");
 
-        IncomingFileTransfer transfer = archiveTransferListener.getRequest()
-            .accept();
+        IncomingFileTransfer transfer = request.accept();
 
         File archiveFile = File.createTempFile(
             "saros_archive_" + System.currentTimeMillis(), null);
@@ -917,26 +1124,49 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
 
     private static class ArchiveTransferListener implements
         FileTransferListener {
-        private String description;
-        private volatile FileTransferRequest request;
-
-        public ArchiveTransferListener(String description) {
-            this.description = description;
+        private String archiveDescription;
+        private String streamDescription;
+        private FileTransferRequest request;
+        private boolean stream;
+
+        public ArchiveTransferListener(String processID) {
+            this.archiveDescription = ARCHIVE_TRANSFER_ID + processID;
+            this.streamDescription = ARCHIVE_STREAM_TRANSFER_ID + processID;
         }
 
         @Override
-        public void fileTransferRequest(FileTransferRequest request) {
-            if (request.getDescription().equals(description)) {
+        public synchronized void fileTransferRequest(
+            FileTransferRequest request) {
+            String description = request.getDescription();
+
+            if (description.equals(archiveDescription)
+                || description.equals(streamDescription)) {
                 this.request = request;
+                this.stream = description.equals(streamDescription);
+                notifyAll();
             }
         }
 
-        public boolean hasReceived() {
-            return this.request != null;
+        /**
+         * Waits until the archive transfer request arrives.
+         * 
+         * @return the request or <code>null</code> if it did not arrive within
+         *         the given time (in milliseconds)
+         */
+        public synchronized FileTransferRequest awaitRequest(long timeout)
+            throws InterruptedException {
+            if (request == null)
+                wait(timeout);
+
+            return request;
         }
 
-        public FileTransferRequest getRequest() {
-            return this.request;
+        /**
+         * Returns whether the archive is streamed, i.e must be unpacked while
+         * it is received.
+         */
+        public synchronized boolean isStream() {
+            return stream;
         }
     }
 
@@ -1,6 +1,8 @@
 package de.fu_berlin.inf.dpp.invitation;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -10,20 +12,31 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang.time.StopWatch;
 import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.SubMonitor;
+import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
 import org.jivesoftware.smackx.filetransfer.OutgoingFileTransfer;
 import org.picocontainer.annotations.Inject;
 
 import de.fu_berlin.inf.dpp.ISarosContext;
 import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.business.IActivity;
+import de.fu_berlin.inf.dpp.activities.business.RecoveryFileActivity;
 import de.fu_berlin.inf.dpp.editor.EditorManager;
 import de.fu_berlin.inf.dpp.editor.internal.EditorAPI;
 import de.fu_berlin.inf.dpp.exceptions.LocalCancellationException;
@@ -35,15 +48,20 @@ import de.fu_berlin.inf.dpp.filesystem.ResourceAdapterFactory;
 import de.fu_berlin.inf.dpp.invitation.ProcessTools.CancelOption;
 import de.fu_berlin.inf.dpp.net.JID;
 import de.fu_berlin.inf.dpp.net.SarosPacketCollector;
+import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationHashRequestExtension;
+import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationHashResponseExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationMissingFilesExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.ProjectNegotiationOfferingExtension;
 import de.fu_berlin.inf.dpp.net.internal.extensions.StartActivityQueuingRequest;
 import de.fu_berlin.inf.dpp.net.internal.extensions.StartActivityQueuingResponse;
 import de.fu_berlin.inf.dpp.project.IChecksumCache;
+import de.fu_berlin.inf.dpp.session.AbstractActivityProvider;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.StartHandle;
+import de.fu_berlin.inf.dpp.util.FileUtils;
 import de.fu_berlin.inf.dpp.util.FileZipper;
+import de.fu_berlin.inf.dpp.util.Utils;
 import de.fu_berlin.inf.dpp.util.ZipProgressMonitor;
 
 public class OutgoingProjectNegotiation extends ProjectNegotiation {
@@ -67,6 +85,45 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
 
     private SarosPacketCollector startActivityQueuingResponseCollector;
 
+    /**
+     * The complete file lists of all projects that were offered as hashes
+     * only. projectID => file list
+     */
+    private final Map<String, FileList> offeredFileLists = new ConcurrentHashMap<String, FileList>();
+
+    private final PacketListener hashRequestListener = new PacketListener() {
+        @Override
+        public void processPacket(Packet packet) {
+            ProjectNegotiationHashRequestExtension request = ProjectNegotiationHashRequestExtension.PROVIDER
+                .getPayload(packet);
+
+            FileList fileList = offeredFileLists.get(request.getProjectID());
+
+            if (fileList == null) {
+                log.warn(OutgoingProjectNegotiation.this
+                    + " : received hash request for unknown project: "
+                    + request.getProjectID());
+                return;
+            }
+
+            FileList listing = fileList.getListing(
+                toPaths(request.getExpandPaths()),
+                toPaths(request.getCompletePaths()));
+
+            PacketExtension response = ProjectNegotiationHashResponseExtension.PROVIDER
+                .createBinary(new ProjectNegotiationHashResponseExtension(
+                    sessionID, processID, request.getProjectID(), listing));
+
+            try {
+                transmitter.sendToSessionUser(
+                    ISarosSession.SESSION_CONNECTION_ID, peer, response);
+            } catch (IOException e) {
+                log.error(OutgoingProjectNegotiation.this
+                    + " : could not send file list hashes", e);
+            }
+        }
+    };
+
     public OutgoingProjectNegotiation(JID to, ISarosSession sarosSession,
         List<IProject> projects, ISarosContext sarosContext) {
         super(to, sarosSession.getID(), sarosContext);
@@ -106,6 +163,8 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
              */
             editorManager.setAllLocalOpenedEditorsLocked(false);
 
+            Map<IFile, Long> pinnedFiles = null;
+
             List<StartHandle> stoppedUsers = null;
             try {
                 stoppedUsers = stopUsers(monitor);
@@ -132,7 +191,16 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
 
                 sarosSession.userStartedQueuing(user);
 
-                zipArchives = createProjectArchives(fileLists, monitor);
+                /*
+                 * in streaming mode only the state of the files is pinned
+                 * here, the files are transmitted after the users are started
+                 * again so the session is not blocked during the transfer
+                 */
+                if (useArchiveStream())
+                    pinnedFiles = pinProjectFiles(fileLists);
+                else
+                    zipArchives = createProjectArchives(fileLists, monitor);
+
                 monitor.subTask("");
             } finally {
                 if (stoppedUsers != null)
@@ -141,6 +209,11 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
 
             checkCancellation(CancelOption.NOTIFY_PEER);
 
+            if (pinnedFiles != null) {
+                streamProjectArchive(fileLists, monitor);
+                resendModifiedFiles(pinnedFiles, monitor);
+            }
+
             if (zipArchives.size() > 0) {
 
                 // pack all archive files into one big archive
@@ -158,6 +231,16 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
                 }
                 zipArchives.add(zipArchive);
 
+                long diskUsage = 0;
+
+                for (File archive : zipArchives)
+                    diskUsage += archive.length();
+
+                peakDiskUsage = diskUsage;
+
+                log.debug(this + " : peak temporary disk usage: "
+                    + Utils.formatByte(diskUsage));
+
                 sendArchive(zipArchive, peer, ARCHIVE_TRANSFER_ID + processID,
                     monitor);
             }
@@ -213,12 +296,64 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
          * instance and pass it to the installed callback handler (which in the
          * current implementation opens a wizard on the remote side)
          */
+        if (useFileListHashes())
+            projectExchangeInfos = collapseFileLists(projectExchangeInfos);
+
         ProjectNegotiationOfferingExtension offering = new ProjectNegotiationOfferingExtension(
             sessionID, processID, projectExchangeInfos);
 
-        transmitter
-            .sendToSessionUser(ISarosSession.SESSION_CONNECTION_ID, peer,
-                ProjectNegotiationOfferingExtension.PROVIDER.create(offering));
+        PacketExtension extension;
+
+        if (useBinaryFileList())
+            extension = ProjectNegotiationOfferingExtension.PROVIDER
+                .createBinary(offering);
+        else
+            extension = ProjectNegotiationOfferingExtension.PROVIDER
+                .create(offering);
+
+        transmitter.sendToSessionUser(ISarosSession.SESSION_CONNECTION_ID,
+            peer, extension);
+    }
+
+    /**
+     * Replaces the file lists of the given project negotiation data with
+     * collapsed copies that only contain the root hash. The peer requests the
+     * directories that differ from its local projects afterwards. File lists
+     * with version control information are offered completely because the
+     * peer needs them to check out the project.
+     */
+    private List<ProjectNegotiationData> collapseFileLists(
+        List<ProjectNegotiationData> projectExchangeInfos) {
+
+        List<ProjectNegotiationData> result = new ArrayList<ProjectNegotiationData>();
+
+        for (ProjectNegotiationData info : projectExchangeInfos) {
+            FileList fileList = info.getFileList();
+
+            if (fileList.getVcsProviderID() != null) {
+                result.add(info);
+                continue;
+            }
+
+            offeredFileLists.put(info.getProjectID(), fileList);
+
+            result.add(new ProjectNegotiationData(info.getProjectID(), info
+                .getProjectName(), info.isPartial(), fileList.collapse()));
+        }
+
+        return result;
+    }
+
+    private static List<IPath> toPaths(List<String> portablePaths) {
+        List<IPath> paths = new ArrayList<IPath>();
+
+        if (portablePaths == null)
+            return paths;
+
+        for (String path : portablePaths)
+            paths.add(Path.fromPortableString(path));
+
+        return paths;
     }
 
     /**
@@ -345,21 +480,7 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
         SubMonitor subMonitor = SubMonitor.convert(monitor,
             "Creating project archives...", fileLists.size());
 
-        /*
-         * Use editorManager.saveText() because the EditorAPI.saveProject() will
-         * not save files which were modified in the background. This is what
-         * happens for example if a user edits a file which is not opened by the
-         * local user.
-         * 
-         * Stefan Rossbach: this will still fail if a user edited a file and
-         * then closes the editor without saving it.
-         */
-
-        // FIXME this throws a NPE if the session has already been stopped
-        for (SPath path : editorManager.getOpenEditorsOfAllParticipants())
-            editorManager.saveText(path);
-
-        checkCancellation(CancelOption.NOTIFY_PEER);
+        saveOpenEditors();
 
         List<File> archivesToSend = new LinkedList<File>();
 
@@ -378,6 +499,251 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
         return archivesToSend;
     }
 
+    /**
+     * Compresses the missing files of all projects directly into the file
+     * transfer stream. The remote side unpacks the files while they are still
+     * received so neither side has to store any temporary archive files. The
+     * files must have been {@linkplain #pinProjectFiles pinned} before.
+     * 
+     * @param fileLists
+     *            a list of file lists containing the files to send
+     */
+    private void streamProjectArchive(List<FileList> fileLists,
+        IProgressMonitor monitor) throws IOException,
+        SarosCancellationException {
+
+        long totalSize = 0;
+        int fileCount = 0;
+
+        for (FileList fileList : fileLists) {
+            IProject project = sarosSession.getProject(fileList
+                .getProjectID());
+
+            for (IPath path : fileList.getPaths()) {
+                IPath location = ((EclipseProjectImpl) project).getDelegate()
+                    .getFile(path).getLocation();
+
+                if (location != null)
+                    totalSize += location.toFile().length();
+            }
+
+            fileCount += fileList.getPaths().size();
+        }
+
+        if (fileCount == 0)
+            return;
+
+        log.debug(this + " : streaming archive");
+
+        SubMonitor subMonitor = SubMonitor.convert(monitor,
+            "Sending project files...", fileLists.size() + 1);
+
+        String transferID = ARCHIVE_STREAM_TRANSFER_ID + processID;
+
+        OutgoingFileTransfer transfer = fileTransferManager
+            .createOutgoingFileTransfer(peer.toString());
+
+        CountingOutputStream out = null;
+        ZipOutputStream zipStream = null;
+
+        StopWatch watch = new StopWatch();
+        watch.start();
+
+        long bytesRead = 0;
+        boolean transferFailed = true;
+
+        try {
+            /*
+             * the real size is unknown until all files are compressed, the
+             * uncompressed size is only announced as an estimate
+             */
+            out = new CountingOutputStream(transfer.sendFile(transferID,
+                totalSize, transferID));
+
+            subMonitor.worked(1);
+
+            log.debug(this + " : stream negotiated after "
+                + watch.getTime() + " ms");
+
+            zipStream = new ZipOutputStream(new BufferedOutputStream(out,
+                32 * 1024));
+
+            for (FileList fileList : fileLists) {
+                List<IPath> toSend = fileList.getPaths();
+
+                if (toSend.isEmpty()) {
+                    subMonitor.worked(1);
+                    continue;
+                }
+
+                IProject project = sarosSession.getProject(fileList
+                    .getProjectID());
+
+                bytesRead += FileZipper.writeProjectZipEntries(
+                    ((EclipseProjectImpl) project).getDelegate(), toSend,
+                    fileList.getProjectID() + projectIDDelimiter, zipStream,
+                    new ZipProgressMonitor(subMonitor.newChild(1),
+                        toSend.size(), true));
+            }
+
+            zipStream.close();
+            transferFailed = false;
+        } catch (XMPPException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch (OperationCanceledException e) {
+            throw new LocalCancellationException();
+        } finally {
+            if (transferFailed) {
+                transfer.cancel();
+                IOUtils.closeQuietly(zipStream);
+            }
+
+            subMonitor.done();
+        }
+
+        watch.stop();
+
+        log.debug(this + " : streamed " + fileCount + " file(s), "
+            + Utils.formatByte(bytesRead) + " compressed to "
+            + Utils.formatByte(out.getByteCount()) + " ["
+            + Utils.throughput(out.getByteCount(), watch.getTime())
+            + "] without creating temporary files");
+    }
+
+    /**
+     * Saves all editors and remembers the modification stamps of the files
+     * that are going to be streamed. This must be called while the session is
+     * stopped, the remote side applies all activities it queues afterwards on
+     * top of exactly this state.
+     * 
+     * @return the modification stamps of the files to send
+     */
+    private Map<IFile, Long> pinProjectFiles(List<FileList> fileLists)
+        throws SarosCancellationException {
+
+        saveOpenEditors();
+
+        Map<IFile, Long> modificationStamps = new HashMap<IFile, Long>();
+
+        for (FileList fileList : fileLists) {
+            if (fileList.getPaths().isEmpty())
+                continue;
+
+            IProject project = sarosSession.getProject(fileList
+                .getProjectID());
+
+            EditorAPI.saveProject(((EclipseProjectImpl) project).getDelegate(),
+                false);
+
+            for (IPath path : fileList.getPaths()) {
+                IFile file = ((EclipseProjectImpl) project).getDelegate()
+                    .getFile(path);
+
+                modificationStamps.put(file, file.getModificationStamp());
+            }
+        }
+
+        return modificationStamps;
+    }
+
+    /**
+     * Sends the files again that were modified after they have been
+     * {@linkplain #pinProjectFiles pinned}. The streamed content of such a file
+     * may already contain changes the remote side has queued as activities, so
+     * the file is recovered the same way the consistency watchdog does it. The
+     * session is stopped while the recovery activities are created.
+     */
+    private void resendModifiedFiles(Map<IFile, Long> pinnedFiles,
+        IProgressMonitor monitor) throws SarosCancellationException {
+
+        List<IFile> modifiedFiles = new ArrayList<IFile>();
+
+        for (Map.Entry<IFile, Long> entry : pinnedFiles.entrySet()) {
+            if (entry.getKey().getModificationStamp() != entry.getValue())
+                modifiedFiles.add(entry.getKey());
+        }
+
+        if (modifiedFiles.isEmpty())
+            return;
+
+        log.debug(this + " : sending " + modifiedFiles.size()
+            + " file(s) again that were modified during the transfer");
+
+        User user = sarosSession.getUser(peer);
+
+        if (user == null)
+            throw new LocalCancellationException(null,
+                CancelOption.DO_NOT_NOTIFY_PEER);
+
+        User localUser = sarosSession.getLocalUser();
+
+        AbstractActivityProvider activityProvider = new AbstractActivityProvider() {
+            @Override
+            public void exec(IActivity activity) {
+                // NOP
+            }
+        };
+
+        List<StartHandle> stoppedUsers = null;
+
+        sarosSession.addActivityProvider(activityProvider);
+
+        try {
+            stoppedUsers = stopUsers(monitor);
+
+            for (IFile file : modifiedFiles) {
+                SPath path = new SPath(ResourceAdapterFactory.create(file));
+
+                if (file.exists()) {
+                    try {
+                        editorManager.saveLazy(path);
+                    } catch (FileNotFoundException e) {
+                        log.warn("could not save file: " + path, e);
+                    }
+                }
+
+                sarosSession.getConcurrentDocumentServer().reset(peer, path);
+
+                byte[] content = file.exists() ? FileUtils
+                    .getLocalFileContent(file) : null;
+
+                if (content == null)
+                    activityProvider.fireActivity(RecoveryFileActivity
+                        .removed(localUser, path, user));
+                else
+                    activityProvider.fireActivity(RecoveryFileActivity
+                        .created(localUser, path, content, user));
+            }
+        } finally {
+            if (stoppedUsers != null)
+                startUsers(stoppedUsers);
+
+            sarosSession.removeActivityProvider(activityProvider);
+        }
+    }
+
+    /**
+     * Saves the content of all open editors of all participants. Must be
+     * called before the files of the shared projects are read.
+     */
+    private void saveOpenEditors() throws SarosCancellationException {
+        /*
+         * Use editorManager.saveText() because the EditorAPI.saveProject() will
+         * not save files which were modified in the background. This is what
+         * happens for example if a user edits a file which is not opened by the
+         * local user.
+         * 
+         * Stefan Rossbach: this will still fail if a user edited a file and
+         * then closes the editor without saving it.
+         */
+
+        // FIXME this throws a NPE if the session has already been stopped
+        for (SPath path : editorManager.getOpenEditorsOfAllParticipants())
+            editorManager.saveText(path);
+
+        checkCancellation(CancelOption.NOTIFY_PEER);
+    }
+
     private File createProjectArchive(IProgressMonitor monitor,
         List<IPath> toSend, String projectID) throws IOException,
         SarosCancellationException {
@@ -422,11 +788,16 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
         startActivityQueuingResponseCollector = xmppReceiver
             .createCollector(StartActivityQueuingResponse.PROVIDER
                 .getPacketFilter(sessionID, processID));
+
+        xmppReceiver.addPacketListener(hashRequestListener,
+            ProjectNegotiationHashRequestExtension.PROVIDER.getPacketFilter(
+                sessionID, processID));
     }
 
     private void deleteCollectors() {
         remoteFileListResponseCollector.cancel();
         startActivityQueuingResponseCollector.cancel();
+        xmppReceiver.removePacketListener(hashRequestListener);
     }
 
     private void sendArchive(File archive, JID remoteContact,
@@ -28,6 +28,7 @@ import de.fu_berlin.inf.dpp.net.internal.extensions.CancelProjectNegotiationExte
 import de.fu_berlin.inf.dpp.project.ISarosSessionManager;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.util.Utils;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 
 /**
  * 
@@ -40,6 +41,24 @@ public abstract class ProjectNegotiation extends CancelableProcess {
     /** Prefix part of the id used in the SMACK XMPP file transfer protocol. */
     public static final String ARCHIVE_TRANSFER_ID = "saros-dpp-pn-server-client-archive/";
 
+    /**
+     * Prefix part of the id used in the SMACK XMPP file transfer protocol when
+     * the archive is streamed, i.e the missing files are compressed and
+     * unpacked while they are transmitted.
+     */
+    public static final String ARCHIVE_STREAM_TRANSFER_ID = ARCHIVE_TRANSFER_ID
+        + "stream/";
+
+    /**
+     * The version of the archive stream format, i.e the layout of the entry
+     * names. The archive is only streamed if the peer announced the same
+     * version, otherwise the archive of project archives is sent.
+     * <p>
+     * <b>Important:</b> any change to the stream format <b>must</b> increase
+     * this version.
+     */
+    public static final int ARCHIVE_STREAM_VERSION = 1;
+
     private static final Logger log = Logger
         .getLogger(ProjectNegotiation.class);
 
@@ -49,6 +68,28 @@ public abstract class ProjectNegotiation extends CancelableProcess {
     protected static final long PACKET_TIMEOUT = Long.getLong(
         "de.fu_berlin.inf.dpp.negotiation.project.PACKET_TIMEOUT", 30000L);
 
+    /**
+     * If set to <code>true</code> the missing files are always packed into
+     * temporary archive files first even if the peer is able to receive them
+     * as an archive stream.
+     */
+    private static final boolean DISABLE_ARCHIVE_STREAM = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.negotiation.project.DISABLE_ARCHIVE_STREAM");
+
+    /**
+     * If set to <code>true</code> file lists are always sent as XML even if
+     * the peer supports the binary file list codec.
+     */
+    private static final boolean DISABLE_BINARY_FILE_LIST = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.negotiation.project.DISABLE_BINARY_FILE_LIST");
+
+    /**
+     * If set to <code>true</code> file lists are always offered completely
+     * instead of offering their root hash first.
+     */
+    private static final boolean DISABLE_FILE_LIST_HASHES = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.negotiation.project.DISABLE_FILE_LIST_HASHES");
+
     protected String processID;
     protected JID peer;
 
@@ -84,6 +125,21 @@ public abstract class ProjectNegotiation extends CancelableProcess {
     @Inject
     protected ISarosSessionManager sessionManager;
 
+    @Inject
+    protected VersionManager versionManager;
+
+    /**
+     * Time in milliseconds from the start of the archive transfer until the
+     * first file was written into the workspace, -1 if not known (yet)
+     */
+    protected volatile long timeToFirstFile = -1;
+
+    /**
+     * Total size in bytes of the temporary archive files that existed at the
+     * same time during this negotiation
+     */
+    protected volatile long peakDiskUsage;
+
     public ProjectNegotiation(JID peer, String sessionID,
         ISarosContext sarosContext) {
         this.peer = peer;
@@ -110,6 +166,54 @@ public abstract class ProjectNegotiation extends CancelableProcess {
         return this.peer;
     }
 
+    /**
+     * Returns the time in milliseconds from the start of the archive transfer
+     * until the first file was written into the workspace of the receiving
+     * side. This is only known on the receiving side.
+     * 
+     * @return the time in milliseconds or -1 if no file has been written (yet)
+     */
+    public long getTimeToFirstFile() {
+        return timeToFirstFile;
+    }
+
+    /**
+     * Returns the peak amount of disk space in bytes that was used for
+     * temporary archive files during this negotiation. This is always 0 if the
+     * archive was streamed.
+     */
+    public long getPeakDiskUsage() {
+        return peakDiskUsage;
+    }
+
+    /**
+     * Returns whether file lists can be sent to the peer in the binary format
+     * of the {@link FileListCodec}.
+     */
+    protected boolean useBinaryFileList() {
+        return !DISABLE_BINARY_FILE_LIST
+            && versionManager.isBinaryFileListCodecSupported(getPeer());
+    }
+
+    /**
+     * Returns whether file lists can be offered to the peer as hashes only.
+     * The hashes are transferred with the {@link FileListCodec} so this
+     * requires that the binary format can be used.
+     */
+    protected boolean useFileListHashes() {
+        return !DISABLE_FILE_LIST_HASHES && useBinaryFileList();
+    }
+
+    /**
+     * Returns whether the missing files can be directly compressed into the
+     * file transfer stream instead of packing them into temporary archive
+     * files first. Older peers only accept the archive of project archives.
+     */
+    protected boolean useArchiveStream() {
+        return !DISABLE_ARCHIVE_STREAM
+            && versionManager.isArchiveStreamSupported(getPeer());
+    }
+
     @Override
     protected void notifyCancellation(SarosCancellationException exception) {
 
@@ -19,17 +19,24 @@
  */
 package de.fu_berlin.inf.dpp.net.internal.extensions;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import org.jivesoftware.smack.packet.PacketExtension;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
 
 import de.fu_berlin.inf.dpp.activities.SPathDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.AbstractActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.AbstractProjectActivityDataObject;
+import de.fu_berlin.inf.dpp.activities.serializable.ActivityDataObjectCodec;
 import de.fu_berlin.inf.dpp.activities.serializable.ChangeColorActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.ChecksumActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.ChecksumErrorActivityDataObject;
@@ -49,6 +56,7 @@ import de.fu_berlin.inf.dpp.activities.serializable.StopFollowingActivityDataObj
 import de.fu_berlin.inf.dpp.activities.serializable.TextSelectionActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.VCSActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.ViewportActivityDataObject;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
@@ -56,6 +64,7 @@ import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
 import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider.BinaryCodec;
 
 @XStreamAlias("ADOS")
 public class ActivitiesExtension extends SarosSessionPacketExtension {
@@ -69,6 +78,14 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
     @XStreamAsAttribute
     private final int sequenceNumber;
 
+    /**
+     * Binary encoded form of {@link #activityDataObjects} that is shared
+     * between all extensions which carry the same activity data objects, may be
+     * <code>null</code>
+     */
+    @XStreamOmitField
+    private final byte[] encodedActivityDataObjects;
+
     /**
      * Creates an object that can be transformed into a
      * {@linkplain PacketExtension} using the provider of this extension. All
@@ -89,9 +106,56 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
      */
     public ActivitiesExtension(String sessionID,
         List<IActivityDataObject> activityDataObjects, int sequenceNumber) {
+        this(sessionID, activityDataObjects, sequenceNumber, null);
+    }
+
+    /**
+     * Same as {@link #ActivitiesExtension(String, List, int)} but reuses an
+     * already binary encoded form of the activity data objects when this
+     * extension is transmitted using the binary codec. This avoids encoding
+     * the same activity data objects again for every recipient.
+     * 
+     * @param encodedActivityDataObjects
+     *            the result of {@link #encodeActivityDataObjects(List)} for
+     *            exactly the given activity data objects or <code>null</code>
+     */
+    public ActivitiesExtension(String sessionID,
+        List<IActivityDataObject> activityDataObjects, int sequenceNumber,
+        byte[] encodedActivityDataObjects) {
         super(sessionID);
         this.activityDataObjects = activityDataObjects;
         this.sequenceNumber = sequenceNumber;
+        this.encodedActivityDataObjects = encodedActivityDataObjects;
+    }
+
+    /**
+     * Encodes the given activity data objects with the
+     * {@link ActivityDataObjectCodec}. The result can be passed to
+     * {@link #ActivitiesExtension(String, List, int, byte[])} for every
+     * recipient of these activity data objects.
+     * 
+     * @throws IOException
+     *             if an activity data object cannot be encoded
+     */
+    public static byte[] encodeActivityDataObjects(
+        List<IActivityDataObject> activityDataObjects) throws IOException {
+        return encodeActivityDataObjects(activityDataObjects, null);
+    }
+
+    /**
+     * Same as {@link #encodeActivityDataObjects(List)} but shares the encoded
+     * operations of Jupiter activities with the other batches that are
+     * encoded with the same map.
+     * 
+     * @see ActivityDataObjectCodec#encode(List, DataOutputStream, Map)
+     */
+    public static byte[] encodeActivityDataObjects(
+        List<IActivityDataObject> activityDataObjects,
+        Map<Operation, byte[]> encodedOperations) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ActivityDataObjectCodec.encode(activityDataObjects,
+            new DataOutputStream(out), encodedOperations);
+        return out.toByteArray();
     }
 
     /**
@@ -196,6 +260,40 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
                 VCSActivityDataObject.class,
 
                 ViewportActivityDataObject.class);
+
+            setBinaryCodec(new Codec());
+        }
+    }
+
+    /**
+     * Binary representation of this extension which is used instead of XML if
+     * both sides support the same {@link ActivityDataObjectCodec#VERSION}.
+     */
+    private static class Codec implements BinaryCodec<ActivitiesExtension> {
+
+        @Override
+        public void encode(ActivitiesExtension extension, DataOutputStream out)
+            throws IOException {
+            out.writeUTF(extension.getSessionID());
+            out.writeInt(extension.getSequenceNumber());
+
+            if (extension.encodedActivityDataObjects != null)
+                out.write(extension.encodedActivityDataObjects);
+            else
+                ActivityDataObjectCodec.encode(
+                    extension.getActivityDataObjects(), out);
+        }
+
+        @Override
+        public ActivitiesExtension decode(DataInputStream in)
+            throws IOException {
+            String sessionID = in.readUTF();
+            int sequenceNumber = in.readInt();
+            List<IActivityDataObject> activityDataObjects = ActivityDataObjectCodec
+                .decode(in);
+
+            return new ActivitiesExtension(sessionID, activityDataObjects,
+                sequenceNumber);
         }
     }
 }
@@ -0,0 +1,65 @@
+package de.fu_berlin.inf.dpp.net.internal.extensions;
+
+import java.util.List;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+
+/**
+ * Requests the content of directories of a file list that was offered as
+ * hashes only. The paths are project relative portable paths, the empty path
+ * denotes the project itself.
+ */
+@XStreamAlias(/* ProjectNegotiationHashRequest */"PNHQ")
+public class ProjectNegotiationHashRequestExtension extends
+    ProjectNegotiationExtension {
+
+    public static final Provider PROVIDER = new Provider();
+
+    @XStreamAlias("pid")
+    @XStreamAsAttribute
+    private final String projectID;
+
+    @XStreamAlias("expand")
+    private final List<String> expandPaths;
+
+    @XStreamAlias("complete")
+    private final List<String> completePaths;
+
+    /**
+     * @param expandPaths
+     *            directories whose direct sub nodes are requested, their sub
+     *            directories are again only described by their hash
+     * @param completePaths
+     *            directories whose complete content is requested
+     */
+    public ProjectNegotiationHashRequestExtension(String sessionID,
+        String negotiationID, String projectID, List<String> expandPaths,
+        List<String> completePaths) {
+        super(sessionID, negotiationID);
+        this.projectID = projectID;
+        this.expandPaths = expandPaths;
+        this.completePaths = completePaths;
+    }
+
+    public String getProjectID() {
+        return projectID;
+    }
+
+    public List<String> getExpandPaths() {
+        return expandPaths;
+    }
+
+    public List<String> getCompletePaths() {
+        return completePaths;
+    }
+
+    public static class Provider
+        extends
+        ProjectNegotiationExtension.Provider<ProjectNegotiationHashRequestExtension> {
+
+        private Provider() {
+            super("pnhq", ProjectNegotiationHashRequestExtension.class);
+        }
+    }
+}
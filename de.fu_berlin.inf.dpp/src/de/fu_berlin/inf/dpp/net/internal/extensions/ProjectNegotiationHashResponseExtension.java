@@ -0,0 +1,83 @@
+package de.fu_berlin.inf.dpp.net.internal.extensions;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+
+import de.fu_berlin.inf.dpp.invitation.FileList;
+import de.fu_berlin.inf.dpp.invitation.FileListCodec;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider.BinaryCodec;
+
+/**
+ * Answers a {@link ProjectNegotiationHashRequestExtension} with a file list
+ * that contains the requested directories. This extension must be sent in its
+ * binary representation as the XML representation does not carry the hashes
+ * of collapsed directories.
+ */
+@XStreamAlias(/* ProjectNegotiationHashResponse */"PNHP")
+public class ProjectNegotiationHashResponseExtension extends
+    ProjectNegotiationExtension {
+
+    public static final Provider PROVIDER = new Provider();
+
+    @XStreamAlias("pid")
+    @XStreamAsAttribute
+    private final String projectID;
+
+    private final FileList listing;
+
+    public ProjectNegotiationHashResponseExtension(String sessionID,
+        String negotiationID, String projectID, FileList listing) {
+        super(sessionID, negotiationID);
+        this.projectID = projectID;
+        this.listing = listing;
+    }
+
+    public String getProjectID() {
+        return projectID;
+    }
+
+    public FileList getListing() {
+        return listing;
+    }
+
+    public static class Provider
+        extends
+        ProjectNegotiationExtension.Provider<ProjectNegotiationHashResponseExtension> {
+
+        private Provider() {
+            super("pnhp", ProjectNegotiationHashResponseExtension.class,
+                FileList.class);
+
+            setBinaryCodec(new Codec());
+        }
+    }
+
+    private static class Codec implements
+        BinaryCodec<ProjectNegotiationHashResponseExtension> {
+
+        @Override
+        public void encode(ProjectNegotiationHashResponseExtension extension,
+            DataOutputStream out) throws IOException {
+            out.writeUTF(extension.getSessionID());
+            out.writeUTF(extension.getNegotiationID());
+            out.writeUTF(extension.getProjectID());
+            FileListCodec.encode(extension.getListing(), out);
+        }
+
+        @Override
+        public ProjectNegotiationHashResponseExtension decode(
+            DataInputStream in) throws IOException {
+            String sessionID = in.readUTF();
+            String negotiationID = in.readUTF();
+            String projectID = in.readUTF();
+            FileList listing = FileListCodec.decode(in);
+
+            return new ProjectNegotiationHashResponseExtension(sessionID,
+                negotiationID, projectID, listing);
+        }
+    }
+}
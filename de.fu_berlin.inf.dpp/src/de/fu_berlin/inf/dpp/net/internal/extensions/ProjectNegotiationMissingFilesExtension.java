@@ -1,10 +1,16 @@
 package de.fu_berlin.inf.dpp.net.internal.extensions;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
 import de.fu_berlin.inf.dpp.invitation.FileList;
+import de.fu_berlin.inf.dpp.invitation.FileListCodec;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider.BinaryCodec;
 
 @XStreamAlias(/* ProjectNegotiationMissingFiles */"PNMF")
 public class ProjectNegotiationMissingFilesExtension extends
@@ -31,6 +37,47 @@ public class ProjectNegotiationMissingFilesExtension extends
         private Provider() {
             super("pnmf", ProjectNegotiationMissingFilesExtension.class,
                 FileList.class);
+
+            setBinaryCodec(new Codec());
+        }
+    }
+
+    /**
+     * Binary representation of this extension which is used instead of XML if
+     * both sides support the same {@link FileListCodec#VERSION}.
+     */
+    private static class Codec implements
+        BinaryCodec<ProjectNegotiationMissingFilesExtension> {
+
+        @Override
+        public void encode(ProjectNegotiationMissingFilesExtension extension,
+            DataOutputStream out) throws IOException {
+            out.writeUTF(extension.getSessionID());
+            out.writeUTF(extension.getNegotiationID());
+
+            List<FileList> fileLists = extension.getFileLists();
+
+            out.writeInt(fileLists.size());
+
+            for (FileList fileList : fileLists)
+                FileListCodec.encode(fileList, out);
+        }
+
+        @Override
+        public ProjectNegotiationMissingFilesExtension decode(
+            DataInputStream in) throws IOException {
+            String sessionID = in.readUTF();
+            String negotiationID = in.readUTF();
+
+            int size = in.readInt();
+
+            List<FileList> fileLists = new ArrayList<FileList>();
+
+            for (int i = 0; i < size; i++)
+                fileLists.add(FileListCodec.decode(in));
+
+            return new ProjectNegotiationMissingFilesExtension(sessionID,
+                negotiationID, fileLists);
         }
     }
 }
@@ -1,11 +1,17 @@
 package de.fu_berlin.inf.dpp.net.internal.extensions;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
 import de.fu_berlin.inf.dpp.invitation.FileList;
+import de.fu_berlin.inf.dpp.invitation.FileListCodec;
 import de.fu_berlin.inf.dpp.invitation.ProjectNegotiationData;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider.BinaryCodec;
 
 @XStreamAlias(/* ProjectNegotiationOffering */"PNOF")
 public class ProjectNegotiationOfferingExtension extends
@@ -33,7 +39,63 @@ public class ProjectNegotiationOfferingExtension extends
         private Provider() {
             super("pnof", ProjectNegotiationOfferingExtension.class,
                 ProjectNegotiationData.class, FileList.class);
+
+            setBinaryCodec(new Codec());
         }
     }
 
+    /**
+     * Binary representation of this extension which is used instead of XML if
+     * both sides support the same {@link FileListCodec#VERSION}.
+     */
+    private static class Codec implements
+        BinaryCodec<ProjectNegotiationOfferingExtension> {
+
+        @Override
+        public void encode(ProjectNegotiationOfferingExtension extension,
+            DataOutputStream out) throws IOException {
+            out.writeUTF(extension.getSessionID());
+            out.writeUTF(extension.getNegotiationID());
+
+            List<ProjectNegotiationData> dataList = extension
+                .getProjectNegotiationData();
+
+            out.writeInt(dataList.size());
+
+            for (ProjectNegotiationData data : dataList) {
+                out.writeUTF(data.getProjectID());
+                out.writeUTF(data.getProjectName());
+                out.writeBoolean(data.isPartial());
+                out.writeBoolean(data.getFileList() != null);
+
+                if (data.getFileList() != null)
+                    FileListCodec.encode(data.getFileList(), out);
+            }
+        }
+
+        @Override
+        public ProjectNegotiationOfferingExtension decode(DataInputStream in)
+            throws IOException {
+            String sessionID = in.readUTF();
+            String negotiationID = in.readUTF();
+
+            int size = in.readInt();
+
+            List<ProjectNegotiationData> dataList = new ArrayList<ProjectNegotiationData>();
+
+            for (int i = 0; i < size; i++) {
+                String projectID = in.readUTF();
+                String projectName = in.readUTF();
+                boolean partial = in.readBoolean();
+                FileList fileList = in.readBoolean() ? FileListCodec
+                    .decode(in) : null;
+
+                dataList.add(new ProjectNegotiationData(projectID,
+                    projectName, partial, fileList));
+            }
+
+            return new ProjectNegotiationOfferingExtension(sessionID,
+                negotiationID, dataList);
+        }
+    }
 }
@@ -35,4 +35,41 @@ public interface IChecksumCache {
      */
     public abstract boolean addChecksum(String path, long checksum);
 
+    /**
+     * Returns the checksum for the given unique identifier. Unlike
+     * {@link #getChecksum(String)} this may also return a checksum that was
+     * added in a former run of the application, as long as the modification
+     * time stamp and the size of the file did not change.
+     * 
+     * @param path
+     *            a unique identifier
+     * @param timestamp
+     *            the current modification time stamp of the file
+     * @param size
+     *            the current size of the file in bytes
+     * @return the checksum or <code>null</code> if no checksum for this
+     *         identifier exists or the checksum has become invalid
+     */
+    public abstract Long getChecksum(String path, long timestamp, long size);
+
+    /**
+     * Adds or update a checksum in the cache. The time stamp and the size are
+     * used to validate the checksum in later runs of the application. If one
+     * of them is negative the checksum is only kept for the current run.
+     * 
+     * @param path
+     *            a unique identifier
+     * @param timestamp
+     *            the modification time stamp of the file <b>before</b> the
+     *            checksum was calculated
+     * @param size
+     *            the size of the file in bytes
+     * @param checksum
+     *            the checksum to add
+     * @return <code>true</code> if the former checksum was invalid,
+     *         <code>false</code> otherwise
+     */
+    public abstract boolean addChecksum(String path, long timestamp,
+        long size, long checksum);
+
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import static java.text.MessageFormat.format;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -58,10 +59,13 @@ import org.picocontainer.annotations.Inject;
 
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.business.FileActivity;
+import de.fu_berlin.inf.dpp.activities.business.FileActivity.Purpose;
 import de.fu_berlin.inf.dpp.activities.business.FileActivity.Type;
 import de.fu_berlin.inf.dpp.activities.business.FolderActivity;
 import de.fu_berlin.inf.dpp.activities.business.IActivity;
 import de.fu_berlin.inf.dpp.activities.business.IResourceActivity;
+import de.fu_berlin.inf.dpp.activities.business.RecoveryFileActivity;
+import de.fu_berlin.inf.dpp.activities.business.RecoveryFileActivity.DataType;
 import de.fu_berlin.inf.dpp.activities.business.VCSActivity;
 import de.fu_berlin.inf.dpp.annotations.Component;
 import de.fu_berlin.inf.dpp.concurrent.watchdog.ConsistencyWatchdogClient;
@@ -78,7 +82,9 @@ import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.synchronize.Blockable;
 import de.fu_berlin.inf.dpp.synchronize.StopManager;
 import de.fu_berlin.inf.dpp.ui.util.SWTUtils;
+import de.fu_berlin.inf.dpp.util.BlockDelta;
 import de.fu_berlin.inf.dpp.util.FileUtils;
+import de.fu_berlin.inf.dpp.util.TextDelta;
 import de.fu_berlin.inf.dpp.vcs.VCSAdapter;
 import de.fu_berlin.inf.dpp.vcs.VCSResourceInfo;
 
@@ -507,6 +513,12 @@ public class SharedResourcesManager extends AbstractActivityProvider implements
 
     private void handleFileRecovery(FileActivity activity) throws CoreException {
         SPath path = activity.getPath();
+
+        if (hasDataType(activity, DataType.TEXT_DELTA)) {
+            handleTextRecovery((RecoveryFileActivity) activity);
+            return;
+        }
+
         IFile file = ((EclipseFileImpl) activity.getPath().getFile())
             .getDelegate();
 
@@ -531,9 +543,13 @@ public class SharedResourcesManager extends AbstractActivityProvider implements
         FileActivity.Type type = activity.getType();
 
         try {
-            if (type == FileActivity.Type.CREATED)
-                handleFileCreation(activity);
-            else if (type == FileActivity.Type.REMOVED)
+            if (type == FileActivity.Type.CREATED) {
+                if (hasDataType(activity, DataType.BLOCK_DELTA))
+                    activity = applyDelta((RecoveryFileActivity) activity, file);
+
+                if (activity != null)
+                    handleFileCreation(activity);
+            } else if (type == FileActivity.Type.REMOVED)
                 handleFileDeletion(activity);
             else
                 log.warn("performing recovery for type " + type
@@ -552,6 +568,67 @@ public class SharedResourcesManager extends AbstractActivityProvider implements
         consistencyWatchdogClient.performCheck(path);
     }
 
+    private static boolean hasDataType(FileActivity activity, DataType type) {
+        return activity instanceof RecoveryFileActivity
+            && ((RecoveryFileActivity) activity).getDataType() == type;
+    }
+
+    /**
+     * Replaces only the divergent region of the document as described by the
+     * {@link TextDelta} of the given recovery Activity. The editors of the
+     * file are not closed. If the delta cannot be applied the following
+     * consistency check reports the file as inconsistent again and the next
+     * recovery will request the complete file.
+     */
+    private void handleTextRecovery(RecoveryFileActivity activity) {
+        SPath path = activity.getPath();
+
+        log.debug("performing text recovery for file: " + path.getFullPath());
+
+        try {
+            TextDelta delta = TextDelta.decode(activity.getContents());
+
+            if (!editorManager.recoverText(path, delta, activity.getSource()))
+                consistencyWatchdogClient.textRecoveryFailed(path);
+        } catch (IOException e) {
+            log.error("received malformed text delta for file: " + path, e);
+            consistencyWatchdogClient.textRecoveryFailed(path);
+        } finally {
+            sarosSession.getConcurrentDocumentClient().reset(path);
+        }
+
+        consistencyWatchdogClient.performCheck(path);
+    }
+
+    /**
+     * Applies the {@link BlockDelta} of the given recovery Activity to the
+     * current content of the given file.
+     * 
+     * @return a recovery Activity with the complete content or
+     *         <code>null</code> if the delta could not be applied, the
+     *         following consistency check will report the file as inconsistent
+     *         again in this case
+     */
+    private FileActivity applyDelta(RecoveryFileActivity activity, IFile file) {
+        byte[] content = file.exists() ? FileUtils.getLocalFileContent(file)
+            : null;
+
+        if (content == null) {
+            log.error("could not apply delta, failed to read file: " + file);
+            return null;
+        }
+
+        try {
+            return FileActivity.created(activity.getSource(),
+                activity.getPath(),
+                BlockDelta.applyDelta(content, activity.getContents()),
+                Purpose.RECOVERY);
+        } catch (IOException e) {
+            log.error("could not apply delta to file: " + file, e);
+            return null;
+        }
+    }
+
     private void handleFileMove(FileActivity activity) throws CoreException {
         IPath newFilePath = ((EclipsePathImpl) activity.getPath().getFile()
             .getFullPath()).getDelegate();
@@ -3,7 +3,13 @@ package de.fu_berlin.inf.dpp.project.internal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jface.operation.IRunnableContext;
@@ -13,18 +19,23 @@ import org.eclipse.jface.window.Window;
 import org.picocontainer.Startable;
 
 import de.fu_berlin.inf.dpp.activities.QueueItem;
+import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.business.ChecksumActivity;
 import de.fu_berlin.inf.dpp.activities.business.FileActivity;
+import de.fu_berlin.inf.dpp.activities.business.FolderActivity;
 import de.fu_berlin.inf.dpp.activities.business.IActivity;
 import de.fu_berlin.inf.dpp.activities.business.IResourceActivity;
 import de.fu_berlin.inf.dpp.activities.business.ITargetedActivity;
 import de.fu_berlin.inf.dpp.activities.business.JupiterActivity;
+import de.fu_berlin.inf.dpp.activities.business.TextEditActivity;
+import de.fu_berlin.inf.dpp.activities.business.VCSActivity;
 import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentClient;
 import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentServer;
 import de.fu_berlin.inf.dpp.concurrent.management.TransformationResult;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.UISynchronizer;
+import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
 
 /**
@@ -43,18 +54,42 @@ public final class ActivityHandler implements Startable {
     /** join timeout when stopping this component */
     private static final long TIMEOUT = 10000;
 
-    private static final int DISPATCH_MODE_SYNC = 0;
+    static final int DISPATCH_MODE_SYNC = 0;
 
     private static final int DISPATCH_MODE_ASYNC = 1; // Experimental
 
+    /**
+     * Same as {@link #DISPATCH_MODE_SYNC} for the execution of activities but
+     * the host transforms and forwards incoming activities on multiple lanes,
+     * see {@link #dispatchServerActivitiesParallel}.
+     */
+    static final int DISPATCH_MODE_PARALLEL = 2; // Experimental
+
     private static final int DISPATCH_MODE;
 
+    /**
+     * Number of lanes used by the host in {@link #DISPATCH_MODE_PARALLEL}.
+     */
+    private static final int DISPATCH_LANES = Math.max(1, Integer.getInteger(
+        "de.fu_berlin.inf.dpp.session.ACTIVITY_DISPATCH_LANES", Runtime
+            .getRuntime().availableProcessors()));
+
+    /**
+     * Time in milliseconds a local text edit is held back to combine it with
+     * the following edits of a typing burst before it is transformed. The
+     * delay is short enough to go unnoticed by the other participants, 0
+     * disables the coalescing.
+     */
+    private static final long TEXT_EDIT_COALESCING_DELAY = Math.max(0, Long
+        .getLong("de.fu_berlin.inf.dpp.session.TEXT_EDIT_COALESCING_DELAY", 30));
+
     static {
         int dispatchModeToUse = Integer.getInteger(
             "de.fu_berlin.inf.dpp.session.ACTIVITY_DISPATCH_MODE",
             DISPATCH_MODE_SYNC);
 
-        if (dispatchModeToUse != DISPATCH_MODE_ASYNC)
+        if (dispatchModeToUse != DISPATCH_MODE_ASYNC
+            && dispatchModeToUse != DISPATCH_MODE_PARALLEL)
             dispatchModeToUse = DISPATCH_MODE_SYNC;
 
         DISPATCH_MODE = dispatchModeToUse;
@@ -72,6 +107,12 @@ public final class ActivityHandler implements Startable {
 
     private final UISynchronizer synchronizer;
 
+    private final int dispatchMode;
+
+    private final int dispatchLaneCount;
+
+    private final long textEditCoalescingDelay;
+
     /*
      * We must use a thread for synchronous execution otherwise we would block
      * the DispatchThreadContext which handles the dispatching of all network
@@ -79,6 +120,45 @@ public final class ActivityHandler implements Startable {
      */
     private Thread dispatchThread;
 
+    /**
+     * Single threaded executors used by the host to transform and forward
+     * incoming activities in {@link #DISPATCH_MODE_PARALLEL}. All activities
+     * of the same partition are always handled by the same lane.
+     */
+    private ExecutorService[] dispatchLanes;
+
+    /**
+     * The last task submitted to each lane, used to wait until all lanes are
+     * idle.
+     */
+    private Future<?>[] dispatchLaneTails;
+
+    /**
+     * Triggers the transformation of {@link #pendingTextEdit} after
+     * {@link #textEditCoalescingDelay}.
+     */
+    private ScheduledExecutorService textEditCoalescingTimer;
+
+    private Future<?> pendingTextEditFlush;
+
+    /**
+     * The local text edit that is currently held back to be combined with the
+     * following edits, must only be accessed in the SWT thread.
+     */
+    private TextEditActivity pendingTextEdit;
+
+    private final Runnable flushPendingTextEditRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronizer.asyncExec(ThreadUtils.wrapSafe(LOG, new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingTextEdit();
+                }
+            }));
+        }
+    };
+
     private final Runnable dispatchThreadRunnable = new Runnable() {
 
         @Override
@@ -99,11 +179,28 @@ public final class ActivityHandler implements Startable {
         IActivityHandlerCallback callback,
         ConcurrentDocumentServer documentServer,
         ConcurrentDocumentClient documentClient, UISynchronizer synchronizer) {
+        this(session, callback, documentServer, documentClient, synchronizer,
+            DISPATCH_MODE, DISPATCH_LANES, TEXT_EDIT_COALESCING_DELAY);
+    }
+
+    /**
+     * Creates a handler that uses the given dispatch mode and text edit
+     * coalescing delay instead of the configured ones, for testing purposes
+     * only.
+     */
+    ActivityHandler(ISarosSession session, IActivityHandlerCallback callback,
+        ConcurrentDocumentServer documentServer,
+        ConcurrentDocumentClient documentClient, UISynchronizer synchronizer,
+        int dispatchMode, int dispatchLaneCount,
+        long textEditCoalescingDelay) {
         this.session = session;
         this.callback = callback;
         this.documentServer = documentServer;
         this.documentClient = documentClient;
         this.synchronizer = synchronizer;
+        this.dispatchMode = dispatchMode;
+        this.dispatchLaneCount = dispatchLaneCount;
+        this.textEditCoalescingDelay = textEditCoalescingDelay;
     }
 
     /**
@@ -117,6 +214,11 @@ public final class ActivityHandler implements Startable {
 
     public synchronized void handleIncomingActivities(List<IActivity> activities) {
 
+        if (session.isHost() && dispatchMode == DISPATCH_MODE_PARALLEL) {
+            dispatchServerActivitiesParallel(activities);
+            return;
+        }
+
         if (session.isHost()) {
 
             /**
@@ -147,15 +249,126 @@ public final class ActivityHandler implements Startable {
          * 
          */
 
+        queueActivitiesForExecution(activities);
+    }
+
+    private void queueActivitiesForExecution(List<IActivity> activities) {
         if (activities.isEmpty())
             return;
 
-        if (DISPATCH_MODE == DISPATCH_MODE_ASYNC)
+        if (dispatchMode == DISPATCH_MODE_ASYNC)
             dispatchAndExecuteActivities(activities);
         else
             dispatchQueue.add(activities);
     }
 
+    /**
+     * Transforms and forwards the given activities on the host using the
+     * dispatch lanes. The activities are partitioned by the document they
+     * refer to. The order of activities inside a partition is preserved,
+     * activities of different partitions are processed in parallel.
+     * 
+     * Reordering activities of different documents is safe as every document
+     * has its own Jupiter state on the server and the receivers apply the
+     * activities of a document regardless of the activities of other
+     * documents.
+     * 
+     * All other activities act as a barrier: all lanes are drained before such
+     * an activity is processed so it is still ordered against every other
+     * activity. This applies to activities that change the resource tree
+     * (files, folders, VCS) as well as to activities without a document, e.g a
+     * permission change must not overtake the edits that were made before.
+     */
+    private void dispatchServerActivitiesParallel(List<IActivity> activities) {
+
+        List<List<IActivity>> partitions = new ArrayList<List<IActivity>>(
+            Collections.<List<IActivity>> nCopies(dispatchLanes.length, null));
+
+        for (IActivity activity : activities) {
+
+            if (isDispatchBarrier(activity)) {
+                submitToDispatchLanes(partitions);
+                awaitDispatchLanes();
+                dispatchServerActivities(Collections.singletonList(activity));
+                continue;
+            }
+
+            int lane = getDispatchLane(activity);
+
+            if (partitions.get(lane) == null)
+                partitions.set(lane, new ArrayList<IActivity>());
+
+            partitions.get(lane).add(activity);
+        }
+
+        submitToDispatchLanes(partitions);
+    }
+
+    private void submitToDispatchLanes(List<List<IActivity>> partitions) {
+        for (int lane = 0; lane < partitions.size(); lane++) {
+            final List<IActivity> partition = partitions.get(lane);
+
+            if (partition == null)
+                continue;
+
+            partitions.set(lane, null);
+
+            dispatchLaneTails[lane] = dispatchLanes[lane].submit(ThreadUtils
+                .wrapSafe(LOG, new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchServerActivities(partition);
+                    }
+                }));
+        }
+    }
+
+    private void awaitDispatchLanes() {
+        for (Future<?> tail : dispatchLaneTails) {
+            if (tail == null)
+                continue;
+
+            try {
+                tail.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOG.error("activity dispatch lane failed", e.getCause());
+            }
+        }
+    }
+
+    private int getDispatchLane(IActivity activity) {
+        SPath path = ((IResourceActivity) activity).getPath();
+
+        return (path.hashCode() & Integer.MAX_VALUE) % dispatchLanes.length;
+    }
+
+    private static boolean isDispatchBarrier(IActivity activity) {
+        return activity instanceof FileActivity
+            || activity instanceof FolderActivity
+            || activity instanceof VCSActivity
+            || !(activity instanceof IResourceActivity)
+            || ((IResourceActivity) activity).getPath() == null;
+    }
+
+    /**
+     * Transforms the activities with the {@link ConcurrentDocumentServer},
+     * forwards the results to the other session users and queues the
+     * activities that must be executed locally.
+     */
+    private void dispatchServerActivities(List<IActivity> activities) {
+        TransformationResult result = directServerActivities(activities);
+
+        for (QueueItem item : result.getSendToPeers()) {
+            List<User> recipients = getRecipientsForQueueItem(item);
+            callback.send(recipients, item.activity);
+        }
+
+        queueActivitiesForExecution(result.getLocalActivities());
+    }
+
     /**
      * Determines the recipients for a given QueueItem
      * 
@@ -229,31 +442,124 @@ public final class ActivityHandler implements Startable {
             public void run() {
                 for (IActivity activity : activities) {
 
-                    IActivity transformationResult = documentClient
-                        .transformToJupiter(activity);
-
-                    callback.send(Collections.singletonList(session.getHost()),
-                        transformationResult);
+                    if (textEditCoalescingTimer != null
+                        && activity instanceof TextEditActivity) {
+                        coalesceTextEdit((TextEditActivity) activity);
+                        continue;
+                    }
 
+                    flushPendingTextEdit();
+                    transformAndSendToHost(activity);
                 }
             }
         }));
     }
 
+    private void transformAndSendToHost(IActivity activity) {
+        IActivity transformationResult = documentClient
+            .transformToJupiter(activity);
+
+        callback.send(Collections.singletonList(session.getHost()),
+            transformationResult);
+    }
+
+    /**
+     * Combines the given text edit with the currently pending one. If this is
+     * not possible the pending text edit is transformed and the given one
+     * becomes the pending one. A pending text edit is held back at most
+     * {@link #textEditCoalescingDelay} milliseconds.
+     * 
+     * @swt This must be called from the SWT thread.
+     */
+    private void coalesceTextEdit(TextEditActivity textEdit) {
+        if (pendingTextEdit != null) {
+            TextEditActivity coalesced = pendingTextEdit.coalesce(textEdit);
+
+            if (coalesced != null) {
+                pendingTextEdit = coalesced;
+                return;
+            }
+
+            flushPendingTextEdit();
+        }
+
+        pendingTextEdit = textEdit;
+        pendingTextEditFlush = textEditCoalescingTimer.schedule(
+            flushPendingTextEditRunnable, textEditCoalescingDelay,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Transforms and sends the pending text edit if there is one. This must be
+     * done before any other local activity is transformed and before any
+     * remote activity is applied, otherwise the Jupiter state would no longer
+     * match the content of the document.
+     * 
+     * @swt This must be called from the SWT thread.
+     */
+    private void flushPendingTextEdit() {
+        if (pendingTextEdit == null)
+            return;
+
+        TextEditActivity textEdit = pendingTextEdit;
+
+        pendingTextEdit = null;
+        pendingTextEditFlush.cancel(false);
+
+        // the edits of the burst have canceled each other out
+        if (textEdit.getText().length() == 0
+            && textEdit.getReplacedText().length() == 0)
+            return;
+
+        transformAndSendToHost(textEdit);
+    }
+
     @Override
     public void start() {
-        if (DISPATCH_MODE == DISPATCH_MODE_ASYNC)
+        if (textEditCoalescingDelay > 0)
+            textEditCoalescingTimer = Executors
+                .newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                    "TextEditCoalescer", false));
+
+        if (dispatchMode == DISPATCH_MODE_ASYNC)
             return;
 
+        if (dispatchMode == DISPATCH_MODE_PARALLEL) {
+            dispatchLanes = new ExecutorService[dispatchLaneCount];
+            dispatchLaneTails = new Future<?>[dispatchLaneCount];
+
+            for (int i = 0; i < dispatchLaneCount; i++)
+                dispatchLanes[i] = Executors
+                    .newSingleThreadExecutor(new NamedThreadFactory(
+                        "ActivityDispatchLane-" + i, false));
+        }
+
         dispatchThread = ThreadUtils.runSafeAsync("ActivityDispatcher", LOG,
             dispatchThreadRunnable);
     }
 
     @Override
     public void stop() {
-        if (DISPATCH_MODE == DISPATCH_MODE_ASYNC)
+        if (textEditCoalescingTimer != null) {
+            // do not lose the last edits of a typing burst
+            synchronizer.syncExec(ThreadUtils.wrapSafe(LOG, new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingTextEdit();
+                }
+            }));
+
+            textEditCoalescingTimer.shutdownNow();
+        }
+
+        if (dispatchMode == DISPATCH_MODE_ASYNC)
             return;
 
+        if (dispatchLanes != null) {
+            for (ExecutorService lane : dispatchLanes)
+                lane.shutdownNow();
+        }
+
         dispatchThread.interrupt();
         try {
             dispatchThread.join(TIMEOUT);
@@ -322,6 +628,9 @@ public final class ActivityHandler implements Startable {
             @Override
             public void run() {
 
+                // local edits must be known to Jupiter before remote ones
+                flushPendingTextEdit();
+
                 for (IActivity activity : activities) {
 
                     User source = activity.getSource();
@@ -363,9 +672,9 @@ public final class ActivityHandler implements Startable {
 
         if (LOG.isTraceEnabled())
             LOG.trace("dispatching " + activities.size()
-                + " activities [mode = " + DISPATCH_MODE + "] : " + activities);
+                + " activities [mode = " + dispatchMode + "] : " + activities);
 
-        if (DISPATCH_MODE == DISPATCH_MODE_SYNC)
+        if (dispatchMode != DISPATCH_MODE_ASYNC)
             synchronizer.syncExec(ThreadUtils.wrapSafe(LOG,
                 transformingRunnable));
         else
@@ -24,7 +24,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +37,7 @@ import org.jivesoftware.smack.packet.PacketExtension;
 import org.picocontainer.Startable;
 
 import de.fu_berlin.inf.dpp.activities.serializable.IActivityDataObject;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
 import de.fu_berlin.inf.dpp.net.DispatchThreadContext;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
@@ -46,6 +47,7 @@ import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.util.ActivityUtils;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 
 /**
  * The ActivitySequencer is responsible for making sure that transformed
@@ -70,21 +72,30 @@ public class ActivitySequencer implements Startable {
      */
     private static final int FIRST_SEQUENCE_NUMBER = 0;
 
-    private static class SequencedActivity {
-        private final int sequenceNumber;
-        private final IActivityDataObject activity;
+    /**
+     * If set to <code>true</code> activities are always sent as XML even if
+     * the recipient supports the binary activity codec.
+     */
+    private static final boolean DISABLE_BINARY_CODEC = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.session.activity.DISABLE_BINARY_CODEC");
 
-        private SequencedActivity(IActivityDataObject activity,
-            int sequenceNumber) {
-            this.activity = activity;
-            this.sequenceNumber = sequenceNumber;
-        }
-    }
+    /**
+     * Number of activities that may arrive ahead of a missing activity from the
+     * same user before the incoming stream of that user is considered broken.
+     */
+    private static final int REORDER_WINDOW_SIZE = Integer.getInteger(
+        "de.fu_berlin.inf.dpp.session.activity.REORDER_WINDOW_SIZE", 4096);
 
     private static class SequencedActivities {
         private final int sequenceNumber;
         private final List<IActivityDataObject> activites;
 
+        /**
+         * binary encoded form of {@link #activites} that may be shared with
+         * other recipients, or <code>null</code>
+         */
+        private byte[] encodedActivities;
+
         private SequencedActivities(List<IActivityDataObject> activites,
             int sequenceNumber) {
             this.activites = activites;
@@ -161,10 +172,13 @@ public class ActivitySequencer implements Startable {
                     }
                 }
 
+                encodeSharedActivities(activitiesToSend);
+
                 for (Entry<JID, SequencedActivities> e : activitiesToSend
                     .entrySet()) {
                     sendActivities(e.getKey(), e.getValue().activites,
-                        e.getValue().sequenceNumber);
+                        e.getValue().sequenceNumber,
+                        e.getValue().encodedActivities);
                 }
 
                 synchronized (bufferedOutgoingActivities) {
@@ -205,22 +219,45 @@ public class ActivitySequencer implements Startable {
 
     private final DispatchThreadContext dispatchThread;
 
-    private final Map<JID, ActivityBuffer<SequencedActivity>> bufferedIncomingActivities;
+    private final VersionManager versionManager;
+
+    private final Map<JID, ReorderWindow<IActivityDataObject>> bufferedIncomingActivities;
 
     private final Map<JID, ActivityBuffer<IActivityDataObject>> bufferedOutgoingActivities;
 
+    /**
+     * The statistics of the reorder windows that were already discarded,
+     * guarded by {@link #bufferedIncomingActivities}
+     */
+    private final Map<JID, ReorderStatistics> discardedReorderStatistics;
+
     public ActivitySequencer(final ISarosSession sarosSession,
         final ITransmitter transmitter, final IReceiver receiver,
         final DispatchThreadContext threadContext) {
+        this(sarosSession, transmitter, receiver, threadContext, null);
+    }
+
+    /**
+     * @param versionManager
+     *            used to determine whether a recipient supports the binary
+     *            activity format, may be <code>null</code> in which case all
+     *            activities are sent as XML
+     */
+    public ActivitySequencer(final ISarosSession sarosSession,
+        final ITransmitter transmitter, final IReceiver receiver,
+        final DispatchThreadContext threadContext,
+        final VersionManager versionManager) {
 
         this.dispatchThread = threadContext;
+        this.versionManager = versionManager;
         this.sarosSession = sarosSession;
         this.transmitter = transmitter;
         this.receiver = receiver;
         this.currentSessionID = sarosSession.getID();
 
-        this.bufferedIncomingActivities = new HashMap<JID, ActivityBuffer<SequencedActivity>>();
+        this.bufferedIncomingActivities = new HashMap<JID, ReorderWindow<IActivityDataObject>>();
         this.bufferedOutgoingActivities = new HashMap<JID, ActivityBuffer<IActivityDataObject>>();
+        this.discardedReorderStatistics = new HashMap<JID, ReorderStatistics>();
     }
 
     /**
@@ -341,64 +378,63 @@ public class ActivitySequencer implements Startable {
      * TODO some part of the logic can be removed if we ensure only ONE transmit
      * stream and fail FAST if this stream is broken
      */
-    private void executeActivity(JID sender, SequencedActivity sequencedActivity) {
-
-        assert sequencedActivity != null;
+    private void executeActivities(JID sender,
+        List<IActivityDataObject> activities, int sequenceNumber) {
 
         List<IActivityDataObject> serializedActivities = new ArrayList<IActivityDataObject>();
 
+        boolean windowExceeded = false;
+
         synchronized (bufferedIncomingActivities) {
-            ActivityBuffer<SequencedActivity> buffer = bufferedIncomingActivities
+            ReorderWindow<IActivityDataObject> window = bufferedIncomingActivities
                 .get(sender);
 
-            if (buffer == null) {
-                LOG.warn("dropping received activity from "
-                    + sender
-                    + " because it is currently not registers, dropped activity: "
-                    + sequencedActivity.activity);
+            if (window == null) {
+                LOG.warn("dropping received activities from " + sender
+                    + " because it is currently not registers, dropped activities: "
+                    + activities);
                 return;
             }
 
-            buffer.activities.add(sequencedActivity);
+            for (IActivityDataObject activity : activities) {
+                if (!window.add(sequenceNumber++, activity)) {
+                    LOG.error("received activity from " + sender
+                        + " with sequence number " + (sequenceNumber - 1)
+                        + " that does not fit into the reorder window: "
+                        + window);
 
-            /*
-             * it is very VERY uncommon to receive an activity with a sequence
-             * number that is 2^32 steps apart from the current expected
-             * sequencer number, so this algorithm does not check for duplicate
-             * sequence numbers
-             */
-            while (true) {
-
-                sequencedActivity = null;
-
-                for (Iterator<SequencedActivity> it = buffer.activities
-                    .iterator(); it.hasNext();) {
-
-                    sequencedActivity = it.next();
-
-                    if (sequencedActivity.sequenceNumber == buffer.nextSequenceNumber) {
-                        it.remove();
-                        break;
-                    }
-
-                    sequencedActivity = null;
-                }
-
-                if (sequencedActivity == null) {
-                    /*
-                     * TODO shut down the session if a activity does not arrive
-                     * in a given timeout
-                     */
+                    windowExceeded = true;
                     break;
                 }
 
-                serializedActivities.add(sequencedActivity.activity);
-                buffer.nextSequenceNumber++;
+                /*
+                 * drain after every activity, otherwise a large batch that
+                 * arrives in order would exceed the window
+                 */
+                window.drainTo(serializedActivities);
             }
+
+            if (window.size() > 0 && LOG.isTraceEnabled())
+                LOG.trace("waiting for missing activities from " + sender
+                    + ": " + window);
         }
 
         if (!serializedActivities.isEmpty())
             sarosSession.exec(serializedActivities);
+
+        if (!windowExceeded)
+            return;
+
+        /*
+         * the missing activity will never arrive in time, the stream from this
+         * user is broken
+         */
+        unregisterUser(sender);
+
+        IActivitySequencerCallback currentCallback = callback;
+
+        if (currentCallback != null)
+            currentCallback.reorderWindowExceeded(sender);
     }
 
     /**
@@ -468,8 +504,8 @@ public class ActivitySequencer implements Startable {
         synchronized (bufferedIncomingActivities) {
             if (bufferedIncomingActivities.get(user.getJID()) == null)
                 bufferedIncomingActivities
-                    .put(user.getJID(), new ActivityBuffer<SequencedActivity>(
-                        FIRST_SEQUENCE_NUMBER));
+                    .put(user.getJID(), new ReorderWindow<IActivityDataObject>(
+                        REORDER_WINDOW_SIZE, FIRST_SEQUENCE_NUMBER));
         }
     }
 
@@ -510,6 +546,52 @@ public class ActivitySequencer implements Startable {
         }
     }
 
+    /**
+     * Returns the number of activities that are buffered for the remote users
+     * and still wait for the sender, i.e a growing number indicates that the
+     * activities are created faster than they can be sent.
+     */
+    public int getPendingActivityCount() {
+        int count = 0;
+
+        synchronized (bufferedOutgoingActivities) {
+            for (ActivityBuffer<IActivityDataObject> buffer : bufferedOutgoingActivities
+                .values()) {
+
+                if (buffer != null)
+                    count += buffer.activities.size();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the statistics about the order in which the activities of the
+     * given participant were received during the whole session. The
+     * statistics remain available after the participant has been unregistered,
+     * e.g because its activities exceeded the reorder window.
+     *
+     * @return the statistics, {@link ReorderStatistics#EMPTY} if the
+     *         participant has never been registered
+     */
+    public ReorderStatistics getReorderStatistics(JID jid) {
+        synchronized (bufferedIncomingActivities) {
+            ReorderStatistics statistics = discardedReorderStatistics.get(jid);
+
+            if (statistics == null)
+                statistics = ReorderStatistics.EMPTY;
+
+            ReorderWindow<IActivityDataObject> window = bufferedIncomingActivities
+                .get(jid);
+
+            if (window != null)
+                statistics = statistics.add(window.getStatistics());
+
+            return statistics;
+        }
+    }
+
     private void unregisterUser(JID jid) {
         /*
          * FIXME This stuff is to lazy if called outside the UI-Thread as it is
@@ -524,19 +606,95 @@ public class ActivitySequencer implements Startable {
         }
 
         synchronized (bufferedIncomingActivities) {
-            bufferedIncomingActivities.put(jid, null);
+            ReorderWindow<IActivityDataObject> window = bufferedIncomingActivities
+                .put(jid, null);
+
+            if (window != null)
+                discardedReorderStatistics.put(jid, getReorderStatistics(jid)
+                    .add(window.getStatistics()));
+        }
+    }
+
+    /**
+     * Encodes the activities for all recipients that use the binary codec and
+     * will receive exactly the same activity instances only once. Activities
+     * that are broadcasted to the whole session are added to the buffer of
+     * every recipient, so in the common case the whole session shares one
+     * encoded form and only the per recipient header differs.
+     * <p>
+     * The Jupiter activities the host creates for every recipient carry the
+     * same operation but their own timestamp. For them only the timestamp is
+     * encoded per recipient, the encoded operation is shared.
+     */
+    private void encodeSharedActivities(
+        Map<JID, SequencedActivities> activitiesToSend) {
+
+        List<SequencedActivities> encoded = new ArrayList<SequencedActivities>();
+
+        Map<Operation, byte[]> encodedOperations = new IdentityHashMap<Operation, byte[]>();
+
+        for (Entry<JID, SequencedActivities> entry : activitiesToSend
+            .entrySet()) {
+
+            if (!useBinaryCodec(entry.getKey()))
+                continue;
+
+            SequencedActivities current = entry.getValue();
+
+            for (SequencedActivities other : encoded) {
+                if (containsSameActivities(current.activites, other.activites)) {
+                    current.encodedActivities = other.encodedActivities;
+                    break;
+                }
+            }
+
+            if (current.encodedActivities != null)
+                continue;
+
+            try {
+                current.encodedActivities = ActivitiesExtension
+                    .encodeActivityDataObjects(current.activites,
+                        encodedOperations);
+                encoded.add(current);
+            } catch (IOException e) {
+                // the extension will fall back to XML when sending
+                LOG.warn("failed to encode activities: " + current.activites,
+                    e);
+            }
         }
     }
 
+    private static boolean containsSameActivities(
+        List<IActivityDataObject> a, List<IActivityDataObject> b) {
+
+        if (a.size() != b.size())
+            return false;
+
+        for (int i = 0; i < a.size(); i++)
+            if (a.get(i) != b.get(i))
+                return false;
+
+        return true;
+    }
+
     private void sendActivities(JID recipient,
-        List<IActivityDataObject> activities, int sequenceNumber) {
+        List<IActivityDataObject> activities, int sequenceNumber,
+        byte[] encodedActivities) {
 
         if (activities.size() == 0)
             return;
 
-        PacketExtension activityPacketExtension = ActivitiesExtension.PROVIDER
-            .create(new ActivitiesExtension(currentSessionID, activities,
-                sequenceNumber));
+        ActivitiesExtension extension = new ActivitiesExtension(
+            currentSessionID, activities, sequenceNumber, encodedActivities);
+
+        PacketExtension activityPacketExtension;
+
+        if (useBinaryCodec(recipient))
+            activityPacketExtension = ActivitiesExtension.PROVIDER
+                .createBinary(extension);
+        else
+            activityPacketExtension = ActivitiesExtension.PROVIDER
+                .create(extension);
 
         String msg = "send (" + String.format("%03d", activities.size()) + ") "
             + recipient + " -> " + activities;
@@ -565,6 +723,11 @@ public class ActivitySequencer implements Startable {
         }
     }
 
+    private boolean useBinaryCodec(JID recipient) {
+        return !DISABLE_BINARY_CODEC && versionManager != null
+            && versionManager.isBinaryActivityCodecSupported(recipient);
+    }
+
     private void receiveActivities(Packet activityPacket) {
 
         /* *
@@ -604,16 +767,12 @@ public class ActivitySequencer implements Startable {
         else
             LOG.debug(msg);
 
-        int sequenceNumber = payload.getSequenceNumber();
-
         for (IActivityDataObject activity : activities) {
-
             assert activity.getSource() != null : "received activity without source"
                 + activity;
-
-            executeActivity(from, new SequencedActivity(activity,
-                sequenceNumber++));
         }
+
+        executeActivities(from, activities, payload.getSequenceNumber());
     }
 
     /**
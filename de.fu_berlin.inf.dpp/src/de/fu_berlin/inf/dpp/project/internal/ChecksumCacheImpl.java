@@ -1,5 +1,6 @@
 package de.fu_berlin.inf.dpp.project.internal;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -8,13 +9,14 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.picocontainer.Disposable;
 
 import de.fu_berlin.inf.dpp.project.IChecksumCache;
 
 /**
  * @author Stefan Rossbach
  */
-public final class ChecksumCacheImpl implements IChecksumCache {
+public final class ChecksumCacheImpl implements IChecksumCache, Disposable {
 
     private static final Logger LOG = Logger.getLogger(ChecksumCacheImpl.class);
 
@@ -65,6 +67,9 @@ public final class ChecksumCacheImpl implements IChecksumCache {
 
         @Override
         public void fileContentChanged(String path) {
+            if (store != null)
+                store.remove(path);
+
             synchronized (ChecksumCacheImpl.this) {
                 Murmur3Hash<Long> hash = create128BitMurmur3Hash(path);
                 Murmur3Hash<Long> currentHash = getHash(path, hash);
@@ -89,12 +94,77 @@ public final class ChecksumCacheImpl implements IChecksumCache {
 
     private Map<Integer, Object> cache = new HashMap<Integer, Object>();
 
+    private final ChecksumStore store;
+
+    /**
+     * Creates a checksum cache that only keeps its checksums in memory.
+     */
     public ChecksumCacheImpl(
         IFileContentChangedNotifier fileContentChangedNotifier) {
+        this(fileContentChangedNotifier, null);
+    }
+
+    /**
+     * Creates a checksum cache that additionally stores its checksums in the
+     * given file so they can be reused after a restart. The file is not read
+     * until the first checksum is requested.
+     * 
+     * @param storeFile
+     *            the file to store the checksums in or <code>null</code> to
+     *            only keep them in memory
+     */
+    public ChecksumCacheImpl(
+        IFileContentChangedNotifier fileContentChangedNotifier, File storeFile) {
+        store = storeFile == null ? null : new ChecksumStore(storeFile);
         fileContentChangedNotifier
             .addFileContentChangedListener(fileContentChangedListener);
     }
 
+    /*
+     * The store is thread safe and accessed outside of the monitor of this
+     * cache, otherwise the file I/O of the store would serialize all threads
+     * that are calculating checksums.
+     */
+
+    @Override
+    public Long getChecksum(String path, long timestamp, long size) {
+        Long checksum = getChecksum(path);
+
+        if (checksum != null || store == null)
+            return checksum;
+
+        /*
+         * checksums of files that changed in the current run have already
+         * been removed from the store
+         */
+        checksum = store.get(path, timestamp, size);
+
+        if (checksum != null)
+            addChecksum(path, checksum);
+
+        return checksum;
+    }
+
+    @Override
+    public boolean addChecksum(String path, long timestamp, long size,
+        long checksum) {
+        boolean isInvalid = addChecksum(path, checksum);
+
+        if (store != null)
+            store.put(path, timestamp, size, checksum);
+
+        return isInvalid;
+    }
+
+    /**
+     * Writes all pending changes to the checksum store and closes its file.
+     */
+    @Override
+    public void dispose() {
+        if (store != null)
+            store.close();
+    }
+
     @Override
     @SuppressWarnings({ "unchecked" })
     public synchronized Long getChecksum(String path) {
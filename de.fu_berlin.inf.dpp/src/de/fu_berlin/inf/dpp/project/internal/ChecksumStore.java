@@ -0,0 +1,273 @@
+package de.fu_berlin.inf.dpp.project.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * A store that keeps checksums in a file so they survive restarts. Every
+ * checksum is stored together with the modification time stamp and the size
+ * of the file it was calculated for. A checksum is only returned if both
+ * values still match, so changes that were made while the application was not
+ * running are detected.
+ * <p>
+ * The file is an append only log of put and remove records. It is loaded on
+ * the first access. Modifications are appended in batches, i.e they are
+ * buffered and only written when the buffer is full or the store is
+ * {@linkplain #close() closed}. Records that are lost because the application
+ * crashed only cause the checksums to be calculated again. Obsolete records
+ * are removed when the file is loaded.
+ * <p>
+ * I/O errors are logged and disable the store, i.e it behaves like an empty
+ * store afterwards.
+ *
+ * This class is thread safe.
+ */
+final class ChecksumStore {
+
+    private static final Logger LOG = Logger.getLogger(ChecksumStore.class);
+
+    private static final int MAGIC = 0x53435331; // SCS1
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    /**
+     * Minimum number of obsolete records before the file is compacted.
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private static class Entry {
+        final long timestamp;
+        final long size;
+        final long checksum;
+
+        Entry(long timestamp, long size, long checksum) {
+            this.timestamp = timestamp;
+            this.size = size;
+            this.checksum = checksum;
+        }
+    }
+
+    private final File file;
+
+    private Map<String, Entry> entries;
+
+    private DataOutputStream out;
+
+    private boolean disabled;
+
+    /**
+     * @param file
+     *            the file to store the checksums in, it is created if it does
+     *            not exist
+     */
+    ChecksumStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the checksum for the given identifier if it was stored for the
+     * same time stamp and size.
+     *
+     * @return the checksum or <code>null</code> if no matching checksum exists
+     */
+    synchronized Long get(String path, long timestamp, long size) {
+        if (!load())
+            return null;
+
+        Entry entry = entries.get(path);
+
+        if (entry == null || entry.timestamp != timestamp || entry.size != size)
+            return null;
+
+        return entry.checksum;
+    }
+
+    /**
+     * Stores the checksum for the given identifier. Checksums with a negative
+     * time stamp or size are not stored.
+     */
+    synchronized void put(String path, long timestamp, long size,
+        long checksum) {
+        if (timestamp < 0 || size < 0 || !load())
+            return;
+
+        Entry entry = entries.get(path);
+
+        if (entry != null && entry.timestamp == timestamp
+            && entry.size == size && entry.checksum == checksum)
+            return;
+
+        entries.put(path, new Entry(timestamp, size, checksum));
+
+        try {
+            out.writeByte(PUT);
+            out.writeUTF(path);
+            out.writeLong(timestamp);
+            out.writeLong(size);
+            out.writeLong(checksum);
+        } catch (IOException e) {
+            disable("could not write to checksum store " + file, e);
+        }
+    }
+
+    /**
+     * Removes the checksum for the given identifier.
+     */
+    synchronized void remove(String path) {
+        if (!load() || entries.remove(path) == null)
+            return;
+
+        try {
+            out.writeByte(REMOVE);
+            out.writeUTF(path);
+        } catch (IOException e) {
+            disable("could not write to checksum store " + file, e);
+        }
+    }
+
+    /**
+     * Returns the number of stored checksums.
+     */
+    synchronized int size() {
+        return load() ? entries.size() : 0;
+    }
+
+    /**
+     * Writes all buffered records and closes the file of this store. The store
+     * will load the file again on the next access.
+     */
+    synchronized void close() {
+        IOUtils.closeQuietly(out);
+        out = null;
+        entries = null;
+    }
+
+    private boolean load() {
+        if (disabled)
+            return false;
+
+        if (entries != null)
+            return true;
+
+        entries = new HashMap<String, Entry>();
+
+        long startTime = System.currentTimeMillis();
+
+        int records = 0;
+        boolean corrupted = false;
+
+        if (file.exists()) {
+            DataInputStream in = null;
+
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+
+                if (in.readInt() != MAGIC)
+                    throw new IOException("unknown file format");
+
+                while (true) {
+                    byte type;
+
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+
+                    String path = in.readUTF();
+
+                    if (type == PUT)
+                        entries.put(path, new Entry(in.readLong(),
+                            in.readLong(), in.readLong()));
+                    else if (type == REMOVE)
+                        entries.remove(path);
+                    else
+                        throw new IOException("unknown record type: " + type);
+
+                    records++;
+                }
+            } catch (IOException e) {
+                /*
+                 * e.g the application crashed while writing the last record,
+                 * keep everything that could be read
+                 */
+                LOG.warn("checksum store " + file + " is corrupted: "
+                    + e.getMessage());
+                corrupted = true;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        try {
+            if (corrupted || !file.exists()
+                || records - entries.size() >= COMPACT_THRESHOLD)
+                compact();
+
+            out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)));
+        } catch (IOException e) {
+            disable("could not open checksum store " + file, e);
+            return false;
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("loaded " + entries.size() + " checksum(s) from "
+                + file + " in " + (System.currentTimeMillis() - startTime)
+                + " ms");
+
+        return true;
+    }
+
+    private void compact() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        DataOutputStream tmpOut = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+        try {
+            tmpOut.writeInt(MAGIC);
+
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                tmpOut.writeByte(PUT);
+                tmpOut.writeUTF(mapEntry.getKey());
+                tmpOut.writeLong(entry.timestamp);
+                tmpOut.writeLong(entry.size);
+                tmpOut.writeLong(entry.checksum);
+            }
+        } finally {
+            tmpOut.close();
+        }
+
+        if (file.exists() && !file.delete())
+            throw new IOException("could not delete " + file);
+
+        if (!tmpFile.renameTo(file))
+            throw new IOException("could not rename " + tmpFile + " to "
+                + file);
+    }
+
+    private void disable(String message, IOException e) {
+        LOG.error(message, e);
+        IOUtils.closeQuietly(out);
+        out = null;
+        entries = null;
+        disabled = true;
+    }
+}
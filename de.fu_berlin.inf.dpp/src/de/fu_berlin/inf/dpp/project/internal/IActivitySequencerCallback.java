@@ -23,4 +23,16 @@ public interface IActivitySequencerCallback {
      *            {@linkplain ActivitySequencer sequencer}
      */
     public void transmissionFailed(JID jid);
+
+    /**
+     * Gets called when activities from a user arrive too far ahead of a
+     * missing activity so that they no longer fit into the reorder window. The
+     * user is already unregistered at this point so there is not need to call
+     * {@link ActivitySequencer#unregisterUser(User)}.
+     * 
+     * @param jid
+     *            the {@link JID} of the user that was unregistered from the
+     *            {@linkplain ActivitySequencer sequencer}
+     */
+    public void reorderWindowExceeded(JID jid);
 }
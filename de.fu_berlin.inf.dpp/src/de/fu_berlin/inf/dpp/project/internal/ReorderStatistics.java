@@ -0,0 +1,80 @@
+package de.fu_berlin.inf.dpp.project.internal;
+
+/**
+ * Immutable snapshot of the counters of the reorder window that restores the
+ * order of the activities received from one session participant.
+ *
+ * @see ActivitySequencer#getReorderStatistics(de.fu_berlin.inf.dpp.net.JID)
+ */
+public final class ReorderStatistics {
+
+    /**
+     * Statistics of a participant from whom no activities were received yet.
+     */
+    public static final ReorderStatistics EMPTY = new ReorderStatistics(0, 0,
+        0, 0);
+
+    private final int gapCount;
+
+    private final int maxGap;
+
+    private final int overflowCount;
+
+    private final int duplicateCount;
+
+    ReorderStatistics(int gapCount, int maxGap, int overflowCount,
+        int duplicateCount) {
+        this.gapCount = gapCount;
+        this.maxGap = maxGap;
+        this.overflowCount = overflowCount;
+        this.duplicateCount = duplicateCount;
+    }
+
+    /**
+     * Returns how many activities arrived before one of their predecessors.
+     */
+    public int getGapCount() {
+        return gapCount;
+    }
+
+    /**
+     * Returns the largest distance between the sequence number of an activity
+     * that arrived too early and the sequence number expected at that time.
+     */
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * Returns how many activities did not fit into the reorder window. Every
+     * overflow causes the participant to be unregistered.
+     */
+    public int getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * Returns how many activities were discarded because they were received
+     * twice.
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Returns the combination of these and the given statistics, i.e the
+     * counts are summed up and the larger maximum gap is kept.
+     */
+    ReorderStatistics add(ReorderStatistics other) {
+        return new ReorderStatistics(gapCount + other.gapCount, Math.max(
+            maxGap, other.maxGap), overflowCount + other.overflowCount,
+            duplicateCount + other.duplicateCount);
+    }
+
+    @Override
+    public String toString() {
+        return "ReorderStatistics [gaps=" + gapCount + ", maxGap=" + maxGap
+            + ", overflows=" + overflowCount + ", duplicates="
+            + duplicateCount + "]";
+    }
+}
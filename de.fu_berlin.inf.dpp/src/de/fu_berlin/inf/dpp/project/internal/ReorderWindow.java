@@ -0,0 +1,215 @@
+package de.fu_berlin.inf.dpp.project.internal;
+
+import java.util.Collection;
+
+/**
+ * A fixed size ring buffer that restores the order of elements which are
+ * identified by consecutive sequence numbers. Elements can be added in any
+ * order as long as their sequence number lies inside the window, i.e is not
+ * more than <code>capacity - 1</code> steps ahead of the next expected
+ * sequence number. Adding and removing an element is always done in constant
+ * time.
+ *
+ * <p>
+ * Sequence numbers are compared using their distance so the window keeps
+ * working when the sequence numbers overflow. For the same reason the capacity
+ * is always rounded up to the next power of two.
+ * </p>
+ *
+ * This class is <b>not</b> thread safe.
+ *
+ * @param <T>
+ *            the type of the buffered elements
+ */
+final class ReorderWindow<T> {
+
+    private final Object[] slots;
+
+    private int nextSequenceNumber;
+
+    private int size;
+
+    private int gapCount;
+
+    private int maxGap;
+
+    private int overflowCount;
+
+    private int duplicateCount;
+
+    /**
+     * @param capacity
+     *            the minimum number of sequence numbers the window may look
+     *            ahead, must be greater than zero and not greater than
+     *            <code>2^30</code>
+     * @param firstSequenceNumber
+     *            the sequence number of the first expected element
+     */
+    ReorderWindow(int capacity, int firstSequenceNumber) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+
+        int slotCount = Integer.highestOneBit(capacity);
+
+        if (slotCount < capacity)
+            slotCount <<= 1;
+
+        slots = new Object[slotCount];
+        nextSequenceNumber = firstSequenceNumber;
+    }
+
+    /**
+     * Adds the element with the given sequence number to the window. Elements
+     * whose sequence number was already passed or which are already buffered
+     * are silently discarded.
+     *
+     * @return <code>false</code> if the sequence number is too far ahead and
+     *         does not fit into the window, <code>true</code> otherwise
+     */
+    boolean add(int sequenceNumber, T element) {
+        int distance = sequenceNumber - nextSequenceNumber;
+
+        if (distance < 0) {
+            duplicateCount++;
+            return true;
+        }
+
+        if (distance >= slots.length) {
+            overflowCount++;
+            return false;
+        }
+
+        int index = indexOf(sequenceNumber);
+
+        if (slots[index] != null) {
+            duplicateCount++;
+            return true;
+        }
+
+        if (distance > 0) {
+            gapCount++;
+            maxGap = Math.max(maxGap, distance);
+        }
+
+        slots[index] = element;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes and returns the element with the next expected sequence number.
+     *
+     * @return the element or <code>null</code> if it has not been added yet
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        int index = indexOf(nextSequenceNumber);
+
+        T element = (T) slots[index];
+
+        if (element == null)
+            return null;
+
+        slots[index] = null;
+        size--;
+        nextSequenceNumber++;
+        return element;
+    }
+
+    /**
+     * Removes all elements that are ready, i.e whose predecessors have all been
+     * returned, and adds them in order to the given collection.
+     *
+     * <p>
+     * Draining the window after every {@linkplain #add added} element ensures
+     * that elements which arrive in order never occupy more than one slot, so
+     * an arbitrary number of them can be passed through a window of any
+     * capacity.
+     * </p>
+     *
+     * @return the number of elements that were removed
+     */
+    int drainTo(Collection<? super T> target) {
+        int count = 0;
+
+        T element;
+
+        while ((element = poll()) != null) {
+            target.add(element);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the sequence number of the next element that will be returned by
+     * {@link #poll()}.
+     */
+    int getNextSequenceNumber() {
+        return nextSequenceNumber;
+    }
+
+    /**
+     * Returns the number of elements that are currently buffered because
+     * their predecessors are still missing.
+     */
+    int size() {
+        return size;
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Returns how many elements arrived before one of their predecessors.
+     */
+    int getGapCount() {
+        return gapCount;
+    }
+
+    /**
+     * Returns the largest distance between the sequence number of an element
+     * that arrived too early and the sequence number expected at that time.
+     */
+    int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * Returns how many elements were rejected because they did not fit into
+     * the window.
+     */
+    int getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * Returns how many elements were discarded because their sequence number
+     * was already passed or buffered.
+     */
+    int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Returns a snapshot of the gap, overflow and duplicate counters.
+     */
+    ReorderStatistics getStatistics() {
+        return new ReorderStatistics(gapCount, maxGap, overflowCount,
+            duplicateCount);
+    }
+
+    @Override
+    public String toString() {
+        return "ReorderWindow [next=" + nextSequenceNumber + ", size=" + size
+            + ", capacity=" + slots.length + ", gaps=" + gapCount
+            + ", maxGap=" + maxGap + ", overflows=" + overflowCount
+            + ", duplicates=" + duplicateCount + "]";
+    }
+
+    private int indexOf(int sequenceNumber) {
+        return sequenceNumber & (slots.length - 1);
+    }
+}
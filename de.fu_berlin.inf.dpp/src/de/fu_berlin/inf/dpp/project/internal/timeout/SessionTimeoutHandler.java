@@ -63,6 +63,11 @@ abstract class SessionTimeoutHandler implements Startable {
             else
                 handleNetworkError(jid, "TxFailure");
         }
+
+        @Override
+        public void reorderWindowExceeded(final JID jid) {
+            handleNetworkError(jid, "RxFailure");
+        }
     };
 
     protected SessionTimeoutHandler(ISarosSession session,
@@ -470,7 +470,7 @@ public class AddProjectToSessionWizard extends Wizard {
      */
     private Map<String, FileListDiff> calculateModifiedResources(
         Map<String, IProject> projectMapping, IProgressMonitor monitor)
-        throws CoreException {
+        throws CoreException, IOException {
         Map<String, FileListDiff> modifiedResources = new HashMap<String, FileListDiff>();
 
         ISarosSession session = sessionManager.getSarosSession();
@@ -495,8 +495,6 @@ public class AddProjectToSessionWizard extends Wizard {
             if (!eclipseProject.isOpen())
                 eclipseProject.open(null);
 
-            FileList remoteFileList = process.getRemoteFileList(projectID);
-
             de.fu_berlin.inf.dpp.filesystem.IProject project = ResourceAdapterFactory
                 .create(eclipseProject);
 
@@ -511,6 +509,14 @@ public class AddProjectToSessionWizard extends Wizard {
                 log.warn("could not refresh project: " + project, e);
             }
 
+            FileList localFileList = FileListFactory.createFileList(
+                eclipseProject, null, checksumCache, true,
+                subMonitor.newChild(1, SubMonitor.SUPPRESS_ALL_LABELS));
+
+            process.resolveRemoteFileList(projectID, localFileList);
+
+            FileList remoteFileList = process.getRemoteFileList(projectID);
+
             if (session.isShared(project)) {
 
                 List<org.eclipse.core.resources.IResource> eclipseResources = ResourceAdapterFactory
@@ -525,10 +531,7 @@ public class AddProjectToSessionWizard extends Wizard {
             } else
                 subMonitor.worked(1);
 
-            diff = FileListDiff.diff(FileListFactory.createFileList(
-                eclipseProject, null, checksumCache, true,
-                subMonitor.newChild(1, SubMonitor.SUPPRESS_ALL_LABELS)),
-                remoteFileList);
+            diff = FileListDiff.diff(localFileList, remoteFileList);
 
             if (process.isPartialRemoteProject(projectID))
                 diff.clearRemovedPaths();
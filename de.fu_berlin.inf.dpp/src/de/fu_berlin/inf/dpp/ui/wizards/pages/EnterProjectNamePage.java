@@ -153,6 +153,7 @@ public class EnterProjectNamePage extends WizardPage {
             break;
 
         case SOCKS5_DIRECT:
+        case TCP:
             setDescription(Messages.EnterProjectNamePage_description_direct_filetranfser);
             setImageDescriptor(ImageManager
                 .getImageDescriptor("icons/wizban/socks5.png"));
@@ -11,6 +11,7 @@ import de.fu_berlin.inf.dpp.activities.serializable.ChecksumActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.IActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.TextSelectionActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.ViewportActivityDataObject;
+import de.fu_berlin.inf.dpp.net.JID;
 
 /**
  * Class contains static helper methods for {@link IActivityDataObject ADOs}.
@@ -66,12 +67,12 @@ public class ActivityUtils {
 
         boolean[] dropDAOIdx = new boolean[activities.size()];
 
-        Map<SPathDataObject, Integer> selections = new HashMap<SPathDataObject, Integer>();
-        Map<SPathDataObject, Integer> viewports = new HashMap<SPathDataObject, Integer>();
+        Map<Pair<JID, SPathDataObject>, Integer> selections = new HashMap<Pair<JID, SPathDataObject>, Integer>();
+        Map<Pair<JID, SPathDataObject>, Integer> viewports = new HashMap<Pair<JID, SPathDataObject>, Integer>();
 
         /*
-         * keep only the latest selection/viewport activities per project and
-         * path
+         * keep only the latest selection/viewport activities per source,
+         * project and path, the host forwards the activities of all users
          */
 
         int daoIdx = 0;
@@ -80,25 +81,27 @@ public class ActivityUtils {
 
             if (dao instanceof TextSelectionActivityDataObject) {
 
-                SPathDataObject daoPath = ((TextSelectionActivityDataObject) dao)
-                    .getPath();
+                Pair<JID, SPathDataObject> key = new Pair<JID, SPathDataObject>(
+                    dao.getSource(),
+                    ((TextSelectionActivityDataObject) dao).getPath());
 
-                Integer idx = selections.get(daoPath);
+                Integer idx = selections.get(key);
 
                 if (idx != null)
                     dropDAOIdx[idx] = true;
 
-                selections.put(daoPath, daoIdx);
+                selections.put(key, daoIdx);
             } else if (dao instanceof ViewportActivityDataObject) {
-                SPathDataObject daoPath = ((ViewportActivityDataObject) dao)
-                    .getPath();
+                Pair<JID, SPathDataObject> key = new Pair<JID, SPathDataObject>(
+                    dao.getSource(),
+                    ((ViewportActivityDataObject) dao).getPath());
 
-                Integer idx = viewports.get(daoPath);
+                Integer idx = viewports.get(key);
 
                 if (idx != null)
                     dropDAOIdx[idx] = true;
 
-                viewports.put(daoPath, daoIdx);
+                viewports.put(key, daoIdx);
             }
 
             daoIdx++;
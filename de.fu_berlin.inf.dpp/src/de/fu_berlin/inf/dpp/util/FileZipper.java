@@ -89,6 +89,56 @@ public class FileZipper {
             listener);
     }
 
+    /**
+     * Writes all files referenced by their paths as entries into the given Zip
+     * stream. The paths must be relative to the project the files belong to.
+     * Every entry name consists of the given prefix followed by the project
+     * relative path of the file. The stream is neither finished nor closed so
+     * that the entries of several projects can be written into the same
+     * stream, e.g a stream that is directly connected to a remote peer.
+     * 
+     * @param project
+     *            an Eclipse project
+     * @param paths
+     *            the paths of the files relative to the project that should be
+     *            compressed and written
+     * @param prefix
+     *            the prefix of every entry name, may be empty
+     * @param zipStream
+     *            the Zip stream to write the entries to
+     * @param listener
+     *            a {@link ZipListener} which will receive status updates or
+     *            <code>null</code>
+     * @return the number of uncompressed bytes that were written
+     * 
+     * @cancelable This operation can be canceled via the given listener.
+     * 
+     * @throws IOException
+     *             if an I/O error occurred while writing the entries
+     * @throws OperationCanceledException
+     *             if the user canceled the operation, see also
+     *             {@link ZipListener}
+     */
+    public static long writeProjectZipEntries(IProject project,
+        List<IPath> paths, String prefix, ZipOutputStream zipStream,
+        ZipListener listener) throws IOException, OperationCanceledException {
+
+        long totalFileSizes = 0;
+
+        List<FileWrapper> filesToZip = new ArrayList<FileWrapper>(paths.size());
+
+        for (IPath path : paths) {
+            IPath fileSystemPath = project.getFile(path).getLocation();
+            if (fileSystemPath != null)
+                totalFileSizes += fileSystemPath.toFile().length();
+
+            filesToZip.add(new EclipseFileWrapper(project.getFile(path)));
+        }
+
+        return writeEntries(filesToZip, zipStream, prefix, true,
+            totalFileSizes, listener);
+    }
+
     /**
      * Creates a Zip archive containing all files of the given list. Only files
      * are included <b>without</b> their directory names. The archive will
@@ -132,8 +182,6 @@ public class FileZipper {
         boolean compress, boolean includeDirectories, long totalSize,
         ZipListener listener) throws IOException, OperationCanceledException {
 
-        byte[] buffer = new byte[BUFFER_SIZE];
-
         OutputStream outputStream = new BufferedOutputStream(
             new FileOutputStream(archive), BUFFER_SIZE);
 
@@ -143,64 +191,78 @@ public class FileZipper {
             : Deflater.NO_COMPRESSION);
 
         boolean cleanup = true;
-        boolean isCanceled = false;
 
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
 
+        try {
+            writeEntries(files, zipStream, "", includeDirectories, totalSize,
+                listener);
+            cleanup = false;
+        } finally {
+            IOUtils.closeQuietly(zipStream);
+            if (cleanup && archive != null && archive.exists()
+                && !archive.delete())
+                log.warn("could not delete archive file: " + archive);
+        }
+
+        stopWatch.stop();
+
+        log.debug(String.format("created archive %s I/O: [%s]",
+            archive.getAbsolutePath(),
+            Utils.throughput(archive.length(), stopWatch.getTime())));
+
+    }
+
+    private static long writeEntries(List<FileWrapper> files,
+        ZipOutputStream zipStream, String prefix, boolean includeDirectories,
+        long totalSize, ZipListener listener) throws IOException,
+        OperationCanceledException {
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        boolean isCanceled = false;
+
         long totalRead = 0L;
 
-        try {
-            for (FileWrapper file : files) {
-                String entryName = includeDirectories ? file.getPath() : file
-                    .getName();
+        for (FileWrapper file : files) {
+            String entryName = prefix
+                + (includeDirectories ? file.getPath() : file.getName());
 
-                if (listener != null)
-                    isCanceled = listener.update(file.getPath());
+            if (listener != null)
+                isCanceled = listener.update(file.getPath());
 
-                log.trace("compressing file: " + entryName);
+            log.trace("compressing file: " + entryName);
 
-                zipStream.putNextEntry(new ZipEntry(entryName));
+            zipStream.putNextEntry(new ZipEntry(entryName));
 
-                InputStream in = null;
+            InputStream in = null;
 
-                try {
-                    int read = 0;
-                    in = file.getInputStream();
-                    while (-1 != (read = in.read(buffer))) {
+            try {
+                int read = 0;
+                in = file.getInputStream();
+                while (-1 != (read = in.read(buffer))) {
 
-                        if (isCanceled)
-                            throw new OperationCanceledException(
-                                "compressing of file '" + entryName
-                                    + "' was canceled");
+                    if (isCanceled)
+                        throw new OperationCanceledException(
+                            "compressing of file '" + entryName
+                                + "' was canceled");
 
-                        zipStream.write(buffer, 0, read);
+                    zipStream.write(buffer, 0, read);
 
-                        totalRead += read;
+                    totalRead += read;
 
-                        if (listener != null)
-                            listener.update(totalRead, totalSize);
+                    if (listener != null)
+                        listener.update(totalRead, totalSize);
 
-                    }
-                } finally {
-                    IOUtils.closeQuietly(in);
                 }
-                zipStream.closeEntry();
+            } finally {
+                IOUtils.closeQuietly(in);
             }
-            cleanup = false;
-        } finally {
-            IOUtils.closeQuietly(zipStream);
-            if (cleanup && archive != null && archive.exists()
-                && !archive.delete())
-                log.warn("could not delete archive file: " + archive);
+            zipStream.closeEntry();
         }
 
-        stopWatch.stop();
-
-        log.debug(String.format("created archive %s I/O: [%s]",
-            archive.getAbsolutePath(),
-            Utils.throughput(archive.length(), stopWatch.getTime())));
-
+        return totalRead;
     }
 
     interface FileWrapper {
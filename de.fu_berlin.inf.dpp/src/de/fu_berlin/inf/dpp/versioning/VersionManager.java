@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
@@ -19,11 +20,17 @@ import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Packet;
 
 import de.fu_berlin.inf.dpp.ISarosContextBindings.SarosVersion;
+import de.fu_berlin.inf.dpp.activities.serializable.ActivityDataObjectCodec;
 import de.fu_berlin.inf.dpp.annotations.Component;
+import de.fu_berlin.inf.dpp.invitation.FileListCodec;
+import de.fu_berlin.inf.dpp.invitation.ProjectNegotiation;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
 import de.fu_berlin.inf.dpp.net.JID;
 import de.fu_berlin.inf.dpp.net.SarosPacketCollector;
+import de.fu_berlin.inf.dpp.net.internal.DataTransferManager;
+import de.fu_berlin.inf.dpp.net.internal.TCPTransport;
+import de.fu_berlin.inf.dpp.net.internal.TransferDescription;
 import de.fu_berlin.inf.dpp.net.internal.extensions.VersionExchangeExtension;
 
 /**
@@ -42,6 +49,12 @@ public class VersionManager {
     private static final String VERSION_KEY = "version";
     private static final String COMPATIBILITY_KEY = "compatibility";
     private static final String ID_KEY = "id";
+    private static final String ACTIVITY_CODEC_KEY = "activityCodec";
+    private static final String FILE_LIST_CODEC_KEY = "fileListCodec";
+    private static final String TRANSFER_DESCRIPTION_KEY = "transferDescription";
+    private static final String CONTEXT_COMPRESSION_KEY = "contextCompression";
+    private static final String ARCHIVE_STREAM_KEY = "archiveStream";
+    private static final String TCP_TRANSPORT_KEY = "tcpTransport";
 
     private static final Random ID_GENERATOR = new Random();
 
@@ -58,9 +71,28 @@ public class VersionManager {
      */
     private final Map<Version, List<Version>> compatibilityChart = new HashMap<Version, List<Version>>();
 
+    /**
+     * Contains the activity codec versions announced by the remote sides
+     * during the last version exchange.
+     */
+    private final Map<JID, String> remoteActivityCodecVersions = new ConcurrentHashMap<JID, String>();
+
+    /**
+     * Contains the file list codec versions announced by the remote sides
+     * during the last version exchange.
+     */
+    private final Map<JID, String> remoteFileListCodecVersions = new ConcurrentHashMap<JID, String>();
+
+    /**
+     * Contains the archive stream versions announced by the remote sides
+     * during the last version exchange.
+     */
+    private final Map<JID, String> remoteArchiveStreamVersions = new ConcurrentHashMap<JID, String>();
+
     private final Version version;
     private final ITransmitter transmitter;
     private final IReceiver receiver;
+    private final DataTransferManager dataTransferManager;
 
     private final PacketListener versionRequestListener = new PacketListener() {
         /*
@@ -80,11 +112,29 @@ public class VersionManager {
                 return;
             }
 
+            rememberCodecVersions(new JID(packet.getFrom()),
+                versionExchangeRequest);
+
             VersionExchangeExtension versionExchangeResponse = new VersionExchangeExtension();
 
             createResponseData: {
 
                 versionExchangeResponse.set(VERSION_KEY, version.toString());
+                versionExchangeResponse.set(ACTIVITY_CODEC_KEY,
+                    String.valueOf(ActivityDataObjectCodec.VERSION));
+                versionExchangeResponse.set(FILE_LIST_CODEC_KEY,
+                    String.valueOf(FileListCodec.VERSION));
+                versionExchangeResponse.set(TRANSFER_DESCRIPTION_KEY,
+                    String.valueOf(TransferDescription.VERSION));
+                versionExchangeResponse.set(CONTEXT_COMPRESSION_KEY, String
+                    .valueOf(DataTransferManager.CONTEXT_COMPRESSION_VERSION));
+                versionExchangeResponse.set(ARCHIVE_STREAM_KEY, String
+                    .valueOf(ProjectNegotiation.ARCHIVE_STREAM_VERSION));
+
+                if (dataTransferManager.isTCPTransportAvailable())
+                    versionExchangeResponse.set(TCP_TRANSPORT_KEY,
+                        String.valueOf(TCPTransport.VERSION));
+
                 versionExchangeResponse.set(COMPATIBILITY_KEY,
                     String.valueOf(Compatibility.UNKNOWN.getCode()));
 
@@ -133,7 +183,8 @@ public class VersionManager {
     };
 
     public VersionManager(@SarosVersion String version,
-        final IReceiver receiver, final ITransmitter transmitter) {
+        final IReceiver receiver, final ITransmitter transmitter,
+        final DataTransferManager dataTransferManager) {
 
         this.version = Version.parseVersion(version);
 
@@ -143,6 +194,7 @@ public class VersionManager {
 
         this.receiver = receiver;
         this.transmitter = transmitter;
+        this.dataTransferManager = dataTransferManager;
 
         receiver.addPacketListener(versionRequestListener, new AndFilter(
             VersionExchangeExtension.PROVIDER.getIQFilter(),
@@ -183,6 +235,8 @@ public class VersionManager {
         if (versionExchangeResponse == null)
             return null;
 
+        rememberCodecVersions(rqJID, versionExchangeResponse);
+
         Compatibility remoteCompatibility = Compatibility.UNKNOWN;
         Compatibility compatibility = Compatibility.UNKNOWN;
         Version remoteVersion = Version.INVALID;
@@ -242,6 +296,20 @@ public class VersionManager {
 
         versionExchangeRequest.set(VERSION_KEY, version.toString());
         versionExchangeRequest.set(ID_KEY, String.valueOf(exchangeID));
+        versionExchangeRequest.set(ACTIVITY_CODEC_KEY,
+            String.valueOf(ActivityDataObjectCodec.VERSION));
+        versionExchangeRequest.set(FILE_LIST_CODEC_KEY,
+            String.valueOf(FileListCodec.VERSION));
+        versionExchangeRequest.set(TRANSFER_DESCRIPTION_KEY,
+            String.valueOf(TransferDescription.VERSION));
+        versionExchangeRequest.set(CONTEXT_COMPRESSION_KEY,
+            String.valueOf(DataTransferManager.CONTEXT_COMPRESSION_VERSION));
+        versionExchangeRequest.set(ARCHIVE_STREAM_KEY,
+            String.valueOf(ProjectNegotiation.ARCHIVE_STREAM_VERSION));
+
+        if (dataTransferManager.isTCPTransportAvailable())
+            versionExchangeRequest.set(TCP_TRANSPORT_KEY,
+                String.valueOf(TCPTransport.VERSION));
 
         IQ request = VersionExchangeExtension.PROVIDER
             .createIQ(versionExchangeRequest);
@@ -279,6 +347,94 @@ public class VersionManager {
         }
     }
 
+    /**
+     * Returns whether the given peer is able to receive activities in the
+     * binary format of the {@link ActivityDataObjectCodec}. The result is only
+     * meaningful after a version exchange with the peer took place, either
+     * initiated by {@link #determineVersionCompatibility} or by the peer
+     * itself.
+     * 
+     * @param rqJID
+     *            the resource qualified JID of the peer
+     * @return <code>true</code> if the peer announced the same activity codec
+     *         version, <code>false</code> otherwise
+     */
+    public boolean isBinaryActivityCodecSupported(JID rqJID) {
+        return String.valueOf(ActivityDataObjectCodec.VERSION).equals(
+            remoteActivityCodecVersions.get(rqJID));
+    }
+
+    /**
+     * Returns whether the given peer is able to receive file lists in the
+     * binary format of the {@link FileListCodec}. The same restrictions as for
+     * {@link #isBinaryActivityCodecSupported} apply.
+     * 
+     * @param rqJID
+     *            the resource qualified JID of the peer
+     * @return <code>true</code> if the peer announced the same file list codec
+     *         version, <code>false</code> otherwise
+     */
+    public boolean isBinaryFileListCodecSupported(JID rqJID) {
+        return String.valueOf(FileListCodec.VERSION).equals(
+            remoteFileListCodecVersions.get(rqJID));
+    }
+
+    /**
+     * Returns whether the given peer is able to receive the missing files of
+     * a project negotiation as an archive stream. The same restrictions as for
+     * {@link #isBinaryActivityCodecSupported} apply.
+     * 
+     * @param rqJID
+     *            the resource qualified JID of the peer
+     * @return <code>true</code> if the peer announced the same archive stream
+     *         version, <code>false</code> otherwise
+     */
+    public boolean isArchiveStreamSupported(JID rqJID) {
+        return String.valueOf(ProjectNegotiation.ARCHIVE_STREAM_VERSION)
+            .equals(remoteArchiveStreamVersions.get(rqJID));
+    }
+
+    private void rememberCodecVersions(JID rqJID,
+        VersionExchangeExtension versionExchange) {
+        rememberCodecVersion(rqJID, versionExchange.get(ACTIVITY_CODEC_KEY),
+            remoteActivityCodecVersions);
+        rememberCodecVersion(rqJID, versionExchange.get(FILE_LIST_CODEC_KEY),
+            remoteFileListCodecVersions);
+        rememberCodecVersion(rqJID, versionExchange.get(ARCHIVE_STREAM_KEY),
+            remoteArchiveStreamVersions);
+
+        /*
+         * older versions drop the connection if they receive a compact
+         * transfer description
+         */
+        dataTransferManager.setCompactTransferDescriptionsSupported(rqJID,
+            String.valueOf(TransferDescription.VERSION).equals(
+                versionExchange.get(TRANSFER_DESCRIPTION_KEY)));
+
+        // older versions cannot inflate payloads of a compression context
+        dataTransferManager.setContextCompressionSupported(rqJID, String
+            .valueOf(DataTransferManager.CONTEXT_COMPRESSION_VERSION).equals(
+                versionExchange.get(CONTEXT_COMPRESSION_KEY)));
+
+        /*
+         * peers without the TCP transport never answer an offer request, so
+         * connecting to them would only wait for the reply timeout
+         */
+        dataTransferManager.setTCPTransportSupported(rqJID,
+            String.valueOf(TCPTransport.VERSION).equals(
+                versionExchange.get(TCP_TRANSPORT_KEY)));
+    }
+
+    private static void rememberCodecVersion(JID rqJID, String codecVersion,
+        Map<JID, String> remoteCodecVersions) {
+
+        // older versions do not know the binary codec
+        if (codecVersion == null)
+            remoteCodecVersions.remove(rqJID);
+        else
+            remoteCodecVersions.put(rqJID, codecVersion);
+    }
+
     /**
      * Compares the two given versions for compatibility. The result indicates
      * whether the local version is compatible with the remote version.
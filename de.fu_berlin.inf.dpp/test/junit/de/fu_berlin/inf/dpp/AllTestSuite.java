@@ -10,6 +10,8 @@ de.fu_berlin.inf.dpp.accountManagement.TestSuite.class,
 
 de.fu_berlin.inf.dpp.concurrent.undo.TestSuite.class,
 
+de.fu_berlin.inf.dpp.concurrent.watchdog.TestSuite.class,
+
 de.fu_berlin.inf.dpp.editor.colorstorage.TestSuite.class,
 
 de.fu_berlin.inf.dpp.editor.internal.TestSuite.class,
@@ -24,6 +26,8 @@ de.fu_berlin.inf.dpp.project.TestSuite.class,
 
 de.fu_berlin.inf.dpp.project.internal.TestSuite.class,
 
+de.fu_berlin.inf.dpp.test.benchmark.TestSuite.class,
+
 de.fu_berlin.inf.dpp.ui.model.roster.TestSuite.class,
 
 de.fu_berlin.inf.dpp.util.TestSuite.class,
@@ -0,0 +1,83 @@
+package de.fu_berlin.inf.dpp.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ChecksumScheduleTest {
+
+    private static final long MIN = 2000;
+
+    private static final long MAX = 10000;
+
+    private static final long REFRESH = 60000;
+
+    @Test
+    public void testFirstCheckIsDue() {
+        ChecksumSchedule schedule = new ChecksumSchedule(MIN, MAX, REFRESH);
+
+        assertTrue(schedule.isDue(0, false));
+        assertEquals(0, schedule.getRate(0), 0);
+    }
+
+    @Test
+    public void testUnchangedDocumentIsOnlyRefreshed() {
+        ChecksumSchedule schedule = new ChecksumSchedule(MIN, MAX, REFRESH);
+        schedule.checked(0, true);
+
+        assertFalse(schedule.isDue(MAX, false));
+        assertFalse(schedule.isDue(REFRESH - 1, false));
+        assertTrue(schedule.isDue(REFRESH, false));
+    }
+
+    @Test
+    public void testContinuouslyEditedDocumentIsCheckedMoreOften() {
+        ChecksumSchedule schedule = new ChecksumSchedule(MIN, MAX, REFRESH);
+
+        long now = 0;
+
+        for (int i = 0; i < 30; i++) {
+            assertTrue(schedule.isDue(now, true));
+            schedule.checked(now, true);
+            now += schedule.getInterval();
+        }
+
+        assertEquals(MIN, schedule.getInterval());
+        assertEquals(60000D / MIN, schedule.getRate(now), 1);
+    }
+
+    @Test
+    public void testIdleDocumentCoolsDown() {
+        ChecksumSchedule schedule = new ChecksumSchedule(MIN, MAX, REFRESH);
+
+        long now = 0;
+
+        for (int i = 0; i < 10; i++) {
+            schedule.checked(now, true);
+            now += schedule.getInterval();
+        }
+
+        assertEquals(MIN, schedule.getInterval());
+
+        // a single change after a long pause
+        now += REFRESH;
+        assertTrue(schedule.isDue(now, true));
+        schedule.checked(now, true);
+
+        assertTrue(schedule.getInterval() > MIN);
+        assertTrue(schedule.getRate(now + REFRESH) <= 1);
+    }
+
+    @Test
+    public void testDelay() {
+        ChecksumSchedule schedule = new ChecksumSchedule(MIN, MAX, REFRESH);
+        assertEquals(0, schedule.getDelay(100, false));
+
+        schedule.checked(100, true);
+
+        assertEquals(MAX, schedule.getDelay(100, true));
+        assertEquals(REFRESH - 50, schedule.getDelay(150, false));
+    }
+}
@@ -0,0 +1,178 @@
+package de.fu_berlin.inf.dpp.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IncrementalTextHashTest {
+
+    private static class TextHash extends IncrementalTextHash {
+
+        final StringBuilder text;
+
+        int readCharacters;
+
+        TextHash(String text) {
+            super(text.length());
+            this.text = new StringBuilder(text);
+        }
+
+        @Override
+        protected String getText(int offset, int length) {
+            readCharacters += length;
+            return text.substring(offset, offset + length);
+        }
+
+        void edit(int offset, int removed, String inserted) {
+            text.replace(offset, offset + removed, inserted);
+            replace(offset, removed, inserted.length());
+        }
+
+        void assertHash() {
+            assertEquals(text.length(), getLength());
+            assertEquals(text.toString().hashCode(), getHash());
+        }
+    }
+
+    private static String createText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++)
+            builder.append((char) ('a' + random.nextInt(26)));
+
+        return builder.toString();
+    }
+
+    @Test
+    public void testEmptyText() {
+        TextHash hash = new TextHash("");
+        hash.assertHash();
+
+        hash.edit(0, 0, "foo");
+        hash.assertHash();
+
+        hash.edit(0, 3, "");
+        hash.assertHash();
+    }
+
+    @Test
+    public void testInitialHash() {
+        Random random = new Random(1);
+
+        for (int length : new int[] { 1, 1023, 1024, 1025, 5000, 100000 }) {
+            TextHash hash = new TextHash(createText(random, length));
+            hash.assertHash();
+        }
+    }
+
+    @Test
+    public void testOnlyChangedChunksAreRead() {
+        Random random = new Random(2);
+
+        TextHash hash = new TextHash(createText(random, 1000000));
+        hash.assertHash();
+
+        hash.readCharacters = 0;
+        hash.edit(500000, 10, "changed");
+        hash.assertHash();
+
+        assertTrue("read " + hash.readCharacters + " characters",
+            hash.readCharacters <= 2 * IncrementalTextHash.CHUNK_SIZE);
+
+        hash.readCharacters = 0;
+        hash.assertHash();
+        assertEquals(0, hash.readCharacters);
+    }
+
+    @Test
+    public void testLargeInsertion() {
+        Random random = new Random(3);
+
+        TextHash hash = new TextHash(createText(random, 3000));
+        hash.getHash();
+
+        hash.edit(1500, 0, createText(random, 50000));
+        hash.assertHash();
+
+        hash.edit(10, 40000, "");
+        hash.assertHash();
+    }
+
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(4);
+
+        TextHash hash = new TextHash(createText(random, 20000));
+
+        for (int i = 0; i < 2000; i++) {
+            int length = hash.text.length();
+            int offset = random.nextInt(length + 1);
+            int removed = random.nextInt(Math.min(length - offset, 3000) + 1);
+
+            String inserted = createText(random,
+                random.nextInt(4) == 0 ? random.nextInt(3000) : random
+                    .nextInt(10));
+
+            hash.edit(offset, removed, inserted);
+
+            if (random.nextInt(5) == 0)
+                hash.assertHash();
+        }
+
+        hash.assertHash();
+    }
+
+    @Test
+    public void testCapturedChunksAreNotReadAgain() {
+        Random random = new Random(5);
+
+        TextHash hash = new TextHash(createText(random, 100000));
+
+        List<String> texts = hash.capture();
+
+        int length = 0;
+
+        for (String text : texts)
+            length += text.length();
+
+        assertEquals(100000, length);
+
+        hash.readCharacters = 0;
+        hash.assertHash();
+        assertEquals(0, hash.readCharacters);
+    }
+
+    @Test
+    public void testChangesAfterCapture() {
+        Random random = new Random(6);
+
+        TextHash hash = new TextHash(createText(random, 50000));
+        hash.assertHash();
+
+        for (int i = 0; i < 200; i++) {
+            int length = hash.text.length();
+            int offset = random.nextInt(length + 1);
+            int removed = random.nextInt(Math.min(length - offset, 2000) + 1);
+
+            hash.edit(offset, removed, createText(random, random.nextInt(2000)));
+
+            if (random.nextInt(3) == 0)
+                hash.capture();
+
+            if (random.nextInt(5) == 0)
+                hash.assertHash();
+        }
+
+        hash.assertHash();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChange() {
+        TextHash hash = new TextHash("foo");
+        hash.replace(2, 2, 0);
+    }
+}
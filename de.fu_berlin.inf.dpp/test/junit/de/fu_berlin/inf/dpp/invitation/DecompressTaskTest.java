@@ -0,0 +1,240 @@
+package de.fu_berlin.inf.dpp.invitation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DecompressTaskTest {
+
+    private static final String DELIMITER = "&&&&";
+
+    private final Map<String, byte[]> writtenFiles = new HashMap<String, byte[]>();
+
+    private final Map<String, IProject> projects = new HashMap<String, IProject>();
+
+    private IWorkspace workspace;
+
+    /** set while the workspace runs an operation, i.e is locked */
+    private boolean workspaceLocked;
+
+    private int workspaceOperations;
+
+    private int readsWhileLocked;
+
+    @Before
+    public void setUp() throws Exception {
+        workspace = EasyMock.createMock(IWorkspace.class);
+
+        workspace.run(EasyMock.isA(IWorkspaceRunnable.class),
+            EasyMock.<IProgressMonitor> isNull());
+
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                workspaceLocked = true;
+                workspaceOperations++;
+
+                try {
+                    ((IWorkspaceRunnable) EasyMock.getCurrentArguments()[0])
+                        .run(null);
+                } finally {
+                    workspaceLocked = false;
+                }
+
+                return null;
+            }
+        }).anyTimes();
+
+        EasyMock.replay(workspace);
+
+        projects.put("1", createProject("foo"));
+        projects.put("2", createProject("bar"));
+    }
+
+    @Test
+    public void testMultiProjectStreamIsWrittenInOneBatch() throws Exception {
+        byte[] a = createContent(100);
+        byte[] b = createContent(200);
+        byte[] c = createContent(300);
+
+        DecompressTask task = createTask(createStream(new String[] {
+            "1" + DELIMITER + "a.txt", "2" + DELIMITER + "b.txt",
+            "1" + DELIMITER + "c.txt" }, new byte[][] { a, b, c }));
+
+        task.runInBatches(workspace, new NullProgressMonitor());
+
+        assertArrayEquals(a, writtenFiles.get("foo/a.txt"));
+        assertArrayEquals(b, writtenFiles.get("bar/b.txt"));
+        assertArrayEquals(c, writtenFiles.get("foo/c.txt"));
+
+        assertEquals(3, task.getWrittenFiles());
+        assertEquals("small files must share one workspace operation", 1,
+            workspaceOperations);
+        assertEquals("stream was read while the workspace was locked", 0,
+            readsWhileLocked);
+    }
+
+    @Test
+    public void testBatchesAreLimited() throws Exception {
+        int size = DecompressTask.BATCH_SIZE / 2;
+
+        byte[][] contents = new byte[][] { createContent(size),
+            createContent(size), createContent(size), createContent(size) };
+
+        DecompressTask task = createTask(createStream(new String[] {
+            "1" + DELIMITER + "a.txt", "2" + DELIMITER + "b.txt",
+            "1" + DELIMITER + "c.txt", "2" + DELIMITER + "d.txt" }, contents));
+
+        task.runInBatches(workspace, new NullProgressMonitor());
+
+        assertArrayEquals(contents[3], writtenFiles.get("bar/d.txt"));
+        assertEquals(2, workspaceOperations);
+        assertEquals("stream was read while the workspace was locked", 0,
+            readsWhileLocked);
+    }
+
+    @Test
+    public void testLargeFileIsWrittenOnItsOwn() throws Exception {
+        byte[] small = createContent(10);
+        byte[] large = createContent(2 * DecompressTask.BATCH_SIZE + 1);
+
+        DecompressTask task = createTask(createStream(new String[] {
+            "1" + DELIMITER + "a.txt", "2" + DELIMITER + "large.bin",
+            "1" + DELIMITER + "c.txt" }, new byte[][] { small, large, small }));
+
+        task.runInBatches(workspace, new NullProgressMonitor());
+
+        assertArrayEquals(small, writtenFiles.get("foo/a.txt"));
+        assertArrayEquals(large, writtenFiles.get("bar/large.bin"));
+        assertArrayEquals(small, writtenFiles.get("foo/c.txt"));
+
+        assertEquals(3, task.getWrittenFiles());
+        assertEquals(3, workspaceOperations);
+    }
+
+    @Test(expected = CoreException.class)
+    public void testEntryOfUnknownProject() throws Exception {
+        DecompressTask task = createTask(createStream(new String[] { "3"
+            + DELIMITER + "a.txt" }, new byte[][] { createContent(10) }));
+
+        task.runInBatches(workspace, new NullProgressMonitor());
+    }
+
+    private DecompressTask createTask(byte[] stream) {
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(stream)) {
+            @Override
+            public int read() throws IOException {
+                if (workspaceLocked)
+                    readsWhileLocked++;
+
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (workspaceLocked)
+                    readsWhileLocked++;
+
+                return super.read(b, off, len);
+            }
+        };
+
+        return new DecompressTask(new ZipInputStream(in), projects, DELIMITER,
+            null);
+    }
+
+    private IProject createProject(final String name) {
+        final IProject project = EasyMock.createMock(IProject.class);
+
+        EasyMock.expect(project.getType()).andStubReturn(IResource.PROJECT);
+
+        EasyMock.expect(project.getFile(EasyMock.isA(IPath.class)))
+            .andAnswer(new IAnswer<IFile>() {
+                @Override
+                public IFile answer() throws Throwable {
+                    return createFile(project, name,
+                        (IPath) EasyMock.getCurrentArguments()[0]);
+                }
+            }).anyTimes();
+
+        EasyMock.replay(project);
+        return project;
+    }
+
+    private IFile createFile(IProject project, final String projectName,
+        final IPath path) throws CoreException {
+
+        IFile file = EasyMock.createMock(IFile.class);
+
+        EasyMock.expect(file.getProjectRelativePath()).andStubReturn(path);
+        EasyMock.expect(file.getParent()).andStubReturn(project);
+        EasyMock.expect(file.exists()).andStubReturn(false);
+
+        file.create(EasyMock.isA(InputStream.class), EasyMock.eq(true),
+            EasyMock.<IProgressMonitor> anyObject());
+
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                InputStream in = (InputStream) EasyMock.getCurrentArguments()[0];
+
+                writtenFiles.put(projectName + "/" + path.toPortableString(),
+                    IOUtils.toByteArray(in));
+
+                return null;
+            }
+        }).once();
+
+        EasyMock.replay(file);
+        return file;
+    }
+
+    private static byte[] createStream(String[] names, byte[][] contents)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(out);
+
+        for (int i = 0; i < names.length; i++) {
+            zip.putNextEntry(new ZipEntry(names[i]));
+            zip.write(contents[i]);
+            zip.closeEntry();
+        }
+
+        zip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+
+        for (int i = 0; i < size; i++)
+            content[i] = (byte) (i * 31 + size);
+
+        return content;
+    }
+}
@@ -24,6 +24,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
@@ -49,6 +52,8 @@ import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.converters.basic.BooleanConverter;
 import com.thoughtworks.xstream.io.xml.CompactWriter;
 
+import de.fu_berlin.inf.dpp.util.VarIntUtils;
+
 /**
  * TODO [TEST] Add Testcases for non-existing files florianthiel: Does FileList
  * care about existence of files?
@@ -138,6 +143,9 @@ public class FileListTest {
         EasyMock.expect(fileMock.getType()).andStubReturn(IResource.FILE);
         EasyMock.expect(fileMock.getName()).andStubReturn(p.lastSegment());
         EasyMock.expect(fileMock.getFullPath()).andStubReturn(f);
+        EasyMock.expect(fileMock.getLocalTimeStamp()).andStubReturn(
+            IResource.NULL_STAMP);
+        EasyMock.expect(fileMock.getLocation()).andStubReturn(null);
 
         try {
             EasyMock.expect(fileMock.getCharset()).andStubReturn(encoding);
@@ -312,6 +320,166 @@ public class FileListTest {
         assertEquals(threeEntryList, replicated);
     }
 
+    @Test
+    public void testBinaryRoundtripSerialization() throws IOException {
+        threeEntryList.setProjectID("4711");
+
+        FileList replicated = fromBinary(toBinary(threeEntryList));
+
+        assertEquals(threeEntryList, replicated);
+        assertEquals("4711", replicated.getProjectID());
+        assertEquals(threeEntryList.getEncodings(), replicated.getEncodings());
+        assertPaths(new String[] { "root1", "root2", "subdir/file1" },
+            replicated.getPaths());
+
+        replicated = fromBinary(toBinary(emptyFileList));
+        assertEquals(emptyFileList, replicated);
+    }
+
+    @Test
+    public void testBinaryEncodingIsSmallerThanXML() throws IOException {
+        assertTrue(toBinary(fourEntryList).length < toXML(fourEntryList)
+            .getBytes("UTF-8").length);
+    }
+
+    @Test
+    public void testDiffFileReplacedByFolder() {
+        FileList base = FileListFactory.createPathFileList(Arrays
+            .asList((IPath) new Path("a"), new Path("b/c")));
+
+        FileList target = FileListFactory.createPathFileList(Arrays.asList(
+            (IPath) new Path("a/d"), new Path("b/c")));
+
+        FileListDiff diff = base.diff(target);
+
+        assertPaths(new String[] { "a" }, diff.getRemovedPaths());
+        assertPaths(new String[] { "a/d" }, diff.getAddedPaths());
+        assertPaths(new String[] { "b/c" }, diff.getUnalteredPaths());
+        assertPaths(new String[] {}, diff.getAlteredPaths());
+    }
+
+    @Test
+    public void testRootHash() {
+        assertEquals(threeEntryList.getRootHash(),
+            fromXML(toXML(threeEntryList)).getRootHash());
+
+        assertFalse(threeEntryList.getRootHash() == fourEntryList
+            .getRootHash());
+
+        assertFalse(fourEntryList.getRootHash() == modifiedFourEntryList
+            .getRootHash());
+    }
+
+    @Test
+    public void testResolveIdenticalFileList() {
+        FileList collapsed = fourEntryList.collapse();
+
+        assertFalse(collapsed.isResolved());
+        assertEquals(fourEntryList.getRootHash(), collapsed.getRootHash());
+
+        List<IPath> expand = new ArrayList<IPath>();
+        List<IPath> complete = new ArrayList<IPath>();
+
+        collapsed.resolve(fourEntryList, expand, complete);
+
+        assertTrue(expand.isEmpty());
+        assertTrue(complete.isEmpty());
+        assertTrue(collapsed.isResolved());
+        assertEquals(fourEntryList, collapsed);
+    }
+
+    @Test
+    public void testResolveModifiedFileList() throws IOException {
+        FileList collapsed = fromBinary(toBinary(modifiedFourEntryList
+            .collapse()));
+
+        assertFalse(collapsed.isResolved());
+
+        int requests = 0;
+
+        while (true) {
+            List<IPath> expand = new ArrayList<IPath>();
+            List<IPath> complete = new ArrayList<IPath>();
+
+            collapsed.resolve(threeEntryList, expand, complete);
+
+            if (expand.isEmpty() && complete.isEmpty())
+                break;
+
+            FileList listing = fromBinary(toBinary(modifiedFourEntryList
+                .getListing(expand, complete)));
+
+            List<IPath> paths = new ArrayList<IPath>(expand);
+            paths.addAll(complete);
+
+            assertTrue(collapsed.merge(listing, paths));
+            requests++;
+        }
+
+        // root and subdir
+        assertEquals(2, requests);
+        assertTrue(collapsed.isResolved());
+        assertEquals(modifiedFourEntryList, collapsed);
+
+        FileListDiff diff = threeEntryList.diff(collapsed);
+
+        assertPaths(new String[] { "subdir/file2" }, diff.getAddedPaths());
+        assertPaths(new String[] { "subdir/file1" }, diff.getAlteredPaths());
+    }
+
+    @Test
+    public void testResolveMissingDirectory() throws IOException {
+        FileList collapsed = fourEntryList.collapse();
+
+        List<IPath> expand = new ArrayList<IPath>();
+        List<IPath> complete = new ArrayList<IPath>();
+
+        collapsed.resolve(emptyFileList, expand, complete);
+
+        assertPaths(new String[] {}, expand);
+        assertPaths(new String[] { "" }, complete);
+
+        assertTrue(collapsed.merge(fourEntryList.getListing(expand, complete),
+            complete));
+
+        assertTrue(collapsed.isResolved());
+        assertEquals(fourEntryList, collapsed);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMergeListingWithDifferentHash() throws IOException {
+        FileList collapsed = modifiedFourEntryList.collapse();
+
+        List<IPath> expand = new ArrayList<IPath>();
+        List<IPath> complete = new ArrayList<IPath>();
+
+        collapsed.resolve(emptyFileList, expand, complete);
+
+        // the listing of a different file list must not be taken
+        collapsed.merge(fourEntryList.getListing(expand, complete), complete);
+    }
+
+    @Test(expected = IOException.class)
+    public void testBinaryWithInvalidStringLength() throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+
+        out.writeByte(FileListCodec.VERSION);
+        // flags
+        out.writeByte(0);
+        // a new project id string whose length is negative
+        VarIntUtils.writeUnsigned(1, out);
+        VarIntUtils.writeUnsigned(-1, out);
+        out.close();
+
+        fromBinary(data.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDiffUnresolvedFileList() {
+        threeEntryList.diff(fourEntryList.collapse());
+    }
+
     private void assertPaths(String[] expected, Collection<IPath> actual) {
         for (int i = 0; i < expected.length; i++) {
             Path path = new Path(expected[i]);
@@ -357,6 +525,17 @@ public class FileListTest {
         return writer.toString();
     }
 
+    private static byte[] toBinary(FileList list) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileListCodec.encode(list, new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    private static FileList fromBinary(byte[] data) throws IOException {
+        return FileListCodec.decode(new DataInputStream(
+            new ByteArrayInputStream(data)));
+    }
+
     private static FileList fromXML(String xml) {
         return (FileList) xstream.fromXML(xml);
     }
@@ -1,17 +1,24 @@
 package de.fu_berlin.inf.dpp.net.internal.extensions;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.jivesoftware.smack.packet.PacketExtension;
 import org.junit.Test;
 
+import de.fu_berlin.inf.dpp.activities.SPathDataObject;
 import de.fu_berlin.inf.dpp.activities.business.EditorActivity;
+import de.fu_berlin.inf.dpp.activities.serializable.ChecksumErrorActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.EditorActivityDataObject;
 import de.fu_berlin.inf.dpp.activities.serializable.IActivityDataObject;
 import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.XStreamExtensionProvider.BinaryPacketExtension;
 
 public class ActivitiesExtensionProviderTest {
 
@@ -34,4 +41,56 @@ public class ActivitiesExtensionProviderTest {
         assertFalse(marshalled.contains("\t"));
         assertFalse(marshalled.contains("  "));
     }
+
+    @Test
+    public void testSignaturesAreNotMarshalledAsXML() throws Exception {
+        List<SPathDataObject> paths = Collections
+            .singletonList(new SPathDataObject("0815", "foo.txt", null));
+
+        List<byte[]> signatures = Collections.singletonList(new byte[] { 1 });
+
+        IActivityDataObject activityDataObject = new ChecksumErrorActivityDataObject(
+            new JID("alice@test"), new JID("bob@test"), paths, signatures,
+            signatures, "4711");
+
+        PacketExtension extension = ActivitiesExtension.PROVIDER
+            .create(new ActivitiesExtension("Session-ID", Collections
+                .singletonList(activityDataObject), 0));
+
+        String marshalled = extension.toXML();
+
+        // older versions reject unknown elements
+        assertTrue(marshalled.contains("4711"));
+        assertFalse(marshalled.contains("ignatures"));
+    }
+
+    @Test
+    public void testSharedBinaryEncoding() throws Exception {
+        IActivityDataObject activityDataObject = new EditorActivityDataObject(
+            new JID("alice@test"), EditorActivity.Type.ACTIVATED, null);
+
+        List<IActivityDataObject> activities = new ArrayList<IActivityDataObject>();
+
+        activities.add(activityDataObject);
+
+        byte[] encoded = ActivitiesExtension
+            .encodeActivityDataObjects(activities);
+
+        BinaryPacketExtension<?> shared = (BinaryPacketExtension<?>) ActivitiesExtension.PROVIDER
+            .createBinary(new ActivitiesExtension("Session-ID", activities,
+                42, encoded));
+
+        BinaryPacketExtension<?> unshared = (BinaryPacketExtension<?>) ActivitiesExtension.PROVIDER
+            .createBinary(new ActivitiesExtension("Session-ID", activities,
+                42));
+
+        assertArrayEquals(unshared.toBinary(), shared.toBinary());
+
+        ActivitiesExtension decoded = ActivitiesExtension.PROVIDER
+            .getPayload(ActivitiesExtension.PROVIDER.parseBinary(shared
+                .toBinary()));
+
+        assertEquals(42, decoded.getSequenceNumber());
+        assertEquals(activities, decoded.getActivityDataObjects());
+    }
 }
@@ -0,0 +1,195 @@
+package de.fu_berlin.inf.dpp.project.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.business.IActivity;
+import de.fu_berlin.inf.dpp.activities.business.PermissionActivity;
+import de.fu_berlin.inf.dpp.activities.business.TextSelectionActivity;
+import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentClient;
+import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentServer;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.User;
+import de.fu_berlin.inf.dpp.test.fakes.synchonize.NonUISynchronizer;
+
+/**
+ * Tests the order in which the host forwards incoming activities when the
+ * activities are dispatched in parallel.
+ */
+public class ActivityHandlerParallelDispatchTest {
+
+    private static final int LANES = 4;
+
+    private static final long SLOW_SEND_DELAY = 200;
+
+    private static final long TIMEOUT = 10000;
+
+    // SUT
+    private ActivityHandler handler;
+    private NonUISynchronizer synchronizer;
+
+    private User alice;
+    private User bob;
+    private User carl;
+
+    private IProject project;
+
+    private final List<IActivity> sent = new CopyOnWriteArrayList<IActivity>();
+
+    private volatile IActivity slowActivity;
+
+    private final IActivityHandlerCallback callback = new IActivityHandlerCallback() {
+
+        @Override
+        public void send(List<User> recipients, IActivity activity) {
+            if (activity == slowActivity) {
+                try {
+                    Thread.sleep(SLOW_SEND_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            sent.add(activity);
+        }
+
+        @Override
+        public void execute(IActivity activity) {
+            // NOP
+        }
+    };
+
+    @Before
+    public void setUp() {
+        alice = createUser(true);
+        bob = createUser(false);
+        carl = createUser(false);
+
+        project = EasyMock.createMock(IProject.class);
+
+        ISarosSession session = EasyMock.createMock(ISarosSession.class);
+        EasyMock.expect(session.getLocalUser()).andStubReturn(alice);
+        EasyMock.expect(session.getHost()).andStubReturn(alice);
+        EasyMock.expect(session.isHost()).andStubReturn(true);
+        EasyMock.expect(session.getUsers()).andStubReturn(
+            Arrays.asList(alice, bob, carl));
+        EasyMock.expect(session.getRemoteUsers()).andStubReturn(
+            Arrays.asList(bob, carl));
+        EasyMock.expect(
+            session.userHasProject(EasyMock.<User> anyObject(),
+                EasyMock.eq(project))).andStubReturn(true);
+        EasyMock.replay(session);
+
+        synchronizer = new NonUISynchronizer();
+
+        handler = new ActivityHandler(session, callback,
+            EasyMock.createNiceMock(ConcurrentDocumentServer.class),
+            EasyMock.createNiceMock(ConcurrentDocumentClient.class),
+            synchronizer, ActivityHandler.DISPATCH_MODE_PARALLEL, LANES, 0);
+
+        synchronizer.start();
+        handler.start();
+    }
+
+    @After
+    public void tearDown() {
+        handler.stop();
+        synchronizer.stop();
+    }
+
+    @Test
+    public void testActivitiesOfADocumentKeepTheirOrder() throws Exception {
+        SPath pathA = createPath();
+        SPath pathB = createPath();
+
+        List<IActivity> activities = new ArrayList<IActivity>();
+
+        for (int i = 0; i < 50; i++) {
+            activities.add(new TextSelectionActivity(bob, i, 0, pathA));
+            activities.add(new TextSelectionActivity(bob, i, 0, pathB));
+        }
+
+        // delay the first activity of document A
+        slowActivity = activities.get(0);
+
+        handler.handleIncomingActivities(activities);
+
+        awaitSent(activities.size());
+
+        assertEquals("activities of document A were reordered",
+            filterByPath(activities, pathA), filterByPath(sent, pathA));
+        assertEquals("activities of document B were reordered",
+            filterByPath(activities, pathB), filterByPath(sent, pathB));
+    }
+
+    @Test
+    public void testActivityWithoutDocumentIsABarrier() throws Exception {
+        SPath pathA = createPath();
+        SPath pathB = createPath();
+
+        IActivity selectionA = new TextSelectionActivity(bob, 0, 0, pathA);
+        IActivity permission = new PermissionActivity(bob, carl,
+            User.Permission.READONLY_ACCESS);
+        IActivity selectionB = new TextSelectionActivity(bob, 0, 0, pathB);
+
+        slowActivity = selectionA;
+
+        handler.handleIncomingActivities(Arrays.asList(selectionA, permission,
+            selectionB));
+
+        awaitSent(3);
+
+        assertEquals("activity without a document was reordered",
+            Arrays.asList(selectionA, permission, selectionB), sent);
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+
+        while (sent.size() < count && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+
+        assertTrue("only " + sent.size() + " of " + count
+            + " activities were sent", sent.size() >= count);
+    }
+
+    private static List<IActivity> filterByPath(List<IActivity> activities,
+        SPath path) {
+        List<IActivity> result = new ArrayList<IActivity>();
+
+        for (IActivity activity : activities) {
+            if (activity instanceof TextSelectionActivity
+                && ((TextSelectionActivity) activity).getPath() == path)
+                result.add(activity);
+        }
+
+        return result;
+    }
+
+    private SPath createPath() {
+        SPath path = EasyMock.createMock(SPath.class);
+        EasyMock.expect(path.getProject()).andStubReturn(project);
+        EasyMock.replay(path);
+        return path;
+    }
+
+    private static User createUser(boolean local) {
+        User user = EasyMock.createMock(User.class);
+        EasyMock.expect(user.isLocal()).andStubReturn(local);
+        EasyMock.expect(user.isInSarosSession()).andStubReturn(true);
+        EasyMock.replay(user);
+        return user;
+    }
+}
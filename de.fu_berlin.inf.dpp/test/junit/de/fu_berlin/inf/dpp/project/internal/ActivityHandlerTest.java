@@ -101,6 +101,11 @@ public class ActivityHandlerTest {
     };
     private SPath path;
 
+    // Mocks needed to create further handlers
+    private ISarosSession sessionMock;
+    private ConcurrentDocumentClient client;
+    private ConcurrentDocumentServer server;
+
     @Before
     public void setUp() {
 
@@ -284,6 +289,37 @@ public class ActivityHandlerTest {
         }
     }
 
+    /**
+     * This tests that a text edit which is held back to be coalesced with
+     * following edits is still sent when the handler is stopped.
+     */
+    @Test
+    public void testPendingTextEditIsSentOnStop() {
+
+        setParameters(bob, alice, false);
+
+        handler.stop();
+
+        handler = new ActivityHandler(sessionMock, callback, server, client,
+            synchronizer, ActivityHandler.DISPATCH_MODE_SYNC, 1, 60000);
+
+        handler.start();
+
+        willBeSent = false;
+
+        handler.handleOutgoingActivities(Collections
+            .<IActivity> singletonList(new TextEditActivity(alice, 0, "a", "",
+                path)));
+
+        assertFalse("text edit was not held back", willBeSent);
+
+        handler.stop();
+
+        assertTrue("pending text edit was discarded", willBeSent);
+        assertEquals("pending text edit was not sent to the host",
+            Collections.singletonList(alice), targets);
+    }
+
     /**
      * Specifies the roles of participants in the session. Should be called at
      * the start of every Testcase
@@ -349,7 +385,7 @@ public class ActivityHandlerTest {
         synchronizer = new NonUISynchronizer();
 
         // Create SessionMock
-        ISarosSession sessionMock = EasyMock.createMock(ISarosSession.class);
+        sessionMock = EasyMock.createMock(ISarosSession.class);
         EasyMock.expect(sessionMock.getLocalUser()).andStubReturn(alice);
         EasyMock.expect(sessionMock.getHost()).andStubReturn(alice);
         // read host-Variable at runtime.
@@ -428,8 +464,7 @@ public class ActivityHandlerTest {
         }
 
         // create CDC-Mock
-        ConcurrentDocumentClient client = EasyMock
-            .createNiceMock(ConcurrentDocumentClient.class);
+        client = EasyMock.createNiceMock(ConcurrentDocumentClient.class);
 
         // Mock transformToJupiter-method and transformFromJupiter-method
         for (IActivity activity : activities) {
@@ -457,8 +492,7 @@ public class ActivityHandlerTest {
         EasyMock.replay(client);
 
         // create CDS-Mock
-        ConcurrentDocumentServer server = EasyMock
-            .createNiceMock(ConcurrentDocumentServer.class);
+        server = EasyMock.createNiceMock(ConcurrentDocumentServer.class);
         for (IActivity activity : activities) {
             // just return activities as the server doesn't change the type of
             // activities
@@ -469,8 +503,8 @@ public class ActivityHandlerTest {
 
         EasyMock.replay(server);
 
-        // create SUT
+        // create SUT, text edits must be sent immediately
         handler = new ActivityHandler(sessionMock, callback, server, client,
-            synchronizer);
+            synchronizer, ActivityHandler.DISPATCH_MODE_SYNC, 1, 0);
     }
 }
@@ -23,6 +23,8 @@ import de.fu_berlin.inf.dpp.activities.serializable.IActivityDataObject;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
 import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.internal.extensions.ActivitiesExtension;
+import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.test.fakes.net.FakeConnectionFactory;
 import de.fu_berlin.inf.dpp.test.fakes.net.FakeConnectionFactory.FakeConnectionFactoryResult;
@@ -269,6 +271,109 @@ public class ActivitySequencerTest {
         }
     }
 
+    @Test(timeout = 30000)
+    public void testReceiveBatchLargerThanReorderWindow() throws Exception {
+
+        // default size of the reorder window is 4096
+        int activityCount = 10000;
+
+        bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter,
+            bobReceiver, null);
+
+        bobSequencer.start();
+
+        User aliceUserInBobSession = new User(ALICE_JID, true, false, 0, 0);
+        User bobUserInAliceSession = new User(BOB_JID, false, false, 0, 0);
+
+        sessionStubBob.addUser(aliceUserInBobSession);
+
+        bobSequencer.registerUser(aliceUserInBobSession);
+
+        List<IActivityDataObject> activities = new ArrayList<IActivityDataObject>();
+
+        for (int i = 0; i < activityCount; i++)
+            activities.add(new NOPActivity(aliceUser, bobUserInAliceSession, i)
+                .getActivityDataObject(sessionStubAlice, null));
+
+        // a single packet that contains all activities in order
+        aliceTransmitter.sendToSessionUser(
+            ISarosSession.SESSION_CONNECTION_ID, BOB_JID,
+            ActivitiesExtension.PROVIDER.create(new ActivitiesExtension(
+                sessionStubBob.getID(), activities, 0)));
+
+        assertTrue("Alice was unregistered",
+            bobSequencer.isUserRegistered(aliceUserInBobSession));
+
+        List<IActivityDataObject> receivedActivities = sessionStubBob
+            .getReceivedActivities();
+
+        assertEquals("not all activies received", activityCount,
+            receivedActivities.size());
+
+        for (int i = 0; i < activityCount; i++) {
+            NOPActivity activity = (NOPActivity) receivedActivities.get(i)
+                .getActivity(sessionStubBob, null);
+            assertEquals("activity is out of order", i, activity.getID());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testReorderStatisticsRemainAfterWindowExceeded()
+        throws Exception {
+
+        bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter,
+            bobReceiver, null);
+
+        bobSequencer.start();
+
+        User aliceUserInBobSession = new User(ALICE_JID, true, false, 0, 0);
+        User bobUserInAliceSession = new User(BOB_JID, false, false, 0, 0);
+
+        sessionStubBob.addUser(aliceUserInBobSession);
+
+        bobSequencer.registerUser(aliceUserInBobSession);
+
+        assertEquals(0, bobSequencer.getReorderStatistics(ALICE_JID)
+            .getGapCount());
+
+        // the activity with the first sequence number 0 never arrives
+        sendNOPActivity(bobUserInAliceSession, 2);
+
+        ReorderStatistics statistics = bobSequencer
+            .getReorderStatistics(ALICE_JID);
+
+        assertEquals("gap not counted", 1, statistics.getGapCount());
+        assertEquals("wrong maximum gap", 2, statistics.getMaxGap());
+        assertEquals(0, statistics.getOverflowCount());
+
+        // default size of the reorder window is 4096
+        sendNOPActivity(bobUserInAliceSession, 10000);
+
+        assertFalse("Alice is still registered",
+            bobSequencer.isUserRegistered(aliceUserInBobSession));
+
+        statistics = bobSequencer.getReorderStatistics(ALICE_JID);
+
+        assertEquals("gap count lost after unregister", 1,
+            statistics.getGapCount());
+        assertEquals("maximum gap lost after unregister", 2,
+            statistics.getMaxGap());
+        assertEquals("overflow not counted", 1, statistics.getOverflowCount());
+    }
+
+    private void sendNOPActivity(User recipient, int sequenceNumber)
+        throws IOException {
+
+        List<IActivityDataObject> activities = Collections
+            .singletonList(new NOPActivity(aliceUser, recipient, sequenceNumber)
+                .getActivityDataObject(sessionStubAlice, null));
+
+        aliceTransmitter.sendToSessionUser(
+            ISarosSession.SESSION_CONNECTION_ID, BOB_JID,
+            ActivitiesExtension.PROVIDER.create(new ActivitiesExtension(
+                sessionStubBob.getID(), activities, sequenceNumber)));
+    }
+
     @Test(timeout = 30000)
     public void testSendWithoutRegisteredUser() {
 
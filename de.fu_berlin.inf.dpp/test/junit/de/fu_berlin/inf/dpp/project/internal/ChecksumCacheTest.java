@@ -4,6 +4,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
 import de.fu_berlin.inf.dpp.project.IChecksumCache;
@@ -34,6 +40,24 @@ public class ChecksumCacheTest {
 
     };
 
+    private File storeFile;
+
+    private ChecksumCacheImpl persistentCache;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = File.createTempFile("checksums", ".dat");
+        storeFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        if (persistentCache != null)
+            persistentCache.dispose();
+
+        storeFile.delete();
+    }
+
     @Test
     public void testGetChecksumOfNonExistingEntry() {
         IChecksumCache cache = new ChecksumCacheImpl(notifier);
@@ -134,4 +158,100 @@ public class ChecksumCacheTest {
         assertEquals(Long.valueOf(1), cache.getChecksum(collidingA1));
 
     }
+
+    @Test
+    public void testChecksumSurvivesRestart() {
+        ChecksumCacheImpl cache = restart();
+        assertEquals(null, cache.getChecksum(collidingA0, 10L, 100L));
+        assertFalse(cache.addChecksum(collidingA0, 10L, 100L, 5L));
+        assertFalse(cache.addChecksum(collidingA1, 11L, 101L, 6L));
+
+        cache = restart();
+
+        assertEquals(Long.valueOf(5),
+            cache.getChecksum(collidingA0, 10L, 100L));
+        assertEquals(Long.valueOf(6),
+            cache.getChecksum(collidingA1, 11L, 101L));
+    }
+
+    @Test
+    public void testPersistentChecksumOfModifiedFile() {
+        ChecksumCacheImpl cache = restart();
+        cache.addChecksum(collidingA0, 10L, 100L, 5L);
+
+        cache = restart();
+
+        assertEquals(null, cache.getChecksum(collidingA0, 11L, 100L));
+        assertEquals(null, cache.getChecksum(collidingA0, 10L, 101L));
+        assertEquals(null, cache.getChecksum(collidingA0));
+    }
+
+    @Test
+    public void testPersistentChecksumInvalidation() {
+        ChecksumCacheImpl cache = restart();
+        cache.addChecksum(collidingA0, 10L, 100L, 5L);
+        cache.addChecksum(collidingB0, 10L, 100L, 6L);
+
+        listener.fileContentChanged(collidingA0);
+
+        assertEquals(null, cache.getChecksum(collidingA0, 10L, 100L));
+
+        cache = restart();
+
+        assertEquals(null, cache.getChecksum(collidingA0, 10L, 100L));
+        assertEquals(Long.valueOf(6),
+            cache.getChecksum(collidingB0, 10L, 100L));
+    }
+
+    @Test
+    public void testChecksumsWithoutTimestampAreNotPersisted() {
+        ChecksumCacheImpl cache = restart();
+        cache.addChecksum(collidingA0, -1L, 100L, 5L);
+
+        assertEquals(Long.valueOf(5),
+            cache.getChecksum(collidingA0, -1L, 100L));
+
+        cache = restart();
+
+        assertEquals(null, cache.getChecksum(collidingA0, -1L, 100L));
+    }
+
+    @Test
+    public void testTruncatedStoreFile() throws IOException {
+        ChecksumCacheImpl cache = restart();
+        cache.addChecksum(collidingA0, 10L, 100L, 5L);
+        cache.addChecksum(collidingA1, 10L, 100L, 6L);
+        cache.dispose();
+
+        // simulate a crash while the last record was written
+        FileOutputStream out = new FileOutputStream(storeFile, true);
+        out.write(new byte[] { 1, 0, 42, 'x' });
+        out.close();
+
+        cache = restart();
+
+        assertEquals(Long.valueOf(5),
+            cache.getChecksum(collidingA0, 10L, 100L));
+        assertEquals(Long.valueOf(6),
+            cache.getChecksum(collidingA1, 10L, 100L));
+
+        cache.addChecksum(collidingB0, 10L, 100L, 7L);
+
+        cache = restart();
+
+        assertEquals(Long.valueOf(7),
+            cache.getChecksum(collidingB0, 10L, 100L));
+    }
+
+    /**
+     * Disposes the current persistent cache like the plugin does on shutdown
+     * and creates a new one that uses the same store file.
+     */
+    private ChecksumCacheImpl restart() {
+        if (persistentCache != null)
+            persistentCache.dispose();
+
+        persistentCache = new ChecksumCacheImpl(notifier, storeFile);
+        return persistentCache;
+    }
 }
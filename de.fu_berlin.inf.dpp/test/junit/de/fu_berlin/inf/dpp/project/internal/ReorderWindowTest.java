@@ -0,0 +1,131 @@
+package de.fu_berlin.inf.dpp.project.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReorderWindowTest {
+
+    @Test
+    public void testInOrder() {
+        ReorderWindow<String> window = new ReorderWindow<String>(4, 0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(window.add(i, "a" + i));
+            assertEquals("a" + i, window.poll());
+            assertNull(window.poll());
+        }
+
+        assertEquals(10, window.getNextSequenceNumber());
+        assertEquals(0, window.getGapCount());
+    }
+
+    @Test
+    public void testReversedBurst() {
+        ReorderWindow<Integer> window = new ReorderWindow<Integer>(8, 0);
+
+        for (int i = 7; i > 0; i--) {
+            assertTrue(window.add(i, i));
+            assertNull(window.poll());
+        }
+
+        assertEquals(7, window.size());
+        assertEquals(7, window.getGapCount());
+        assertEquals(7, window.getMaxGap());
+
+        assertTrue(window.add(0, 0));
+
+        for (int i = 0; i < 8; i++)
+            assertEquals(Integer.valueOf(i), window.poll());
+
+        assertNull(window.poll());
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    public void testOverflow() {
+        ReorderWindow<String> window = new ReorderWindow<String>(4, 0);
+
+        assertTrue(window.add(3, "d"));
+        assertFalse(window.add(4, "e"));
+        assertEquals(1, window.getOverflowCount());
+    }
+
+    @Test
+    public void testDrainInOrderBatchLargerThanCapacity() {
+        ReorderWindow<Integer> window = new ReorderWindow<Integer>(4, 0);
+
+        List<Integer> drained = new ArrayList<Integer>();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(window.add(i, i));
+            assertEquals(1, window.drainTo(drained));
+        }
+
+        assertEquals(100, drained.size());
+
+        for (int i = 0; i < 100; i++)
+            assertEquals(Integer.valueOf(i), drained.get(i));
+
+        assertEquals(0, window.size());
+        assertEquals(0, window.getOverflowCount());
+    }
+
+    @Test
+    public void testDrainStopsAtGap() {
+        ReorderWindow<Integer> window = new ReorderWindow<Integer>(4, 0);
+
+        List<Integer> drained = new ArrayList<Integer>();
+
+        assertTrue(window.add(1, 1));
+        assertTrue(window.add(2, 2));
+        assertEquals(0, window.drainTo(drained));
+
+        assertTrue(window.add(0, 0));
+        assertEquals(3, window.drainTo(drained));
+        assertEquals(3, drained.size());
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    public void testDuplicates() {
+        ReorderWindow<String> window = new ReorderWindow<String>(4, 0);
+
+        assertTrue(window.add(0, "a"));
+        assertTrue(window.add(0, "b"));
+        assertEquals("a", window.poll());
+        assertTrue(window.add(0, "c"));
+        assertNull(window.poll());
+        assertEquals(2, window.getDuplicateCount());
+    }
+
+    @Test
+    public void testSequenceNumberOverflow() {
+        ReorderWindow<String> window = new ReorderWindow<String>(4,
+            Integer.MAX_VALUE - 1);
+
+        assertTrue(window.add(Integer.MIN_VALUE + 1, "d"));
+        assertTrue(window.add(Integer.MIN_VALUE, "c"));
+        assertTrue(window.add(Integer.MAX_VALUE, "b"));
+        assertTrue(window.add(Integer.MAX_VALUE - 1, "a"));
+
+        assertEquals("a", window.poll());
+        assertEquals("b", window.poll());
+        assertEquals("c", window.poll());
+        assertEquals("d", window.poll());
+        assertNull(window.poll());
+    }
+
+    @Test
+    public void testCapacityIsRoundedUp() {
+        assertEquals(1, new ReorderWindow<String>(1, 0).getCapacity());
+        assertEquals(8, new ReorderWindow<String>(5, 0).getCapacity());
+        assertEquals(8, new ReorderWindow<String>(8, 0).getCapacity());
+    }
+}
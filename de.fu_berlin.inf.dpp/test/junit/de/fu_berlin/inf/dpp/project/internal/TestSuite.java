@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ ActivityHandlerTest.class, ActivityQueuerTest.class,
-    ActivitySequencerTest.class, ChecksumCacheTest.class,
+    ActivityHandlerParallelDispatchTest.class, ActivitySequencerTest.class,
+    ChecksumCacheTest.class, ReorderWindowTest.class,
     SarosProjectMapperTest.class, SarosSessionTest.class,
     UserInformationHandlerTest.class })
 public class TestSuite {
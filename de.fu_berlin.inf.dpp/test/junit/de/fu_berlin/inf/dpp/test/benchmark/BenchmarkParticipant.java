@@ -0,0 +1,544 @@
+package de.fu_berlin.inf.dpp.test.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.Connection;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.business.FileActivity;
+import de.fu_berlin.inf.dpp.activities.business.FileActivity.Purpose;
+import de.fu_berlin.inf.dpp.activities.business.IActivity;
+import de.fu_berlin.inf.dpp.activities.business.TextEditActivity;
+import de.fu_berlin.inf.dpp.activities.business.TextSelectionActivity;
+import de.fu_berlin.inf.dpp.activities.serializable.IActivityDataObject;
+import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentClient;
+import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentServer;
+import de.fu_berlin.inf.dpp.filesystem.IPath;
+import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.net.ConnectionState;
+import de.fu_berlin.inf.dpp.net.DispatchThreadContext;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.XMPPConnectionService;
+import de.fu_berlin.inf.dpp.net.internal.DataTransferManager;
+import de.fu_berlin.inf.dpp.net.internal.XMPPReceiver;
+import de.fu_berlin.inf.dpp.net.internal.XMPPTransmitter;
+import de.fu_berlin.inf.dpp.project.internal.ActivityHandler;
+import de.fu_berlin.inf.dpp.project.internal.ActivitySequencer;
+import de.fu_berlin.inf.dpp.project.internal.IActivityHandlerCallback;
+import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.ISharedProjectListener;
+import de.fu_berlin.inf.dpp.session.User;
+import de.fu_berlin.inf.dpp.test.fakes.net.InMemoryNetwork;
+import de.fu_berlin.inf.dpp.test.fakes.synchonize.NonUISynchronizer;
+import de.fu_berlin.inf.dpp.test.stubs.SarosSessionStub;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
+
+/**
+ * A participant of the {@link SessionBenchmark}. It uses the real network and
+ * session components starting from the {@link DataTransferManager} up to the
+ * {@link ActivityHandler} on top of an {@link InMemoryNetwork}. Only the
+ * session and the editors are replaced: the session by a stub that converts
+ * activities like the SarosSession does, the editors by plain text documents.
+ */
+class BenchmarkParticipant {
+
+    /**
+     * Gets notified about every activity the local user generates and every
+     * remote activity that is executed.
+     */
+    interface Listener {
+
+        /**
+         * Called before the activity is handed to the activity handler.
+         */
+        public void generated(BenchmarkParticipant source, IActivity activity);
+
+        public void executed(BenchmarkParticipant receiver, IActivity activity);
+    }
+
+    private static final String PROJECT_ID = "0";
+
+    private static final int SELECTION_ATTEMPTS = 16;
+
+    private final int index;
+
+    private final User localUser;
+
+    private final List<User> users;
+
+    private final Listener listener;
+
+    private final IProject project;
+
+    private final IPathFactory pathFactory = new BenchmarkPathFactory();
+
+    private final BenchmarkSession session = new BenchmarkSession();
+
+    private final Connection connection;
+
+    private final DispatchThreadContext dispatchThreadContext;
+
+    private final DataTransferManager dataTransferManager;
+
+    private final ActivitySequencer sequencer;
+
+    private final NonUISynchronizer synchronizer;
+
+    private final ConcurrentDocumentServer documentServer;
+
+    private final ActivityHandler activityHandler;
+
+    private boolean started;
+
+    /**
+     * The content of the shared documents, only accessed by the synchronizer
+     * thread
+     */
+    private final Map<SPath, StringBuilder> documents = new HashMap<SPath, StringBuilder>();
+
+    /**
+     * The selections that were already made per document, encoded as
+     * <code>offset << 32 | length</code>, only accessed by the synchronizer
+     * thread
+     */
+    private final Map<SPath, Set<Long>> selections = new HashMap<SPath, Set<Long>>();
+
+    private final IActivityHandlerCallback callback = new IActivityHandlerCallback() {
+
+        @Override
+        public void send(List<User> recipients, IActivity activity) {
+            sequencer.sendActivity(recipients,
+                activity.getActivityDataObject(session, pathFactory));
+        }
+
+        @Override
+        public void execute(IActivity activity) {
+            if (activity instanceof TextEditActivity)
+                apply((TextEditActivity) activity);
+
+            listener.executed(BenchmarkParticipant.this, activity);
+        }
+    };
+
+    /**
+     * @param jids
+     *            the JIDs of all participants, the first one is the host
+     * @param index
+     *            the index of the JID of this participant
+     * @param binary
+     *            whether activities are sent in the binary format or as XML
+     */
+    BenchmarkParticipant(InMemoryNetwork network, List<JID> jids, int index,
+        boolean binary, Listener listener) {
+
+        this.index = index;
+        this.listener = listener;
+
+        users = new ArrayList<User>();
+
+        for (int i = 0; i < jids.size(); i++) {
+            User user = new User(jids.get(i), i == 0, i == index, i, i);
+            user.setInSession(true);
+            users.add(user);
+        }
+
+        localUser = users.get(index);
+
+        project = EasyMock.createNiceMock(IProject.class);
+        EasyMock.replay(project);
+
+        XMPPConnectionService connectionService = EasyMock
+            .createNiceMock(XMPPConnectionService.class);
+        EasyMock.replay(connectionService);
+
+        connection = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(connection.getUser()).andStubReturn(
+            localUser.getJID().toString());
+        EasyMock.expect(connection.isConnected()).andStubReturn(true);
+        EasyMock.replay(connection);
+
+        VersionManager versionManager = null;
+
+        if (binary) {
+            versionManager = EasyMock.createNiceMock(VersionManager.class);
+            EasyMock.expect(
+                versionManager.isBinaryActivityCodecSupported(EasyMock
+                    .anyObject(JID.class))).andStubReturn(true);
+            EasyMock.replay(versionManager);
+        }
+
+        dispatchThreadContext = new DispatchThreadContext();
+
+        XMPPReceiver receiver = new XMPPReceiver(dispatchThreadContext,
+            connectionService);
+
+        dataTransferManager = new DataTransferManager(connectionService,
+            receiver, network.createTransport(), null);
+
+        XMPPTransmitter transmitter = new XMPPTransmitter(dataTransferManager,
+            connectionService);
+
+        sequencer = new ActivitySequencer(session, transmitter, receiver,
+            dispatchThreadContext, versionManager);
+
+        synchronizer = new NonUISynchronizer();
+
+        documentServer = localUser.isHost() ? new ConcurrentDocumentServer(
+            session) : null;
+
+        activityHandler = new ActivityHandler(session, callback,
+            documentServer, new ConcurrentDocumentClient(session),
+            synchronizer);
+    }
+
+    /**
+     * Connects to the in-memory network and starts all components. All
+     * participants must be started before the host can
+     * {@linkplain #connectToClients() connect} to the clients.
+     */
+    void start() {
+        dataTransferManager.connectionStateChanged(connection,
+            ConnectionState.CONNECTED);
+
+        synchronizer.start();
+
+        if (documentServer != null)
+            documentServer.start();
+
+        for (User user : users) {
+            for (ISharedProjectListener projectListener : session.listeners)
+                projectListener.userStartedQueuing(user);
+
+            if (!user.isLocal())
+                sequencer.registerUser(user);
+        }
+
+        sequencer.start();
+        activityHandler.start();
+
+        started = true;
+    }
+
+    /**
+     * Establishes the session connections from the host to all clients, as the
+     * host does during the invitation.
+     */
+    void connectToClients() throws IOException {
+        for (User user : session.getRemoteUsers())
+            dataTransferManager.connect(ISarosSession.SESSION_CONNECTION_ID,
+                user.getJID());
+    }
+
+    /**
+     * Stops all components, the participant may also be partially started.
+     */
+    void stop() {
+        if (started) {
+            activityHandler.stop();
+            sequencer.stop();
+
+            if (documentServer != null)
+                documentServer.stop();
+        }
+
+        dataTransferManager.connectionStateChanged(connection,
+            ConnectionState.NOT_CONNECTED);
+
+        synchronizer.dispose();
+        dispatchThreadContext.dispose();
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    User getLocalUser() {
+        return localUser;
+    }
+
+    SPath getPath(String name) {
+        return new SPath(project, new BenchmarkPath(name));
+    }
+
+    /**
+     * Inserts a character at a random position of the document or deletes a
+     * random character if requested and the document is not empty.
+     */
+    void type(final SPath path, final Random random, final boolean delete) {
+        synchronizer.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder document = getDocument(path);
+
+                TextEditActivity textEdit;
+
+                if (delete && document.length() > 0) {
+                    int offset = random.nextInt(document.length());
+
+                    textEdit = new TextEditActivity(localUser, offset, "",
+                        document.substring(offset, offset + 1), path);
+                } else {
+                    char c = (char) ('a' + random.nextInt(26));
+
+                    textEdit = new TextEditActivity(localUser,
+                        random.nextInt(document.length() + 1),
+                        String.valueOf(c), "", path);
+                }
+
+                apply(textEdit);
+                generate(textEdit);
+            }
+        });
+    }
+
+    /**
+     * Selects a random range of the document that was not selected before, so
+     * the execution of every selection can be told apart at the receivers.
+     * 
+     * @return <code>false</code> if no new range was found, i.e the document
+     *         is still (almost) empty
+     */
+    boolean select(final SPath path, final Random random) {
+        final boolean[] selected = new boolean[1];
+
+        synchronizer.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                int length = getDocument(path).length();
+
+                Set<Long> used = selections.get(path);
+
+                if (used == null) {
+                    used = new HashSet<Long>();
+                    selections.put(path, used);
+                }
+
+                for (int i = 0; i < SELECTION_ATTEMPTS; i++) {
+                    int offset = random.nextInt(length + 1);
+                    int selectionLength = random.nextInt(length - offset + 1);
+
+                    if (!used.add(((long) offset << 32) | selectionLength))
+                        continue;
+
+                    generate(new TextSelectionActivity(localUser, offset,
+                        selectionLength, path));
+
+                    selected[0] = true;
+                    return;
+                }
+            }
+        });
+
+        return selected[0];
+    }
+
+    void createFile(final SPath path, final byte[] content) {
+        synchronizer.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                generate(FileActivity.created(localUser, path, content,
+                    Purpose.ACTIVITY));
+            }
+        });
+    }
+
+    /**
+     * Returns the current content of the given document.
+     */
+    String getContent(final SPath path) {
+        final String[] content = new String[1];
+
+        synchronizer.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                content[0] = getDocument(path).toString();
+            }
+        });
+
+        return content[0];
+    }
+
+    private void generate(IActivity activity) {
+        listener.generated(this, activity);
+        activityHandler.handleOutgoingActivities(Collections
+            .singletonList(activity));
+    }
+
+    private void apply(TextEditActivity textEdit) {
+        int offset = textEdit.getOffset();
+
+        getDocument(textEdit.getPath()).replace(offset,
+            offset + textEdit.getReplacedText().length(), textEdit.getText());
+    }
+
+    private StringBuilder getDocument(SPath path) {
+        StringBuilder document = documents.get(path);
+
+        if (document == null) {
+            document = new StringBuilder();
+            documents.put(path, document);
+        }
+
+        return document;
+    }
+
+    /**
+     * Behaves like the SarosSession for the components used by the benchmark.
+     */
+    private class BenchmarkSession extends SarosSessionStub {
+
+        private final List<ISharedProjectListener> listeners = new CopyOnWriteArrayList<ISharedProjectListener>();
+
+        @Override
+        public void exec(List<IActivityDataObject> activityDataObjects) {
+            List<IActivity> activities = new ArrayList<IActivity>();
+
+            for (IActivityDataObject activityDataObject : activityDataObjects)
+                activities.add(activityDataObject
+                    .getActivity(this, pathFactory));
+
+            activityHandler.handleIncomingActivities(activities);
+        }
+
+        @Override
+        public String getID() {
+            return "benchmark";
+        }
+
+        @Override
+        public List<User> getUsers() {
+            return new ArrayList<User>(users);
+        }
+
+        @Override
+        public List<User> getRemoteUsers() {
+            List<User> remoteUsers = new ArrayList<User>(users);
+            remoteUsers.remove(localUser);
+            return remoteUsers;
+        }
+
+        @Override
+        public User getUser(JID jid) {
+            for (User user : users)
+                if (user.getJID().equals(jid))
+                    return user;
+
+            return null;
+        }
+
+        @Override
+        public User getLocalUser() {
+            return localUser;
+        }
+
+        @Override
+        public User getHost() {
+            return users.get(0);
+        }
+
+        @Override
+        public boolean isHost() {
+            return localUser.isHost();
+        }
+
+        @Override
+        public String getProjectID(IProject project) {
+            return project == BenchmarkParticipant.this.project ? PROJECT_ID
+                : null;
+        }
+
+        @Override
+        public IProject getProject(String projectID) {
+            return PROJECT_ID.equals(projectID) ? project : null;
+        }
+
+        @Override
+        public boolean userHasProject(User user, IProject project) {
+            return true;
+        }
+
+        @Override
+        public void addListener(ISharedProjectListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(ISharedProjectListener listener) {
+            listeners.remove(listener);
+        }
+    }
+
+    private static class BenchmarkPathFactory implements IPathFactory {
+
+        @Override
+        public String fromPath(IPath path) {
+            return path.toPortableString();
+        }
+
+        @Override
+        public IPath fromString(String name) {
+            return new BenchmarkPath(name);
+        }
+    }
+
+    private static class BenchmarkPath implements IPath {
+
+        private final String name;
+
+        BenchmarkPath(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public IPath append(IPath path) {
+            return new BenchmarkPath(name + "/" + path.toPortableString());
+        }
+
+        @Override
+        public boolean isAbsolute() {
+            return false;
+        }
+
+        @Override
+        public boolean isPrefixOf(IPath path) {
+            return path.toPortableString().startsWith(name);
+        }
+
+        @Override
+        public String toOSString() {
+            return name;
+        }
+
+        @Override
+        public String toPortableString() {
+            return name;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof BenchmarkPath
+                && name.equals(((BenchmarkPath) obj).name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package de.fu_berlin.inf.dpp.test.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jivesoftware.smack.SmackConfiguration;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.business.FileActivity;
+import de.fu_berlin.inf.dpp.activities.business.IActivity;
+import de.fu_berlin.inf.dpp.activities.business.TextEditActivity;
+import de.fu_berlin.inf.dpp.activities.business.TextSelectionActivity;
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.test.fakes.net.InMemoryNetwork;
+
+/**
+ * Measures the end-to-end latency and throughput of a session without a
+ * network. Every participant replays a synthetic workload of typing, selection
+ * changes and file creations. The time from handing an activity to the
+ * ActivityHandler of its source until its execution by the ActivityHandler of
+ * every other participant is recorded.
+ * 
+ * <p>
+ * Deletions are part of the workload but are not measured because the Jupiter
+ * algorithm may split or discard them, so they cannot be matched with the
+ * executed activities. Insertions and file creations are always executed
+ * exactly once by every other participant. Selections are executed at most
+ * once because the sequencer drops a selection if a newer one for the same
+ * document is sent together with it. Such superseded selections are counted
+ * but not measured.
+ * </p>
+ * 
+ * <p>
+ * Usage: <code>SessionBenchmark [participants ...]</code>, e.g
+ * <code>SessionBenchmark 2 5 10 20</code>. The workload can be configured with
+ * the system properties
+ * <code>de.fu_berlin.inf.dpp.benchmark.OPERATIONS</code> (per participant)
+ * and <code>de.fu_berlin.inf.dpp.benchmark.RATE</code> (operations per second
+ * and participant, 0 for as fast as possible). The activity handler and
+ * sequencer settings are configured with their usual system properties.
+ * </p>
+ */
+public class SessionBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(SessionBenchmark.class);
+
+    public static final String INSERT = "insert";
+
+    public static final String SELECTION = "selection";
+
+    public static final String FILE = "file";
+
+    public static class Configuration {
+
+        /** number of participants including the host */
+        public int participants = 2;
+
+        /** number of activities each participant generates */
+        public int operations = 1000;
+
+        /** operations per second and participant, 0 for no limit */
+        public int rate = 0;
+
+        /** number of documents the participants are typing in */
+        public int documents = 4;
+
+        /** fraction of the typing operations that delete a character */
+        public double deleteRatio = 0.1;
+
+        /** fraction of the operations that change the selection */
+        public double selectionRatio = 0.2;
+
+        /** fraction of the operations that create a file */
+        public double fileRatio = 0.01;
+
+        public int fileSize = 4 * 1024;
+
+        /** whether the binary activity format is used */
+        public boolean binary = true;
+
+        public long seed = 42;
+
+        /** maximum time to wait for the delivery of all activities */
+        public long timeout = 120000;
+    }
+
+    public static class Statistics {
+
+        private final long[] samples;
+
+        private Statistics(long[] samples) {
+            this.samples = samples;
+            Arrays.sort(this.samples);
+        }
+
+        public int getCount() {
+            return samples.length;
+        }
+
+        /**
+         * Returns the given percentile of the samples in nanoseconds.
+         */
+        public long getPercentile(double percentile) {
+            if (samples.length == 0)
+                return 0;
+
+            int index = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+            return samples[Math.max(0, Math.min(index, samples.length - 1))];
+        }
+
+        public long getMax() {
+            return samples.length == 0 ? 0 : samples[samples.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d p50=%.3fms p99=%.3fms max=%.3fms",
+                getCount(), getPercentile(50) / 1E6, getPercentile(99) / 1E6,
+                getMax() / 1E6);
+        }
+    }
+
+    public static class Result {
+
+        private final int participants;
+
+        private final long generated;
+
+        private final long expected;
+
+        private final long delivered;
+
+        private final long unmatched;
+
+        private final long superseded;
+
+        private final long duration;
+
+        private final boolean converged;
+
+        private final Map<String, Statistics> latencies;
+
+        private Result(int participants, long generated, long expected,
+            long delivered, long unmatched, long superseded, long duration,
+            boolean converged, Map<String, Statistics> latencies) {
+            this.participants = participants;
+            this.generated = generated;
+            this.expected = expected;
+            this.delivered = delivered;
+            this.unmatched = unmatched;
+            this.superseded = superseded;
+            this.duration = duration;
+            this.converged = converged;
+            this.latencies = latencies;
+        }
+
+        /** number of activities generated by all participants */
+        public long getGenerated() {
+            return generated;
+        }
+
+        /** number of measured executions that were expected */
+        public long getExpected() {
+            return expected;
+        }
+
+        /** number of measured executions that took place */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /** number of executions that could not be matched to an activity */
+        public long getUnmatched() {
+            return unmatched;
+        }
+
+        /**
+         * number of selections that were never executed because a newer
+         * selection replaced them
+         */
+        public long getSuperseded() {
+            return superseded;
+        }
+
+        /**
+         * Returns whether all participants have the same content in all
+         * documents at the end of the run.
+         */
+        public boolean isConverged() {
+            return converged;
+        }
+
+        /**
+         * Returns the generated activities per second, measured from the start
+         * of the run until the last measured execution.
+         */
+        public double getThroughput() {
+            return generated / (duration / 1E9);
+        }
+
+        public Statistics getLatency(String kind) {
+            return latencies.get(kind);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+
+            builder.append(String.format(
+                "participants=%d activities=%d delivered=%d/%d "
+                    + "unmatched=%d superseded=%d converged=%s "
+                    + "throughput=%.1f/s", participants, generated, delivered,
+                expected, unmatched, superseded, converged, getThroughput()));
+
+            for (Map.Entry<String, Statistics> entry : latencies.entrySet())
+                builder.append("\n  ").append(entry.getKey()).append(": ")
+                    .append(entry.getValue());
+
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Records the generation and execution times of the activities. The
+     * activities of one source, kind and document are executed in the order
+     * they were generated, so they are matched in FIFO order. Every selection
+     * is unique per source and document, so pending selections that are older
+     * than an executed one were superseded.
+     */
+    private static class Recorder implements BenchmarkParticipant.Listener {
+
+        private static class Pending {
+            private final long time;
+
+            private final IActivity activity;
+
+            private Pending(long time, IActivity activity) {
+                this.time = time;
+                this.activity = activity;
+            }
+        }
+
+        private final int participants;
+
+        private final List<Map<String, Queue<Pending>>> pending;
+
+        private final Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>();
+
+        private long generated;
+
+        private long expected;
+
+        private long delivered;
+
+        private long unmatched;
+
+        private long superseded;
+
+        private long lastDelivery;
+
+        Recorder(int participants) {
+            this.participants = participants;
+
+            pending = new ArrayList<Map<String, Queue<Pending>>>();
+
+            for (int i = 0; i < participants; i++)
+                pending.add(new ConcurrentHashMap<String, Queue<Pending>>());
+
+            for (String kind : new String[] { INSERT, SELECTION, FILE })
+                samples.put(kind, new ArrayList<Long>());
+        }
+
+        @Override
+        public void generated(BenchmarkParticipant source, IActivity activity) {
+            String kind = getKind(activity);
+
+            synchronized (this) {
+                generated++;
+
+                if (kind != null)
+                    expected += participants - 1;
+            }
+
+            if (kind == null)
+                return;
+
+            Pending item = new Pending(System.nanoTime(), activity);
+
+            String key = getKey(activity, kind);
+
+            for (int i = 0; i < participants; i++) {
+                if (i != source.getIndex())
+                    getQueue(i, key).add(item);
+            }
+        }
+
+        @Override
+        public void executed(BenchmarkParticipant receiver, IActivity activity) {
+            long now = System.nanoTime();
+
+            String kind = getKind(activity);
+
+            if (kind == null)
+                return;
+
+            Queue<Pending> queue = getQueue(receiver.getIndex(),
+                getKey(activity, kind));
+
+            int skipped = 0;
+
+            Pending start = queue.poll();
+
+            if (kind == SELECTION) {
+                while (start != null
+                    && !isSameSelection(start.activity, activity)) {
+                    skipped++;
+                    start = queue.poll();
+                }
+            }
+
+            synchronized (this) {
+                superseded += skipped;
+                expected -= skipped;
+
+                if (start == null) {
+                    unmatched++;
+                } else {
+                    samples.get(kind).add(now - start.time);
+                    delivered++;
+                    lastDelivery = now;
+                }
+
+                if (delivered == expected)
+                    notifyAll();
+            }
+        }
+
+        synchronized boolean awaitDeliveries(long timeout)
+            throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+
+            while (delivered < expected) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0)
+                    return false;
+
+                wait(remaining);
+            }
+
+            return true;
+        }
+
+        synchronized Result getResult(long start, boolean converged) {
+            Map<String, Statistics> latencies = new LinkedHashMap<String, Statistics>();
+
+            for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+                long[] values = new long[entry.getValue().size()];
+
+                for (int i = 0; i < values.length; i++)
+                    values[i] = entry.getValue().get(i);
+
+                latencies.put(entry.getKey(), new Statistics(values));
+            }
+
+            long end = lastDelivery == 0 ? System.nanoTime() : lastDelivery;
+
+            return new Result(participants, generated, expected, delivered,
+                unmatched, superseded, end - start, converged, latencies);
+        }
+
+        private Queue<Pending> getQueue(int receiver, String key) {
+            Map<String, Queue<Pending>> queues = pending.get(receiver);
+
+            synchronized (queues) {
+                Queue<Pending> queue = queues.get(key);
+
+                if (queue == null) {
+                    queue = new ConcurrentLinkedQueue<Pending>();
+                    queues.put(key, queue);
+                }
+
+                return queue;
+            }
+        }
+
+        private static String getKey(IActivity activity, String kind) {
+            String path = "";
+
+            if (activity instanceof TextEditActivity)
+                path = ((TextEditActivity) activity).getPath().toString();
+            else if (activity instanceof TextSelectionActivity)
+                path = ((TextSelectionActivity) activity).getPath().toString();
+
+            return activity.getSource().getJID() + "|" + kind + "|" + path;
+        }
+
+        private static boolean isSameSelection(IActivity generated,
+            IActivity executed) {
+            TextSelectionActivity a = (TextSelectionActivity) generated;
+            TextSelectionActivity b = (TextSelectionActivity) executed;
+
+            return a.getOffset() == b.getOffset()
+                && a.getLength() == b.getLength();
+        }
+
+        private static String getKind(IActivity activity) {
+            if (activity instanceof TextEditActivity) {
+                TextEditActivity textEdit = (TextEditActivity) activity;
+
+                if (textEdit.getReplacedText().length() == 0
+                    && textEdit.getText().length() > 0)
+                    return INSERT;
+
+                return null;
+            }
+
+            if (activity instanceof TextSelectionActivity)
+                return SELECTION;
+
+            if (activity instanceof FileActivity)
+                return FILE;
+
+            return null;
+        }
+    }
+
+    private final Configuration configuration;
+
+    public SessionBenchmark(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    public Result run() throws Exception {
+        // the in-memory network does not need a local SOCKS5 proxy
+        SmackConfiguration.setLocalSocks5ProxyEnabled(false);
+
+        final Recorder recorder = new Recorder(configuration.participants);
+
+        InMemoryNetwork network = new InMemoryNetwork();
+
+        List<JID> jids = new ArrayList<JID>();
+
+        for (int i = 0; i < configuration.participants; i++)
+            jids.add(new JID("participant" + i + "@saros-benchmark/Saros"));
+
+        List<BenchmarkParticipant> participants = new ArrayList<BenchmarkParticipant>();
+
+        for (int i = 0; i < configuration.participants; i++)
+            participants.add(new BenchmarkParticipant(network, jids, i,
+                configuration.binary, recorder));
+
+        try {
+            for (BenchmarkParticipant participant : participants)
+                participant.start();
+
+            participants.get(0).connectToClients();
+
+            final CountDownLatch startSignal = new CountDownLatch(1);
+
+            List<Thread> generators = new ArrayList<Thread>();
+
+            for (final BenchmarkParticipant participant : participants) {
+                Thread generator = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startSignal.await();
+                            replayWorkload(participant);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, "Workload-" + participant.getIndex());
+
+                generators.add(generator);
+                generator.start();
+            }
+
+            long start = System.nanoTime();
+
+            startSignal.countDown();
+
+            for (Thread generator : generators)
+                generator.join();
+
+            if (!recorder.awaitDeliveries(configuration.timeout))
+                LOG.warn("not all activities were delivered within "
+                    + configuration.timeout + " ms");
+
+            boolean converged = awaitConvergence(participants);
+
+            return recorder.getResult(start, converged);
+        } finally {
+            for (BenchmarkParticipant participant : participants)
+                participant.stop();
+        }
+    }
+
+    private void replayWorkload(BenchmarkParticipant participant)
+        throws InterruptedException {
+
+        Random random = new Random(configuration.seed
+            + participant.getIndex());
+
+        byte[] content = new byte[configuration.fileSize];
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < configuration.operations; i++) {
+
+            if (configuration.rate > 0) {
+                long due = start + TimeUnit.SECONDS.toNanos(i)
+                    / configuration.rate;
+                long delay = due - System.nanoTime();
+
+                if (delay > 0)
+                    TimeUnit.NANOSECONDS.sleep(delay);
+            }
+
+            double operation = random.nextDouble();
+
+            SPath path = participant.getPath("document"
+                + random.nextInt(configuration.documents) + ".txt");
+
+            if (operation < configuration.fileRatio) {
+                random.nextBytes(content);
+                participant.createFile(
+                    participant.getPath("file" + participant.getIndex() + "-"
+                        + i + ".bin"), content.clone());
+            } else if (operation >= configuration.fileRatio
+                + configuration.selectionRatio
+                || !participant.select(path, random)) {
+                // type instead if no new selection exists yet
+                participant.type(path, random,
+                    random.nextDouble() < configuration.deleteRatio);
+            }
+        }
+    }
+
+    /**
+     * Waits until all participants have the same content in every document.
+     * Deletions are not tracked, so they may still be in transit after all
+     * measured activities were executed.
+     */
+    private boolean awaitConvergence(List<BenchmarkParticipant> participants)
+        throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (true) {
+            if (isConverged(participants))
+                return true;
+
+            if (System.currentTimeMillis() > deadline)
+                return false;
+
+            Thread.sleep(100);
+        }
+    }
+
+    private boolean isConverged(List<BenchmarkParticipant> participants) {
+        for (int i = 0; i < configuration.documents; i++) {
+            String name = "document" + i + ".txt";
+            String expected = null;
+
+            for (BenchmarkParticipant participant : participants) {
+                String content = participant.getContent(participant
+                    .getPath(name));
+
+                if (expected == null)
+                    expected = content;
+                else if (!expected.equals(content))
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        List<Integer> participantCounts = new ArrayList<Integer>();
+
+        for (String arg : args)
+            participantCounts.add(Integer.valueOf(arg));
+
+        if (participantCounts.isEmpty())
+            participantCounts.addAll(Arrays.asList(2, 5, 10, 20));
+
+        for (int participants : participantCounts) {
+            Configuration configuration = new Configuration();
+            configuration.participants = participants;
+            configuration.operations = Integer.getInteger(
+                "de.fu_berlin.inf.dpp.benchmark.OPERATIONS",
+                configuration.operations);
+            configuration.rate = Integer.getInteger(
+                "de.fu_berlin.inf.dpp.benchmark.RATE", configuration.rate);
+
+            System.out.println(new SessionBenchmark(configuration).run());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package de.fu_berlin.inf.dpp.test.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SessionBenchmarkTest {
+
+    private SessionBenchmark.Result run(int participants) throws Exception {
+        SessionBenchmark.Configuration configuration = new SessionBenchmark.Configuration();
+
+        configuration.participants = participants;
+        configuration.operations = 100;
+        configuration.timeout = 30000;
+
+        return new SessionBenchmark(configuration).run();
+    }
+
+    private void assertComplete(SessionBenchmark.Result result) {
+        assertEquals("not all activities were executed", result.getExpected(),
+            result.getDelivered());
+        assertEquals("executed activities that were never generated", 0,
+            result.getUnmatched());
+        assertTrue("documents did not converge", result.isConverged());
+    }
+
+    @Test
+    public void testTwoParticipants() throws Exception {
+        assertComplete(run(2));
+    }
+
+    @Test
+    public void testThreeParticipants() throws Exception {
+        assertComplete(run(3));
+    }
+}
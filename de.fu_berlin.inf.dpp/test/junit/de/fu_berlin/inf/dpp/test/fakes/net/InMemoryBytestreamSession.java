@@ -0,0 +1,50 @@
+package de.fu_berlin.inf.dpp.test.fakes.net;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jivesoftware.smackx.bytestreams.BytestreamSession;
+
+class InMemoryBytestreamSession implements BytestreamSession {
+
+    private final InMemoryPipe in;
+
+    private final InMemoryPipe out;
+
+    private volatile int readTimeout;
+
+    InMemoryBytestreamSession(InMemoryPipe in, InMemoryPipe out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        out.close();
+        in.close();
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * The timeout is only stored, reads always block until data is available
+     * or the pipe is closed.
+     */
+    @Override
+    public void setReadTimeout(int timeout) {
+        readTimeout = timeout;
+    }
+}
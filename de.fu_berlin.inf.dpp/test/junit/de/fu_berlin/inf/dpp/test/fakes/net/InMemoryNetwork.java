@@ -0,0 +1,41 @@
+package de.fu_berlin.inf.dpp.test.fakes.net;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.internal.ITransport;
+
+/**
+ * A network that connects {@link ITransport transports} inside the same JVM.
+ * The connections are real
+ * {@link de.fu_berlin.inf.dpp.net.internal.BinaryChannelConnection
+ * BinaryChannelConnections} that exchange their data over in-memory pipes, so
+ * the complete stack starting from the
+ * {@link de.fu_berlin.inf.dpp.net.internal.DataTransferManager} is used
+ * without the need of a XMPP server or sockets.
+ */
+public class InMemoryNetwork {
+
+    private final ConcurrentMap<JID, InMemoryTransport> transports = new ConcurrentHashMap<JID, InMemoryTransport>();
+
+    /**
+     * Creates a new transport for this network. The transport is reachable by
+     * others as soon as it is initialized with a connection.
+     */
+    public ITransport createTransport() {
+        return new InMemoryTransport(this);
+    }
+
+    void register(JID jid, InMemoryTransport transport) {
+        transports.put(jid, transport);
+    }
+
+    void unregister(JID jid, InMemoryTransport transport) {
+        transports.remove(jid, transport);
+    }
+
+    InMemoryTransport getTransport(JID jid) {
+        return transports.get(jid);
+    }
+}
@@ -0,0 +1,145 @@
+package de.fu_berlin.inf.dpp.test.fakes.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded pipe that can be used by any number of threads. Unlike
+ * {@link java.io.PipedInputStream} it does not care whether the writing thread
+ * is still alive. Once the pipe is closed the remaining data can still be read
+ * before the end of the stream is reported.
+ */
+class InMemoryPipe {
+
+    private final byte[] buffer;
+
+    private int readPosition;
+
+    private int count;
+
+    private boolean closed;
+
+    private final InputStream inputStream = new InputStream() {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return InMemoryPipe.this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return InMemoryPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return InMemoryPipe.this.available();
+        }
+
+        @Override
+        public void close() {
+            InMemoryPipe.this.close();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+
+        @Override
+        public void write(int b) throws IOException {
+            InMemoryPipe.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            InMemoryPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            InMemoryPipe.this.close();
+        }
+    };
+
+    InMemoryPipe(int size) {
+        buffer = new byte[size];
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized int available() {
+        return count;
+    }
+
+    private synchronized int read(byte[] b, int off, int len)
+        throws IOException {
+
+        if (len == 0)
+            return 0;
+
+        while (count == 0 && !closed)
+            await();
+
+        if (count == 0)
+            return -1;
+
+        int read = Math.min(len, count);
+
+        int first = Math.min(read, buffer.length - readPosition);
+        System.arraycopy(buffer, readPosition, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, read - first);
+
+        readPosition = (readPosition + read) % buffer.length;
+        count -= read;
+
+        notifyAll();
+        return read;
+    }
+
+    private synchronized void write(byte[] b, int off, int len)
+        throws IOException {
+
+        while (len > 0) {
+            while (count == buffer.length && !closed)
+                await();
+
+            if (closed)
+                throw new IOException("pipe is closed");
+
+            int writePosition = (readPosition + count) % buffer.length;
+            int written = Math.min(len, buffer.length - count);
+
+            int first = Math.min(written, buffer.length - writePosition);
+            System.arraycopy(b, off, buffer, writePosition, first);
+            System.arraycopy(b, off + first, buffer, 0, written - first);
+
+            count += written;
+            off += written;
+            len -= written;
+
+            notifyAll();
+        }
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.fu_berlin.inf.dpp.test.fakes.net;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.Connection;
+
+import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.NetTransferMode;
+import de.fu_berlin.inf.dpp.net.internal.BinaryChannelConnection;
+import de.fu_berlin.inf.dpp.net.internal.IByteStreamConnection;
+import de.fu_berlin.inf.dpp.net.internal.IByteStreamConnectionListener;
+import de.fu_berlin.inf.dpp.net.internal.ITransport;
+
+class InMemoryTransport implements ITransport {
+
+    /**
+     * Size of the buffer of each direction of a connection, large enough to
+     * hold a few chunks of a binary channel
+     */
+    private static final int PIPE_SIZE = 256 * 1024;
+
+    private final InMemoryNetwork network;
+
+    private volatile JID localJID;
+
+    private volatile IByteStreamConnectionListener listener;
+
+    InMemoryTransport(InMemoryNetwork network) {
+        this.network = network;
+    }
+
+    @Override
+    public IByteStreamConnection connect(String connectionID, JID peer)
+        throws IOException {
+
+        JID local = localJID;
+        IByteStreamConnectionListener localListener = listener;
+
+        if (local == null || localListener == null)
+            throw new IOException("transport is not initialized");
+
+        InMemoryTransport remote = network.getTransport(peer);
+
+        IByteStreamConnectionListener remoteListener = remote == null ? null
+            : remote.listener;
+
+        if (remoteListener == null)
+            throw new IOException("peer " + peer + " is not reachable");
+
+        InMemoryPipe localToRemote = new InMemoryPipe(PIPE_SIZE);
+        InMemoryPipe remoteToLocal = new InMemoryPipe(PIPE_SIZE);
+
+        IByteStreamConnection remoteConnection = new BinaryChannelConnection(
+            local, connectionID, new InMemoryBytestreamSession(localToRemote,
+                remoteToLocal), NetTransferMode.SOCKS5_DIRECT, remoteListener);
+
+        remoteListener.connectionChanged(connectionID, local,
+            remoteConnection, true);
+
+        return new BinaryChannelConnection(peer, connectionID,
+            new InMemoryBytestreamSession(remoteToLocal, localToRemote),
+            NetTransferMode.SOCKS5_DIRECT, localListener);
+    }
+
+    @Override
+    public void initialize(Connection connection,
+        IByteStreamConnectionListener listener) {
+        this.localJID = new JID(connection.getUser());
+        this.listener = listener;
+        network.register(localJID, this);
+    }
+
+    @Override
+    public void uninitialize() {
+        JID jid = localJID;
+
+        if (jid != null)
+            network.unregister(jid, this);
+
+        listener = null;
+        localJID = null;
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryTransport";
+    }
+}
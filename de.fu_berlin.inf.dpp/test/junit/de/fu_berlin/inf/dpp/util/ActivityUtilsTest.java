@@ -184,6 +184,46 @@ public class ActivityUtilsTest {
         assertRange(23, 23, optimizedADOs, nopADO);
     }
 
+    @Test
+    public void testOptimizeKeepsSelectionsOfDifferentSources() {
+
+        SPathDataObject foofooSPDO = new SPathDataObject(fooProject, fooPath,
+            "");
+
+        TextSelectionActivityDataObject aliceTsChange0ADO = new TextSelectionActivityDataObject(
+            aliceJID, 0, 1, foofooSPDO);
+
+        TextSelectionActivityDataObject bobTsChange0ADO = new TextSelectionActivityDataObject(
+            bobJID, 0, 1, foofooSPDO);
+
+        TextSelectionActivityDataObject aliceTsChange1ADO = new TextSelectionActivityDataObject(
+            aliceJID, 1, 1, foofooSPDO);
+
+        ViewportActivityDataObject aliceVpChange0ADO = new ViewportActivityDataObject(
+            aliceJID, 0, 1, foofooSPDO);
+
+        ViewportActivityDataObject bobVpChange0ADO = new ViewportActivityDataObject(
+            bobJID, 0, 1, foofooSPDO);
+
+        List<IActivityDataObject> ados = new ArrayList<IActivityDataObject>();
+
+        ados.add(aliceTsChange0ADO);
+        ados.add(bobTsChange0ADO);
+        ados.add(aliceTsChange1ADO);
+        ados.add(bobVpChange0ADO);
+        ados.add(aliceVpChange0ADO);
+
+        List<IActivityDataObject> optimizedADOs = ActivityUtils.optimize(ados);
+
+        assertEquals("ADOs of different sources must not be dropped", 4,
+            optimizedADOs.size());
+
+        assertSame(bobTsChange0ADO, optimizedADOs.get(0));
+        assertSame(aliceTsChange1ADO, optimizedADOs.get(1));
+        assertSame(bobVpChange0ADO, optimizedADOs.get(2));
+        assertSame(aliceVpChange0ADO, optimizedADOs.get(3));
+    }
+
     private void assertRange(int l, int h, List<IActivityDataObject> ados,
         IActivityDataObject ado) {
         for (int i = l; i <= h; i++)
@@ -0,0 +1,107 @@
+package de.fu_berlin.inf.dpp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlockDeltaTest {
+
+    private final Random random = new Random(4711);
+
+    private byte[] randomContent(int length) {
+        byte[] content = new byte[length];
+        random.nextBytes(content);
+        return content;
+    }
+
+    private byte[] roundtrip(byte[] base, byte[] content) throws IOException {
+        byte[] delta = BlockDelta.createDelta(BlockDelta.createSignature(base),
+            content);
+
+        assertArrayEquals(content, BlockDelta.applyDelta(base, delta));
+
+        return delta;
+    }
+
+    @Test
+    public void testIdenticalContent() throws IOException {
+        byte[] content = randomContent(100000);
+
+        byte[] delta = roundtrip(content, content);
+
+        assertTrue("delta too large: " + delta.length, delta.length < 64);
+    }
+
+    @Test
+    public void testSmallModification() throws IOException {
+        byte[] base = randomContent(1024 * 1024);
+        byte[] content = base.clone();
+
+        for (int i = 0; i < 10; i++)
+            content[500000 + i] ^= 0x55;
+
+        byte[] delta = roundtrip(base, content);
+
+        assertTrue("delta too large: " + delta.length, delta.length < 4096);
+    }
+
+    @Test
+    public void testInsertionAndDeletion() throws IOException {
+        byte[] base = randomContent(200000);
+        byte[] content = new byte[base.length + 7 - 1000];
+
+        // insert 7 bytes at 1000, delete 1000 bytes at 150000
+        System.arraycopy(base, 0, content, 0, 1000);
+        System.arraycopy(randomContent(7), 0, content, 1000, 7);
+        System.arraycopy(base, 1000, content, 1007, 149000);
+        System.arraycopy(base, 151000, content, 150007, base.length - 151000);
+
+        byte[] delta = roundtrip(base, content);
+
+        assertTrue("delta too large: " + delta.length, delta.length < 4096);
+    }
+
+    @Test
+    public void testUnrelatedContent() throws IOException {
+        roundtrip(randomContent(50000), randomContent(30000));
+        roundtrip(randomContent(30000), randomContent(50000));
+    }
+
+    @Test
+    public void testEmptyContent() throws IOException {
+        roundtrip(new byte[0], randomContent(1000));
+        roundtrip(randomContent(1000), new byte[0]);
+        roundtrip(new byte[0], new byte[0]);
+    }
+
+    @Test
+    public void testTruncatedAndAppended() throws IOException {
+        byte[] base = randomContent(10000);
+
+        byte[] truncated = new byte[9000];
+        System.arraycopy(base, 0, truncated, 0, truncated.length);
+        roundtrip(base, truncated);
+
+        byte[] appended = new byte[12000];
+        System.arraycopy(base, 0, appended, 0, base.length);
+        roundtrip(base, appended);
+    }
+
+    @Test(expected = IOException.class)
+    public void testApplyToDifferentBase() throws IOException {
+        byte[] base = randomContent(20000);
+        byte[] content = base.clone();
+        content[100]++;
+
+        byte[] delta = BlockDelta.createDelta(BlockDelta.createSignature(base),
+            content);
+
+        base[10000]++;
+
+        BlockDelta.applyDelta(base, delta);
+    }
+}
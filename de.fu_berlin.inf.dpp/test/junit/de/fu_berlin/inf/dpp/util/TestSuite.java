@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ NamedThreadFactoryTest.class, PairTest.class,
-    ArrayUtilsTest.class, ActivityUtilsTest.class })
+    ArrayUtilsTest.class, ActivityUtilsTest.class, BlockDeltaTest.class,
+    TextDeltaTest.class })
 public class TestSuite {
     // the class remains completely empty,
     // being used only as a holder for the above annotations
@@ -0,0 +1,106 @@
+package de.fu_berlin.inf.dpp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TextDeltaTest {
+
+    private final Random random = new Random(4711);
+
+    private String randomText(int length) {
+        StringBuilder builder = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++)
+            builder.append((char) ('a' + random.nextInt(26)));
+
+        return builder.toString();
+    }
+
+    private TextDelta roundtrip(String base, String text) throws IOException {
+        TextDelta delta = TextDelta.decode(TextDelta.create(
+            TextDelta.createSignature(base), text).encode());
+
+        assertEquals(text, delta.apply(base));
+
+        return delta;
+    }
+
+    @Test
+    public void testIdenticalText() throws IOException {
+        String text = randomText(100000);
+
+        TextDelta delta = roundtrip(text, text);
+
+        assertEquals(0, delta.getReplacedLength());
+        assertEquals("", delta.getText());
+    }
+
+    @Test
+    public void testSmallModification() throws IOException {
+        String base = randomText(1000000);
+        String text = base.substring(0, 500000) + "modified"
+            + base.substring(500010);
+
+        TextDelta delta = roundtrip(base, text);
+
+        int blockSize = 1000000 / 1024 + 1;
+
+        assertTrue(delta.getOffset() <= 500000);
+        assertTrue(delta.getOffset() > 500000 - blockSize);
+        assertTrue("region too large: " + delta,
+            delta.getReplacedLength() < 2 * blockSize + 10);
+    }
+
+    @Test
+    public void testInsertionAtTheEnds() throws IOException {
+        String base = randomText(50000);
+
+        TextDelta delta = roundtrip(base, "prefix" + base);
+        assertEquals(0, delta.getOffset());
+        assertTrue(delta.getText().length() <= 256 + 6);
+
+        delta = roundtrip(base, base + "suffix");
+        assertTrue(delta.getOffset() >= 50000 - 256);
+        assertTrue(delta.getText().endsWith("suffix"));
+    }
+
+    @Test
+    public void testRepeatedText() throws IOException {
+        String block = randomText(300);
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+            builder.append(block);
+
+        String base = builder.toString();
+
+        roundtrip(base, base.substring(0, 15000) + base.substring(15300));
+        roundtrip(base, base + block);
+        roundtrip(base, block + base);
+    }
+
+    @Test
+    public void testEmptyTexts() throws IOException {
+        String text = randomText(5000);
+
+        roundtrip("", text);
+        roundtrip(text, "");
+        roundtrip("", "");
+    }
+
+    @Test(expected = IOException.class)
+    public void testDifferentBase() throws IOException {
+        String base = randomText(10000);
+        String text = base.substring(0, 5000) + "x" + base.substring(5000);
+
+        TextDelta delta = TextDelta.create(TextDelta.createSignature(base),
+            text);
+
+        delta.apply(randomText(10000));
+    }
+}
@@ -22,18 +22,27 @@
 package de.fu_berlin.inf.dpp.versioning;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
 import org.junit.Before;
 import org.junit.Test;
 
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
 import de.fu_berlin.inf.dpp.net.JID;
+import de.fu_berlin.inf.dpp.net.internal.DataTransferManager;
+import de.fu_berlin.inf.dpp.net.internal.extensions.VersionExchangeExtension;
 import de.fu_berlin.inf.dpp.test.fakes.net.FakeConnectionFactory;
 import de.fu_berlin.inf.dpp.test.fakes.net.FakeConnectionFactory.FakeConnectionFactoryResult;
 
@@ -48,6 +57,9 @@ public class VersionManagerTest {
     private VersionManager versionManagerRemote;
     private VersionManager versionManagerLocal;
 
+    private DataTransferManager aliceDataTransferManager;
+    private DataTransferManager bobDataTransferManager;
+
     private final JID aliceJID = new JID("alice@alice.com/Saros");
     private final JID bobJID = new JID("bob@bob.com/Saros");
 
@@ -61,15 +73,22 @@ public class VersionManagerTest {
 
         aliceTransmitter = result.getTransmitter(aliceJID);
         bobTransmitter = result.getTransmitter(bobJID);
+
+        aliceDataTransferManager = EasyMock
+            .createNiceMock(DataTransferManager.class);
+        bobDataTransferManager = EasyMock
+            .createNiceMock(DataTransferManager.class);
     }
 
     private void init(Version local, Version remote) {
 
+        EasyMock.replay(aliceDataTransferManager, bobDataTransferManager);
+
         versionManagerLocal = new VersionManager(local.toString(),
-            aliceReceiver, aliceTransmitter);
+            aliceReceiver, aliceTransmitter, aliceDataTransferManager);
 
         versionManagerRemote = new VersionManager(remote.toString(),
-            bobReceiver, bobTransmitter);
+            bobReceiver, bobTransmitter, bobDataTransferManager);
     }
 
     @Test
@@ -86,6 +105,187 @@ public class VersionManagerTest {
         assertEquals(Compatibility.OK, result.getCompatibility());
     }
 
+    @Test
+    public void testBinaryActivityCodecNegotiation() {
+
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        init(version, version);
+
+        assertFalse(versionManagerLocal.isBinaryActivityCodecSupported(bobJID));
+        assertFalse(versionManagerRemote
+            .isBinaryActivityCodecSupported(aliceJID));
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        assertTrue(versionManagerLocal.isBinaryActivityCodecSupported(bobJID));
+        assertTrue(versionManagerRemote
+            .isBinaryActivityCodecSupported(aliceJID));
+    }
+
+    @Test
+    public void testBinaryFileListCodecNegotiation() {
+
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        init(version, version);
+
+        assertFalse(versionManagerLocal.isBinaryFileListCodecSupported(bobJID));
+        assertFalse(versionManagerRemote
+            .isBinaryFileListCodecSupported(aliceJID));
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        assertTrue(versionManagerLocal.isBinaryFileListCodecSupported(bobJID));
+        assertTrue(versionManagerRemote
+            .isBinaryFileListCodecSupported(aliceJID));
+    }
+
+    @Test
+    public void testCompactTransferDescriptionNegotiation() {
+
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        aliceDataTransferManager.setCompactTransferDescriptionsSupported(
+            bobJID, true);
+        EasyMock.expectLastCall().once();
+
+        bobDataTransferManager.setCompactTransferDescriptionsSupported(
+            aliceJID, true);
+        EasyMock.expectLastCall().once();
+
+        init(version, version);
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        EasyMock.verify(aliceDataTransferManager, bobDataTransferManager);
+    }
+
+    @Test
+    public void testContextCompressionNegotiation() {
+
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        aliceDataTransferManager.setContextCompressionSupported(bobJID, true);
+        EasyMock.expectLastCall().once();
+
+        bobDataTransferManager.setContextCompressionSupported(aliceJID, true);
+        EasyMock.expectLastCall().once();
+
+        init(version, version);
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        EasyMock.verify(aliceDataTransferManager, bobDataTransferManager);
+    }
+
+    @Test
+    public void testTCPTransportNegotiation() {
+
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        EasyMock.expect(aliceDataTransferManager.isTCPTransportAvailable())
+            .andStubReturn(true);
+        EasyMock.expect(bobDataTransferManager.isTCPTransportAvailable())
+            .andStubReturn(true);
+
+        aliceDataTransferManager.setTCPTransportSupported(bobJID, true);
+        EasyMock.expectLastCall().once();
+
+        bobDataTransferManager.setTCPTransportSupported(aliceJID, true);
+        EasyMock.expectLastCall().once();
+
+        init(version, version);
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        EasyMock.verify(aliceDataTransferManager, bobDataTransferManager);
+    }
+
+    @Test
+    public void testTCPTransportIsNotUsedIfRemoteSideLacksIt() {
+
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        EasyMock.expect(aliceDataTransferManager.isTCPTransportAvailable())
+            .andStubReturn(true);
+        EasyMock.expect(bobDataTransferManager.isTCPTransportAvailable())
+            .andStubReturn(false);
+
+        aliceDataTransferManager.setTCPTransportSupported(bobJID, false);
+        EasyMock.expectLastCall().once();
+
+        bobDataTransferManager.setTCPTransportSupported(aliceJID, true);
+        EasyMock.expectLastCall().once();
+
+        init(version, version);
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        EasyMock.verify(aliceDataTransferManager, bobDataTransferManager);
+    }
+
+    @Test
+    public void testArchiveStreamNegotiation() {
+
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        init(version, version);
+
+        assertFalse(versionManagerLocal.isArchiveStreamSupported(bobJID));
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        assertTrue(versionManagerLocal.isArchiveStreamSupported(bobJID));
+        assertTrue(versionManagerRemote.isArchiveStreamSupported(aliceJID));
+    }
+
+    @Test
+    public void testArchiveStreamIsNotSupportedByOlderVersions()
+        throws Exception {
+
+        EasyMock.replay(aliceDataTransferManager);
+
+        versionManagerLocal = new VersionManager("1.1.1.r1", aliceReceiver,
+            aliceTransmitter, aliceDataTransferManager);
+
+        // an older version that does not announce the archive stream
+        bobReceiver.addPacketListener(new PacketListener() {
+            @Override
+            public void processPacket(Packet packet) {
+                VersionExchangeExtension request = VersionExchangeExtension.PROVIDER
+                    .getPayload(packet);
+
+                VersionExchangeExtension response = new VersionExchangeExtension();
+
+                response.set("version", "1.1.1.r1");
+                response.set("id", request.get("id"));
+                response.set("compatibility",
+                    String.valueOf(Compatibility.OK.getCode()));
+
+                IQ reply = VersionExchangeExtension.PROVIDER
+                    .createIQ(response);
+
+                reply.setType(IQ.Type.RESULT);
+                reply.setTo(packet.getFrom());
+
+                try {
+                    bobTransmitter.sendPacket(reply);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, VersionExchangeExtension.PROVIDER.getIQFilter());
+
+        VersionCompatibilityResult result = versionManagerLocal
+            .determineVersionCompatibility(bobJID);
+
+        assertEquals(Compatibility.OK, result.getCompatibility());
+
+        // the archive of project archives must be sent instead
+        assertFalse(versionManagerLocal.isArchiveStreamSupported(bobJID));
+    }
+
     @Test
     public void testlocalVersionsTooOld() {
 